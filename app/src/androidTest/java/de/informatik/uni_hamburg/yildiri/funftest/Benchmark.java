@@ -0,0 +1,153 @@
+package de.informatik.uni_hamburg.yildiri.funftest;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Minimal micro benchmark runner for the instrumentation tests, since JMH does not run on the device.
+ * An operation is run a number of times to warm up the JIT first, then the timed iterations are run while the allocations of the calling thread are counted.
+ * Notice that {@link Debug#getThreadAllocCount()} is only supported by Dalvik, so the allocations are reported as 0 on ART, see {@link #isAllocationCountingSupported()}.
+ */
+public class Benchmark {
+
+    /**
+     * Tag the results are logged with, to be filtered by e.g. <code>adb logcat -s Benchmark</code>
+     */
+    public static final String LOG_TAG = "Benchmark";
+
+    /**
+     * An operation to be benchmarked
+     */
+    public interface Operation {
+        /**
+         * Run the operation once
+         * @throws Exception if the operation fails, which fails the benchmark
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * The results of a benchmark
+     */
+    public static class Result {
+        /**
+         * Name of the benchmark
+         */
+        public final String name;
+        /**
+         * Number of timed iterations
+         */
+        public final int iterations;
+        /**
+         * Time in nanoseconds all timed iterations took
+         */
+        public final long elapsedNanos;
+        /**
+         * Bytes processed by each operation, 0 if the operation doesn't process a payload
+         */
+        public final long bytesPerOperation;
+        /**
+         * Number of objects allocated by the calling thread in all timed iterations
+         */
+        public final long allocationCount;
+        /**
+         * Bytes allocated by the calling thread in all timed iterations
+         */
+        public final long allocationBytes;
+
+        Result(String name, int iterations, long elapsedNanos, long bytesPerOperation, long allocationCount, long allocationBytes) {
+            this.name = name;
+            this.iterations = iterations;
+            this.elapsedNanos = elapsedNanos;
+            this.bytesPerOperation = bytesPerOperation;
+            this.allocationCount = allocationCount;
+            this.allocationBytes = allocationBytes;
+        }
+
+        /**
+         * Get the throughput in operations
+         * @return operations per second
+         */
+        public double getOperationsPerSecond() {
+            return iterations / (elapsedNanos / 1000000000.0);
+        }
+
+        /**
+         * Get the throughput in bytes
+         * @return bytes per second
+         */
+        public double getBytesPerSecond() {
+            return getOperationsPerSecond() * bytesPerOperation;
+        }
+
+        /**
+         * Get the number of objects allocated by each operation
+         * @return allocations per operation
+         */
+        public double getAllocationsPerOperation() {
+            return (double) allocationCount / iterations;
+        }
+
+        /**
+         * Get the bytes allocated by each operation
+         * @return allocated bytes per operation
+         */
+        public double getAllocatedBytesPerOperation() {
+            return (double) allocationBytes / iterations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ops/s, %.0f bytes/s, %.1f allocations/op, %.0f allocated bytes/op (%d iterations)", name, getOperationsPerSecond(), getBytesPerSecond(), getAllocationsPerOperation(), getAllocatedBytesPerOperation(), iterations);
+        }
+    }
+
+    /**
+     * Check whether the allocations of the calling thread are counted on this runtime, so that allocation counts can be compared
+     * @return whether a probe allocation has been counted
+     */
+    public static boolean isAllocationCountingSupported() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        Object[] probe;
+        try {
+            probe = new Object[]{new Object(), new Object()};
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return probe.length > 0 && Debug.getThreadAllocCount() > 0;
+    }
+
+    /**
+     * Run a benchmark and log its results
+     * @param name name of the benchmark
+     * @param warmupIterations number of untimed iterations to warm up the JIT
+     * @param iterations number of timed iterations
+     * @param bytesPerOperation bytes processed by each operation, 0 if the operation doesn't process a payload
+     * @param operation the operation to be benchmarked
+     * @return the results of the benchmark
+     * @throws Exception if the operation fails
+     */
+    public static Result run(String name, int warmupIterations, int iterations, long bytesPerOperation, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.run();
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long startNanoTime = System.nanoTime();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        long elapsedNanos = System.nanoTime() - startNanoTime;
+
+        Result result = new Result(name, iterations, elapsedNanos, bytesPerOperation, Debug.getThreadAllocCount(), Debug.getThreadAllocSize());
+        Log.i(LOG_TAG, result.toString());
+        return result;
+    }
+}
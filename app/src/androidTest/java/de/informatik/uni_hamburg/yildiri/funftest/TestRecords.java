@@ -0,0 +1,44 @@
+package de.informatik.uni_hamburg.yildiri.funftest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Hand-built measurement results shared by the tests and benchmarks
+ */
+public class TestRecords {
+
+    /**
+     * Interval in nanoseconds the throughput of the records is sampled with, like the one of the measurement tools
+     */
+    private static final long SAMPLE_INTERVAL_NANOS = 10L * 1000 * 1000;
+
+    /**
+     * Create the record of a download at a constant rate, sampled every 10 ms
+     * @param fileUrl URL of the downloaded file
+     * @param fileSize size of the downloaded file in bytes
+     * @param kbitPerSecond rate of the download in kbit/s
+     * @return the record
+     * @throws MalformedURLException if the URL is malformed
+     */
+    public static BandwidthResultRecord createDownloadRecord(String fileUrl, long fileSize, double kbitPerSecond) throws MalformedURLException {
+        BandwidthResultRecord bandwidthResultRecord = new BandwidthResultRecord();
+        bandwidthResultRecord.setFileURL(new URL(fileUrl));
+        bandwidthResultRecord.setFileSize(fileSize);
+        bandwidthResultRecord.configureBlocks(fileSize, BandwidthResultRecord.DEFAULT_BLOCK_COUNT);
+        long startNanoTime = 0;
+        bandwidthResultRecord.startThroughputTimeline(startNanoTime);
+        long bytesPerSample = (long) (kbitPerSecond * 1000 / 8 * SAMPLE_INTERVAL_NANOS / 1000000000.0);
+        long nanoTime = startNanoTime;
+        long bytes = 0;
+        while (bytes < fileSize) {
+            bytes = Math.min(fileSize, bytes + bytesPerSample);
+            nanoTime += SAMPLE_INTERVAL_NANOS;
+            bandwidthResultRecord.addThroughputSample(nanoTime, bytes);
+        }
+        bandwidthResultRecord.finishThroughputTimeline(nanoTime, fileSize);
+        return bandwidthResultRecord;
+    }
+}
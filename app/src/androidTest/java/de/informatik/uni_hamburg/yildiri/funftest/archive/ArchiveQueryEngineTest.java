@@ -0,0 +1,183 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthProbeKeys;
+
+/**
+ * Checks that the {@link ArchiveQueryEngine} skips the archive files that can't match a query by their sidecar indexes, streams the matching results out of the others, and maintains the indexes incrementally
+ */
+public class ArchiveQueryEngineTest extends AndroidTestCase {
+
+    private static final String DATA_NAME = "de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthProbe";
+
+    private File dir;
+    private File indexDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("archive_query", "");
+        dir.delete();
+        dir.mkdirs();
+        indexDir = new File(dir, "index");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+        super.tearDown();
+    }
+
+    public void testQueryByTimeWindowAndConnectionType() throws Exception {
+        File wifi = writeArchive("wifi" + ColumnarArchiveWriter.FILE_SUFFIX, 1000, ConnectivityManager.TYPE_WIFI, 10, 8000);
+        File mobile = writeArchive("mobile" + ColumnarArchiveWriter.FILE_SUFFIX, 2000, ConnectivityManager.TYPE_MOBILE, 10, 2000);
+        File[] archiveFiles = {wifi, mobile};
+        ArchiveQueryEngine engine = new ArchiveQueryEngine(indexDir, DATA_NAME);
+
+        List<File> sources = new ArrayList<File>();
+        assertEquals(10, engine.query(archiveFiles, new BandwidthQuery(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, ConnectivityManager.TYPE_MOBILE), collect(sources)));
+        assertEquals(10, sources.size());
+        for (File source : sources) {
+            assertEquals(mobile, source);
+        }
+
+        sources.clear();
+        assertEquals(3, engine.query(archiveFiles, new BandwidthQuery(1000 + 120 * 2, 1000 + 120 * 4, BandwidthQuery.ANY_CONNECTION_TYPE), collect(sources)));
+        assertEquals(wifi, sources.get(0));
+
+        BandwidthQuery slow = new BandwidthQuery(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, BandwidthQuery.ANY_CONNECTION_TYPE);
+        slow.setBandwidthRange(0, 3000);
+        assertEquals(10, engine.query(archiveFiles, slow, collect(new ArrayList<File>())));
+
+        assertEquals(0, engine.query(archiveFiles, new BandwidthQuery(5000, 6000, BandwidthQuery.ANY_CONNECTION_TYPE), collect(new ArrayList<File>())));
+        assertEquals(0, engine.query(archiveFiles, new BandwidthQuery(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, BandwidthQuery.UNKNOWN_CONNECTION_TYPE), collect(new ArrayList<File>())));
+    }
+
+    public void testIndexSkipsNonMatchingFiles() throws Exception {
+        File wifi = writeArchive("wifi" + ColumnarArchiveWriter.FILE_SUFFIX, 1000, ConnectivityManager.TYPE_WIFI, 5, 8000);
+        ArchiveQueryEngine engine = new ArchiveQueryEngine(indexDir, DATA_NAME);
+        assertEquals(1, engine.update(new File[]{wifi}));
+
+        ArchiveIndex index = engine.getIndex(wifi);
+        assertEquals(5, index.getEntryCount(DATA_NAME));
+        assertEquals(1000.0, index.getMinTimestamp());
+        assertEquals(1000.0 + 120 * 4, index.getMaxTimestamp());
+        assertTrue(index.getConnectionTypes().contains(ConnectivityManager.TYPE_WIFI));
+        assertFalse(index.mayMatch(new BandwidthQuery(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, ConnectivityManager.TYPE_MOBILE), DATA_NAME));
+        assertFalse(index.mayMatch(new BandwidthQuery(0, 999, BandwidthQuery.ANY_CONNECTION_TYPE), DATA_NAME));
+
+        // A skipped file is never opened: corrupt it while keeping its index current
+        long lastModified = wifi.lastModified();
+        byte[] garbage = new byte[(int) wifi.length()];
+        FileOutputStream out = new FileOutputStream(wifi);
+        out.write(garbage);
+        out.close();
+        wifi.setLastModified(lastModified);
+        File[] archiveFiles = {wifi};
+        assertEquals(0, engine.query(archiveFiles, new BandwidthQuery(0, 999, BandwidthQuery.ANY_CONNECTION_TYPE), collect(new ArrayList<File>())));
+        try {
+            engine.query(archiveFiles, new BandwidthQuery(1000, 2000, BandwidthQuery.ANY_CONNECTION_TYPE), collect(new ArrayList<File>()));
+            fail("the corrupted archive file has not been read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testIncrementalUpdate() throws Exception {
+        File first = writeArchive("first" + ColumnarArchiveWriter.FILE_SUFFIX, 1000, ConnectivityManager.TYPE_WIFI, 3, 8000);
+        ArchiveQueryEngine engine = new ArchiveQueryEngine(indexDir, DATA_NAME);
+        assertEquals(1, engine.update(new File[]{first}));
+        assertEquals(0, engine.update(new File[]{first}));
+
+        File second = writeArchive("second" + ColumnarArchiveWriter.FILE_SUFFIX, 2000, ConnectivityManager.TYPE_MOBILE, 3, 2000);
+        assertEquals(1, engine.update(new File[]{first, second}));
+        assertTrue(new File(indexDir, second.getName() + ArchiveQueryEngine.INDEX_SUFFIX).isFile());
+
+        // The index of a removed archive file is deleted
+        first.delete();
+        assertEquals(0, engine.update(new File[]{second}));
+        assertFalse(new File(indexDir, first.getName() + ArchiveQueryEngine.INDEX_SUFFIX).exists());
+    }
+
+    public void testListenerStopsQuery() throws Exception {
+        File wifi = writeArchive("wifi" + ColumnarArchiveWriter.FILE_SUFFIX, 1000, ConnectivityManager.TYPE_WIFI, 10, 8000);
+        ArchiveQueryEngine engine = new ArchiveQueryEngine(indexDir, DATA_NAME);
+        final int[] delivered = {0};
+        long matches = engine.query(new File[]{wifi}, new BandwidthQuery(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, BandwidthQuery.ANY_CONNECTION_TYPE), new BandwidthRowListener() {
+            @Override
+            public boolean onBandwidthRow(File archiveFile, double timestamp, JsonObject data) {
+                delivered[0]++;
+                return delivered[0] < 4;
+            }
+        });
+        assertEquals(4, matches);
+        assertEquals(4, delivered[0]);
+    }
+
+    /**
+     * Write a columnar archive of results taken every 120 seconds
+     *
+     * @param name           file name of the archive
+     * @param firstTimestamp timestamp of the first result in seconds
+     * @param connectionType connection type of the results
+     * @param count          number of results
+     * @param bandwidth      overall total bandwidth of the results in kbit/s
+     * @return the archive file
+     * @throws IOException if writing fails
+     */
+    private File writeArchive(String name, double firstTimestamp, int connectionType, int count, double bandwidth) throws IOException {
+        File file = new File(dir, name);
+        ColumnarArchiveWriter writer = new ColumnarArchiveWriter(new BufferedOutputStream(new FileOutputStream(file)));
+        for (int i = 0; i < count; i++) {
+            JsonObject data = new JsonObject();
+            data.addProperty(BandwidthProbeKeys.TIMESTAMP, firstTimestamp + 120 * i);
+            data.addProperty(BandwidthProbeKeys.BANDWIDTH_TOTAL, bandwidth);
+            data.addProperty(BandwidthProbeKeys.CONNECTION_TYPE, connectionType);
+            writer.write(data);
+        }
+        writer.close();
+        return file;
+    }
+
+    /**
+     * Create a listener that collects the archive files the results are read from
+     *
+     * @param sources list to add the archive file of every result to
+     * @return the listener
+     */
+    private static BandwidthRowListener collect(final List<File> sources) {
+        return new BandwidthRowListener() {
+            @Override
+            public boolean onBandwidthRow(File archiveFile, double timestamp, JsonObject data) {
+                sources.add(archiveFile);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Delete a file or a directory with all its content
+     *
+     * @param file the file or directory
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,125 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.informatik.uni_hamburg.yildiri.funftest.TestRecords;
+import de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthResultJsonEncoder;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Checks that the records written by the {@link ColumnarArchiveWriter} are streamed back out unchanged by the {@link ColumnarArchiveReader}, and that bandwidth results are stored far more compactly than as JSON text.
+ */
+public class ColumnarArchiveTest extends AndroidTestCase {
+
+    public void testBandwidthResultsRoundTrip() throws Exception {
+        Random random = new Random(42);
+        List<JsonObject> records = new ArrayList<JsonObject>();
+        long jsonBytes = 0;
+        double timestamp = 1428931234.123456;
+        for (int i = 0; i < 2500; i++) {
+            JsonObject record = BandwidthResultJsonEncoder.encode(TestRecords.createDownloadRecord("http://mirror.internode.on.net/pub/test/1meg.test", 1000 * 1000, 6000 + random.nextGaussian() * 500));
+            record.addProperty("timestamp", timestamp);
+            timestamp = Math.round((timestamp + 120 + random.nextInt(1000) / 1000.0) * 1000000) / 1000000.0;
+            records.add(record);
+            jsonBytes += record.toString().getBytes("UTF-8").length;
+        }
+
+        byte[] archive = writeArchive(records, 1000);
+
+        assertEquals(records, readArchive(archive));
+        Log.i(getClass().getSimpleName(), records.size() + " bandwidth results: " + jsonBytes + " bytes as JSON, " + archive.length + " bytes archived");
+        assertTrue("archive of " + archive.length + " bytes is not smaller than a tenth of the JSON text of " + jsonBytes + " bytes", archive.length * 10 < jsonBytes);
+    }
+
+    public void testSparseAndMixedColumns() throws Exception {
+        List<JsonObject> records = new ArrayList<JsonObject>();
+        JsonObject first = new JsonObject();
+        first.addProperty("count", 3);
+        first.addProperty("rate", 1.5);
+        first.addProperty("flag", true);
+        first.addProperty("label", "wifi");
+        JsonArray array = new JsonArray();
+        array.add(new JsonPrimitive(1.25));
+        array.add(new JsonPrimitive(2.5));
+        first.add("array", array);
+        records.add(first);
+
+        JsonObject second = new JsonObject();
+        second.addProperty("rate", -0.0);
+        second.addProperty("label", "mobile");
+        second.add("missing", JsonNull.INSTANCE);
+        records.add(second);
+
+        JsonObject third = new JsonObject();
+        third.addProperty("count", "three");
+        third.addProperty("rate", Math.PI);
+        third.addProperty("flag", false);
+        third.addProperty("big", 123456789012345678L);
+        records.add(third);
+
+        records.add(new JsonObject());
+
+        assertEquals(records, readArchive(writeArchive(records, 3)));
+    }
+
+    public void testEmptyArchive() throws Exception {
+        assertTrue(readArchive(writeArchive(new ArrayList<JsonObject>(), 10)).isEmpty());
+    }
+
+    public void testRejectsForeignFile() throws Exception {
+        try {
+            new ColumnarArchiveReader(new ByteArrayInputStream("SQLite format 3".getBytes("US-ASCII")));
+            fail("a foreign file has been accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Write the records to an archive in memory
+     * @param records the records
+     * @param blockRecords number of records per block
+     * @return the archive
+     * @throws IOException if writing fails
+     */
+    private static byte[] writeArchive(List<JsonObject> records, int blockRecords) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarArchiveWriter writer = new ColumnarArchiveWriter(out, blockRecords);
+        for (JsonObject record : records) {
+            writer.write(record);
+        }
+        writer.close();
+        assertEquals(records.size(), writer.getRecordCount());
+        return out.toByteArray();
+    }
+
+    /**
+     * Read all records of an archive in memory
+     * @param archive the archive
+     * @return the records
+     * @throws IOException if reading fails
+     */
+    private static List<JsonObject> readArchive(byte[] archive) throws IOException {
+        ColumnarArchiveReader reader = new ColumnarArchiveReader(new ByteArrayInputStream(archive));
+        List<JsonObject> records = new ArrayList<JsonObject>();
+        JsonObject record;
+        while ((record = reader.read()) != null) {
+            records.add(record);
+        }
+        reader.close();
+        return records;
+    }
+}
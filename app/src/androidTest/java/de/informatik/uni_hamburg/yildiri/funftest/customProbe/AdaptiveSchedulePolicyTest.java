@@ -0,0 +1,132 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the {@link AdaptiveSchedulePolicy} backs off while the conditions are stable, starts over after connectivity changes and respects the minimum intervals of metered connections and low batteries
+ */
+public class AdaptiveSchedulePolicyTest extends AndroidTestCase {
+
+    private static final long TICK_MILLIS = AdaptiveSchedulePolicy.BASE_INTERVAL_SEC * 1000;
+
+    public void testBacksOffWhileStable() {
+        AdaptiveSchedulePolicy policy = new AdaptiveSchedulePolicy(null);
+        long now = 1000000;
+        assertTrue(policy.decide(now, ConnectivityManager.TYPE_WIFI).isRun());
+
+        // Runs measure after 1, 2, 4, ... ticks
+        long lastRun = now;
+        long expectedIntervalSec = AdaptiveSchedulePolicy.BASE_INTERVAL_SEC;
+        for (int measurements = 0; measurements < 5; ) {
+            now += TICK_MILLIS;
+            ScheduleDecision decision = policy.decide(now, ConnectivityManager.TYPE_WIFI);
+            assertEquals(AdaptiveSchedulePolicy.REASON_STABLE, decision.getReason());
+            if (decision.isRun()) {
+                assertEquals(expectedIntervalSec * 1000, now - lastRun);
+                lastRun = now;
+                expectedIntervalSec *= 2;
+                measurements++;
+            }
+        }
+        assertEquals(AdaptiveSchedulePolicy.BASE_INTERVAL_SEC * 32, policy.getEffectiveInterval(ConnectivityManager.TYPE_WIFI));
+    }
+
+    public void testBackoffIsCapped() {
+        AdaptiveSchedulePolicy policy = new AdaptiveSchedulePolicy(null);
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            now += TICK_MILLIS;
+            policy.decide(now, ConnectivityManager.TYPE_WIFI);
+        }
+        assertEquals(AdaptiveSchedulePolicy.MAX_INTERVAL_SEC, policy.getEffectiveInterval(ConnectivityManager.TYPE_WIFI));
+    }
+
+    public void testConnectivityChangeTightensInterval() {
+        AdaptiveSchedulePolicy policy = new AdaptiveSchedulePolicy(null);
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            now += TICK_MILLIS;
+            policy.decide(now, ConnectivityManager.TYPE_WIFI);
+        }
+        now += TICK_MILLIS;
+        ScheduleDecision lost = policy.decide(now, BandwidthProbe.NO_CONNECTION);
+        assertFalse(lost.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_NO_CONNECTION, lost.getReason());
+
+        // Coming back with the same type is no change, the backoff goes on
+        now += TICK_MILLIS;
+        ScheduleDecision back = policy.decide(now, ConnectivityManager.TYPE_WIFI);
+        assertEquals(AdaptiveSchedulePolicy.REASON_STABLE, back.getReason());
+        assertEquals(AdaptiveSchedulePolicy.MAX_INTERVAL_SEC, back.getIntervalSec());
+
+        now += TICK_MILLIS;
+        ScheduleDecision changed = policy.decide(now, ConnectivityManager.TYPE_ETHERNET);
+        assertTrue(changed.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_CONNECTIVITY_CHANGED, changed.getReason());
+        assertEquals(AdaptiveSchedulePolicy.BASE_INTERVAL_SEC, changed.getIntervalSec());
+
+        now += TICK_MILLIS;
+        assertTrue(policy.decide(now, ConnectivityManager.TYPE_ETHERNET).isRun());
+    }
+
+    public void testFlappingLinkKeepsMinimums() {
+        AdaptiveSchedulePolicy policy = new AdaptiveSchedulePolicy(null);
+        long now = 1000000;
+        assertTrue(policy.decide(now, ConnectivityManager.TYPE_WIFI).isRun());
+
+        // Changing to a metered connection measures only once its minimum has passed since the last measurement
+        now += TICK_MILLIS;
+        ScheduleDecision metered = policy.decide(now, ConnectivityManager.TYPE_MOBILE);
+        assertFalse(metered.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_METERED, metered.getReason());
+        now += TICK_MILLIS;
+        assertFalse(policy.decide(now, BandwidthProbe.NO_CONNECTION).isRun());
+        now += TICK_MILLIS;
+        assertFalse(policy.decide(now, ConnectivityManager.TYPE_MOBILE).isRun());
+
+        long lastRun = now - 3 * TICK_MILLIS;
+        now = lastRun + AdaptiveSchedulePolicy.METERED_MIN_INTERVAL_SEC * 1000;
+        assertTrue(policy.decide(now, ConnectivityManager.TYPE_MOBILE).isRun());
+
+        // On a low battery even a change to an unmetered connection waits for the minimum
+        policy.onBatteryReading(0.1, false);
+        now += TICK_MILLIS;
+        ScheduleDecision lowBattery = policy.decide(now, ConnectivityManager.TYPE_WIFI);
+        assertFalse(lowBattery.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_LOW_BATTERY, lowBattery.getReason());
+    }
+
+    public void testMeteredAndLowBatteryMinimums() {
+        AdaptiveSchedulePolicy policy = new AdaptiveSchedulePolicy(null);
+        long now = 1000000;
+        assertTrue(policy.decide(now, ConnectivityManager.TYPE_MOBILE).isRun());
+        now += TICK_MILLIS;
+        ScheduleDecision metered = policy.decide(now, ConnectivityManager.TYPE_MOBILE);
+        assertFalse(metered.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_METERED, metered.getReason());
+        assertEquals(AdaptiveSchedulePolicy.METERED_MIN_INTERVAL_SEC, metered.getIntervalSec());
+
+        policy.onBatteryReading(0.1, false);
+        ScheduleDecision lowBattery = policy.decide(now + TICK_MILLIS, ConnectivityManager.TYPE_MOBILE);
+        assertFalse(lowBattery.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_LOW_BATTERY, lowBattery.getReason());
+        assertEquals(AdaptiveSchedulePolicy.LOW_BATTERY_MIN_INTERVAL_SEC, lowBattery.getIntervalSec());
+
+        // Charging lifts the minimum of the low battery again
+        policy.onBatteryReading(0.1, true);
+        assertEquals(AdaptiveSchedulePolicy.METERED_MIN_INTERVAL_SEC, policy.getEffectiveInterval(ConnectivityManager.TYPE_MOBILE));
+    }
+
+    public void testManualRunAndHistory() {
+        AdaptiveSchedulePolicy policy = new AdaptiveSchedulePolicy(null);
+        policy.decide(0, ConnectivityManager.TYPE_MOBILE);
+        policy.requestManualRun();
+        ScheduleDecision manual = policy.decide(1000, ConnectivityManager.TYPE_MOBILE);
+        assertTrue(manual.isRun());
+        assertEquals(AdaptiveSchedulePolicy.REASON_MANUAL, manual.getReason());
+        assertFalse(policy.decide(2000, ConnectivityManager.TYPE_MOBILE).isRun());
+        assertEquals(3, policy.getRecentDecisions().size());
+        assertSame(manual, policy.getRecentDecisions().get(1));
+    }
+}
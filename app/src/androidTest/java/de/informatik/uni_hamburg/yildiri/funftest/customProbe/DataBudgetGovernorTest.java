@@ -0,0 +1,52 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the {@link DataBudgetGovernor} accounts the spent bytes per connection type and day, and steps down from full to reduced to passive measurements as the budget runs out
+ */
+public class DataBudgetGovernorTest extends AndroidTestCase {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long BUDGET_BYTES = 10L * 1000 * 1000;
+
+    public void testModesFollowRemainingBudget() {
+        DataBudgetGovernor governor = new DataBudgetGovernor(null);
+        governor.setDailyBudgets(BUDGET_BYTES, 0);
+        long now = 1000L * DAY_MILLIS;
+        assertEquals(DataBudgetGovernor.MODE_FULL, governor.getStatus(now, ConnectivityManager.TYPE_MOBILE).getMode());
+
+        DataBudgetStatus status = governor.recordBytes(now, ConnectivityManager.TYPE_MOBILE, 7 * 1000 * 1000);
+        assertEquals(DataBudgetGovernor.MODE_FULL, status.getMode());
+        assertEquals(3 * 1000 * 1000, status.getRemainingBytes());
+
+        status = governor.recordBytes(now, ConnectivityManager.TYPE_MOBILE, 1000 * 1000);
+        assertEquals(DataBudgetGovernor.MODE_REDUCED, status.getMode());
+
+        status = governor.recordBytes(now, ConnectivityManager.TYPE_MOBILE, 2 * 1000 * 1000 - DataBudgetGovernor.REDUCED_TEST_BYTES + 1);
+        assertEquals(DataBudgetGovernor.MODE_PASSIVE, status.getMode());
+        assertEquals(DataBudgetGovernor.MODE_PASSIVE, governor.getStatus(now, ConnectivityManager.TYPE_MOBILE).getMode());
+    }
+
+    public void testAccountsPerConnectionTypeAndDay() {
+        DataBudgetGovernor governor = new DataBudgetGovernor(null);
+        governor.setDailyBudgets(BUDGET_BYTES, 0);
+        long now = 1000L * DAY_MILLIS;
+        governor.recordBytes(now, ConnectivityManager.TYPE_MOBILE, BUDGET_BYTES);
+        governor.recordBytes(now, ConnectivityManager.TYPE_WIFI, 5 * BUDGET_BYTES);
+
+        // Unmetered connections have no limit here and are accounted separately
+        DataBudgetStatus wifi = governor.getStatus(now, ConnectivityManager.TYPE_WIFI);
+        assertEquals(DataBudgetGovernor.MODE_FULL, wifi.getMode());
+        assertEquals(5 * BUDGET_BYTES, wifi.getSpentBytes());
+        assertEquals(Long.MAX_VALUE, wifi.getRemainingBytes());
+        assertEquals(DataBudgetGovernor.MODE_PASSIVE, governor.getStatus(now, ConnectivityManager.TYPE_MOBILE).getMode());
+
+        // The budget starts over on the next day
+        DataBudgetStatus nextDay = governor.getStatus(now + DAY_MILLIS, ConnectivityManager.TYPE_MOBILE);
+        assertEquals(0, nextDay.getSpentBytes());
+        assertEquals(DataBudgetGovernor.MODE_FULL, nextDay.getMode());
+        assertEquals(1000, governor.recordBytes(now + DAY_MILLIS, ConnectivityManager.TYPE_MOBILE, 1000).getSpentBytes());
+    }
+}
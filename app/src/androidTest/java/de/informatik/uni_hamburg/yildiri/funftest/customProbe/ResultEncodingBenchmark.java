@@ -0,0 +1,126 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import de.informatik.uni_hamburg.yildiri.funftest.Benchmark;
+import de.informatik.uni_hamburg.yildiri.funftest.TestRecords;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import edu.mit.media.funf.json.BundleTypeAdapter;
+
+/**
+ * Benchmarks of the serialization path of a measurement result, comparing the direct encoding by {@link BandwidthResultJsonEncoder} with the former path of packing the record into a data bundle and converting the bundle to JSON.
+ * The conversion uses a Gson with the {@link BundleTypeAdapter} of funf, like the one returned by getGson() of the probe.
+ * The results are logged with the tag {@link Benchmark#LOG_TAG}, along with how much faster the direct encoding is. Where the runtime counts allocations, the direct encoding has to allocate fewer objects than the data bundle path.
+ */
+public class ResultEncodingBenchmark extends AndroidTestCase {
+
+    /**
+     * Record with the results of a typical measurement
+     */
+    private BandwidthResultRecord bandwidthResultRecord;
+    /**
+     * Gson converting data bundles like the one of the probe
+     */
+    private Gson gson;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A typical 2 MB download at 8000 kbit/s
+        bandwidthResultRecord = TestRecords.createDownloadRecord("http://127.0.0.1/testfile", 2 * 1000 * 1000, 8000);
+        gson = new GsonBuilder().registerTypeAdapterFactory(BundleTypeAdapter.FACTORY).create();
+    }
+
+    public void testEncodingMatchesDataBundle() throws Exception {
+        assertEquals(gson.toJsonTree(packDataBundle(bandwidthResultRecord)).getAsJsonObject(), BandwidthResultJsonEncoder.encode(bandwidthResultRecord));
+
+        bandwidthResultRecord.setAborted(BandwidthResultRecord.ABORT_REASON_STALLED);
+        bandwidthResultRecord.setStreamBandwidthMeasures(new double[]{2000, 3000, 3000});
+        assertEquals(gson.toJsonTree(packDataBundle(bandwidthResultRecord)).getAsJsonObject(), BandwidthResultJsonEncoder.encode(bandwidthResultRecord));
+
+        bandwidthResultRecord.setTrainCapacities(new double[]{7500, 8000, 8200});
+        assertEquals(gson.toJsonTree(packDataBundle(bandwidthResultRecord)).getAsJsonObject(), BandwidthResultJsonEncoder.encode(bandwidthResultRecord));
+    }
+
+    public void testDataBundleToJsonTree() throws Exception {
+        Benchmark.Result bundleResult = Benchmark.run("packDataBundle + Gson.toJsonTree", 1000, 10000, 0, new Benchmark.Operation() {
+            @Override
+            public void run() {
+                gson.toJsonTree(packDataBundle(bandwidthResultRecord)).getAsJsonObject();
+            }
+        });
+        Benchmark.Result encoderResult = Benchmark.run("BandwidthResultJsonEncoder.encode", 1000, 10000, 0, new Benchmark.Operation() {
+            @Override
+            public void run() {
+                BandwidthResultJsonEncoder.encode(bandwidthResultRecord);
+            }
+        });
+        // Wall clock times vary with GC, throttling and emulators, so the comparison is reported rather than asserted
+        Log.i(Benchmark.LOG_TAG, String.format("Direct encoding is %.2f times as fast as the data bundle path", (double) bundleResult.elapsedNanos / encoderResult.elapsedNanos));
+        // The allocations are deterministic, so the savings are asserted wherever they are counted
+        if (Benchmark.isAllocationCountingSupported()) {
+            assertTrue("direct encoding allocates " + encoderResult.getAllocationsPerOperation() + " objects per result, the data bundle path " + bundleResult.getAllocationsPerOperation(),
+                    encoderResult.allocationCount < bundleResult.allocationCount);
+        } else {
+            Log.i(Benchmark.LOG_TAG, "Allocations are not counted on this runtime, the allocation savings of the direct encoding can't be checked");
+        }
+    }
+
+    /**
+     * Pack the results into a data bundle, like the probe did before the results were encoded directly. Kept as the reference of the benchmark and the format check.
+     *
+     * @param bandwidthResultRecord the bandwidth measurement results
+     * @return data bundle containing all the bandwidth measurement results
+     */
+    private static Bundle packDataBundle(BandwidthResultRecord bandwidthResultRecord) {
+        Bundle data = new Bundle();
+        data.putString(BandwidthProbeKeys.DIRECTION, bandwidthResultRecord.getDirection());
+        data.putString(BandwidthProbeKeys.URL, bandwidthResultRecord.getFileURL().toString());
+        data.putLong(BandwidthProbeKeys.FILE_SIZE, bandwidthResultRecord.getFileSize());
+        data.putInt(BandwidthProbeKeys.BLOCK_COUNT, bandwidthResultRecord.getBlockCount());
+        data.putInt(BandwidthProbeKeys.BLOCK_SIZE, bandwidthResultRecord.getBlockSizeInBytes());
+        for (int i = 0; i < bandwidthResultRecord.getBlockCount(); i++) {
+            data.putDouble(BandwidthProbe.getBlockKey(bandwidthResultRecord.getBlockEndBytes(i)), bandwidthResultRecord.getBandwidthMeasure(i));
+        }
+        data.putDouble(BandwidthProbeKeys.BANDWIDTH_TOTAL, bandwidthResultRecord.getOverallTotalBandwidthMeasure());
+        data.putLong(BandwidthProbeKeys.TRANSFER_DURATION_NS, bandwidthResultRecord.getTransferDurationNanos());
+        data.putLong(BandwidthProbeKeys.BYTES_TRANSFERRED, bandwidthResultRecord.getBytesTransferred());
+        data.putLong(BandwidthProbeKeys.BYTES_SPENT, bandwidthResultRecord.getBytesSpent());
+        data.putBoolean(BandwidthProbeKeys.ENDED_EARLY, bandwidthResultRecord.hasEndedEarly());
+        data.putDouble(BandwidthProbeKeys.CONVERGED_BANDWIDTH, bandwidthResultRecord.getConvergedBandwidth());
+        data.putLong(BandwidthProbeKeys.DNS_NS, bandwidthResultRecord.getDnsNanos());
+        data.putBoolean(BandwidthProbeKeys.DNS_CACHED, bandwidthResultRecord.isDnsCached());
+        data.putLong(BandwidthProbeKeys.TCP_CONNECT_NS, bandwidthResultRecord.getTcpConnectNanos());
+        data.putLong(BandwidthProbeKeys.TLS_HANDSHAKE_NS, bandwidthResultRecord.getTlsHandshakeNanos());
+        data.putLong(BandwidthProbeKeys.TTFB_NS, bandwidthResultRecord.getTimeToFirstByteNanos());
+        data.putDouble(BandwidthProbeKeys.BANDWIDTH_MIN_500MS, bandwidthResultRecord.getMinThroughput(BandwidthResultJsonEncoder.THROUGHPUT_WINDOW_NANOS));
+        data.putDouble(BandwidthProbeKeys.BANDWIDTH_MAX_500MS, bandwidthResultRecord.getMaxThroughput(BandwidthResultJsonEncoder.THROUGHPUT_WINDOW_NANOS));
+        data.putBoolean(BandwidthProbeKeys.WARM_CONNECTION, bandwidthResultRecord.isWarmConnection());
+        data.putDouble(BandwidthProbeKeys.BANDWIDTH_STEADY_STATE, bandwidthResultRecord.getSteadyStateBandwidth());
+        data.putLong(BandwidthProbeKeys.RAMP_UP_NS, bandwidthResultRecord.getRampUpNanos());
+        data.putString(BandwidthProbeKeys.ESTIMATOR, bandwidthResultRecord.getEstimator());
+        data.putBoolean(BandwidthProbeKeys.PASSIVE, bandwidthResultRecord.isPassive());
+        if (bandwidthResultRecord.isPassive()) {
+            data.putLong(BandwidthProbeKeys.OBSERVATION_NS, bandwidthResultRecord.getObservationNanos());
+            data.putBoolean(BandwidthProbeKeys.LOWER_BOUND, bandwidthResultRecord.isLowerBound());
+        }
+        data.putBoolean(BandwidthProbeKeys.ABORTED, bandwidthResultRecord.isAborted());
+        if (bandwidthResultRecord.isAborted()) {
+            data.putString(BandwidthProbeKeys.ABORT_REASON, bandwidthResultRecord.getAbortReason());
+        }
+        data.putInt(BandwidthProbeKeys.STREAM_COUNT, bandwidthResultRecord.getStreamCount());
+        if (bandwidthResultRecord.getStreamBandwidthMeasures().length > 0) {
+            data.putDoubleArray(BandwidthProbeKeys.STREAM_BANDWIDTHS, bandwidthResultRecord.getStreamBandwidthMeasures());
+        }
+        if (bandwidthResultRecord.getTrainCapacities().length > 0) {
+            data.putDoubleArray(BandwidthProbeKeys.TRAIN_CAPACITIES, bandwidthResultRecord.getTrainCapacities());
+        }
+        return data;
+    }
+}
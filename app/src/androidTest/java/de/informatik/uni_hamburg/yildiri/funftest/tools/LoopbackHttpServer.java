@@ -0,0 +1,218 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * In-process HTTP server on the loopback interface that answers every GET or HEAD request with a generated payload of a fixed size, so that the measure tools can be exercised without a live mirror.
+ * The delivery follows a scripted {@link NetworkProfile}: the payload is written in small slices, each one not before its scheduled delivery time, so that the rates seen by the client are deterministic.
+ * Every connection is served on its own thread and closed after the response.
+ */
+public class LoopbackHttpServer {
+
+    /**
+     * Size in bytes of the generated chunk the payload is made of
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * Size in bytes of the slices the payload is written in. Small enough to follow the schedule of the profile closely.
+     */
+    private static final int SLICE_SIZE = 4 * 1024;
+    /**
+     * Random chunk written over and over again to serve the payload
+     */
+    private static final byte[] PAYLOAD_CHUNK = new byte[CHUNK_SIZE];
+
+    static {
+        new Random(42).nextBytes(PAYLOAD_CHUNK);
+    }
+
+    /**
+     * Size in bytes of the served payload
+     */
+    private final long payloadSize;
+    /**
+     * Scripted network behaviour the payload is delivered with
+     */
+    private final NetworkProfile profile;
+    /**
+     * Socket accepting the connections, null as long as the server is not running
+     */
+    private volatile ServerSocket serverSocket;
+
+    /**
+     *
+     * @param payloadSize size in bytes of the served payload
+     */
+    public LoopbackHttpServer(long payloadSize) {
+        this(payloadSize, NetworkProfile.unlimited());
+    }
+
+    /**
+     *
+     * @param payloadSize size in bytes of the served payload
+     * @param profile scripted network behaviour the payload is delivered with
+     */
+    public LoopbackHttpServer(long payloadSize, NetworkProfile profile) {
+        this.payloadSize = payloadSize;
+        this.profile = profile;
+    }
+
+    /**
+     * Start accepting connections on an ephemeral port of the loopback interface
+     * @throws IOException if the server socket can't be opened
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LoopbackHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Stop accepting connections
+     */
+    public void stop() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the URL of a path on this server
+     * @param path path starting with a slash
+     * @return the URL, e.g. "http://127.0.0.1:39321/testfile"
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Get the size of the served payload
+     * @return size in bytes
+     */
+    public long getPayloadSize() {
+        return this.payloadSize;
+    }
+
+    /**
+     * Accept connections until the server is stopped and serve each of them on a thread of its own
+     */
+    private void acceptConnections() {
+        while (serverSocket != null) {
+            try {
+                final Socket socket = serverSocket.accept();
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveConnection(socket);
+                    }
+                }, "LoopbackHttpServer connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                // Closed by stop()
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the request of a connection and answer it
+     * @param socket the accepted connection
+     */
+    private void serveConnection(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            // Skip the request headers
+            String header;
+            while ((header = reader.readLine()) != null && header.length() > 0) {
+                // ignored
+            }
+            OutputStream out = socket.getOutputStream();
+            boolean head = requestLine.startsWith("HEAD ");
+            sleepUntil(System.nanoTime() + profile.getLatencyMs() * 1000 * 1000);
+            String lengthHeader = profile.isChunked() ? "Transfer-Encoding: chunked" : "Content-Length: " + payloadSize;
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\n" + lengthHeader + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+            if (!head) {
+                writePayload(out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.d(getClass().getSimpleName(), "Connection ended: " + e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write the payload following the schedule of the profile
+     * @param out stream to write to
+     * @throws IOException if writing fails
+     */
+    private void writePayload(OutputStream out) throws IOException {
+        long startNanoTime = System.nanoTime();
+        long written = 0;
+        while (written < payloadSize) {
+            // End the slice at the next stall, so that the stall happens exactly at its offset
+            int sliceSize = (int) Math.min(Math.min(SLICE_SIZE, payloadSize - written), profile.getNextStallOffset(written) - written);
+            sleepUntil(startNanoTime + profile.getDeliveryNanos(written + sliceSize));
+            if (profile.isChunked()) {
+                out.write((Integer.toHexString(sliceSize) + "\r\n").getBytes("US-ASCII"));
+            }
+            out.write(PAYLOAD_CHUNK, (int) (written % (CHUNK_SIZE - SLICE_SIZE)), sliceSize);
+            if (profile.isChunked()) {
+                out.write("\r\n".getBytes("US-ASCII"));
+            }
+            out.flush();
+            written += sliceSize;
+        }
+        if (profile.isChunked()) {
+            out.write("0\r\n\r\n".getBytes("US-ASCII"));
+        }
+    }
+
+    /**
+     * Sleep until the given point in time
+     * @param nanoTime point in time in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    private static void sleepUntil(long nanoTime) {
+        long remainingNanos;
+        while ((remainingNanos = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remainingNanos / 1000000, (int) (remainingNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Checks whether {@link HttpURLConnectionMeasureTool} reports the right numbers, by measuring against a {@link LoopbackHttpServer} that delivers the payload with a scripted {@link NetworkProfile}.
+ * The expected block and total measures are derived from the same profile, and the measured values have to stay within a tolerance of them.
+ */
+public class MeasurementAccuracyTest extends AndroidTestCase {
+
+    /**
+     * Fixed rate of most of the profiles in bytes per second, i.e. 8000 kbit/s
+     */
+    private static final long RATE = 1000 * 1000;
+    /**
+     * Relative tolerance of the overall total
+     */
+    private static final double TOTAL_TOLERANCE = 0.05;
+    /**
+     * Relative tolerance of the block measures, which cover shorter periods and are more affected by scheduling jitter
+     */
+    private static final double BLOCK_TOLERANCE = 0.1;
+
+    /**
+     * The tool of the last measurement, to check its state after the measurement
+     */
+    private HttpURLConnectionMeasureTool lastTool;
+
+    public void testFixedRate() throws Exception {
+        NetworkProfile profile = NetworkProfile.fixedRate(RATE);
+        long payloadSize = 2 * 1000 * 1000;
+        BandwidthResultRecord bandwidthResultRecord = measure(profile, payloadSize, null);
+
+        assertTrue(bandwidthResultRecord.hasMeasurementSucceeded());
+        assertEquals(payloadSize, bandwidthResultRecord.getBytesTransferred());
+        assertBlocksMatchProfile(bandwidthResultRecord, profile, 0);
+        assertWithinTolerance("total", profile.getExpectedThroughput(payloadSize), bandwidthResultRecord.getOverallTotalBandwidthMeasure(), TOTAL_TOLERANCE);
+    }
+
+    public void testTokenBucketBurst() throws Exception {
+        long burstBytes = 500 * 1000;
+        NetworkProfile profile = NetworkProfile.fixedRate(RATE).withBurst(burstBytes);
+        long payloadSize = 2 * 1000 * 1000;
+        BandwidthResultRecord bandwidthResultRecord = measure(profile, payloadSize, null);
+
+        assertTrue(bandwidthResultRecord.hasMeasurementSucceeded());
+        // The blocks within the burst arrive at once, they have to exceed the rate by far
+        assertTrue(bandwidthResultRecord.getBandwidthMeasure(0) > 2 * profile.getExpectedThroughput(payloadSize));
+        // One block after the burst the measures have to follow the token bucket again
+        assertBlocksMatchProfile(bandwidthResultRecord, profile, burstBytes + bandwidthResultRecord.getBlockSizeInBytes());
+        assertWithinTolerance("total", profile.getExpectedThroughput(payloadSize), bandwidthResultRecord.getOverallTotalBandwidthMeasure(), TOTAL_TOLERANCE);
+    }
+
+    public void testStall() throws Exception {
+        NetworkProfile profile = NetworkProfile.fixedRate(RATE).withStall(1000 * 1000, 1000);
+        long payloadSize = 2 * 1000 * 1000;
+        BandwidthResultRecord bandwidthResultRecord = measure(profile, payloadSize, null);
+
+        assertTrue(bandwidthResultRecord.hasMeasurementSucceeded());
+        assertFalse(bandwidthResultRecord.isAborted());
+        assertBlocksMatchProfile(bandwidthResultRecord, profile, 0);
+        assertWithinTolerance("total", profile.getExpectedThroughput(payloadSize), bandwidthResultRecord.getOverallTotalBandwidthMeasure(), TOTAL_TOLERANCE);
+        // The stall is hidden by the cumulative measures, but not by the windowed minimum
+        assertTrue(bandwidthResultRecord.getMinThroughput(500L * 1000 * 1000) < 0.05 * RATE * 8 / 1000);
+    }
+
+    public void testLatency() throws Exception {
+        long latencyMs = 300;
+        NetworkProfile profile = NetworkProfile.fixedRate(RATE).withLatency(latencyMs);
+        long payloadSize = 1000 * 1000;
+        BandwidthResultRecord bandwidthResultRecord = measure(profile, payloadSize, null);
+
+        assertTrue(bandwidthResultRecord.hasMeasurementSucceeded());
+        long timeToFirstByteMs = bandwidthResultRecord.getTimeToFirstByteNanos() / (1000 * 1000);
+        assertTrue("time to first byte " + timeToFirstByteMs + " ms", timeToFirstByteMs >= latencyMs && timeToFirstByteMs < latencyMs + 200);
+        // The latency must not be part of the transfer time
+        assertWithinTolerance("total", profile.getExpectedThroughput(payloadSize), bandwidthResultRecord.getOverallTotalBandwidthMeasure(), TOTAL_TOLERANCE);
+    }
+
+    public void testChunkedWithoutContentLength() throws Exception {
+        NetworkProfile profile = NetworkProfile.fixedRate(RATE).withChunkedEncoding();
+        long payloadSize = 1500 * 1000;
+        BandwidthResultRecord bandwidthResultRecord = measure(profile, payloadSize, null);
+
+        assertTrue(bandwidthResultRecord.hasMeasurementSucceeded());
+        assertEquals(payloadSize, bandwidthResultRecord.getBytesTransferred());
+        // Without a file size the default block layout is used
+        assertEquals(BandwidthResultRecord.DEFAULT_BLOCK_SIZE_IN_BYTES, bandwidthResultRecord.getBlockSizeInBytes());
+        assertBlocksMatchProfile(bandwidthResultRecord, profile, 0);
+        assertWithinTolerance("total", profile.getExpectedThroughput(payloadSize), bandwidthResultRecord.getOverallTotalBandwidthMeasure(), TOTAL_TOLERANCE);
+        // Without a file size there is no progress to be told
+        assertEquals(0, lastTool.getProgress());
+    }
+
+    public void testReadTimeoutReturnsPartialRecord() throws Exception {
+        long stallOffset = 500 * 1000;
+        NetworkProfile profile = NetworkProfile.fixedRate(RATE).withStall(stallOffset, 5000);
+        long payloadSize = 2 * 1000 * 1000;
+        BandwidthResultRecord bandwidthResultRecord = measure(profile, payloadSize, new int[]{5000, 1000});
+
+        assertTrue(bandwidthResultRecord.hasMeasurementSucceeded());
+        assertEquals(BandwidthResultRecord.ABORT_REASON_READ_TIMEOUT, bandwidthResultRecord.getAbortReason());
+        assertEquals(stallOffset, bandwidthResultRecord.getBytesTransferred());
+        assertBlocksMatchProfile(bandwidthResultRecord, profile, 0);
+    }
+
+    /**
+     * Run a measurement against a server delivering the payload with the given profile
+     * @param profile scripted network behaviour
+     * @param payloadSize size of the payload in bytes
+     * @param connectAndReadTimeoutMs connect and read timeout of the tool in milliseconds, or null for the defaults
+     * @return the results of the measurement
+     * @throws Exception if the server can't be started
+     */
+    private BandwidthResultRecord measure(NetworkProfile profile, long payloadSize, int[] connectAndReadTimeoutMs) throws Exception {
+        LoopbackHttpServer server = new LoopbackHttpServer(payloadSize, profile);
+        server.start();
+        try {
+            HttpURLConnectionMeasureTool tool = new HttpURLConnectionMeasureTool(null, getContext(), server.getUrl("/testfile"), ConnectivityManager.TYPE_WIFI);
+            lastTool = tool;
+            if (connectAndReadTimeoutMs != null) {
+                tool.setTimeouts(connectAndReadTimeoutMs[0], connectAndReadTimeoutMs[1], 0, 0);
+            }
+            return tool.runMeasurement();
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Assert that all measured blocks ending after the given offset are within the tolerance of the throughput expected by the profile
+     * @param bandwidthResultRecord results of the measurement
+     * @param profile the profile the payload has been delivered with
+     * @param fromOffset only blocks ending after this offset are checked
+     */
+    private static void assertBlocksMatchProfile(BandwidthResultRecord bandwidthResultRecord, NetworkProfile profile, long fromOffset) {
+        long bytesTransferred = bandwidthResultRecord.getBytesTransferred();
+        int checkedBlocks = 0;
+        for (int i = 0; i < bandwidthResultRecord.getBlockCount(); i++) {
+            long blockEndBytes = bandwidthResultRecord.getBlockEndBytes(i);
+            if (blockEndBytes <= fromOffset || blockEndBytes > bytesTransferred) {
+                continue;
+            }
+            assertWithinTolerance("block " + i, profile.getExpectedThroughput(blockEndBytes), bandwidthResultRecord.getBandwidthMeasure(i), BLOCK_TOLERANCE);
+            checkedBlocks++;
+        }
+        assertTrue("no block has been checked", checkedBlocks > 0);
+    }
+
+    /**
+     * Assert that a measured throughput is within the relative tolerance of the expected one
+     * @param name name of the measure for the failure message
+     * @param expected expected throughput in kbit/s
+     * @param actual measured throughput in kbit/s
+     * @param tolerance relative tolerance, e.g. 0.05 for +/- 5%
+     */
+    private static void assertWithinTolerance(String name, double expected, double actual, double tolerance) {
+        assertTrue(String.format("%s: expected %.1f kbit/s +/- %.0f%%, but was %.1f kbit/s", name, expected, tolerance * 100, actual), Math.abs(actual - expected) <= tolerance * expected);
+    }
+}
@@ -0,0 +1,79 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+import de.informatik.uni_hamburg.yildiri.funftest.Benchmark;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Benchmarks of the overhead of the measure tools themselves, so that regressions in the read loop are caught before they distort the field data.
+ * The download benchmarks run complete measurements against a {@link LoopbackHttpServer}, whose throughput is far beyond any real link, so that the results are bounded by the tool overhead.
+ * The results are logged with the tag {@link Benchmark#LOG_TAG}.
+ */
+public class MeasurementOverheadBenchmark extends AndroidTestCase {
+
+    /**
+     * Size in bytes of the payload downloaded by each measurement
+     */
+    private static final long PAYLOAD_SIZE = 8 * 1000 * 1000;
+
+    /**
+     * Server serving the payload
+     */
+    private LoopbackHttpServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new LoopbackHttpServer(PAYLOAD_SIZE);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop();
+        super.tearDown();
+    }
+
+    public void testDiscardingReadLoop() throws Exception {
+        benchmarkDownload("HttpURLConnectionMeasureTool read loop (discarding)", false);
+    }
+
+    public void testTestFileReadLoop() throws Exception {
+        benchmarkDownload("HttpURLConnectionMeasureTool read loop (writing the test file)", true);
+    }
+
+    public void testCalcDownloadrate() throws Exception {
+        final double[] sink = new double[1];
+        Benchmark.run("BandwidthMeasureTool.calcDownloadrate", 10000, 1000000, 0, new Benchmark.Operation() {
+            private long endTime = 1;
+
+            @Override
+            public void run() {
+                sink[0] += BandwidthMeasureTool.calcDownloadrate(0, endTime++, PAYLOAD_SIZE);
+            }
+        });
+        assertTrue(sink[0] > 0);
+    }
+
+    /**
+     * Benchmark complete download measurements of the payload
+     * @param name name of the benchmark
+     * @param writeTestFile whether the tool writes the data to the test file
+     * @throws Exception if a measurement fails
+     */
+    private void benchmarkDownload(String name, boolean writeTestFile) throws Exception {
+        final HttpURLConnectionMeasureTool tool = new HttpURLConnectionMeasureTool(null, getContext(), server.getUrl("/testfile"), ConnectivityManager.TYPE_WIFI, writeTestFile);
+        Benchmark.run(name, 3, 10, PAYLOAD_SIZE, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                BandwidthResultRecord bandwidthResultRecord = tool.runMeasurement();
+                if (!bandwidthResultRecord.hasMeasurementSucceeded()) {
+                    throw bandwidthResultRecord.getMeasurementException();
+                }
+                assertEquals(PAYLOAD_SIZE, bandwidthResultRecord.getBytesTransferred());
+            }
+        });
+    }
+}
@@ -0,0 +1,176 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scripted network behaviour of the {@link LoopbackHttpServer}. The delivery of the payload is fully deterministic: every byte offset has a scheduled delivery time relative to the end of the response headers, see {@link #getDeliveryNanos(long)}.
+ * The rate is shaped by a token bucket, which starts full, so that the first {@link #getBurstBytes()} bytes are delivered at once and the rest at the fixed rate. Stalls pause the delivery at given offsets, and latency delays the response headers.
+ * Since the schedule is known in advance, tests can derive the expected block and total measures from the same profile the server runs.
+ */
+public class NetworkProfile {
+
+    /**
+     * Delivery rate in bytes per second, 0 for unlimited
+     */
+    private final long bytesPerSecond;
+    /**
+     * Capacity of the token bucket in bytes, i.e. the number of bytes delivered at once before the rate applies
+     */
+    private long burstBytes = 0;
+    /**
+     * Delay in milliseconds before the response headers are sent
+     */
+    private long latencyMs = 0;
+    /**
+     * Whether the response is sent with chunked transfer encoding instead of a Content-Length
+     */
+    private boolean chunked = false;
+    /**
+     * Byte offsets at which the delivery stalls
+     */
+    private final List<Long> stallOffsets = new ArrayList<Long>();
+    /**
+     * Durations in milliseconds of the stalls at {@link #stallOffsets}
+     */
+    private final List<Long> stallDurationsMs = new ArrayList<Long>();
+
+    /**
+     *
+     * @param bytesPerSecond delivery rate in bytes per second, 0 for unlimited
+     */
+    private NetworkProfile(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Create a profile without any limits
+     * @return the profile
+     */
+    public static NetworkProfile unlimited() {
+        return new NetworkProfile(0);
+    }
+
+    /**
+     * Create a profile delivering at a fixed rate
+     * @param bytesPerSecond delivery rate in bytes per second
+     * @return the profile
+     */
+    public static NetworkProfile fixedRate(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond has to be positive (was " + bytesPerSecond + ")");
+        }
+        return new NetworkProfile(bytesPerSecond);
+    }
+
+    /**
+     * Let the token bucket hold the given number of bytes, which are delivered at once when the transfer starts
+     * @param burstBytes capacity of the token bucket in bytes
+     * @return this profile
+     */
+    public NetworkProfile withBurst(long burstBytes) {
+        this.burstBytes = burstBytes;
+        return this;
+    }
+
+    /**
+     * Stall the delivery at the given offset
+     * @param offset byte offset at which the delivery stalls
+     * @param durationMs duration of the stall in milliseconds
+     * @return this profile
+     */
+    public NetworkProfile withStall(long offset, long durationMs) {
+        stallOffsets.add(offset);
+        stallDurationsMs.add(durationMs);
+        return this;
+    }
+
+    /**
+     * Delay the response headers
+     * @param latencyMs delay in milliseconds
+     * @return this profile
+     */
+    public NetworkProfile withLatency(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * Send the response with chunked transfer encoding and without a Content-Length
+     * @return this profile
+     */
+    public NetworkProfile withChunkedEncoding() {
+        this.chunked = true;
+        return this;
+    }
+
+    /**
+     * Get the time at which the given byte offset is scheduled to be delivered, relative to the end of the response headers
+     * @param offset byte offset, i.e. the number of bytes delivered up to then
+     * @return scheduled delivery time in nanoseconds
+     */
+    public long getDeliveryNanos(long offset) {
+        long deliveryNanos = 0;
+        if (bytesPerSecond > 0 && offset > burstBytes) {
+            deliveryNanos = (offset - burstBytes) * 1000L * 1000 * 1000 / bytesPerSecond;
+        }
+        for (int i = 0; i < stallOffsets.size(); i++) {
+            if (offset > stallOffsets.get(i)) {
+                deliveryNanos += stallDurationsMs.get(i) * 1000 * 1000;
+            }
+        }
+        return deliveryNanos;
+    }
+
+    /**
+     * Get the offset of the next stall after the given offset, so that the server can end its slice right there
+     * @param offset byte offset
+     * @return offset of the next stall, or Long.MAX_VALUE if there is none
+     */
+    public long getNextStallOffset(long offset) {
+        long nextStallOffset = Long.MAX_VALUE;
+        for (Long stallOffset : stallOffsets) {
+            if (stallOffset > offset && stallOffset < nextStallOffset) {
+                nextStallOffset = stallOffset;
+            }
+        }
+        return nextStallOffset;
+    }
+
+    /**
+     * Get the throughput the tools are expected to measure for the first bytes of the payload
+     * @param offset number of bytes the measure covers
+     * @return expected throughput in kbit/s, or Double.POSITIVE_INFINITY if the bytes are scheduled to be delivered at once
+     */
+    public double getExpectedThroughput(long offset) {
+        long deliveryNanos = getDeliveryNanos(offset);
+        if (deliveryNanos == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (offset * 8 / 1000.0) / (deliveryNanos / 1000000000.0);
+    }
+
+    /**
+     * Get the capacity of the token bucket
+     * @return capacity in bytes
+     */
+    public long getBurstBytes() {
+        return this.burstBytes;
+    }
+
+    /**
+     * Get the delay of the response headers
+     * @return delay in milliseconds
+     */
+    public long getLatencyMs() {
+        return this.latencyMs;
+    }
+
+    /**
+     * Get whether the response is sent with chunked transfer encoding
+     * @return whether the response is chunked
+     */
+    public boolean isChunked() {
+        return this.chunked;
+    }
+}
@@ -0,0 +1,77 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the {@link PacketTrainMeasureTool} measures the dispersion of a train from the arrivals after the first one, also when they are tightly spaced, and doesn't measure trains that arrived at once
+ */
+public class PacketTrainMeasureToolTest extends AndroidTestCase {
+
+    private static final int SEGMENT_BYTES = 1460;
+
+    public void testDispersionOfSpacedArrivals() {
+        // The first two reads return the buffered first arrival, then one segment arrives every 1.46 ms, i.e. at 8000 kbit/s
+        long[] starts = new long[8];
+        long[] times = new long[starts.length];
+        int[] bytes = new int[times.length];
+        fillTrain(starts, times, bytes, 1460L * 1000);
+
+        long[] dispersion = PacketTrainMeasureTool.measureDispersion(starts, times, bytes, times.length);
+        assertNotNull(dispersion);
+        assertEquals(6 * SEGMENT_BYTES, dispersion[0]);
+        assertEquals(6 * 1460L * 1000, dispersion[1]);
+    }
+
+    public void testDispersionOfTightlySpacedArrivals() {
+        // One segment arrives every 116.8 us, i.e. at 100 Mbit/s, far closer than the reads of a slow link
+        long[] starts = new long[8];
+        long[] times = new long[starts.length];
+        int[] bytes = new int[times.length];
+        fillTrain(starts, times, bytes, 116800);
+
+        long[] dispersion = PacketTrainMeasureTool.measureDispersion(starts, times, bytes, times.length);
+        assertNotNull(dispersion);
+        assertEquals(6 * SEGMENT_BYTES, dispersion[0]);
+        assertEquals(6 * 116800L, dispersion[1]);
+        assertEquals(100000.0, dispersion[0] * 8.0 * 1000 * 1000 / dispersion[1], 1.0);
+    }
+
+    public void testTrainArrivedAtOnceIsNotMeasured() {
+        // The first read waits for the response, all the others are served from the buffer
+        long[] starts = new long[5];
+        long[] times = new long[starts.length];
+        int[] bytes = new int[times.length];
+        starts[0] = 0;
+        times[0] = 50L * 1000 * 1000;
+        bytes[0] = SEGMENT_BYTES;
+        for (int i = 1; i < times.length; i++) {
+            starts[i] = times[i - 1] + 1000;
+            times[i] = starts[i] + PacketTrainMeasureTool.NON_BLOCKING_READ_NANOS / 2;
+            bytes[i] = SEGMENT_BYTES;
+        }
+        assertNull(PacketTrainMeasureTool.measureDispersion(starts, times, bytes, times.length));
+        assertNull(PacketTrainMeasureTool.measureDispersion(starts, times, bytes, 1));
+    }
+
+    public void testMedianOfTrainCapacities() {
+        assertEquals(8000.0, PacketTrainMeasureTool.median(new double[]{12000, 8000, 500}));
+        assertEquals(7000.0, PacketTrainMeasureTool.median(new double[]{8000, 500, 6000, 9000}));
+    }
+
+    /**
+     * Fill in the reads of a train: the first read waits for the response, the second one returns the rest of the buffered first arrival without blocking, and each of the following reads blocks until the next segment has arrived
+     */
+    private static void fillTrain(long[] starts, long[] times, int[] bytes, long segmentNanos) {
+        starts[0] = 0;
+        times[0] = 50L * 1000 * 1000;
+        starts[1] = times[0] + 1000;
+        times[1] = starts[1] + 3000;
+        for (int i = 2; i < times.length; i++) {
+            starts[i] = times[i - 1] + 1000;
+            times[i] = times[1] + (i - 1) * segmentNanos;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = SEGMENT_BYTES;
+        }
+    }
+}
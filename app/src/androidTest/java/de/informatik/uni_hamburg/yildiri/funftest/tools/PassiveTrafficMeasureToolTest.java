@@ -0,0 +1,102 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.test.AndroidTestCase;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.SaturationDetector;
+
+/**
+ * Checks that the {@link PassiveTrafficMeasureTool} derives its result from the saturated periods of the observed traffic only, finds no result in light or short bursts of traffic, and doesn't take a steady flow below the reference capacity for the capacity
+ */
+public class PassiveTrafficMeasureToolTest extends AndroidTestCase {
+
+    private static final long POLL_NANOS = PassiveTrafficMeasureTool.POLL_INTERVAL_MS * 1000 * 1000;
+
+    public void testSaturatedPeriodGivesThroughput() {
+        SaturationDetector detector = newDetector();
+        long now = 0;
+        // 2 s of light background traffic at 80 kbit/s, 4 s saturated at 8000 kbit/s, 2 s at 800 kbit/s
+        now = addPolls(detector, now, 40, 500);
+        now = addPolls(detector, now, 80, 50000);
+        now = addPolls(detector, now, 40, 5000);
+
+        BandwidthResultRecord result = PassiveTrafficMeasureTool.buildResult(detector, now, BandwidthResultRecord.DEFAULT_BLOCK_COUNT);
+        assertNotNull(result);
+        assertTrue(result.isPassive());
+        assertTrue(result.isLowerBound());
+        assertEquals(now, result.getObservationNanos());
+        assertEquals(8000.0, result.getOverallTotalBandwidthMeasure(), 8000.0 * 0.05);
+        assertEquals(80 * 50000, result.getBytesTransferred(), 2 * 50000);
+        assertEquals(0, result.getBytesSpent());
+        assertTrue(result.getBlockCount() > 0);
+    }
+
+    public void testLightTrafficGivesNoResult() {
+        SaturationDetector detector = newDetector();
+        // 60 kbit/s stays below the minimum peak throughput
+        long now = addPolls(detector, 0, 200, 400);
+        assertNull(PassiveTrafficMeasureTool.buildResult(detector, now, BandwidthResultRecord.DEFAULT_BLOCK_COUNT));
+    }
+
+    public void testShortBurstGivesNoResult() {
+        SaturationDetector detector = newDetector();
+        long now = addPolls(detector, 0, 40, 500);
+        now = addPolls(detector, now, 8, 50000);
+        now = addPolls(detector, now, 40, 500);
+        assertNull(PassiveTrafficMeasureTool.buildResult(detector, now, BandwidthResultRecord.DEFAULT_BLOCK_COUNT));
+    }
+
+    public void testSteadyFlowBelowReferenceGivesNoResult() {
+        // A stream at a fixed 2000 kbit/s on a link known to achieve 8000 kbit/s
+        SaturationDetector detector = newDetector();
+        detector.setReferenceThroughput(8000);
+        long now = addPolls(detector, 0, 200, 12500);
+        assertNull(PassiveTrafficMeasureTool.buildResult(detector, now, BandwidthResultRecord.DEFAULT_BLOCK_COUNT));
+
+        // Without the reference the same flow only gives a lower bound
+        detector.setReferenceThroughput(0);
+        BandwidthResultRecord result = PassiveTrafficMeasureTool.buildResult(detector, now, BandwidthResultRecord.DEFAULT_BLOCK_COUNT);
+        assertNotNull(result);
+        assertTrue(result.isLowerBound());
+    }
+
+    public void testSaturationOfReferenceGivesThroughput() {
+        SaturationDetector detector = newDetector();
+        detector.setReferenceThroughput(8000);
+        long now = addPolls(detector, 0, 40, 500);
+        now = addPolls(detector, now, 80, 50000);
+        now = addPolls(detector, now, 40, 5000);
+
+        BandwidthResultRecord result = PassiveTrafficMeasureTool.buildResult(detector, now, BandwidthResultRecord.DEFAULT_BLOCK_COUNT);
+        assertNotNull(result);
+        assertFalse(result.isLowerBound());
+        assertEquals(8000.0, result.getOverallTotalBandwidthMeasure(), 8000.0 * 0.05);
+    }
+
+    /**
+     * Create a detector configured like the one of the tool
+     *
+     * @return the detector
+     */
+    private static SaturationDetector newDetector() {
+        return new SaturationDetector(0.7, 100, 1000L * 1000 * 1000, 2);
+    }
+
+    /**
+     * Add polls of a constant traffic rate
+     *
+     * @param detector      detector to add the polls to
+     * @param startNanoTime time in nanoseconds of the first poll
+     * @param count         number of polls
+     * @param bytesPerPoll  bytes counted between two polls
+     * @return time in nanoseconds after the last poll
+     */
+    private static long addPolls(SaturationDetector detector, long startNanoTime, int count, long bytesPerPoll) {
+        long now = startNanoTime;
+        for (int i = 0; i < count; i++) {
+            detector.addInterval(now, now + POLL_NANOS, bytesPerPoll);
+            now += POLL_NANOS;
+        }
+        return now;
+    }
+}
@@ -0,0 +1,47 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the {@link ConvergenceDetector} only reports convergence once all of the most recent estimates lie within the band around their mean
+ */
+public class ConvergenceDetectorTest extends AndroidTestCase {
+
+    public void testConvergesOnceAllEstimatesAreWithinTheBand() {
+        ConvergenceDetector detector = new ConvergenceDetector(3, 0.05);
+        assertFalse(detector.addEstimate(4000));
+        assertFalse(detector.addEstimate(8000));
+        // 4000 is still one of the three most recent estimates
+        assertFalse(detector.addEstimate(8100));
+        assertTrue(detector.addEstimate(7900));
+        assertEquals(8000.0, detector.getEstimate(), 0.001);
+    }
+
+    public void testOutlierBreaksConvergence() {
+        ConvergenceDetector detector = new ConvergenceDetector(3, 0.05);
+        detector.addEstimate(8000);
+        detector.addEstimate(8000);
+        assertTrue(detector.addEstimate(8000));
+        assertFalse(detector.addEstimate(9000));
+        assertFalse(detector.addEstimate(8000));
+        assertFalse(detector.addEstimate(8000));
+        // The outlier has been overwritten by the ring buffer
+        assertTrue(detector.addEstimate(8000));
+    }
+
+    public void testZeroEstimatesDontConverge() {
+        ConvergenceDetector detector = new ConvergenceDetector(2, 0.05);
+        detector.addEstimate(0);
+        assertFalse(detector.addEstimate(0));
+    }
+
+    public void testClear() {
+        ConvergenceDetector detector = new ConvergenceDetector(2, 0.05);
+        detector.addEstimate(8000);
+        assertTrue(detector.addEstimate(8000));
+        detector.clear();
+        assertFalse(detector.hasConverged());
+        assertEquals(0.0, detector.getEstimate());
+        assertFalse(detector.addEstimate(8000));
+    }
+}
@@ -0,0 +1,50 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the {@link RampUpDetector} detects the end of the ramp-up only after the throughput has stopped growing for the number of plateau intervals
+ */
+public class RampUpDetectorTest extends AndroidTestCase {
+
+    public void testSlowStartThenPlateau() {
+        RampUpDetector detector = new RampUpDetector(0.1, 3);
+        // Intervals before the first data has arrived are not counted
+        assertFalse(detector.addIntervalThroughput(0));
+        // The throughput doubles every interval, like the congestion window in slow start
+        assertFalse(detector.addIntervalThroughput(1000));
+        assertFalse(detector.addIntervalThroughput(2000));
+        assertFalse(detector.addIntervalThroughput(4000));
+        assertFalse(detector.addIntervalThroughput(8000));
+        assertEquals(0, detector.getFlatIntervalCount());
+        // Growth within the threshold counts as flat
+        assertFalse(detector.addIntervalThroughput(8500));
+        assertFalse(detector.addIntervalThroughput(7800));
+        assertEquals(2, detector.getFlatIntervalCount());
+        assertTrue(detector.addIntervalThroughput(8200));
+        assertTrue(detector.hasRampUpEnded());
+        // Once ended, the ramp-up stays ended
+        assertTrue(detector.addIntervalThroughput(16000));
+    }
+
+    public void testGrowthRestartsThePlateau() {
+        RampUpDetector detector = new RampUpDetector(0.1, 2);
+        detector.addIntervalThroughput(4000);
+        assertFalse(detector.addIntervalThroughput(4000));
+        assertEquals(1, detector.getFlatIntervalCount());
+        assertFalse(detector.addIntervalThroughput(6000));
+        assertEquals(0, detector.getFlatIntervalCount());
+        assertFalse(detector.addIntervalThroughput(6100));
+        assertTrue(detector.addIntervalThroughput(5900));
+    }
+
+    public void testClear() {
+        RampUpDetector detector = new RampUpDetector(0.1, 1);
+        detector.addIntervalThroughput(4000);
+        assertTrue(detector.addIntervalThroughput(4000));
+        detector.clear();
+        assertFalse(detector.hasRampUpEnded());
+        assertEquals(0, detector.getFlatIntervalCount());
+        assertFalse(detector.addIntervalThroughput(4000));
+    }
+}
@@ -0,0 +1,111 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the {@link ThroughputSketch} answers quantiles within its relative accuracy, merges sketches like a single sketch of all values and survives its serialization
+ */
+public class ThroughputSketchTest extends AndroidTestCase {
+
+    private static final double[] QUANTILES = {0, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 1};
+
+    public void testQuantilesWithinRelativeAccuracy() {
+        double[] values = createValues(new Random(42), 5000);
+        ThroughputSketch sketch = new ThroughputSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        assertEquals(values.length, sketch.getCount());
+        assertEquals(sorted[0], sketch.getMin());
+        assertEquals(sorted[sorted.length - 1], sketch.getMax());
+        for (double quantile : QUANTILES) {
+            double exact = sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+            assertEquals("quantile " + quantile, exact, sketch.getQuantile(quantile), exact * ThroughputSketch.RELATIVE_ACCURACY);
+        }
+    }
+
+    public void testValuesOutsideTheTrackedRange() {
+        ThroughputSketch sketch = new ThroughputSketch();
+        assertEquals(0.0, sketch.getQuantile(0.5));
+        sketch.add(0);
+        sketch.add(ThroughputSketch.MAX_TRACKED_VALUE * 10);
+        // Values outside of the tracked range are answered by the ends of the range, whereas the extremes stay exact
+        assertEquals(ThroughputSketch.MIN_TRACKED_VALUE, sketch.getQuantile(0));
+        assertEquals(ThroughputSketch.MAX_TRACKED_VALUE, sketch.getQuantile(1), ThroughputSketch.MAX_TRACKED_VALUE * ThroughputSketch.RELATIVE_ACCURACY);
+        assertEquals(0.0, sketch.getMin());
+        assertEquals(ThroughputSketch.MAX_TRACKED_VALUE * 10, sketch.getMax());
+        try {
+            sketch.add(-1);
+            fail("negative values must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testMergeEqualsSketchOfAllValues() {
+        Random random = new Random(7);
+        ThroughputSketch all = new ThroughputSketch();
+        ThroughputSketch merged = new ThroughputSketch();
+        for (int day = 0; day < 7; day++) {
+            ThroughputSketch daily = new ThroughputSketch();
+            for (double value : createValues(random, 300)) {
+                daily.add(value);
+                all.add(value);
+            }
+            merged.merge(daily);
+        }
+        merged.merge(new ThroughputSketch());
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        for (double quantile : QUANTILES) {
+            assertEquals("quantile " + quantile, all.getQuantile(quantile), merged.getQuantile(quantile));
+        }
+    }
+
+    public void testSerializationRoundTrip() throws IOException {
+        ThroughputSketch sketch = new ThroughputSketch();
+        for (double value : createValues(new Random(3), 1000)) {
+            sketch.add(value);
+        }
+        ThroughputSketch restored = ThroughputSketch.fromByteArray(sketch.toByteArray());
+        assertEquals(sketch.getCount(), restored.getCount());
+        assertEquals(sketch.getMin(), restored.getMin());
+        assertEquals(sketch.getMax(), restored.getMax());
+        for (double quantile : QUANTILES) {
+            assertEquals("quantile " + quantile, sketch.getQuantile(quantile), restored.getQuantile(quantile));
+        }
+
+        assertEquals(0, ThroughputSketch.fromByteArray(new ThroughputSketch().toByteArray()).getCount());
+        byte[] truncated = Arrays.copyOf(sketch.toByteArray(), 20);
+        try {
+            ThroughputSketch.fromByteArray(truncated);
+            fail("a truncated sketch must not be restored");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Create throughput values spread over several orders of magnitude, like the results of different connection types
+     *
+     * @param random source of the values
+     * @param count  number of values
+     * @return values in kbit/s
+     */
+    private static double[] createValues(Random random, int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = 50 * Math.pow(10, 4 * random.nextDouble());
+        }
+        return values;
+    }
+}
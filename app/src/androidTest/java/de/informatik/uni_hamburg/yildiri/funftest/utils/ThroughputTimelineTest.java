@@ -0,0 +1,58 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the {@link ThroughputTimeline} tracks the minimum and maximum throughput over the whole transfer, even after the oldest samples have been overwritten
+ */
+public class ThroughputTimelineTest extends AndroidTestCase {
+
+    private static final long SAMPLE_NANOS = 10L * 1000 * 1000;
+    private static final long WINDOW_NANOS = ThroughputTimeline.DEFAULT_TRACKED_WINDOW_NANOS;
+
+    public void testTrackedExtremesCoverOverwrittenSamples() {
+        ThroughputTimeline timeline = new ThroughputTimeline();
+        long nanoTime = 0;
+        long bytes = 0;
+        timeline.addSample(nanoTime, bytes);
+        // 2 s at 800 kbit/s, then 30 s at 8000 kbit/s, far more than the ring holds
+        for (int i = 0; i < 200; i++) {
+            nanoTime += SAMPLE_NANOS;
+            bytes += 1000;
+            timeline.addSample(nanoTime, bytes);
+        }
+        for (int i = 0; i < 3000; i++) {
+            nanoTime += SAMPLE_NANOS;
+            bytes += 10000;
+            timeline.addSample(nanoTime, bytes);
+        }
+
+        assertEquals(ThroughputTimeline.DEFAULT_CAPACITY, timeline.size());
+        assertEquals(800.0, timeline.getMinThroughput(WINDOW_NANOS), 0.001);
+        assertEquals(8000.0, timeline.getMaxThroughput(WINDOW_NANOS), 0.001);
+        // Other window lengths only cover the samples still held
+        assertEquals(8000.0, timeline.getMinThroughput(WINDOW_NANOS * 2), 0.001);
+    }
+
+    public void testTrackedExtremesMatchScan() {
+        ThroughputTimeline tracked = new ThroughputTimeline();
+        ThroughputTimeline scanned = new ThroughputTimeline(ThroughputTimeline.DEFAULT_CAPACITY, 0);
+        long nanoTime = 0;
+        long bytes = 0;
+        for (int i = 0; i < 500; i++) {
+            // Jittering sample intervals and rates
+            nanoTime += SAMPLE_NANOS + (i % 7) * 1000 * 1000;
+            bytes += 2000 + (i * 7919) % 9000;
+            tracked.addSample(nanoTime, bytes);
+            scanned.addSample(nanoTime, bytes);
+        }
+        assertEquals(scanned.getMinThroughput(WINDOW_NANOS), tracked.getMinThroughput(WINDOW_NANOS), 0.000001);
+        assertEquals(scanned.getMaxThroughput(WINDOW_NANOS), tracked.getMaxThroughput(WINDOW_NANOS), 0.000001);
+
+        tracked.clear();
+        tracked.addSample(0, 0);
+        tracked.addSample(SAMPLE_NANOS, 1000);
+        assertEquals(0.0, tracked.getMinThroughput(WINDOW_NANOS));
+        assertEquals(0.0, tracked.getMaxThroughput(WINDOW_NANOS));
+    }
+}
@@ -3,9 +3,6 @@ package de.informatik.uni_hamburg.yildiri.funftest;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.database.Cursor;
-import android.database.DatabaseUtils;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
@@ -20,7 +17,7 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
-import android.widget.ScrollView;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -32,7 +29,11 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.informatik.uni_hamburg.yildiri.funftest.customProbe.AdaptiveSchedulePolicy;
 import de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthProbe;
+import de.informatik.uni_hamburg.yildiri.funftest.pipeline.ArchiveListener;
+import de.informatik.uni_hamburg.yildiri.funftest.pipeline.DataCountListener;
+import de.informatik.uni_hamburg.yildiri.funftest.pipeline.FunfTestPipeline;
 import de.informatik.uni_hamburg.yildiri.funftest.utils.LogHelper;
 import edu.mit.media.funf.FunfManager;
 import edu.mit.media.funf.json.IJsonObject;
@@ -42,7 +43,6 @@ import edu.mit.media.funf.probe.builtin.BatteryProbe;
 import edu.mit.media.funf.probe.builtin.CellTowerProbe;
 import edu.mit.media.funf.probe.builtin.SimpleLocationProbe;
 import edu.mit.media.funf.probe.builtin.WifiProbe;
-import edu.mit.media.funf.storage.NameValueDatabaseHelper;
 import edu.mit.media.funf.probe.Probe.DataListener;
 
 public class MainActivity extends ActionBarActivity implements DataListener {
@@ -51,10 +51,6 @@ public class MainActivity extends ActionBarActivity implements DataListener {
      * The name of the used pipeline, as it is denoted in the string resources
      */
     public static final String PIPELINE_NAME = "default";
-    /**
-     * SQL query to get the count of entries in the pipeline database
-     */
-    private static final String TOTAL_COUNT_SQL = "select count(*) from " + NameValueDatabaseHelper.DATA_TABLE.name;
 
     // UI-Objects
     private TextView archivePathAndCountView;
@@ -62,8 +58,11 @@ public class MainActivity extends ActionBarActivity implements DataListener {
     private Button archiveButton;
     private Button scanNowButton;
     private TextView dataCountView;
-    private ScrollView receivedDataScroller;
-    private TextView receivedDataView;
+    private ListView receivedDataList;
+    /**
+     * Bounded log of the received data shown by the receivedDataList
+     */
+    private ReceivedDataAdapter receivedDataAdapter;
 
     // Probe objects (Battery, Mobile Network Info, Simple Location, Nearby Wifi Devices, Nearby Cellular Towers, Bandwidth measure, (Running Applications), (Screen On/Off))
     /**
@@ -79,10 +78,19 @@ public class MainActivity extends ActionBarActivity implements DataListener {
     private FunfManager funfManager;
     /**
      * The pipeline that will hold the data and periodically archive to an SQLite file.
-     * The configuration we defined in the string resources, created a BasicPipeline which will run to the registered probes on the default schedule.
+     * The configuration we defined in the string resources, created a FunfTestPipeline which will run to the registered probes on the default schedule.
      */
-    private BasicPipeline pipeline;
+    private FunfTestPipeline pipeline;
     private Handler handler;
+    /**
+     * Refreshes the displayed data count whenever the pipeline reports a change of it
+     */
+    private DataCountListener dataCountListener = new DataCountListener() {
+        @Override
+        public void onDataCountChanged(long dataCount) {
+            updateScanCount(dataCount);
+        }
+    };
     private ServiceConnection funfManagerConn = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
@@ -103,7 +111,8 @@ public class MainActivity extends ActionBarActivity implements DataListener {
             probes.add(batteryProbe);
             probes.add(bandwidthProbe);
 
-            pipeline = (BasicPipeline) funfManager.getRegisteredPipeline(PIPELINE_NAME);
+            pipeline = (FunfTestPipeline) funfManager.getRegisteredPipeline(PIPELINE_NAME);
+            pipeline.setDataCountListener(dataCountListener);
 
             // Register this data listener (this class) as a passive listener by default
             // This way the probes will be run automatically according to their default schedules respectively
@@ -120,7 +129,8 @@ public class MainActivity extends ActionBarActivity implements DataListener {
                     if (funfManager != null) {
                         if (isChecked) {
                             funfManager.enablePipeline(PIPELINE_NAME);
-                            pipeline = (BasicPipeline) funfManager.getRegisteredPipeline(PIPELINE_NAME);
+                            pipeline = (FunfTestPipeline) funfManager.getRegisteredPipeline(PIPELINE_NAME);
+                            pipeline.setDataCountListener(dataCountListener);
                         } else {
                             funfManager.disablePipeline(PIPELINE_NAME);
                         }
@@ -129,7 +139,6 @@ public class MainActivity extends ActionBarActivity implements DataListener {
             });
 
             // Set UI ready to use by enabling the buttons and refresh some values
-            updateScanCount();
             updateArchiveDatabasesCount(pipeline);
             enabledCheckbox.setEnabled(true);
             archiveButton.setEnabled(true);
@@ -166,6 +175,10 @@ public class MainActivity extends ActionBarActivity implements DataListener {
         super.onDestroy();
         Log.d(getString(R.string.app_name), "onDestory() called");
 
+        if (pipeline != null) {
+            pipeline.setDataCountListener(null);
+        }
+
         // Unbind the service from the app (otherwise it would cause memory leaks)
         // This doesn't stop the service, so the probes will still be run according to their schedules
         if (funfManagerConn != null) {
@@ -248,9 +261,9 @@ public class MainActivity extends ActionBarActivity implements DataListener {
         dataCountView.setVisibility(View.INVISIBLE);
         dataCountView.setEnabled(false);
 
-        receivedDataScroller = (ScrollView) findViewById(R.id.receivedDataScroller);
-        receivedDataView = (TextView) findViewById(R.id.receivedDataText);
-        receivedDataView.setEnabled(true);
+        receivedDataAdapter = new ReceivedDataAdapter(this, ReceivedDataAdapter.DEFAULT_CAPACITY);
+        receivedDataList = (ListView) findViewById(R.id.receivedDataList);
+        receivedDataList.setAdapter(receivedDataAdapter);
 
         enabledCheckbox = (CheckBox) findViewById(R.id.enabledCheckbox);
         enabledCheckbox.setEnabled(false);
@@ -275,24 +288,17 @@ public class MainActivity extends ActionBarActivity implements DataListener {
     }
 
     /**
-     * Manually trigger and force the archiving of the pipeline data to the foreseen archive destination.
+     * Manually trigger and force the archiving of the pipeline data to the foreseen archive destination. The archiving runs in the background, its progress is shown on the archive button, which is disabled until the archiving has finished.
      * Notice: Archiving also occurs automatically in certain time intervals (that interval can be configured in the JSON-configuration of the pipeline, which is located in the string resources)
      */
     private void archiveData() {
         // Try to archive the data of the pipeline
         if (pipeline.isEnabled()) {
-            pipeline.onRun(BasicPipeline.ACTION_ARCHIVE, null);
-
-            // Wait 1 second for archive to finish, then refresh the UI
-            // Notice: this is kind of a hacky approach
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(getBaseContext(), getString(R.string.archive_success), Toast.LENGTH_SHORT).show();
-                    updateScanCount();
-                }
-            }, 1000L);
-            updateArchiveDatabasesCount(pipeline);
+            if (pipeline.archive(createArchiveListener())) {
+                archiveButton.setEnabled(false);
+            } else {
+                Toast.makeText(getBaseContext(), getString(R.string.archive_in_progress), Toast.LENGTH_SHORT).show();
+            }
         } else {
             runOnUiThread(new Runnable() {
                 @Override
@@ -303,6 +309,39 @@ public class MainActivity extends ActionBarActivity implements DataListener {
         }
     }
 
+    /**
+     * Create the listener that shows the progress of a manually triggered archiving on the archive button and refreshes the UI when it has finished
+     *
+     * @return listener to the archive operation
+     */
+    private ArchiveListener createArchiveListener() {
+        return new ArchiveListener() {
+            @Override
+            public void onArchiveProgress(final long rowsCopied, final long totalRows, final long bytesCopied) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        archiveButton.setText(getString(R.string.archive_progress, rowsCopied, totalRows, bytesCopied / 1000));
+                    }
+                });
+            }
+
+            @Override
+            public void onArchiveFinished(final boolean success, long rowsArchived) {
+                Log.d(getString(R.string.app_name), "Archiving finished, success: " + success + ", archived rows: " + rowsArchived);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        archiveButton.setText(R.string.save_to_sd);
+                        archiveButton.setEnabled(true);
+                        Toast.makeText(getBaseContext(), getString(success ? R.string.archive_success : R.string.archive_failed_error), Toast.LENGTH_SHORT).show();
+                    }
+                });
+                updateArchiveDatabasesCount(pipeline);
+            }
+        };
+    }
+
     /**
      * Initiate the saving of the logs of this app to a file on the external storage
      */
@@ -324,6 +363,8 @@ public class MainActivity extends ActionBarActivity implements DataListener {
      */
     private void initiateImmediateScan() {
         if (pipeline.isEnabled()) {
+            // Let the bandwidth probe measure regardless of its adaptive schedule
+            AdaptiveSchedulePolicy.getInstance(this).requestManualRun();
             // Register the pipeline on the probes as a non-passive listener to run them manually once
             for (Probe probe : probes) {
                 probe.registerListener(pipeline);
@@ -339,17 +380,14 @@ public class MainActivity extends ActionBarActivity implements DataListener {
     }
 
     /**
-     * Queries the count of data entries in the pipeline database and refreshes the UI (specifically the dataCountView) accordingly
+     * Refreshes the UI (specifically the dataCountView) with the count of data entries in the pipeline database. The count is maintained by the pipeline, so this doesn't query the database.
+     *
+     * @param count count of data entries, or FunfTestPipeline.UNKNOWN_DATA_COUNT if it is not known yet
      */
-    private void updateScanCount() {
-        // Query the pipeline db for the count of rows in the data table
-        SQLiteDatabase db = pipeline.getDb();
-        Cursor cursor = db.rawQuery(TOTAL_COUNT_SQL, null);
-        cursor.moveToFirst();
-        final int count = cursor.getInt(0);
-        Log.d(getString(R.string.app_name), "updateScanCount(): Querying count from pipeline database at path: " + db.getPath());
-        Log.d(getString(R.string.app_name), "updateScanCount(): Data count: " + count + " , cursor content dump: " + DatabaseUtils.dumpCursorToString(cursor));
-        cursor.close();
+    private void updateScanCount(final long count) {
+        if (count == FunfTestPipeline.UNKNOWN_DATA_COUNT) {
+            return;
+        }
         // Update the interface via the UI thread
         runOnUiThread(new Runnable() {
             @Override
@@ -378,7 +416,7 @@ public class MainActivity extends ActionBarActivity implements DataListener {
     }
 
     /**
-     * Callback method when probes emit data. We use this to forward the data to the UI to display the received data in the TextView 'receivedDataView'
+     * Callback method when probes emit data. We use this to forward the data to the UI to display the received data in the ListView 'receivedDataList'
      * Important notice: This callback does seem to pick-up the data of manually run probes only, i.e probes which were registered by a reigsterListener(DataListener) call (e.g when the scan now button is clicked). This means that the data, that is being gathered by "normal" passive/scheduled probes is not getting intercepted and consequently not displayed.
      *
      * @param probeConfig configuration and parameters of the probe
@@ -387,30 +425,16 @@ public class MainActivity extends ActionBarActivity implements DataListener {
     @Override
     public void onDataReceived(final IJsonObject probeConfig, IJsonObject data) {
         Log.d(getString(R.string.app_name), "Now in onDataReceived()... ProbeConfig: " + probeConfig.toString() + "  data: " + data.toString());
+        // The entry is shown with the next frame, the list keeps scrolled to the most recent entry as long as the user doesn't scroll up
         if (!data.isJsonNull()) {
-            final String dataString = data.toString();
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    receivedDataView.setText(receivedDataView.getText() + "-*-  ProbeConfig  " + probeConfig.toString() + "\nData:  " + dataString + "  -+-\n");
-                }
-            });
+            receivedDataAdapter.addEntry("-*-  ProbeConfig  " + probeConfig.toString() + "\nData:  " + data.toString() + "  -+-");
         } else {
-            receivedDataView.setText(receivedDataView.getText() + "-*-  failed receive data (isJsonNull) from the probe:  " + probeConfig.toString() + "  -+-\n");
+            receivedDataAdapter.addEntry("-*-  failed receive data (isJsonNull) from the probe:  " + probeConfig.toString() + "  -+-");
         }
-
-        // Focus the most recent messages by scrolling the ScrollView 'receivedDataScroller', in which the refreshed TextView is located in, to the very bottom
-        // Fix for sometimes not scrolling all the way to the bottom: Delay the scroll for approx 200-250ms, so that the last element still can be registered and so the view scrolls all the way to the bottom (instead of only to the second last); source: https://stackoverflow.com/questions/14801215/scrollview-not-scrolling-down-completely
-        receivedDataScroller.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                receivedDataScroller.fullScroll(View.FOCUS_DOWN);
-            }
-        }, 200);
     }
 
     /**
-     * Callback method when a probe finishes sending a stream of data. We use this to update the count of the database entries and also re-register the probes to continue their service
+     * Callback method when a probe finishes sending a stream of data. We use this to re-register the probes to continue their service
      *
      * @param probeConfig configuration and parameters of the probe
      * @param checkpoint  checkpoint of stream progress of the probe. Only sent if the probe is a continuable probe
@@ -424,7 +448,6 @@ public class MainActivity extends ActionBarActivity implements DataListener {
             }
         }
         Log.d(getString(R.string.app_name), "Now in onDataCompleted()... ProbeConfig: " + probeConfig.toString() + "  checkpoint: " + checkpointString);
-        updateScanCount();
         // Re-register to keep listening after probe completes
         wifiProbe.registerPassiveListener(this);
         cellTowerProbe.registerPassiveListener(this);
@@ -0,0 +1,129 @@
+package de.informatik.uni_hamburg.yildiri.funftest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.ArrayDeque;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.RingBuffer;
+
+/**
+ * List adapter of the log of received probe data in the MainActivity. Only the most recent entries are kept in a {@link RingBuffer}, older entries page out, so the log neither grows without bound nor is copied as a whole on every update.
+ * Entries can be added from any thread. They are collected and handed to the list once per frame on the main thread, so that a burst of probe data results in a single update of the list.
+ */
+public class ReceivedDataAdapter extends BaseAdapter {
+
+    /**
+     * Number of entries kept in the log
+     */
+    public static final int DEFAULT_CAPACITY = 500;
+    /**
+     * Interval in milliseconds in which collected entries are handed to the list, i.e. about one frame at 60 fps
+     */
+    private static final long FRAME_INTERVAL_MS = 16;
+
+    /**
+     * Inflater of the views of the entries
+     */
+    private final LayoutInflater inflater;
+    /**
+     * Entries shown by the list, only accessed on the main thread
+     */
+    private final RingBuffer<String> entries;
+    /**
+     * Entries added since the last update of the list, guarded by itself
+     */
+    private final ArrayDeque<String> pendingEntries = new ArrayDeque<String>();
+    /**
+     * Whether an update of the list has been scheduled for the next frame, guarded by {@link #pendingEntries}
+     */
+    private boolean updateScheduled = false;
+    /**
+     * Handler of the main thread the list is updated on
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Hands the collected entries to the list
+     */
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateEntries();
+        }
+    };
+
+    /**
+     *
+     * @param context  the context of the list
+     * @param capacity number of entries kept in the log
+     */
+    public ReceivedDataAdapter(Context context, int capacity) {
+        this.inflater = LayoutInflater.from(context);
+        this.entries = new RingBuffer<String>(capacity);
+    }
+
+    /**
+     * Add an entry to the log. It is shown with the next frame. May be called from any thread.
+     *
+     * @param entry the entry to add
+     */
+    public void addEntry(String entry) {
+        synchronized (pendingEntries) {
+            pendingEntries.add(entry);
+            // Entries that would page out right away don't need to be kept until the next frame
+            if (pendingEntries.size() > entries.getCapacity()) {
+                pendingEntries.poll();
+            }
+            if (!updateScheduled) {
+                updateScheduled = true;
+                mainHandler.postDelayed(updateRunnable, FRAME_INTERVAL_MS);
+            }
+        }
+    }
+
+    /**
+     * Move the collected entries to the log and update the list once for all of them. Called on the main thread.
+     */
+    private void updateEntries() {
+        synchronized (pendingEntries) {
+            String entry;
+            while ((entry = pendingEntries.poll()) != null) {
+                entries.add(entry);
+            }
+            updateScheduled = false;
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return entries.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        return entries.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        // Recycle the views of entries scrolled out of sight
+        TextView textView = (TextView) convertView;
+        if (textView == null) {
+            textView = (TextView) inflater.inflate(R.layout.received_data_item, parent, false);
+        }
+        textView.setText(getItem(position));
+        return textView;
+    }
+}
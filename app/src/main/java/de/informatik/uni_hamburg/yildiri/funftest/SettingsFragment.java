@@ -3,6 +3,7 @@ package de.informatik.uni_hamburg.yildiri.funftest;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceGroup;
@@ -66,6 +67,9 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
         if(preference instanceof EditTextPreference) {
             EditTextPreference editTextPreference = (EditTextPreference) preference;
             editTextPreference.setSummary(editTextPreference.getText());
+        } else if(preference instanceof ListPreference) {
+            ListPreference listPreference = (ListPreference) preference;
+            listPreference.setSummary(listPreference.getEntry());
         }
     }
 }
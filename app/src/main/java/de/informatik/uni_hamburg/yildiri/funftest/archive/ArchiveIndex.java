@@ -0,0 +1,307 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Summary of the content of one archive file, kept in a small sidecar file by the {@link ArchiveQueryEngine}, so that archive files which can't match a query are skipped without opening them.
+ * It holds the time range of all data entries, the number of entries by probe type, and the connection types and the range of the overall total bandwidth of the results of the BandwidthProbe.
+ * The length and the modification time of the archive file are recorded as well, to detect when the index is stale.
+ */
+public class ArchiveIndex {
+
+    /**
+     * Version of the serialized form, indexes of another version are rebuilt
+     */
+    static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version", KEY_FILE_LENGTH = "file_length", KEY_LAST_MODIFIED = "last_modified",
+            KEY_MIN_TIMESTAMP = "min_timestamp", KEY_MAX_TIMESTAMP = "max_timestamp", KEY_PROBE_COUNTS = "probe_counts",
+            KEY_CONNECTION_TYPES = "connection_types", KEY_MIN_BANDWIDTH = "min_bandwidth", KEY_MAX_BANDWIDTH = "max_bandwidth";
+
+    /**
+     * Length of the archive file when it has been indexed
+     */
+    private final long fileLength;
+    /**
+     * Modification time of the archive file when it has been indexed
+     */
+    private final long lastModified;
+    /**
+     * Number of data entries by the name of the probe that has sent them
+     */
+    private final Map<String, Long> probeCounts = new TreeMap<String, Long>();
+    /**
+     * Connection types of the results of the BandwidthProbe, see {@link BandwidthQuery#getConnectionType(JsonObject)}
+     */
+    private final Set<Integer> connectionTypes = new TreeSet<Integer>();
+    /**
+     * Timestamp of the earliest data entry in seconds, NaN if there is none
+     */
+    private double minTimestamp = Double.NaN;
+    /**
+     * Timestamp of the latest data entry in seconds, NaN if there is none
+     */
+    private double maxTimestamp = Double.NaN;
+    /**
+     * Lowest overall total bandwidth of the results of the BandwidthProbe in kbit/s, NaN if there is none
+     */
+    private double minBandwidth = Double.NaN;
+    /**
+     * Highest overall total bandwidth of the results of the BandwidthProbe in kbit/s, NaN if there is none
+     */
+    private double maxBandwidth = Double.NaN;
+
+    /**
+     * Create an empty index of the current state of an archive file, to be filled by the add methods
+     *
+     * @param archiveFile the archive file
+     */
+    ArchiveIndex(File archiveFile) {
+        this(archiveFile.length(), archiveFile.lastModified());
+    }
+
+    /**
+     *
+     * @param fileLength   length of the archive file when it has been indexed
+     * @param lastModified modification time of the archive file when it has been indexed
+     */
+    private ArchiveIndex(long fileLength, long lastModified) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Add data entries of a probe
+     *
+     * @param probeName    name of the probe that has sent the entries
+     * @param count        number of entries
+     * @param minTimestamp timestamp of the earliest of the entries in seconds
+     * @param maxTimestamp timestamp of the latest of the entries in seconds
+     */
+    void addEntries(String probeName, long count, double minTimestamp, double maxTimestamp) {
+        Long previousCount = probeCounts.get(probeName);
+        probeCounts.put(probeName, previousCount == null ? count : previousCount + count);
+        this.minTimestamp = min(this.minTimestamp, minTimestamp);
+        this.maxTimestamp = max(this.maxTimestamp, maxTimestamp);
+    }
+
+    /**
+     * Add the connection type and the bandwidth of a result of the BandwidthProbe. The entry itself has to be added by {@link #addEntries(String, long, double, double)}.
+     *
+     * @param connectionType connection type of the result
+     * @param bandwidth      overall total bandwidth of the result in kbit/s, NaN if unknown
+     */
+    void addBandwidthResult(int connectionType, double bandwidth) {
+        connectionTypes.add(connectionType);
+        minBandwidth = min(minBandwidth, bandwidth);
+        maxBandwidth = max(maxBandwidth, bandwidth);
+    }
+
+    /**
+     * Check whether the index still describes the archive file
+     *
+     * @param archiveFile the archive file
+     * @return false if the file has changed since it has been indexed
+     */
+    boolean isCurrent(File archiveFile) {
+        return archiveFile.length() == fileLength && archiveFile.lastModified() == lastModified;
+    }
+
+    /**
+     * Check whether the archive file may contain results matching the query
+     *
+     * @param query    the query
+     * @param dataName name of the data entries of the results, i.e. the type of the BandwidthProbe
+     * @return false if the archive file certainly doesn't contain any matching result
+     */
+    public boolean mayMatch(BandwidthQuery query, String dataName) {
+        if (getEntryCount(dataName) == 0) {
+            return false;
+        }
+        if (maxTimestamp < query.getFromTimestamp() || minTimestamp > query.getToTimestamp()) {
+            return false;
+        }
+        if (query.getConnectionType() != BandwidthQuery.ANY_CONNECTION_TYPE && !connectionTypes.contains(query.getConnectionType())) {
+            return false;
+        }
+        if (query.hasBandwidthRange()) {
+            // Without any known bandwidth both comparisons are false, so nothing can match
+            return maxBandwidth >= query.getMinBandwidth() && minBandwidth <= query.getMaxBandwidth();
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of data entries of a probe
+     *
+     * @param probeName name of the probe
+     * @return number of entries
+     */
+    public long getEntryCount(String probeName) {
+        Long count = probeCounts.get(probeName);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Get the number of data entries by the name of the probe that has sent them
+     *
+     * @return unmodifiable map of the entry counts
+     */
+    public Map<String, Long> getProbeCounts() {
+        return Collections.unmodifiableMap(probeCounts);
+    }
+
+    /**
+     * Get the connection types of the results of the BandwidthProbe
+     *
+     * @return unmodifiable set of the connection types
+     */
+    public Set<Integer> getConnectionTypes() {
+        return Collections.unmodifiableSet(connectionTypes);
+    }
+
+    /**
+     * Get the timestamp of the earliest data entry
+     *
+     * @return timestamp in seconds, NaN if there is no entry
+     */
+    public double getMinTimestamp() {
+        return this.minTimestamp;
+    }
+
+    /**
+     * Get the timestamp of the latest data entry
+     *
+     * @return timestamp in seconds, NaN if there is no entry
+     */
+    public double getMaxTimestamp() {
+        return this.maxTimestamp;
+    }
+
+    /**
+     * Get the lowest overall total bandwidth of the results of the BandwidthProbe
+     *
+     * @return bandwidth in kbit/s, NaN if there is no result
+     */
+    public double getMinBandwidth() {
+        return this.minBandwidth;
+    }
+
+    /**
+     * Get the highest overall total bandwidth of the results of the BandwidthProbe
+     *
+     * @return bandwidth in kbit/s, NaN if there is no result
+     */
+    public double getMaxBandwidth() {
+        return this.maxBandwidth;
+    }
+
+    /**
+     * Serialize the index into a JSON object, leaving out the unknown values
+     *
+     * @return JSON object of the index
+     */
+    JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty(KEY_VERSION, VERSION);
+        json.addProperty(KEY_FILE_LENGTH, fileLength);
+        json.addProperty(KEY_LAST_MODIFIED, lastModified);
+        addIfKnown(json, KEY_MIN_TIMESTAMP, minTimestamp);
+        addIfKnown(json, KEY_MAX_TIMESTAMP, maxTimestamp);
+        JsonObject counts = new JsonObject();
+        for (Map.Entry<String, Long> probeCount : probeCounts.entrySet()) {
+            counts.addProperty(probeCount.getKey(), probeCount.getValue());
+        }
+        json.add(KEY_PROBE_COUNTS, counts);
+        JsonArray types = new JsonArray();
+        for (Integer connectionType : connectionTypes) {
+            types.add(new JsonPrimitive(connectionType));
+        }
+        json.add(KEY_CONNECTION_TYPES, types);
+        addIfKnown(json, KEY_MIN_BANDWIDTH, minBandwidth);
+        addIfKnown(json, KEY_MAX_BANDWIDTH, maxBandwidth);
+        return json;
+    }
+
+    /**
+     * Deserialize an index written by {@link #toJson()}
+     *
+     * @param json JSON object of the index
+     * @return the index, or null if it has been written by another version
+     * @throws RuntimeException if the JSON object is malformed
+     */
+    static ArchiveIndex fromJson(JsonObject json) {
+        if (json.get(KEY_VERSION).getAsInt() != VERSION) {
+            return null;
+        }
+        ArchiveIndex index = new ArchiveIndex(json.get(KEY_FILE_LENGTH).getAsLong(), json.get(KEY_LAST_MODIFIED).getAsLong());
+        index.minTimestamp = getIfKnown(json, KEY_MIN_TIMESTAMP);
+        index.maxTimestamp = getIfKnown(json, KEY_MAX_TIMESTAMP);
+        for (Map.Entry<String, JsonElement> probeCount : json.getAsJsonObject(KEY_PROBE_COUNTS).entrySet()) {
+            index.probeCounts.put(probeCount.getKey(), probeCount.getValue().getAsLong());
+        }
+        for (JsonElement connectionType : json.getAsJsonArray(KEY_CONNECTION_TYPES)) {
+            index.connectionTypes.add(connectionType.getAsInt());
+        }
+        index.minBandwidth = getIfKnown(json, KEY_MIN_BANDWIDTH);
+        index.maxBandwidth = getIfKnown(json, KEY_MAX_BANDWIDTH);
+        return index;
+    }
+
+    /**
+     * Add a value to a JSON object unless it is NaN
+     *
+     * @param json  the JSON object
+     * @param key   key of the value
+     * @param value the value
+     */
+    private static void addIfKnown(JsonObject json, String key, double value) {
+        if (!Double.isNaN(value)) {
+            json.addProperty(key, value);
+        }
+    }
+
+    /**
+     * Get a value of a JSON object added by {@link #addIfKnown(JsonObject, String, double)}
+     *
+     * @param json the JSON object
+     * @param key  key of the value
+     * @return the value, NaN if it is absent
+     */
+    private static double getIfKnown(JsonObject json, String key) {
+        JsonElement value = json.get(key);
+        return value == null ? Double.NaN : value.getAsDouble();
+    }
+
+    /**
+     * Get the minimum of two values, ignoring NaN
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return the minimum, NaN only if both values are NaN
+     */
+    private static double min(double a, double b) {
+        return Double.isNaN(a) || b < a ? b : a;
+    }
+
+    /**
+     * Get the maximum of two values, ignoring NaN
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return the maximum, NaN only if both values are NaN
+     */
+    private static double max(double a, double b) {
+        return Double.isNaN(a) || b > a ? b : a;
+    }
+}
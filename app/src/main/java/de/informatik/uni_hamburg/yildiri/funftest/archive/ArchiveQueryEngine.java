@@ -0,0 +1,438 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.mit.media.funf.storage.NameValueDatabaseHelper;
+
+/**
+ * Queries the results of the BandwidthProbe across all archive files, i.e. the SQLite databases archived by funf and the columnar archives written by {@link ColumnarArchiveWriter}.
+ * For every archive file a small sidecar index is kept in the index directory, see {@link ArchiveIndex}. Before an archive file is opened by a query, its index is checked, so files that can't contain matching results are skipped.
+ * The indexes are maintained incrementally: only archive files without a current index are read by {@link #update(File[])}, and indexes of archive files that are gone are deleted.
+ * The index directory has to be separate from the archive directories, since funf counts every file in them as archive.
+ * All methods do file and database I/O and must not be called on the main thread. The maintenance of the indexes is synchronized, but a query only holds the lock while it selects the archive files by their indexes and streams the results unlocked, so that a long query on another thread doesn't block the pipeline indexing a new archive.
+ */
+public class ArchiveQueryEngine {
+
+    /**
+     * File name suffix of the sidecar indexes
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Directory the sidecar indexes are kept in
+     */
+    private final File indexDir;
+    /**
+     * Name of the data entries of the results, i.e. the type of the BandwidthProbe
+     */
+    private final String dataName;
+    /**
+     * Parser of the data entries and the sidecar indexes. It keeps no state between calls, so it is shared by concurrent queries.
+     */
+    private final JsonParser jsonParser = new JsonParser();
+
+    /**
+     * State of a running query
+     */
+    private static class QueryProgress {
+        /**
+         * Number of matching results delivered to the listener so far
+         */
+        long matches;
+        /**
+         * Whether the listener has stopped the query
+         */
+        boolean stopped;
+    }
+
+    /**
+     *
+     * @param indexDir directory the sidecar indexes are kept in, created if it doesn't exist
+     * @param dataName name of the data entries of the results, i.e. the type of the BandwidthProbe
+     */
+    public ArchiveQueryEngine(File indexDir, String dataName) {
+        this.indexDir = indexDir;
+        this.dataName = dataName;
+    }
+
+    /**
+     * Index all archive files without a current index and delete the indexes of archive files that are gone
+     *
+     * @param archiveFiles all archive files
+     * @return number of archive files that have been indexed
+     */
+    public synchronized int update(File[] archiveFiles) {
+        int indexed = 0;
+        Set<String> indexNames = new HashSet<String>();
+        for (File archiveFile : archiveFiles) {
+            indexNames.add(getIndexFile(archiveFile).getName());
+            if (loadIndex(archiveFile) == null && buildIndex(archiveFile) != null) {
+                indexed++;
+            }
+        }
+        File[] indexFiles = indexDir.listFiles();
+        if (indexFiles != null) {
+            for (File indexFile : indexFiles) {
+                if (indexFile.getName().endsWith(INDEX_SUFFIX) && !indexNames.contains(indexFile.getName())) {
+                    indexFile.delete();
+                }
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Get the index of an archive file, building it if there is no current one
+     *
+     * @param archiveFile the archive file
+     * @return the index, or null if the archive file can't be read
+     */
+    public synchronized ArchiveIndex getIndex(File archiveFile) {
+        ArchiveIndex index = loadIndex(archiveFile);
+        return index != null ? index : buildIndex(archiveFile);
+    }
+
+    /**
+     * Stream the results matching the query out of all archive files that may contain them
+     *
+     * @param archiveFiles all archive files
+     * @param query        the query
+     * @param listener     listener receiving the matching results
+     * @return number of matching results delivered to the listener
+     * @throws IOException if an archive file that may contain matching results can't be read
+     */
+    public long query(File[] archiveFiles, BandwidthQuery query, BandwidthRowListener listener) throws IOException {
+        List<File> candidateFiles = selectCandidateFiles(archiveFiles, query);
+        QueryProgress progress = new QueryProgress();
+        for (File archiveFile : candidateFiles) {
+            if (isColumnar(archiveFile)) {
+                queryColumnar(archiveFile, query, listener, progress);
+            } else {
+                queryDatabase(archiveFile, query, listener, progress);
+            }
+            if (progress.stopped) {
+                break;
+            }
+        }
+        Log.d(getClass().getSimpleName(), query + " matched " + progress.matches + " results, skipped " + (archiveFiles.length - candidateFiles.size()) + " of " + archiveFiles.length + " archive files");
+        return progress.matches;
+    }
+
+    /**
+     * Select the archive files that may contain results matching the query by their indexes, building the missing indexes
+     *
+     * @param archiveFiles all archive files
+     * @param query        the query
+     * @return the archive files that may contain matching results
+     */
+    private synchronized List<File> selectCandidateFiles(File[] archiveFiles, BandwidthQuery query) {
+        List<File> candidateFiles = new ArrayList<File>();
+        for (File archiveFile : archiveFiles) {
+            ArchiveIndex index = getIndex(archiveFile);
+            if (index != null && index.mayMatch(query, dataName)) {
+                candidateFiles.add(archiveFile);
+            }
+        }
+        return candidateFiles;
+    }
+
+    /**
+     * Stream the matching results out of an archived SQLite database. The time window is applied by the query, the other conditions on the parsed data.
+     *
+     * @param archiveFile the database file
+     * @param query       the query
+     * @param listener    listener receiving the matching results
+     * @param progress    state of the query, updated with the matching results
+     * @throws IOException if the database can't be read
+     */
+    private void queryDatabase(File archiveFile, BandwidthQuery query, BandwidthRowListener listener, QueryProgress progress) throws IOException {
+        StringBuilder sql = new StringBuilder("SELECT " + NameValueDatabaseHelper.COLUMN_TIMESTAMP + ", " + NameValueDatabaseHelper.COLUMN_VALUE
+                + " FROM " + NameValueDatabaseHelper.DATA_TABLE.name + " WHERE " + NameValueDatabaseHelper.COLUMN_NAME + " = ?");
+        List<String> args = new ArrayList<String>();
+        args.add(dataName);
+        // Infinite bounds are left out, SQLite would compare them as text
+        if (!Double.isInfinite(query.getFromTimestamp())) {
+            sql.append(" AND ").append(NameValueDatabaseHelper.COLUMN_TIMESTAMP).append(" >= ?");
+            args.add(String.valueOf(query.getFromTimestamp()));
+        }
+        if (!Double.isInfinite(query.getToTimestamp())) {
+            sql.append(" AND ").append(NameValueDatabaseHelper.COLUMN_TIMESTAMP).append(" <= ?");
+            args.add(String.valueOf(query.getToTimestamp()));
+        }
+        sql.append(" ORDER BY _id");
+
+        SQLiteDatabase db = openDatabase(archiveFile);
+        try {
+            Cursor cursor = db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+            try {
+                while (cursor.moveToNext()) {
+                    JsonObject data = parseData(cursor.getString(1));
+                    if (data == null) {
+                        continue;
+                    }
+                    double timestamp = BandwidthQuery.getTimestamp(data, cursor.getDouble(0));
+                    if (query.matches(timestamp, data)) {
+                        progress.matches++;
+                        if (!listener.onBandwidthRow(archiveFile, timestamp, data)) {
+                            progress.stopped = true;
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException("failed to query " + archiveFile + ": " + e.getMessage());
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Stream the matching results out of a columnar archive
+     *
+     * @param archiveFile the columnar archive file
+     * @param query       the query
+     * @param listener    listener receiving the matching results
+     * @param progress    state of the query, updated with the matching results
+     * @throws IOException if the archive can't be read
+     */
+    private void queryColumnar(File archiveFile, BandwidthQuery query, BandwidthRowListener listener, QueryProgress progress) throws IOException {
+        ColumnarArchiveReader reader = new ColumnarArchiveReader(new BufferedInputStream(new FileInputStream(archiveFile)));
+        try {
+            JsonObject data;
+            while ((data = reader.read()) != null) {
+                double timestamp = BandwidthQuery.getTimestamp(data, Double.NaN);
+                if (query.matches(timestamp, data)) {
+                    progress.matches++;
+                    if (!listener.onBandwidthRow(archiveFile, timestamp, data)) {
+                        progress.stopped = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read an archive file and write its sidecar index
+     *
+     * @param archiveFile the archive file
+     * @return the index, or null if the archive file can't be read
+     */
+    private ArchiveIndex buildIndex(File archiveFile) {
+        ArchiveIndex index = new ArchiveIndex(archiveFile);
+        try {
+            if (isColumnar(archiveFile)) {
+                indexColumnar(archiveFile, index);
+            } else {
+                indexDatabase(archiveFile, index);
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Can't index the archive file " + archiveFile + ": " + e.getMessage());
+            return null;
+        }
+        saveIndex(archiveFile, index);
+        return index;
+    }
+
+    /**
+     * Index an archived SQLite database. The probe types and the time range are aggregated by the database, only the results of the BandwidthProbe are parsed.
+     *
+     * @param archiveFile the database file
+     * @param index       the index to fill
+     * @throws IOException if the database can't be read
+     */
+    private void indexDatabase(File archiveFile, ArchiveIndex index) throws IOException {
+        SQLiteDatabase db = openDatabase(archiveFile);
+        try {
+            Cursor cursor = db.rawQuery("SELECT " + NameValueDatabaseHelper.COLUMN_NAME + ", COUNT(*), MIN(" + NameValueDatabaseHelper.COLUMN_TIMESTAMP + "), MAX(" + NameValueDatabaseHelper.COLUMN_TIMESTAMP + ")"
+                    + " FROM " + NameValueDatabaseHelper.DATA_TABLE.name + " GROUP BY " + NameValueDatabaseHelper.COLUMN_NAME, null);
+            try {
+                while (cursor.moveToNext()) {
+                    if (!cursor.isNull(0)) {
+                        index.addEntries(cursor.getString(0), cursor.getLong(1), cursor.getDouble(2), cursor.getDouble(3));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (index.getEntryCount(dataName) == 0) {
+                return;
+            }
+            cursor = db.rawQuery("SELECT " + NameValueDatabaseHelper.COLUMN_VALUE + " FROM " + NameValueDatabaseHelper.DATA_TABLE.name
+                    + " WHERE " + NameValueDatabaseHelper.COLUMN_NAME + " = ?", new String[]{dataName});
+            try {
+                while (cursor.moveToNext()) {
+                    JsonObject data = parseData(cursor.getString(0));
+                    if (data != null) {
+                        index.addBandwidthResult(BandwidthQuery.getConnectionType(data), BandwidthQuery.getBandwidth(data));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException("failed to index " + archiveFile + ": " + e.getMessage());
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Index a columnar archive, which only holds results of the BandwidthProbe
+     *
+     * @param archiveFile the columnar archive file
+     * @param index       the index to fill
+     * @throws IOException if the archive can't be read
+     */
+    private void indexColumnar(File archiveFile, ArchiveIndex index) throws IOException {
+        ColumnarArchiveReader reader = new ColumnarArchiveReader(new BufferedInputStream(new FileInputStream(archiveFile)));
+        try {
+            JsonObject data;
+            while ((data = reader.read()) != null) {
+                double timestamp = BandwidthQuery.getTimestamp(data, Double.NaN);
+                index.addEntries(dataName, 1, timestamp, timestamp);
+                index.addBandwidthResult(BandwidthQuery.getConnectionType(data), BandwidthQuery.getBandwidth(data));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Load the sidecar index of an archive file
+     *
+     * @param archiveFile the archive file
+     * @return the index, or null if there is none or it is stale or unreadable
+     */
+    private ArchiveIndex loadIndex(File archiveFile) {
+        File indexFile = getIndexFile(archiveFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(indexFile), "UTF-8");
+            try {
+                ArchiveIndex index = ArchiveIndex.fromJson(jsonParser.parse(reader).getAsJsonObject());
+                return index != null && index.isCurrent(archiveFile) ? index : null;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Can't read the index " + indexFile + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Malformed JSON or missing values, e.g. of an index that has been written only partially
+            Log.w(getClass().getSimpleName(), "Malformed index " + indexFile + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Write the sidecar index of an archive file. The index is written to a temporary file first, so that a partially written index is never read.
+     *
+     * @param archiveFile the archive file
+     * @param index       the index
+     */
+    private void saveIndex(File archiveFile, ArchiveIndex index) {
+        if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+            Log.w(getClass().getSimpleName(), "Can't create the index directory " + indexDir);
+            return;
+        }
+        File indexFile = getIndexFile(archiveFile);
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            try {
+                writer.write(index.toJson().toString());
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                Log.w(getClass().getSimpleName(), "Can't move the index to " + indexFile);
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Can't write the index " + indexFile + ": " + e.getMessage());
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Parse the value of a data entry
+     *
+     * @param value the value as JSON text
+     * @return the JSON object, or null if the value isn't one
+     */
+    private JsonObject parseData(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            JsonElement element = jsonParser.parse(value);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Open an archived SQLite database read-only
+     *
+     * @param archiveFile the database file
+     * @return the opened database
+     * @throws IOException if the file isn't a database that can be opened
+     */
+    private static SQLiteDatabase openDatabase(File archiveFile) throws IOException {
+        try {
+            return SQLiteDatabase.openDatabase(archiveFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLException e) {
+            throw new IOException("failed to open " + archiveFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the sidecar index file of an archive file
+     *
+     * @param archiveFile the archive file
+     * @return the index file
+     */
+    private File getIndexFile(File archiveFile) {
+        return new File(indexDir, archiveFile.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Check whether an archive file is a columnar archive
+     *
+     * @param archiveFile the archive file
+     * @return true for columnar archives, false for SQLite databases
+     */
+    private static boolean isColumnar(File archiveFile) {
+        return archiveFile.getName().endsWith(ColumnarArchiveWriter.FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,186 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthProbeKeys;
+
+/**
+ * Selects archived results of the BandwidthProbe by a time window, a connection type and optionally a range of the overall total bandwidth.
+ * The timestamps are given in seconds since the epoch, like the timestamps of funf. Infinite bounds leave the window open on that side.
+ */
+public class BandwidthQuery {
+
+    /**
+     * Connection type of a query that matches results of all connection types
+     */
+    public static final int ANY_CONNECTION_TYPE = Integer.MIN_VALUE;
+    /**
+     * Connection type of the results archived before the connection type has been recorded along with them
+     */
+    public static final int UNKNOWN_CONNECTION_TYPE = -2;
+
+    /**
+     * Start of the time window in seconds, inclusive
+     */
+    private final double fromTimestamp;
+    /**
+     * End of the time window in seconds, inclusive
+     */
+    private final double toTimestamp;
+    /**
+     * Connection type of the results, one of <code>ConnectivityManager.TYPE_*</code>, {@link #UNKNOWN_CONNECTION_TYPE} or {@link #ANY_CONNECTION_TYPE}
+     */
+    private final int connectionType;
+    /**
+     * Lower bound of the overall total bandwidth in kbit/s, inclusive
+     */
+    private double minBandwidth = Double.NEGATIVE_INFINITY;
+    /**
+     * Upper bound of the overall total bandwidth in kbit/s, inclusive
+     */
+    private double maxBandwidth = Double.POSITIVE_INFINITY;
+
+    /**
+     *
+     * @param fromTimestamp  start of the time window in seconds, inclusive, or negative infinity
+     * @param toTimestamp    end of the time window in seconds, inclusive, or positive infinity
+     * @param connectionType connection type of the results, one of <code>ConnectivityManager.TYPE_*</code>, {@link #UNKNOWN_CONNECTION_TYPE} or {@link #ANY_CONNECTION_TYPE}
+     */
+    public BandwidthQuery(double fromTimestamp, double toTimestamp, int connectionType) {
+        if (fromTimestamp > toTimestamp) {
+            throw new IllegalArgumentException("fromTimestamp " + fromTimestamp + " is after toTimestamp " + toTimestamp);
+        }
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        this.connectionType = connectionType;
+    }
+
+    /**
+     * Restrict the query to results with an overall total bandwidth within the given range
+     *
+     * @param minBandwidth lower bound in kbit/s, inclusive
+     * @param maxBandwidth upper bound in kbit/s, inclusive
+     */
+    public void setBandwidthRange(double minBandwidth, double maxBandwidth) {
+        if (minBandwidth > maxBandwidth) {
+            throw new IllegalArgumentException("minBandwidth " + minBandwidth + " is greater than maxBandwidth " + maxBandwidth);
+        }
+        this.minBandwidth = minBandwidth;
+        this.maxBandwidth = maxBandwidth;
+    }
+
+    /**
+     * Get the start of the time window in seconds
+     *
+     * @return start of the time window in seconds
+     */
+    public double getFromTimestamp() {
+        return this.fromTimestamp;
+    }
+
+    /**
+     * Get the end of the time window in seconds
+     *
+     * @return end of the time window in seconds
+     */
+    public double getToTimestamp() {
+        return this.toTimestamp;
+    }
+
+    /**
+     * Get the connection type of the results
+     *
+     * @return connection type of the results, or {@link #ANY_CONNECTION_TYPE}
+     */
+    public int getConnectionType() {
+        return this.connectionType;
+    }
+
+    /**
+     * Get the lower bound of the overall total bandwidth in kbit/s
+     *
+     * @return lower bound of the overall total bandwidth in kbit/s
+     */
+    public double getMinBandwidth() {
+        return this.minBandwidth;
+    }
+
+    /**
+     * Get the upper bound of the overall total bandwidth in kbit/s
+     *
+     * @return upper bound of the overall total bandwidth in kbit/s
+     */
+    public double getMaxBandwidth() {
+        return this.maxBandwidth;
+    }
+
+    /**
+     * Check whether the query restricts the overall total bandwidth
+     *
+     * @return true if a bandwidth range has been set
+     */
+    public boolean hasBandwidthRange() {
+        return minBandwidth != Double.NEGATIVE_INFINITY || maxBandwidth != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Check whether an archived result matches the query
+     *
+     * @param timestamp timestamp of the result in seconds
+     * @param data      the data of the result as sent by the BandwidthProbe
+     * @return true if the result matches
+     */
+    public boolean matches(double timestamp, JsonObject data) {
+        if (timestamp < fromTimestamp || timestamp > toTimestamp) {
+            return false;
+        }
+        if (connectionType != ANY_CONNECTION_TYPE && getConnectionType(data) != connectionType) {
+            return false;
+        }
+        if (hasBandwidthRange()) {
+            double bandwidth = getBandwidth(data);
+            return bandwidth >= minBandwidth && bandwidth <= maxBandwidth;
+        }
+        return true;
+    }
+
+    /**
+     * Get the connection type of an archived result
+     *
+     * @param data the data of the result as sent by the BandwidthProbe
+     * @return the connection type, or {@link #UNKNOWN_CONNECTION_TYPE} if it hasn't been recorded
+     */
+    static int getConnectionType(JsonObject data) {
+        JsonElement connectionType = data.get(BandwidthProbeKeys.CONNECTION_TYPE);
+        return connectionType == null || !connectionType.isJsonPrimitive() ? UNKNOWN_CONNECTION_TYPE : connectionType.getAsInt();
+    }
+
+    /**
+     * Get the overall total bandwidth of an archived result
+     *
+     * @param data the data of the result as sent by the BandwidthProbe
+     * @return the bandwidth in kbit/s, or NaN if it hasn't been recorded
+     */
+    static double getBandwidth(JsonObject data) {
+        JsonElement bandwidth = data.get(BandwidthProbeKeys.BANDWIDTH_TOTAL);
+        return bandwidth == null || !bandwidth.isJsonPrimitive() ? Double.NaN : bandwidth.getAsDouble();
+    }
+
+    /**
+     * Get the timestamp of an archived result
+     *
+     * @param data             the data of the result as sent by the BandwidthProbe
+     * @param defaultTimestamp timestamp to return if the data doesn't contain one, e.g. the one of the database entry
+     * @return the timestamp in seconds
+     */
+    static double getTimestamp(JsonObject data, double defaultTimestamp) {
+        JsonElement timestamp = data.get(BandwidthProbeKeys.TIMESTAMP);
+        return timestamp == null || !timestamp.isJsonPrimitive() ? defaultTimestamp : timestamp.getAsDouble();
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthQuery{from " + fromTimestamp + " to " + toTimestamp + ", connection type " + connectionType + ", bandwidth " + minBandwidth + " to " + maxBandwidth + "}";
+    }
+}
@@ -0,0 +1,21 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import com.google.gson.JsonObject;
+
+import java.io.File;
+
+/**
+ * Receives the archived results of the BandwidthProbe matching a {@link BandwidthQuery}, one at a time while they are read from the archive files
+ */
+public interface BandwidthRowListener {
+
+    /**
+     * Called for every matching result. The results of one archive file are delivered in the order they have been archived, but the archive files are read in no particular order.
+     *
+     * @param archiveFile the archive file the result has been read from
+     * @param timestamp   timestamp of the result in seconds
+     * @param data        the data of the result as sent by the BandwidthProbe
+     * @return true to continue the query, false to stop it
+     */
+    boolean onBandwidthRow(File archiveFile, double timestamp, JsonObject data);
+}
@@ -0,0 +1,138 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.VarLongs;
+
+/**
+ * Constants and encoding primitives of the columnar archive format, shared by the {@link ColumnarArchiveWriter} and the {@link ColumnarArchiveReader}.
+ * <p>
+ * A file starts with the {@link #MAGIC} bytes and the {@link #VERSION}, followed by blocks of records. Each block is stored as the varint length of its compressed payload followed by the payload, compressed with deflate.
+ * The payload holds the record count and the columns of the block, one column per key of the records. A column consists of its name, its type, which records it is present in and the values of these records:
+ * <ul>
+ * <li>{@link #TYPE_LONG}: zigzag varints of the deltas between subsequent values</li>
+ * <li>{@link #TYPE_DOUBLE}: if all values are decimals with at most {@link #MAX_DECIMAL_SCALE} fraction digits, a scale byte and the zigzag varint deltas of the values scaled to longs. Otherwise {@link #SCALE_XOR} and varints of the bits of each value XORed with the ones of the previous value.</li>
+ * <li>{@link #TYPE_BOOLEAN}: a bitmap</li>
+ * <li>{@link #TYPE_STRING} and {@link #TYPE_JSON}: a dictionary of the distinct values and the varint indices into it</li>
+ * </ul>
+ * Since the values of a column change slowly between measurements, the deltas and XORs are mostly small and the compression of the block takes care of the remaining redundancy.
+ */
+final class ColumnarArchiveFormat {
+
+    /**
+     * Bytes every archive file starts with
+     */
+    static final byte[] MAGIC = {'F', 'T', 'C', 'A'};
+    /**
+     * Version of the format
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Column of integral numbers
+     */
+    static final int TYPE_LONG = 1;
+    /**
+     * Column of floating point numbers
+     */
+    static final int TYPE_DOUBLE = 2;
+    /**
+     * Column of booleans
+     */
+    static final int TYPE_BOOLEAN = 3;
+    /**
+     * Column of strings
+     */
+    static final int TYPE_STRING = 4;
+    /**
+     * Column of any other JSON elements, or of mixed types, stored as their JSON text
+     */
+    static final int TYPE_JSON = 5;
+
+    /**
+     * Maximum number of fraction digits of the doubles stored as scaled longs
+     */
+    static final int MAX_DECIMAL_SCALE = 6;
+    /**
+     * Scale byte of the double columns stored as XORed bits
+     */
+    static final int SCALE_XOR = 0xFF;
+    /**
+     * Largest magnitude of the scaled longs, up to which every long can be represented exactly as double
+     */
+    static final double MAX_EXACT_DOUBLE = 1L << 53;
+
+    /**
+     * Presence flag of a column present in all records of the block
+     */
+    static final int PRESENT_IN_ALL = 1;
+    /**
+     * Presence flag of a column followed by a bitmap of the records it is present in
+     */
+    static final int PRESENT_BITMAP = 0;
+
+    private ColumnarArchiveFormat() {
+    }
+
+    /**
+     * Map a signed long to an unsigned one, so that values of a small magnitude result in small varints
+     *
+     * @param value the signed value
+     * @return the zigzag encoded value
+     */
+    static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverse {@link #zigzagEncode(long)}
+     *
+     * @param value the zigzag encoded value
+     * @return the signed value
+     */
+    static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a string as varint length followed by its UTF-8 bytes
+     *
+     * @param out   stream to write to
+     * @param value the string
+     * @throws IOException if writing fails
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        VarLongs.write(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param in stream to read from
+     * @return the string
+     * @throws IOException if reading fails
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) VarLongs.read(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Get 10 to the power of the given scale
+     *
+     * @param scale number of fraction digits
+     * @return the factor the values of that scale are multiplied with
+     */
+    static double getScaleFactor(int scale) {
+        double factor = 1;
+        for (int i = 0; i < scale; i++) {
+            factor *= 10;
+        }
+        return factor;
+    }
+}
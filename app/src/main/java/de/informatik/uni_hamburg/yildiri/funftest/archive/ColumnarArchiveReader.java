@@ -0,0 +1,263 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.VarLongs;
+
+/**
+ * Streams the records of an archive file written by the {@link ColumnarArchiveWriter} back out.
+ * Only one block is decoded at a time, so the memory used doesn't depend on the size of the archive.
+ */
+public class ColumnarArchiveReader implements Closeable {
+
+    /**
+     * Stream the archive is read from
+     */
+    private final DataInputStream in;
+    /**
+     * Parser of the values of JSON columns
+     */
+    private final JsonParser jsonParser = new JsonParser();
+    /**
+     * Records of the current block
+     */
+    private JsonObject[] blockRecords = new JsonObject[0];
+    /**
+     * Index of the next record of the current block to be returned
+     */
+    private int nextRecordIndex = 0;
+
+    /**
+     *
+     * @param in stream to read the archive from, closed by {@link #close()}
+     * @throws IOException if the stream doesn't start with a supported archive header
+     */
+    public ColumnarArchiveReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        byte[] magic = new byte[ColumnarArchiveFormat.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarArchiveFormat.MAGIC)) {
+            throw new IOException("not a columnar archive");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != ColumnarArchiveFormat.VERSION) {
+            throw new IOException("unsupported columnar archive version " + version);
+        }
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return the record, or null if the end of the archive has been reached
+     * @throws IOException if reading fails or the archive is corrupt
+     */
+    public JsonObject read() throws IOException {
+        while (nextRecordIndex >= blockRecords.length) {
+            if (!readBlock()) {
+                return null;
+            }
+        }
+        return blockRecords[nextRecordIndex++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read, decompress and decode the next block
+     *
+     * @return false if the end of the archive has been reached
+     * @throws IOException if reading fails or the block is corrupt
+     */
+    private boolean readBlock() throws IOException {
+        int firstByte = in.read();
+        if (firstByte < 0) {
+            return false;
+        }
+        // The first byte of the length has already been read to detect the end of the archive
+        long compressedLength = firstByte & 0x7F;
+        if ((firstByte & 0x80) != 0) {
+            compressedLength |= VarLongs.read(in) << 7;
+        }
+        byte[] compressed = new byte[(int) compressedLength];
+        in.readFully(compressed);
+        DataInputStream payload = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+
+        int count = (int) VarLongs.read(payload);
+        JsonObject[] records = new JsonObject[count];
+        for (int i = 0; i < count; i++) {
+            records[i] = new JsonObject();
+        }
+        long columnCount = VarLongs.read(payload);
+        for (long c = 0; c < columnCount; c++) {
+            readColumn(payload, records);
+        }
+        blockRecords = records;
+        nextRecordIndex = 0;
+        return true;
+    }
+
+    /**
+     * Read a column and add its values to the records it is present in
+     *
+     * @param payload stream of the block payload
+     * @param records records of the block
+     * @throws IOException if reading fails or the column is corrupt
+     */
+    private void readColumn(DataInputStream payload, JsonObject[] records) throws IOException {
+        String name = ColumnarArchiveFormat.readString(payload);
+        int type = payload.readUnsignedByte();
+
+        int[] recordIndices;
+        int presence = payload.readUnsignedByte();
+        if (presence == ColumnarArchiveFormat.PRESENT_IN_ALL) {
+            recordIndices = new int[records.length];
+            for (int i = 0; i < records.length; i++) {
+                recordIndices[i] = i;
+            }
+        } else {
+            byte[] bitmap = new byte[(records.length + 7) / 8];
+            payload.readFully(bitmap);
+            int presentCount = 0;
+            for (int i = 0; i < records.length; i++) {
+                if ((bitmap[i / 8] & (1 << (i % 8))) != 0) {
+                    presentCount++;
+                }
+            }
+            recordIndices = new int[presentCount];
+            int v = 0;
+            for (int i = 0; i < records.length; i++) {
+                if ((bitmap[i / 8] & (1 << (i % 8))) != 0) {
+                    recordIndices[v++] = i;
+                }
+            }
+        }
+
+        switch (type) {
+            case ColumnarArchiveFormat.TYPE_LONG:
+                readLongValues(payload, name, records, recordIndices);
+                break;
+            case ColumnarArchiveFormat.TYPE_DOUBLE:
+                readDoubleValues(payload, name, records, recordIndices);
+                break;
+            case ColumnarArchiveFormat.TYPE_BOOLEAN:
+                readBooleanValues(payload, name, records, recordIndices);
+                break;
+            case ColumnarArchiveFormat.TYPE_STRING:
+            case ColumnarArchiveFormat.TYPE_JSON:
+                readDictionaryValues(payload, name, records, recordIndices, type);
+                break;
+            default:
+                throw new IOException("unknown type " + type + " of column " + name);
+        }
+    }
+
+    /**
+     * Read the values of a long column
+     *
+     * @param payload       stream of the block payload
+     * @param name          name of the column
+     * @param records       records of the block
+     * @param recordIndices indices of the records the column is present in
+     * @throws IOException if reading fails
+     */
+    private static void readLongValues(DataInputStream payload, String name, JsonObject[] records, int[] recordIndices) throws IOException {
+        long value = 0;
+        for (int recordIndex : recordIndices) {
+            value += ColumnarArchiveFormat.zigzagDecode(VarLongs.read(payload));
+            records[recordIndex].addProperty(name, value);
+        }
+    }
+
+    /**
+     * Read the values of a double column
+     *
+     * @param payload       stream of the block payload
+     * @param name          name of the column
+     * @param records       records of the block
+     * @param recordIndices indices of the records the column is present in
+     * @throws IOException if reading fails
+     */
+    private static void readDoubleValues(DataInputStream payload, String name, JsonObject[] records, int[] recordIndices) throws IOException {
+        int scale = payload.readUnsignedByte();
+        if (scale == ColumnarArchiveFormat.SCALE_XOR) {
+            long bits = 0;
+            for (int recordIndex : recordIndices) {
+                bits ^= VarLongs.read(payload);
+                records[recordIndex].addProperty(name, Double.longBitsToDouble(bits));
+            }
+        } else if (scale <= ColumnarArchiveFormat.MAX_DECIMAL_SCALE) {
+            double factor = ColumnarArchiveFormat.getScaleFactor(scale);
+            long value = 0;
+            for (int recordIndex : recordIndices) {
+                value += ColumnarArchiveFormat.zigzagDecode(VarLongs.read(payload));
+                records[recordIndex].addProperty(name, value / factor);
+            }
+        } else {
+            throw new IOException("unknown scale " + scale + " of column " + name);
+        }
+    }
+
+    /**
+     * Read the values of a boolean column
+     *
+     * @param payload       stream of the block payload
+     * @param name          name of the column
+     * @param records       records of the block
+     * @param recordIndices indices of the records the column is present in
+     * @throws IOException if reading fails
+     */
+    private static void readBooleanValues(DataInputStream payload, String name, JsonObject[] records, int[] recordIndices) throws IOException {
+        byte[] bitmap = new byte[(recordIndices.length + 7) / 8];
+        payload.readFully(bitmap);
+        for (int i = 0; i < recordIndices.length; i++) {
+            records[recordIndices[i]].addProperty(name, (bitmap[i / 8] & (1 << (i % 8))) != 0);
+        }
+    }
+
+    /**
+     * Read the values of a string or JSON column
+     *
+     * @param payload       stream of the block payload
+     * @param name          name of the column
+     * @param records       records of the block
+     * @param recordIndices indices of the records the column is present in
+     * @param type          either {@link ColumnarArchiveFormat#TYPE_STRING} or {@link ColumnarArchiveFormat#TYPE_JSON}
+     * @throws IOException if reading fails or a JSON value is malformed
+     */
+    private void readDictionaryValues(DataInputStream payload, String name, JsonObject[] records, int[] recordIndices, int type) throws IOException {
+        String[] dictionary = new String[(int) VarLongs.read(payload)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = ColumnarArchiveFormat.readString(payload);
+        }
+        for (int recordIndex : recordIndices) {
+            long index = VarLongs.read(payload);
+            if (index >= dictionary.length) {
+                throw new IOException("dictionary index " + index + " out of range in column " + name);
+            }
+            String text = dictionary[(int) index];
+            if (type == ColumnarArchiveFormat.TYPE_STRING) {
+                records[recordIndex].addProperty(name, text);
+            } else {
+                // Parsed for every record, so that the records don't share mutable elements
+                try {
+                    records[recordIndex].add(name, jsonParser.parse(text));
+                } catch (JsonParseException e) {
+                    throw new IOException("malformed JSON value of column " + name + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
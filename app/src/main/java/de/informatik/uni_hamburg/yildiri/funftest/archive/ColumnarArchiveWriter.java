@@ -0,0 +1,362 @@
+package de.informatik.uni_hamburg.yildiri.funftest.archive;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.VarLongs;
+
+/**
+ * Writes JSON records, like the data of the BandwidthProbe, to a compact columnar archive file, see {@link ColumnarArchiveFormat} for the layout.
+ * The records are buffered until a block is full, then the block is encoded column by column and compressed. Records may have different keys, a key missing in a record is simply absent from it when read back.
+ * Only flat records are encoded column-wise, nested objects and arrays are kept as JSON text. Numbers are read back with the same value, but not necessarily with the same textual representation.
+ */
+public class ColumnarArchiveWriter implements Closeable {
+
+    /**
+     * Number of records per block, if not specified otherwise
+     */
+    public static final int DEFAULT_BLOCK_RECORDS = 1024;
+    /**
+     * File name suffix of the columnar archives
+     */
+    public static final String FILE_SUFFIX = ".fca";
+
+    /**
+     * Stream the archive is written to
+     */
+    private final DataOutputStream out;
+    /**
+     * Number of records per block
+     */
+    private final int blockRecords;
+    /**
+     * Records of the current block, not written yet
+     */
+    private final List<JsonObject> pendingRecords;
+    /**
+     * Number of records written so far, including the pending ones
+     */
+    private long recordCount = 0;
+
+    /**
+     *
+     * @param out stream to write the archive to, closed by {@link #close()}
+     * @throws IOException if the header can't be written
+     */
+    public ColumnarArchiveWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_RECORDS);
+    }
+
+    /**
+     *
+     * @param out          stream to write the archive to, closed by {@link #close()}
+     * @param blockRecords number of records per block
+     * @throws IOException if the header can't be written
+     */
+    public ColumnarArchiveWriter(OutputStream out, int blockRecords) throws IOException {
+        if (blockRecords <= 0) {
+            throw new IllegalArgumentException("blockRecords has to be positive (was " + blockRecords + ")");
+        }
+        this.out = new DataOutputStream(out);
+        this.blockRecords = blockRecords;
+        this.pendingRecords = new ArrayList<JsonObject>(blockRecords);
+        this.out.write(ColumnarArchiveFormat.MAGIC);
+        this.out.writeByte(ColumnarArchiveFormat.VERSION);
+    }
+
+    /**
+     * Add a record to the archive
+     *
+     * @param record the record
+     * @throws IOException if the block the record completes can't be written
+     */
+    public void write(JsonObject record) throws IOException {
+        pendingRecords.add(record);
+        recordCount++;
+        if (pendingRecords.size() >= blockRecords) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Get the number of records added to the archive
+     *
+     * @return number of records
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Write the pending records and close the stream
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!pendingRecords.isEmpty()) {
+                writeBlock();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encode the pending records as a block, compress and write it
+     *
+     * @throws IOException if writing fails
+     */
+    private void writeBlock() throws IOException {
+        int count = pendingRecords.size();
+        // Split the records into their columns, in the order the keys appear first
+        Map<String, JsonElement[]> columns = new LinkedHashMap<String, JsonElement[]>();
+        for (int i = 0; i < count; i++) {
+            for (Map.Entry<String, JsonElement> entry : pendingRecords.get(i).entrySet()) {
+                JsonElement[] column = columns.get(entry.getKey());
+                if (column == null) {
+                    column = new JsonElement[count];
+                    columns.put(entry.getKey(), column);
+                }
+                column[i] = entry.getValue();
+            }
+        }
+
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        VarLongs.write(payload, count);
+        VarLongs.write(payload, columns.size());
+        for (Map.Entry<String, JsonElement[]> column : columns.entrySet()) {
+            ColumnarArchiveFormat.writeString(payload, column.getKey());
+            writeColumn(payload, column.getValue());
+        }
+        payload.flush();
+
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        DeflaterOutputStream compressor = new DeflaterOutputStream(compressedBytes, deflater);
+        payloadBytes.writeTo(compressor);
+        compressor.finish();
+        deflater.end();
+
+        VarLongs.write(out, compressedBytes.size());
+        compressedBytes.writeTo(out);
+        pendingRecords.clear();
+    }
+
+    /**
+     * Write the type, the presence and the values of a column
+     *
+     * @param payload stream of the block payload
+     * @param column  values of the column by record, null where the column is absent
+     * @throws IOException if writing fails
+     */
+    private static void writeColumn(DataOutputStream payload, JsonElement[] column) throws IOException {
+        int presentCount = 0;
+        int type = 0;
+        for (JsonElement value : column) {
+            if (value != null) {
+                int valueType = getType(value);
+                type = presentCount == 0 || type == valueType ? valueType : ColumnarArchiveFormat.TYPE_JSON;
+                presentCount++;
+            }
+        }
+        payload.writeByte(type);
+
+        JsonElement[] values = new JsonElement[presentCount];
+        if (presentCount == column.length) {
+            payload.writeByte(ColumnarArchiveFormat.PRESENT_IN_ALL);
+            System.arraycopy(column, 0, values, 0, presentCount);
+        } else {
+            payload.writeByte(ColumnarArchiveFormat.PRESENT_BITMAP);
+            byte[] bitmap = new byte[(column.length + 7) / 8];
+            int v = 0;
+            for (int i = 0; i < column.length; i++) {
+                if (column[i] != null) {
+                    bitmap[i / 8] |= 1 << (i % 8);
+                    values[v++] = column[i];
+                }
+            }
+            payload.write(bitmap);
+        }
+
+        switch (type) {
+            case ColumnarArchiveFormat.TYPE_LONG:
+                writeLongValues(payload, values);
+                break;
+            case ColumnarArchiveFormat.TYPE_DOUBLE:
+                writeDoubleValues(payload, values);
+                break;
+            case ColumnarArchiveFormat.TYPE_BOOLEAN:
+                writeBooleanValues(payload, values);
+                break;
+            default:
+                writeDictionaryValues(payload, values, type);
+                break;
+        }
+    }
+
+    /**
+     * Get the type of the column a value can be stored in
+     *
+     * @param value the value
+     * @return one of the types of {@link ColumnarArchiveFormat}
+     */
+    private static int getType(JsonElement value) {
+        if (!value.isJsonPrimitive()) {
+            return ColumnarArchiveFormat.TYPE_JSON;
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return ColumnarArchiveFormat.TYPE_BOOLEAN;
+        }
+        if (primitive.isString()) {
+            return ColumnarArchiveFormat.TYPE_STRING;
+        }
+        String text = primitive.getAsString();
+        try {
+            if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+                Long.parseLong(text);
+                return ColumnarArchiveFormat.TYPE_LONG;
+            }
+            double number = Double.parseDouble(text);
+            return Double.isNaN(number) || Double.isInfinite(number) ? ColumnarArchiveFormat.TYPE_JSON : ColumnarArchiveFormat.TYPE_DOUBLE;
+        } catch (NumberFormatException e) {
+            // e.g. integers exceeding a long
+            return ColumnarArchiveFormat.TYPE_JSON;
+        }
+    }
+
+    /**
+     * Write the values of a long column as zigzag varint deltas
+     *
+     * @param payload stream of the block payload
+     * @param values  the present values
+     * @throws IOException if writing fails
+     */
+    private static void writeLongValues(DataOutputStream payload, JsonElement[] values) throws IOException {
+        long previous = 0;
+        for (JsonElement value : values) {
+            long current = value.getAsLong();
+            VarLongs.write(payload, ColumnarArchiveFormat.zigzagEncode(current - previous));
+            previous = current;
+        }
+    }
+
+    /**
+     * Write the values of a double column, as scaled longs if possible, otherwise as XORed bits
+     *
+     * @param payload stream of the block payload
+     * @param values  the present values
+     * @throws IOException if writing fails
+     */
+    private static void writeDoubleValues(DataOutputStream payload, JsonElement[] values) throws IOException {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = values[i].getAsDouble();
+        }
+        int scale = getDecimalScale(doubles);
+        payload.writeByte(scale);
+        if (scale == ColumnarArchiveFormat.SCALE_XOR) {
+            long previousBits = 0;
+            for (double value : doubles) {
+                long bits = Double.doubleToLongBits(value);
+                VarLongs.write(payload, bits ^ previousBits);
+                previousBits = bits;
+            }
+        } else {
+            double factor = ColumnarArchiveFormat.getScaleFactor(scale);
+            long previous = 0;
+            for (double value : doubles) {
+                long current = Math.round(value * factor);
+                VarLongs.write(payload, ColumnarArchiveFormat.zigzagEncode(current - previous));
+                previous = current;
+            }
+        }
+    }
+
+    /**
+     * Get the smallest number of fraction digits all values can be restored exactly from, when scaled to longs
+     *
+     * @param values the values
+     * @return the scale, or {@link ColumnarArchiveFormat#SCALE_XOR} if they can't be scaled without loss
+     */
+    private static int getDecimalScale(double[] values) {
+        for (int scale = 0; scale <= ColumnarArchiveFormat.MAX_DECIMAL_SCALE; scale++) {
+            double factor = ColumnarArchiveFormat.getScaleFactor(scale);
+            boolean exact = true;
+            for (int i = 0; i < values.length && exact; i++) {
+                double scaled = values[i] * factor;
+                exact = Math.abs(scaled) < ColumnarArchiveFormat.MAX_EXACT_DOUBLE
+                        && Double.doubleToLongBits(Math.round(scaled) / factor) == Double.doubleToLongBits(values[i]);
+            }
+            if (exact) {
+                return scale;
+            }
+        }
+        return ColumnarArchiveFormat.SCALE_XOR;
+    }
+
+    /**
+     * Write the values of a boolean column as bitmap
+     *
+     * @param payload stream of the block payload
+     * @param values  the present values
+     * @throws IOException if writing fails
+     */
+    private static void writeBooleanValues(DataOutputStream payload, JsonElement[] values) throws IOException {
+        byte[] bitmap = new byte[(values.length + 7) / 8];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].getAsBoolean()) {
+                bitmap[i / 8] |= 1 << (i % 8);
+            }
+        }
+        payload.write(bitmap);
+    }
+
+    /**
+     * Write the values of a string or JSON column as dictionary of the distinct values and the indices into it
+     *
+     * @param payload stream of the block payload
+     * @param values  the present values
+     * @param type    either {@link ColumnarArchiveFormat#TYPE_STRING} or {@link ColumnarArchiveFormat#TYPE_JSON}
+     * @throws IOException if writing fails
+     */
+    private static void writeDictionaryValues(DataOutputStream payload, JsonElement[] values, int type) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> entries = new ArrayList<String>();
+        int[] indices = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String text = type == ColumnarArchiveFormat.TYPE_STRING ? values[i].getAsString() : values[i].toString();
+            Integer index = dictionary.get(text);
+            if (index == null) {
+                index = entries.size();
+                dictionary.put(text, index);
+                entries.add(text);
+            }
+            indices[i] = index;
+        }
+        VarLongs.write(payload, entries.size());
+        for (String entry : entries) {
+            ColumnarArchiveFormat.writeString(payload, entry);
+        }
+        for (int index : indices) {
+            VarLongs.write(payload, index);
+        }
+    }
+}
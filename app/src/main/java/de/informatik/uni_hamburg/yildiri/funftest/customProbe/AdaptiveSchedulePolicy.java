@@ -0,0 +1,310 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.RingBuffer;
+
+/**
+ * Decides for every scheduled run of the BandwidthProbe whether it measures or is skipped, so that the effective interval between measurements adapts to the conditions of the device.
+ * Funf triggers the probe every {@link #BASE_INTERVAL_SEC} seconds as given by its default schedule. This policy lets a run measure only once the effective interval has passed since the last measurement:
+ * <ul>
+ * <li>While the connection type stays the same, the interval doubles after every measurement, up to {@link #MAX_INTERVAL_SEC}.</li>
+ * <li>When the connection type changes, the probe measures right away and the interval starts over at {@link #BASE_INTERVAL_SEC}.</li>
+ * <li>On a metered connection the interval is at least {@link #METERED_MIN_INTERVAL_SEC}, on a low battery that isn't charging at least {@link #LOW_BATTERY_MIN_INTERVAL_SEC}. These minimums also hold after a change of the connection type, so that a flapping link doesn't measure on every change. The battery readings are fed in from the BatteryProbe by the pipeline.</li>
+ * <li>Without a connection nothing is measured. A connection that is lost and comes back with the same type doesn't count as a change. Manual scans always measure.</li>
+ * </ul>
+ * Since the probe is only triggered every {@link #BASE_INTERVAL_SEC} seconds, the effective intervals are rounded up to multiples of it.
+ * The state of the backoff is persisted in private shared preferences, and the most recent decisions are kept along with their reasons, see {@link #getRecentDecisions()}.
+ */
+public class AdaptiveSchedulePolicy {
+
+    /**
+     * Interval in seconds the probe is triggered with by funf, which is also the shortest effective interval
+     */
+    public static final long BASE_INTERVAL_SEC = 120;
+    /**
+     * Longest effective interval in seconds the backoff grows to while the conditions are stable
+     */
+    public static final long MAX_INTERVAL_SEC = 2 * 60 * 60;
+    /**
+     * Shortest effective interval in seconds on a metered connection
+     */
+    public static final long METERED_MIN_INTERVAL_SEC = 15 * 60;
+    /**
+     * Shortest effective interval in seconds on a low battery that isn't charging
+     */
+    public static final long LOW_BATTERY_MIN_INTERVAL_SEC = 60 * 60;
+    /**
+     * Battery level as fraction of the full charge below which the battery counts as low
+     */
+    public static final double LOW_BATTERY_LEVEL = 0.2;
+    /**
+     * Number of recent decisions kept
+     */
+    public static final int DECISION_HISTORY_SIZE = 100;
+
+    /**
+     * Reason of a measurement requested by a manual scan
+     */
+    public static final String REASON_MANUAL = "manual";
+    /**
+     * Reason of a run skipped since the device has no connection
+     */
+    public static final String REASON_NO_CONNECTION = "no_connection";
+    /**
+     * Reason of a measurement after the connection type has changed
+     */
+    public static final String REASON_CONNECTIVITY_CHANGED = "connectivity_changed";
+    /**
+     * Reason of a decision by the backoff interval, the conditions being stable
+     */
+    public static final String REASON_STABLE = "stable";
+    /**
+     * Reason of a decision by the minimum interval of metered connections
+     */
+    public static final String REASON_METERED = "metered";
+    /**
+     * Reason of a decision by the minimum interval of a low battery
+     */
+    public static final String REASON_LOW_BATTERY = "low_battery";
+
+    /**
+     * Name of the shared preferences the state is persisted in
+     */
+    private static final String PREFERENCES_NAME = "adaptive_schedule";
+    private static final String KEY_INTERVAL_SEC = "interval_sec", KEY_LAST_RUN_MILLIS = "last_run_millis", KEY_LAST_CONNECTION_TYPE = "last_connection_type";
+    /**
+     * Time in milliseconds a run may be triggered early and still count as due, since the triggers of funf jitter
+     */
+    private static final long TRIGGER_TOLERANCE_MILLIS = 10 * 1000;
+    /**
+     * Connection type before the first decision, which differs from all real ones
+     */
+    private static final int UNKNOWN_CONNECTION_TYPE = Integer.MIN_VALUE;
+
+    /**
+     * The single instance of this class
+     */
+    private static AdaptiveSchedulePolicy instance;
+
+    /**
+     * Shared preferences the state is persisted in, null if it isn't persisted
+     */
+    private final SharedPreferences sharedPreferences;
+    /**
+     * Current backoff interval in seconds, before the minimums of metered connections and low batteries are applied
+     */
+    private long intervalSec;
+    /**
+     * Wall clock time of the last measurement in milliseconds, 0 if there hasn't been one
+     */
+    private long lastRunMillis;
+    /**
+     * Connection type at the time of the last decision that had a connection
+     */
+    private int lastConnectionType;
+    /**
+     * Latest battery level as fraction of the full charge, NaN until there is a reading
+     */
+    private double batteryLevel = Double.NaN;
+    /**
+     * Whether the device has been plugged in at the latest battery reading
+     */
+    private boolean pluggedIn;
+    /**
+     * Whether the next run has been requested by a manual scan
+     */
+    private boolean manualRunRequested;
+    /**
+     * The most recent decisions
+     */
+    private final RingBuffer<ScheduleDecision> recentDecisions = new RingBuffer<ScheduleDecision>(DECISION_HISTORY_SIZE);
+
+    /**
+     *
+     * @param sharedPreferences shared preferences to restore and persist the state in, null to start over and not persist it
+     */
+    AdaptiveSchedulePolicy(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+        if (sharedPreferences != null) {
+            intervalSec = sharedPreferences.getLong(KEY_INTERVAL_SEC, BASE_INTERVAL_SEC);
+            lastRunMillis = sharedPreferences.getLong(KEY_LAST_RUN_MILLIS, 0);
+            lastConnectionType = sharedPreferences.getInt(KEY_LAST_CONNECTION_TYPE, UNKNOWN_CONNECTION_TYPE);
+        } else {
+            intervalSec = BASE_INTERVAL_SEC;
+            lastRunMillis = 0;
+            lastConnectionType = UNKNOWN_CONNECTION_TYPE;
+        }
+    }
+
+    /**
+     * Get the single instance of the policy
+     *
+     * @param context the context of the app
+     * @return the policy
+     */
+    public static synchronized AdaptiveSchedulePolicy getInstance(Context context) {
+        if (instance == null) {
+            instance = new AdaptiveSchedulePolicy(context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    /**
+     * Let the next run measure regardless of the schedule, e.g. for a manual scan
+     */
+    public synchronized void requestManualRun() {
+        manualRunRequested = true;
+    }
+
+    /**
+     * Update the battery state with a reading of the BatteryProbe
+     *
+     * @param level     battery level as fraction of the full charge
+     * @param pluggedIn whether the device is plugged in
+     */
+    public synchronized void onBatteryReading(double level, boolean pluggedIn) {
+        this.batteryLevel = level;
+        this.pluggedIn = pluggedIn;
+    }
+
+    /**
+     * Decide whether a run of the probe measures, record the decision and advance the backoff if it does
+     *
+     * @param nowMillis      current wall clock time in milliseconds
+     * @param connectionType current connection type, one of <code>ConnectivityManager.TYPE_*</code> or {@link BandwidthProbe#NO_CONNECTION}
+     * @return the decision
+     */
+    public synchronized ScheduleDecision decide(long nowMillis, int connectionType) {
+        ScheduleDecision decision;
+        if (manualRunRequested) {
+            manualRunRequested = false;
+            decision = new ScheduleDecision(nowMillis, connectionType, true, getEffectiveInterval(connectionType), REASON_MANUAL);
+        } else if (connectionType == BandwidthProbe.NO_CONNECTION) {
+            decision = new ScheduleDecision(nowMillis, connectionType, false, intervalSec, REASON_NO_CONNECTION);
+        } else if (connectionType != lastConnectionType) {
+            // The backoff starts over, but the minimums of metered connections and low batteries still count from the last measurement
+            intervalSec = BASE_INTERVAL_SEC;
+            long effectiveIntervalSec = getEffectiveInterval(connectionType);
+            boolean due = effectiveIntervalSec == BASE_INTERVAL_SEC || isDue(nowMillis, effectiveIntervalSec);
+            decision = new ScheduleDecision(nowMillis, connectionType, due, effectiveIntervalSec, due ? REASON_CONNECTIVITY_CHANGED : getIntervalReason(connectionType, effectiveIntervalSec));
+        } else {
+            long effectiveIntervalSec = getEffectiveInterval(connectionType);
+            String reason = getIntervalReason(connectionType, effectiveIntervalSec);
+            boolean due = isDue(nowMillis, effectiveIntervalSec);
+            decision = new ScheduleDecision(nowMillis, connectionType, due, effectiveIntervalSec, reason);
+            if (due) {
+                intervalSec = Math.min(intervalSec * 2, MAX_INTERVAL_SEC);
+            }
+        }
+        // A lost connection is not remembered, so that the connection coming back with the same type doesn't count as a change
+        if (connectionType != BandwidthProbe.NO_CONNECTION) {
+            lastConnectionType = connectionType;
+        }
+        if (decision.isRun()) {
+            lastRunMillis = nowMillis;
+        }
+        recentDecisions.add(decision);
+        persist();
+        Log.i(getClass().getSimpleName(), "Scheduled bandwidth measurement: " + decision);
+        return decision;
+    }
+
+    /**
+     * Check whether an interval has passed since the last measurement
+     *
+     * @param nowMillis            current wall clock time in milliseconds
+     * @param effectiveIntervalSec the interval in seconds
+     * @return true if there hasn't been a measurement yet or the interval has passed, allowing for the jitter of the triggers
+     */
+    private boolean isDue(long nowMillis, long effectiveIntervalSec) {
+        // A clock set back is treated like a due run, otherwise the probe wouldn't measure until the clock catches up
+        return lastRunMillis == 0 || nowMillis < lastRunMillis || nowMillis - lastRunMillis >= effectiveIntervalSec * 1000 - TRIGGER_TOLERANCE_MILLIS;
+    }
+
+    /**
+     * Get the most recent decisions
+     *
+     * @return the decisions, from the oldest to the most recent one
+     */
+    public synchronized List<ScheduleDecision> getRecentDecisions() {
+        List<ScheduleDecision> decisions = new ArrayList<ScheduleDecision>(recentDecisions.size());
+        for (int i = 0; i < recentDecisions.size(); i++) {
+            decisions.add(recentDecisions.get(i));
+        }
+        return decisions;
+    }
+
+    /**
+     * Get the effective interval on the given connection type, i.e. the backoff interval raised to the minimums of metered connections and low batteries
+     *
+     * @param connectionType the connection type
+     * @return interval in seconds
+     */
+    synchronized long getEffectiveInterval(int connectionType) {
+        long effectiveIntervalSec = intervalSec;
+        if (isMetered(connectionType)) {
+            effectiveIntervalSec = Math.max(effectiveIntervalSec, METERED_MIN_INTERVAL_SEC);
+        }
+        if (isBatteryLow()) {
+            effectiveIntervalSec = Math.max(effectiveIntervalSec, LOW_BATTERY_MIN_INTERVAL_SEC);
+        }
+        return effectiveIntervalSec;
+    }
+
+    /**
+     * Get the reason of an effective interval
+     *
+     * @param connectionType       the connection type
+     * @param effectiveIntervalSec the effective interval on it in seconds
+     * @return the reason of the constraint that determines the interval
+     */
+    private String getIntervalReason(int connectionType, long effectiveIntervalSec) {
+        if (effectiveIntervalSec == intervalSec) {
+            return REASON_STABLE;
+        }
+        if (isBatteryLow() && effectiveIntervalSec == LOW_BATTERY_MIN_INTERVAL_SEC) {
+            return REASON_LOW_BATTERY;
+        }
+        return isMetered(connectionType) ? REASON_METERED : REASON_STABLE;
+    }
+
+    /**
+     * Check whether the battery is low and not charging
+     *
+     * @return true if the latest battery reading is below {@link #LOW_BATTERY_LEVEL} while unplugged
+     */
+    public synchronized boolean isBatteryLow() {
+        return !pluggedIn && batteryLevel < LOW_BATTERY_LEVEL;
+    }
+
+    /**
+     * Check whether a connection type is usually metered. Only WiFi and Ethernet are considered unmetered.
+     *
+     * @param connectionType the connection type
+     * @return true if the connection is usually metered
+     */
+    static boolean isMetered(int connectionType) {
+        return connectionType != ConnectivityManager.TYPE_WIFI && connectionType != ConnectivityManager.TYPE_ETHERNET && connectionType != BandwidthProbe.NO_CONNECTION;
+    }
+
+    /**
+     * Persist the state of the backoff, if a shared preferences instance is given
+     */
+    private void persist() {
+        if (sharedPreferences == null) {
+            return;
+        }
+        sharedPreferences.edit()
+                .putLong(KEY_INTERVAL_SEC, intervalSec)
+                .putLong(KEY_LAST_RUN_MILLIS, lastRunMillis)
+                .putInt(KEY_LAST_CONNECTION_TYPE, lastConnectionType)
+                .apply();
+    }
+}
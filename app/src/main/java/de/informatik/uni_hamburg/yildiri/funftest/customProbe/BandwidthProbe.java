@@ -4,7 +4,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.preference.PreferenceFragment;
@@ -12,11 +11,20 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.google.gson.JsonObject;
+
 import de.informatik.uni_hamburg.yildiri.funftest.SettingsActivity;
 import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
 import de.informatik.uni_hamburg.yildiri.funftest.tools.BandwidthMeasureTool;
 import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthSketchStore;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.ThroughputSketch;
 import de.informatik.uni_hamburg.yildiri.funftest.tools.HttpURLConnectionMeasureTool;
+import de.informatik.uni_hamburg.yildiri.funftest.tools.MeasurementExecutor;
+import de.informatik.uni_hamburg.yildiri.funftest.tools.MultiConnectionMeasureTool;
+import de.informatik.uni_hamburg.yildiri.funftest.tools.PacketTrainMeasureTool;
+import de.informatik.uni_hamburg.yildiri.funftest.tools.PassiveTrafficMeasureTool;
+import de.informatik.uni_hamburg.yildiri.funftest.tools.UploadMeasureTool;
 import edu.mit.media.funf.Schedule;
 import edu.mit.media.funf.probe.Probe;
 import edu.mit.media.funf.probe.Probe.Base;
@@ -24,6 +32,14 @@ import edu.mit.media.funf.probe.Probe.Base;
 /**
  * This is a funf probe to measure the bandwidth of the device. The probe won't force to establish a connection if the device is not already connected by the time the probe starts running.
  * Further technical details of the measurement (like whether the measurement is active or passive) depend on the implementing class of the BandwidthMeasureTool being used.
+ * Depending on the app preferences each run measures the download, the upload or both one after the other. Every measurement is sent as a data row of its own.
+ * Downloads over a single connection can be run on a cold connection, on a connection warmed up by a priming transfer, or both one after the other to compare them side by side.
+ * Instead of downloading the test file, the capacity of the link can be estimated by the {@link PacketTrainMeasureTool} from a few tens of KB. To calibrate these estimates, each download can also be followed by a packet-train estimate, which is sent as a row of its own next to the download.
+ * Besides being sent, the overall total of every complete measurement is added to the quantile sketches of the {@link BandwidthSketchStore} for its connection type.
+ * The probe is triggered every two minutes, but whether a run measures is decided by the {@link AdaptiveSchedulePolicy} based on the connection type and the battery, and the effective interval and the reason are sent along with the results.
+ * The bytes spent by every measurement are accounted by the {@link DataBudgetGovernor} against the daily budget of the connection type. When the budget is running out, a run only measures a single download capped to a few hundred KB, or a packet-train estimate if packet trains are enabled.
+ * Once the budget is exhausted or the battery is low, a run measures passively instead, by observing the traffic of the other apps with the {@link PassiveTrafficMeasureTool}. The saturation of the link is judged against the median of the active results of the connection type within the last week, and without such results the passive result is marked as a lower bound. Passive results that found no saturated traffic are dropped silently.
+ * Stopping the probe cancels the running measurement. Like measurements aborted by a timeout or a stall, it is still sent with the blocks measured so far and the reason of the abort.
  */
 @Probe.DisplayName("Bandwidth measuring probe")
 @Probe.RequiredFeatures("android.hardware.wifi")
@@ -44,44 +60,304 @@ public class BandwidthProbe extends Base {
      * The connection types match the ones given by <code>ConnectivityManager.TYPE_*</code> - except for when no connection is up, then we use our own constant {@link de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthProbe#NO_CONNECTION}
      */
     int connectionType = NO_CONNECTION;
+    /**
+     * The last result that has been processed, i.e. accounted against the data budget and sent to the listeners if it has succeeded. If a trigger of this probe attached to an in-flight run that another trigger of this probe had started, the same result is delivered twice, but must only be processed once.
+     */
+    BandwidthResultRecord lastSentResultRecord;
+    /**
+     * Whether an upload measurement still has to be run after the current download measurement of this run has finished
+     */
+    boolean uploadPending;
+    /**
+     * Whether a download on a warm connection still has to be run after the current cold download of this run has finished
+     */
+    boolean warmDownloadPending;
+    /**
+     * Whether a packet-train estimate still has to be run after the downloads of this run have finished, to be stored next to them for calibration
+     */
+    boolean packetTrainPending;
+    /**
+     * Decision of the {@link AdaptiveSchedulePolicy} that has let the current run measure
+     */
+    ScheduleDecision scheduleDecision;
+    /**
+     * State of the data budget at the start of the current run, which determines how much the run may measure
+     */
+    DataBudgetStatus budgetStatus;
 
     /**
      * Connection type that indicates that the device has no connection to the internet
      */
     public static final int NO_CONNECTION = -1;
+    /**
+     * Minimum number of bytes to be downloaded before a measurement may be terminated early
+     */
+    private static final long EARLY_TERMINATION_MIN_BYTES = 300 * 1000;
+    /**
+     * Minimum time in nanoseconds a download has to run before it may be terminated early
+     */
+    private static final long EARLY_TERMINATION_MIN_NANOS = 2000L * 1000 * 1000;
+    /**
+     * Number of days of active results the reference capacity of a passive measurement is taken from
+     */
+    private static final int PASSIVE_REFERENCE_DAYS = 7;
+    /**
+     * Value of the measurement direction preference to only measure the download
+     */
+    public static final String MEASURE_DOWNLOAD = "download";
+    /**
+     * Value of the measurement direction preference to only measure the upload
+     */
+    public static final String MEASURE_UPLOAD = "upload";
+    /**
+     * Value of the measurement direction preference to measure the download and the upload one after the other
+     */
+    public static final String MEASURE_BOTH = "both";
+    /**
+     * Value of the connection warmth preference to download on a fresh connection, including the TCP slow start
+     */
+    public static final String CONNECTION_COLD = "cold";
+    /**
+     * Value of the connection warmth preference to download on a connection warmed up by a priming transfer
+     */
+    public static final String CONNECTION_WARM = "warm";
+    /**
+     * Value of the connection warmth preference to download on a cold and then on a warm connection
+     */
+    public static final String CONNECTION_COMPARE = "compare";
+    /**
+     * Value of the download method preference to download the test file
+     */
+    public static final String METHOD_TRANSFER = "transfer";
+    /**
+     * Value of the download method preference to estimate the capacity by packet trains instead of downloading the test file
+     */
+    public static final String METHOD_PACKET_TRAIN = "packet_train";
+    /**
+     * Value of the download method preference to download the test file and estimate the capacity by packet trains afterwards, to calibrate the estimates against the downloads
+     */
+    public static final String METHOD_CALIBRATE = "calibrate";
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        uploadPending = false;
+        warmDownloadPending = false;
+        packetTrainPending = false;
+        if (measureTool != null) {
+            MeasurementExecutor.getInstance().cancel(measureTool);
+        }
+    }
 
     @Override
     protected void onStart() {
         super.onStart();
         isConnected = isConnected();
         connectionType = getConnectionType();
+        scheduleDecision = AdaptiveSchedulePolicy.getInstance(getContext()).decide(System.currentTimeMillis(), connectionType);
+        if (!scheduleDecision.isRun()) {
+            stop();
+            return;
+        }
+        DataBudgetGovernor budgetGovernor = DataBudgetGovernor.getInstance(getContext());
+        budgetGovernor.setDailyBudgets(
+                getBudgetBytesFromAppPreferences("pref_key_meteredBudgetMB", DataBudgetGovernor.DEFAULT_METERED_BUDGET_BYTES),
+                getBudgetBytesFromAppPreferences("pref_key_unmeteredBudgetMB", DataBudgetGovernor.DEFAULT_UNMETERED_BUDGET_BYTES));
+        budgetStatus = budgetGovernor.getStatus(System.currentTimeMillis(), connectionType);
 
-        // Initialize and run the measurement tool
-        // Also since BandwidthMeasureTool is an AsyncTask, this is going to run in an other new thread. Thus we also need to define an inner-anonymous class implementing the async response to process the measurement finish
+        uploadPending = false;
+        warmDownloadPending = false;
+        packetTrainPending = false;
+        String direction = getMeasurementDirectionFromAppPreferences();
+        String downloadMethod = getDownloadMethodFromAppPreferences();
+        if (DataBudgetGovernor.MODE_PASSIVE.equals(budgetStatus.getMode()) || AdaptiveSchedulePolicy.getInstance(getContext()).isBatteryLow()) {
+            // Observe the traffic of the other apps instead of spending data and battery on a transfer of our own
+            Log.i(getClass().getSimpleName(), "Measuring passively, data budget: " + budgetStatus);
+            startPassiveMeasurement(MEASURE_UPLOAD.equals(direction) ? BandwidthResultRecord.DIRECTION_UPLOAD : BandwidthResultRecord.DIRECTION_DOWNLOAD);
+        } else if (isBudgetReduced()) {
+            // Only a single capped transfer or a packet-train estimate fits into the rest of the budget
+            if (MEASURE_UPLOAD.equals(direction)) {
+                startUploadMeasurement();
+            } else if (!METHOD_TRANSFER.equals(downloadMethod)) {
+                startPacketTrainMeasurement();
+            } else {
+                startDownloadMeasurement(false);
+            }
+        } else if (MEASURE_UPLOAD.equals(direction)) {
+            startUploadMeasurement();
+        } else if (METHOD_PACKET_TRAIN.equals(downloadMethod)) {
+            uploadPending = MEASURE_BOTH.equals(direction);
+            startPacketTrainMeasurement();
+        } else {
+            uploadPending = MEASURE_BOTH.equals(direction);
+            packetTrainPending = METHOD_CALIBRATE.equals(downloadMethod);
+            String connectionWarmth = getConnectionWarmthFromAppPreferences();
+            warmDownloadPending = CONNECTION_COMPARE.equals(connectionWarmth) && getStreamCountFromAppPreferences() == 1;
+            startDownloadMeasurement(CONNECTION_WARM.equals(connectionWarmth));
+        }
+    }
+
+    /**
+     * Initialize and run the measurement tool to measure the download
+     *
+     * @param warmConnection whether the connection should be warmed up by a priming transfer first - only supported for a single connection
+     */
+    private void startDownloadMeasurement(boolean warmConnection) {
         String currentFileURL = getFileURLFromAppPreferences();
-        measureTool = new HttpURLConnectionMeasureTool(new AsyncResponse() {
+        int streamCount = getStreamCountFromAppPreferences();
+        if (streamCount > 1 && !isBudgetReduced()) {
+            measureTool = new MultiConnectionMeasureTool(createMeasurementFinishedResponse(), getContext(), currentFileURL, connectionType, streamCount);
+        } else {
+            HttpURLConnectionMeasureTool httpURLConnectionMeasureTool = new HttpURLConnectionMeasureTool(createMeasurementFinishedResponse(), getContext(), currentFileURL, connectionType, getWriteTestFileFromAppPreferences());
+            httpURLConnectionMeasureTool.setEarlyTermination(getEarlyTerminationBandFromAppPreferences(), EARLY_TERMINATION_MIN_BYTES, EARLY_TERMINATION_MIN_NANOS);
+            httpURLConnectionMeasureTool.setWarmConnection(warmConnection);
+            httpURLConnectionMeasureTool.setMaxTransferBytes(isBudgetReduced() ? DataBudgetGovernor.REDUCED_TEST_BYTES : 0);
+            measureTool = httpURLConnectionMeasureTool;
+        }
+        runMeasureTool(currentFileURL);
+    }
+
+    /**
+     * Initialize and run the measurement tool to measure the upload
+     */
+    private void startUploadMeasurement() {
+        String currentUploadURL = getUploadURLFromAppPreferences();
+        long uploadSize = getUploadSizeFromAppPreferences();
+        if (isBudgetReduced()) {
+            uploadSize = Math.min(uploadSize, DataBudgetGovernor.REDUCED_TEST_BYTES);
+        }
+        measureTool = new UploadMeasureTool(createMeasurementFinishedResponse(), getContext(), currentUploadURL, connectionType, uploadSize);
+        runMeasureTool(currentUploadURL);
+    }
+
+    /**
+     * Initialize and run the packet-train measurement tool to estimate the capacity of the download
+     */
+    private void startPacketTrainMeasurement() {
+        String currentFileURL = getFileURLFromAppPreferences();
+        measureTool = new PacketTrainMeasureTool(createMeasurementFinishedResponse(), getContext(), currentFileURL, connectionType);
+        runMeasureTool(currentFileURL);
+    }
+
+    /**
+     * Initialize and run the passive measurement tool
+     *
+     * @param direction direction of the traffic to be observed, either {@link BandwidthResultRecord#DIRECTION_DOWNLOAD} or {@link BandwidthResultRecord#DIRECTION_UPLOAD}
+     */
+    private void startPassiveMeasurement(String direction) {
+        PassiveTrafficMeasureTool passiveTool = new PassiveTrafficMeasureTool(createMeasurementFinishedResponse(), getContext(), connectionType, direction, PassiveTrafficMeasureTool.DEFAULT_OBSERVATION_MS);
+        // The active results tell what the link can achieve, so that traffic limited by the applications isn't taken for the capacity
+        ThroughputSketch activeResults = BandwidthSketchStore.getInstance(getContext()).getSketchOfLastDays(direction, connectionType, PASSIVE_REFERENCE_DAYS);
+        if (activeResults.getCount() > 0) {
+            passiveTool.setReferenceThroughput(activeResults.getQuantile(0.5));
+        }
+        measureTool = passiveTool;
+        runMeasureTool(PassiveTrafficMeasureTool.getPassiveUrl(direction));
+    }
+
+    /**
+     * Check whether the current run may only measure a reduced test, since the data budget is running out
+     *
+     * @return true if the budget only allows a reduced test
+     */
+    private boolean isBudgetReduced() {
+        return DataBudgetGovernor.MODE_REDUCED.equals(budgetStatus.getMode());
+    }
+
+    /**
+     * Configure and run the current measurement tool
+     * The measurement is going to run on the MeasurementExecutor in an other thread. If the same measurement is already running, the tool is attached to it instead of downloading again.
+     *
+     * @param url the url the measurement tool has been initialized with
+     */
+    private void runMeasureTool(String url) {
+        measureTool.setDebugLogging(getDebugLoggingFromAppPreferences());
+        measureTool.setMaxBlockCount(getMaxBlockCountFromAppPreferences());
+        measureTool.setTimeouts(
+                (int) getSecondsFromAppPreferences("pref_key_connectTimeoutSec", BandwidthMeasureTool.DEFAULT_CONNECT_TIMEOUT_MS) * 1000,
+                (int) getSecondsFromAppPreferences("pref_key_readTimeoutSec", BandwidthMeasureTool.DEFAULT_READ_TIMEOUT_MS) * 1000,
+                getSecondsFromAppPreferences("pref_key_maxDurationSec", BandwidthMeasureTool.DEFAULT_MAX_DURATION_MS) * 1000,
+                getSecondsFromAppPreferences("pref_key_stallTimeoutSec", BandwidthMeasureTool.DEFAULT_STALL_TIMEOUT_MS) * 1000);
+        if (!measureTool.execute(url)) {
+            Log.d(getClass().getSimpleName(), "Attached to the in-flight measurement of " + url);
+        }
+    }
+
+    /**
+     * Create the async response that processes the finish of a measurement. Since the measurement runs in the background, we need to define an inner-anonymous class implementing the async response
+     *
+     * @return async response processing the finish of a measurement
+     */
+    private AsyncResponse createMeasurementFinishedResponse() {
+        return new AsyncResponse() {
             @Override
             public void processFinish(BandwidthResultRecord bandwidthResultRecord) {
-                if(bandwidthResultRecord.hasMeasurementSucceeded())
+                DataBudgetStatus spentBudgetStatus = null;
+                if (bandwidthResultRecord != lastSentResultRecord) {
+                    lastSentResultRecord = bandwidthResultRecord;
+                    // Failed measurements count against the budget as well, otherwise a flaky metered link could overspend it without limit
+                    spentBudgetStatus = DataBudgetGovernor.getInstance(getContext()).recordBytes(System.currentTimeMillis(), connectionType, bandwidthResultRecord.getBytesSpent());
+                    if (!DataBudgetGovernor.MODE_FULL.equals(spentBudgetStatus.getMode()) && (warmDownloadPending || packetTrainPending || uploadPending)) {
+                        Log.i(getClass().getSimpleName(), "Data budget is running out, skipping the remaining measurements of this run: " + spentBudgetStatus);
+                        warmDownloadPending = false;
+                        packetTrainPending = false;
+                        uploadPending = false;
+                    }
+                }
+                if (spentBudgetStatus == null) {
+                    Log.d(getClass().getSimpleName(), "Result of the attached measurement has already been processed");
+                }
+                else if(bandwidthResultRecord.hasMeasurementSucceeded())
                 {
-                    // Process the measurement finish by packing all the bandwidth results in a bundle and sending that data to all listeners
-                    Log.d(getClass().getSimpleName(), "Going to get and pack the data Bundle");
-                    Bundle data = packDataBundle(bandwidthResultRecord);
-                    sendData(getGson().toJsonTree(data).getAsJsonObject());
-                    Log.d(getClass().getSimpleName(), "Got and sent all the data bundles");
+                    // Process the measurement finish by encoding all the bandwidth results and sending that data to all listeners
+                    Log.d(getClass().getSimpleName(), "Bandwidth measure overall total speed: " + bandwidthResultRecord.getOverallTotalBandwidthMeasure() + " kbit/s");
+                    JsonObject data = BandwidthResultJsonEncoder.encode(bandwidthResultRecord);
+                    // The connection type is a property of the run, not of the record, so it's added here to make the archived results queryable by it
+                    data.addProperty(BandwidthProbeKeys.CONNECTION_TYPE, connectionType);
+                    data.addProperty(BandwidthProbeKeys.SCHEDULE_INTERVAL_SEC, scheduleDecision.getIntervalSec());
+                    data.addProperty(BandwidthProbeKeys.SCHEDULE_REASON, scheduleDecision.getReason());
+                    data.addProperty(BandwidthProbeKeys.BUDGET_MODE, budgetStatus.getMode());
+                    data.addProperty(BandwidthProbeKeys.BUDGET_SPENT_TODAY, spentBudgetStatus.getSpentBytes());
+                    data.addProperty(BandwidthProbeKeys.BUDGET_DAILY, spentBudgetStatus.getBudgetBytes());
+                    sendData(data);
+                    Log.d(getClass().getSimpleName(), "Encoded and sent the bandwidth results");
+                    if (!bandwidthResultRecord.isAborted() && !isBudgetReduced() && BandwidthResultRecord.ESTIMATOR_TRANSFER.equals(bandwidthResultRecord.getEstimator())) {
+                        // Aborted and reduced measurements only cover a part of the transfer and would bias the distribution, passive and packet-train ones don't measure a transfer of our own
+                        BandwidthSketchStore.getInstance(getContext()).addResult(bandwidthResultRecord, connectionType);
+                    }
                 }
                 else {
                     // Failed measurement, report this incident
                     Exception measurementException = bandwidthResultRecord.getMeasurementException();
-                    if(measurementException != null) {
+                    if (measureTool instanceof PassiveTrafficMeasureTool) {
+                        // Most passive runs find no saturated traffic, which is no error worth a toast
+                        Log.i(getClass().getSimpleName(), "Passive measurement found no result: " + measurementException);
+                    } else if(measurementException != null) {
                         displayMeasurementErrorToast(measurementException);
                     }
                 }
-                // Measurement and all post-processing has completed, so we can stop the probe now
-                stop();
+                if (getState() != State.RUNNING) {
+                    // The probe has been stopped while measuring, the cancelled measurement has been sent above
+                    return;
+                }
+                if (warmDownloadPending) {
+                    // The cold download of this run has completed, go on with the warm one
+                    warmDownloadPending = false;
+                    startDownloadMeasurement(true);
+                } else if (packetTrainPending) {
+                    // The downloads of this run have completed, estimate the capacity by packet trains next to them
+                    packetTrainPending = false;
+                    startPacketTrainMeasurement();
+                } else if (uploadPending) {
+                    // The download of this run has completed, go on with the upload
+                    uploadPending = false;
+                    startUploadMeasurement();
+                } else {
+                    // Measurement and all post-processing has completed, so we can stop the probe now
+                    stop();
+                }
             }
-        }, getContext(), currentFileURL, connectionType);
-        measureTool.execute(currentFileURL);
+        };
     }
 
     /**
@@ -127,6 +403,158 @@ public class BandwidthProbe extends Base {
         return fileURL;
     }
 
+    /**
+     * Read the confidence band for the early termination of downloads from the app preferences
+     * @return relative half-width of the confidence band, e.g. 0.05 for +/- 5%, or 0 if early termination is disabled
+     */
+    private double getEarlyTerminationBandFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        if (!sharedPref.getBoolean("pref_key_earlyTermination", false)) {
+            return 0;
+        }
+        String bandString = sharedPref.getString("pref_key_convergenceBandPercent", "5");
+        try {
+            return Math.max(0, Double.parseDouble(bandString.trim())) / 100.0;
+        } catch (NumberFormatException e) {
+            Log.e(getClass().getSimpleName(), "Invalid convergence band: " + bandString + "  in the app preferences, falling back to 5%");
+            return 0.05;
+        }
+    }
+
+    /**
+     * Read the currently set URL to upload the payload to from the app preferences
+     * @return string of the upload URL
+     */
+    private String getUploadURLFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        return sharedPref.getString("pref_key_uploadURL", "");
+    }
+
+    /**
+     * Read the currently set size of the upload payload from the app preferences
+     * @return size of the upload payload in bytes
+     */
+    private long getUploadSizeFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String uploadSizeString = sharedPref.getString("pref_key_uploadSizeKB", "1000");
+        try {
+            return Math.max(1, Long.parseLong(uploadSizeString.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            Log.e(getClass().getSimpleName(), "Invalid upload size: " + uploadSizeString + "  in the app preferences, falling back to 1000 KB");
+            return 1000 * 1000;
+        }
+    }
+
+    /**
+     * Read a daily data budget in MB from the app preferences
+     * @param key key of the preference
+     * @param defaultBytes default budget in bytes, if the preference is not set or invalid
+     * @return daily budget in bytes, 0 for no limit
+     */
+    private long getBudgetBytesFromAppPreferences(String key, long defaultBytes) {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String budgetString = sharedPref.getString(key, String.valueOf(defaultBytes / (1000 * 1000)));
+        try {
+            return Math.max(0, Long.parseLong(budgetString.trim())) * 1000 * 1000;
+        } catch (NumberFormatException e) {
+            Log.e(getClass().getSimpleName(), "Invalid data budget: " + budgetString + "  for " + key + " in the app preferences, falling back to " + (defaultBytes / (1000 * 1000)) + " MB");
+            return defaultBytes;
+        }
+    }
+
+    /**
+     * Read from the app preferences which directions should be measured
+     * @return one of {@link #MEASURE_DOWNLOAD}, {@link #MEASURE_UPLOAD} or {@link #MEASURE_BOTH}
+     */
+    private String getMeasurementDirectionFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        return sharedPref.getString("pref_key_measurementDirection", MEASURE_DOWNLOAD);
+    }
+
+    /**
+     * Read from the app preferences whether downloads should run on a cold or a warm connection
+     * @return one of {@link #CONNECTION_COLD}, {@link #CONNECTION_WARM} or {@link #CONNECTION_COMPARE}
+     */
+    private String getConnectionWarmthFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        return sharedPref.getString("pref_key_connectionWarmth", CONNECTION_COLD);
+    }
+
+    /**
+     * Read from the app preferences how the download should be measured
+     * @return one of {@link #METHOD_TRANSFER}, {@link #METHOD_PACKET_TRAIN} or {@link #METHOD_CALIBRATE}
+     */
+    private String getDownloadMethodFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        return sharedPref.getString("pref_key_downloadMethod", METHOD_TRANSFER);
+    }
+
+    /**
+     * Read the currently set number of concurrent connections for the measurement from the app preferences
+     * @return number of concurrent connections, 1 if the preference is not set or invalid
+     */
+    private int getStreamCountFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String streamCountString = sharedPref.getString("pref_key_streamCount", "1");
+        try {
+            int streamCount = Integer.parseInt(streamCountString.trim());
+            return Math.min(Math.max(streamCount, 1), MultiConnectionMeasureTool.MAX_STREAM_COUNT);
+        } catch (NumberFormatException e) {
+            Log.e(getClass().getSimpleName(), "Invalid stream count: " + streamCountString + "  in the app preferences, falling back to a single connection");
+            return 1;
+        }
+    }
+
+    /**
+     * Read from the app preferences whether the downloaded data should be written to the test file instead of being discarded
+     * @return whether the downloaded data should be written to the test file
+     */
+    private boolean getWriteTestFileFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        return sharedPref.getBoolean("pref_key_writeTestFile", false);
+    }
+
+    /**
+     * Read from the app preferences whether the measurement tool should write detailed debug logs while measuring
+     * @return whether detailed debug logs should be written
+     */
+    private boolean getDebugLoggingFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        return sharedPref.getBoolean("pref_key_debugLogging", false);
+    }
+
+    /**
+     * Read the currently set maximum number of blocks to be measured from the app preferences
+     * @return maximum number of blocks, {@link BandwidthResultRecord#DEFAULT_BLOCK_COUNT} if the preference is not set or invalid
+     */
+    private int getMaxBlockCountFromAppPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String blockCountString = sharedPref.getString("pref_key_blockCount", String.valueOf(BandwidthResultRecord.DEFAULT_BLOCK_COUNT));
+        try {
+            return Math.max(1, Integer.parseInt(blockCountString.trim()));
+        } catch (NumberFormatException e) {
+            Log.e(getClass().getSimpleName(), "Invalid block count: " + blockCountString + "  in the app preferences, falling back to " + BandwidthResultRecord.DEFAULT_BLOCK_COUNT);
+            return BandwidthResultRecord.DEFAULT_BLOCK_COUNT;
+        }
+    }
+
+    /**
+     * Read a time limit of the measurement in seconds from the app preferences
+     * @param key key of the preference
+     * @param defaultMs default value in milliseconds, if the preference is not set or invalid
+     * @return time limit in seconds, 0 for no limit
+     */
+    private long getSecondsFromAppPreferences(String key, long defaultMs) {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String secondsString = sharedPref.getString(key, String.valueOf(defaultMs / 1000));
+        try {
+            return Math.max(0, Long.parseLong(secondsString.trim()));
+        } catch (NumberFormatException e) {
+            Log.e(getClass().getSimpleName(), "Invalid time limit: " + secondsString + "  for " + key + " in the app preferences, falling back to " + (defaultMs / 1000) + " s");
+            return defaultMs / 1000;
+        }
+    }
+
     /**
      * Display a toast on screen that contains the error message of a failed bandwidth measurement
      * @param measurementException exception that has been thrown while measuring
@@ -144,42 +572,13 @@ public class BandwidthProbe extends Base {
     }
 
     /**
-     * Return the data bundle, that results by packing it with all the bandwidth measurement results
+     * Get the key of the block measure, that covers the given amount of data
      *
-     * @param bandwidthResultRecord the bandwidth measurement results in form of a BandwidthResultRecord object
-     * @return data bundle containing all the bandwidth measurement results
-     */
-    private Bundle packDataBundle(BandwidthResultRecord bandwidthResultRecord) {
-        Bundle data = new Bundle();
-        Log.d(getClass().getSimpleName(), "Bandwidth measure overall total speed: " + bandwidthResultRecord.getOverallTotalBandwidthMeasure() + " kbit/s");
-
-        // Put all the data from the BandwidthResultRecord in the bundle
-        Log.d(getClass().getSimpleName(), "Packing the data bundle");
-        data.putString(BandwidthProbeKeys.URL, bandwidthResultRecord.getFileURL().toString());
-        data.putLong(BandwidthProbeKeys.FILE_SIZE, bandwidthResultRecord.getFileSize());
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_100, bandwidthResultRecord.getBandwidthMeasure(0));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_200, bandwidthResultRecord.getBandwidthMeasure(1));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_300, bandwidthResultRecord.getBandwidthMeasure(2));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_400, bandwidthResultRecord.getBandwidthMeasure(3));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_500, bandwidthResultRecord.getBandwidthMeasure(4));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_600, bandwidthResultRecord.getBandwidthMeasure(5));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_700, bandwidthResultRecord.getBandwidthMeasure(6));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_800, bandwidthResultRecord.getBandwidthMeasure(7));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_900, bandwidthResultRecord.getBandwidthMeasure(8));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1000, bandwidthResultRecord.getBandwidthMeasure(9));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1100, bandwidthResultRecord.getBandwidthMeasure(10));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1200, bandwidthResultRecord.getBandwidthMeasure(11));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1300, bandwidthResultRecord.getBandwidthMeasure(12));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1400, bandwidthResultRecord.getBandwidthMeasure(13));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1500, bandwidthResultRecord.getBandwidthMeasure(14));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1600, bandwidthResultRecord.getBandwidthMeasure(15));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1700, bandwidthResultRecord.getBandwidthMeasure(16));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1800, bandwidthResultRecord.getBandwidthMeasure(17));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_1900, bandwidthResultRecord.getBandwidthMeasure(18));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_2000, bandwidthResultRecord.getBandwidthMeasure(19));
-        data.putDouble(BandwidthProbeKeys.BANDWIDTH_TOTAL, bandwidthResultRecord.getBandwidthMeasure(bandwidthResultRecord.TOTAL_BANDWIDTH_INDEX));
-
-        return data;
+     * @param blockEndBytes bytes covered by the block measure
+     * @return key of the block measure, e.g "first_100kb"
+     */
+    static String getBlockKey(long blockEndBytes) {
+        return BandwidthProbeKeys.BANDWIDTH_BLOCK_PREFIX + (blockEndBytes / 1000) + BandwidthProbeKeys.BANDWIDTH_BLOCK_SUFFIX;
     }
 
 }
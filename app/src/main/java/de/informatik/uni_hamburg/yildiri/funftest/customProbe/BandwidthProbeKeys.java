@@ -3,17 +3,23 @@ package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
 import edu.mit.media.funf.probe.builtin.ProbeKeys;
 
 /**
- * These are the keys being used to assemble and pack bandwidth results into data bundles. Hence these keys also end up as the column identifiers of the database entries.
+ * These are the keys being used to assemble bandwidth results into the JSON data of the probe. Hence these keys also end up as the column identifiers of the database entries.
+ * Since the number and size of the blocks depend on the size of the test file, the keys of the block measures are generated: they consist of {@link #BANDWIDTH_BLOCK_PREFIX}, the kilobytes covered by the block and {@link #BANDWIDTH_BLOCK_SUFFIX} - e.g "first_100kb".
  */
 public interface BandwidthProbeKeys extends ProbeKeys.BaseProbeKeys {
 
-    public static final String URL = "url", FILE_SIZE = "file_size",
-            BANDWIDTH_100 = "first_100kb", BANDWIDTH_200 = "first_200kb", BANDWIDTH_300 = "first_300kb",
-            BANDWIDTH_400 = "first_400kb", BANDWIDTH_500 = "first_500kb", BANDWIDTH_600 = "first_600kb",
-            BANDWIDTH_700 = "first_700kb", BANDWIDTH_800 = "first_800kb", BANDWIDTH_900 = "first_900kb",
-            BANDWIDTH_1000 = "first_1000kb", BANDWIDTH_1100 = "first_1100kb", BANDWIDTH_1200 = "first_1200kb",
-            BANDWIDTH_1300 = "first_1300kb", BANDWIDTH_1400 = "first_1400kb", BANDWIDTH_1500 = "first_1500kb",
-            BANDWIDTH_1600 = "first_1600kb", BANDWIDTH_1700 = "first_1700kb", BANDWIDTH_1800 = "first_1800kb",
-            BANDWIDTH_1900 = "first_1900kb", BANDWIDTH_2000 = "first_2000kb",
-            BANDWIDTH_TOTAL = "bandwidth_total";
+    public static final String DIRECTION = "direction", URL = "url", FILE_SIZE = "file_size",
+            BLOCK_COUNT = "block_count", BLOCK_SIZE = "block_size",
+            BANDWIDTH_BLOCK_PREFIX = "first_", BANDWIDTH_BLOCK_SUFFIX = "kb",
+            BANDWIDTH_TOTAL = "bandwidth_total",
+            STREAM_COUNT = "stream_count", STREAM_BANDWIDTHS = "stream_bandwidths",
+            TRANSFER_DURATION_NS = "transfer_duration_ns", BYTES_TRANSFERRED = "bytes_transferred",
+            ENDED_EARLY = "ended_early", CONVERGED_BANDWIDTH = "converged_bandwidth", DNS_NS = "dns_ns", DNS_CACHED = "dns_cached",
+            TCP_CONNECT_NS = "tcp_connect_ns", TLS_HANDSHAKE_NS = "tls_handshake_ns", TTFB_NS = "ttfb_ns", BANDWIDTH_MIN_500MS = "bandwidth_min_500ms", BANDWIDTH_MAX_500MS = "bandwidth_max_500ms",
+            ABORTED = "aborted", ABORT_REASON = "abort_reason",
+            WARM_CONNECTION = "warm_connection", BANDWIDTH_STEADY_STATE = "bandwidth_steady_state", RAMP_UP_NS = "ramp_up_ns",
+            CONNECTION_TYPE = "connection_type", SCHEDULE_INTERVAL_SEC = "schedule_interval_sec", SCHEDULE_REASON = "schedule_reason",
+            BYTES_SPENT = "bytes_spent", BUDGET_MODE = "budget_mode", BUDGET_SPENT_TODAY = "budget_spent_today", BUDGET_DAILY = "budget_daily",
+            PASSIVE = "passive", OBSERVATION_NS = "observation_ns", LOWER_BOUND = "lower_bound",
+            ESTIMATOR = "estimator", TRAIN_CAPACITIES = "train_capacities";
 }
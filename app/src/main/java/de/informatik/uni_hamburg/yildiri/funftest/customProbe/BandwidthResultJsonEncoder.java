@@ -0,0 +1,89 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.ThroughputTimeline;
+
+/**
+ * Hand-written serializer of the bandwidth measurement results into the JSON object sent by the {@link BandwidthProbe}.
+ * The values are written straight into the JSON object, so that neither an intermediate data bundle nor the reflective conversion of it by Gson is needed.
+ * The keys and value types are the same as those of the former data bundle, so the receivers of the probe data are not affected.
+ */
+public class BandwidthResultJsonEncoder {
+
+    /**
+     * Length in nanoseconds of the windows over which the minimum and maximum throughput of a measurement are reported. It is the window tracked by the throughput timeline, so the figures cover the whole transfer.
+     */
+    static final long THROUGHPUT_WINDOW_NANOS = ThroughputTimeline.DEFAULT_TRACKED_WINDOW_NANOS;
+
+    private BandwidthResultJsonEncoder() {
+    }
+
+    /**
+     * Encode all the bandwidth measurement results into a JSON object
+     *
+     * @param bandwidthResultRecord the bandwidth measurement results in form of a BandwidthResultRecord object
+     * @return JSON object containing all the bandwidth measurement results
+     */
+    public static JsonObject encode(BandwidthResultRecord bandwidthResultRecord) {
+        JsonObject data = new JsonObject();
+        data.addProperty(BandwidthProbeKeys.DIRECTION, bandwidthResultRecord.getDirection());
+        if (bandwidthResultRecord.getFileURL() != null) {
+            // Passive measurements have no URL
+            data.addProperty(BandwidthProbeKeys.URL, bandwidthResultRecord.getFileURL().toString());
+        }
+        data.addProperty(BandwidthProbeKeys.FILE_SIZE, bandwidthResultRecord.getFileSize());
+        data.addProperty(BandwidthProbeKeys.BLOCK_COUNT, bandwidthResultRecord.getBlockCount());
+        data.addProperty(BandwidthProbeKeys.BLOCK_SIZE, bandwidthResultRecord.getBlockSizeInBytes());
+        for (int i = 0; i < bandwidthResultRecord.getBlockCount(); i++) {
+            data.addProperty(BandwidthProbe.getBlockKey(bandwidthResultRecord.getBlockEndBytes(i)), bandwidthResultRecord.getBandwidthMeasure(i));
+        }
+        data.addProperty(BandwidthProbeKeys.BANDWIDTH_TOTAL, bandwidthResultRecord.getOverallTotalBandwidthMeasure());
+        data.addProperty(BandwidthProbeKeys.TRANSFER_DURATION_NS, bandwidthResultRecord.getTransferDurationNanos());
+        data.addProperty(BandwidthProbeKeys.BYTES_TRANSFERRED, bandwidthResultRecord.getBytesTransferred());
+        data.addProperty(BandwidthProbeKeys.BYTES_SPENT, bandwidthResultRecord.getBytesSpent());
+        data.addProperty(BandwidthProbeKeys.ENDED_EARLY, bandwidthResultRecord.hasEndedEarly());
+        data.addProperty(BandwidthProbeKeys.CONVERGED_BANDWIDTH, bandwidthResultRecord.getConvergedBandwidth());
+        data.addProperty(BandwidthProbeKeys.DNS_NS, bandwidthResultRecord.getDnsNanos());
+        data.addProperty(BandwidthProbeKeys.DNS_CACHED, bandwidthResultRecord.isDnsCached());
+        data.addProperty(BandwidthProbeKeys.TCP_CONNECT_NS, bandwidthResultRecord.getTcpConnectNanos());
+        data.addProperty(BandwidthProbeKeys.TLS_HANDSHAKE_NS, bandwidthResultRecord.getTlsHandshakeNanos());
+        data.addProperty(BandwidthProbeKeys.TTFB_NS, bandwidthResultRecord.getTimeToFirstByteNanos());
+        data.addProperty(BandwidthProbeKeys.BANDWIDTH_MIN_500MS, bandwidthResultRecord.getMinThroughput(THROUGHPUT_WINDOW_NANOS));
+        data.addProperty(BandwidthProbeKeys.BANDWIDTH_MAX_500MS, bandwidthResultRecord.getMaxThroughput(THROUGHPUT_WINDOW_NANOS));
+        data.addProperty(BandwidthProbeKeys.WARM_CONNECTION, bandwidthResultRecord.isWarmConnection());
+        data.addProperty(BandwidthProbeKeys.BANDWIDTH_STEADY_STATE, bandwidthResultRecord.getSteadyStateBandwidth());
+        data.addProperty(BandwidthProbeKeys.RAMP_UP_NS, bandwidthResultRecord.getRampUpNanos());
+        data.addProperty(BandwidthProbeKeys.ESTIMATOR, bandwidthResultRecord.getEstimator());
+        data.addProperty(BandwidthProbeKeys.PASSIVE, bandwidthResultRecord.isPassive());
+        if (bandwidthResultRecord.isPassive()) {
+            data.addProperty(BandwidthProbeKeys.OBSERVATION_NS, bandwidthResultRecord.getObservationNanos());
+            data.addProperty(BandwidthProbeKeys.LOWER_BOUND, bandwidthResultRecord.isLowerBound());
+        }
+        data.addProperty(BandwidthProbeKeys.ABORTED, bandwidthResultRecord.isAborted());
+        if (bandwidthResultRecord.isAborted()) {
+            data.addProperty(BandwidthProbeKeys.ABORT_REASON, bandwidthResultRecord.getAbortReason());
+        }
+        data.addProperty(BandwidthProbeKeys.STREAM_COUNT, bandwidthResultRecord.getStreamCount());
+        double[] streamBandwidthMeasures = bandwidthResultRecord.getStreamBandwidthMeasures();
+        if (streamBandwidthMeasures.length > 0) {
+            JsonArray streamBandwidths = new JsonArray();
+            for (double streamBandwidthMeasure : streamBandwidthMeasures) {
+                streamBandwidths.add(new JsonPrimitive(streamBandwidthMeasure));
+            }
+            data.add(BandwidthProbeKeys.STREAM_BANDWIDTHS, streamBandwidths);
+        }
+        double[] trainCapacities = bandwidthResultRecord.getTrainCapacities();
+        if (trainCapacities.length > 0) {
+            JsonArray trainCapacityArray = new JsonArray();
+            for (double trainCapacity : trainCapacities) {
+                trainCapacityArray.add(new JsonPrimitive(trainCapacity));
+            }
+            data.add(BandwidthProbeKeys.TRAIN_CAPACITIES, trainCapacityArray);
+        }
+        return data;
+    }
+}
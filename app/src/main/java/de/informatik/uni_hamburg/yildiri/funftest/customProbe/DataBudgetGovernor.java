@@ -0,0 +1,205 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.LocalDays;
+
+/**
+ * Accounts the bytes spent by the measurements of the BandwidthProbe per connection type and local day, and decides how much a run may still spend, so that active measurements don't eat up a mobile plan.
+ * Metered and unmetered connections have daily budgets of their own, see {@link #setDailyBudgets(long, long)}. Depending on the bytes left of the budget of the current day a run measures in one of three modes:
+ * <ul>
+ * <li>{@link #MODE_FULL}: the run measures as configured.</li>
+ * <li>{@link #MODE_REDUCED}: less than {@link #REDUCED_BUDGET_FRACTION} of the budget is left, so the run measures a single transfer capped to {@link #REDUCED_TEST_BYTES} or a packet-train estimate.</li>
+ * <li>{@link #MODE_PASSIVE}: not even a reduced test fits into the budget anymore, so the run must not generate traffic of its own.</li>
+ * </ul>
+ * The spent bytes are persisted in private shared preferences, so that the accounting survives restarts of the app. They start over at zero when the local day changes.
+ */
+public class DataBudgetGovernor {
+
+    /**
+     * Default daily budget in bytes on metered connections
+     */
+    public static final long DEFAULT_METERED_BUDGET_BYTES = 50L * 1000 * 1000;
+    /**
+     * Default daily budget in bytes on unmetered connections, 0 for no limit
+     */
+    public static final long DEFAULT_UNMETERED_BUDGET_BYTES = 0;
+    /**
+     * Fraction of the daily budget below which the runs only measure reduced tests
+     */
+    public static final double REDUCED_BUDGET_FRACTION = 0.25;
+    /**
+     * Number of bytes a reduced test transfers at most
+     */
+    public static final long REDUCED_TEST_BYTES = 200L * 1000;
+
+    /**
+     * Mode of a run that measures as configured
+     */
+    public static final String MODE_FULL = "full";
+    /**
+     * Mode of a run that measures a reduced test only
+     */
+    public static final String MODE_REDUCED = "reduced";
+    /**
+     * Mode of a run that must not generate traffic of its own
+     */
+    public static final String MODE_PASSIVE = "passive";
+
+    /**
+     * Name of the shared preferences the spent bytes are persisted in
+     */
+    private static final String PREFERENCES_NAME = "data_budget";
+    private static final String KEY_DAY_PREFIX = "day_", KEY_SPENT_BYTES_PREFIX = "spent_bytes_";
+
+    /**
+     * The single instance of this class
+     */
+    private static DataBudgetGovernor instance;
+
+    /**
+     * Shared preferences the spent bytes are persisted in, null if they aren't persisted
+     */
+    private final SharedPreferences sharedPreferences;
+    /**
+     * Index of the local day the bytes of each connection type have last been spent on
+     */
+    private final Map<Integer, Long> spentDays = new HashMap<Integer, Long>();
+    /**
+     * Bytes spent on each connection type on the day given by {@link #spentDays}
+     */
+    private final Map<Integer, Long> spentBytes = new HashMap<Integer, Long>();
+    /**
+     * Daily budget in bytes on metered connections, 0 for no limit
+     */
+    private long meteredBudgetBytes = DEFAULT_METERED_BUDGET_BYTES;
+    /**
+     * Daily budget in bytes on unmetered connections, 0 for no limit
+     */
+    private long unmeteredBudgetBytes = DEFAULT_UNMETERED_BUDGET_BYTES;
+
+    /**
+     *
+     * @param sharedPreferences shared preferences to restore and persist the spent bytes in, null to start over and not persist them
+     */
+    DataBudgetGovernor(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * Get the single instance of the governor
+     *
+     * @param context the context of the app
+     * @return the governor
+     */
+    public static synchronized DataBudgetGovernor getInstance(Context context) {
+        if (instance == null) {
+            instance = new DataBudgetGovernor(context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    /**
+     * Set the daily budgets
+     *
+     * @param meteredBudgetBytes   daily budget in bytes on metered connections, 0 for no limit
+     * @param unmeteredBudgetBytes daily budget in bytes on unmetered connections, 0 for no limit
+     */
+    public synchronized void setDailyBudgets(long meteredBudgetBytes, long unmeteredBudgetBytes) {
+        if (meteredBudgetBytes < 0 || unmeteredBudgetBytes < 0) {
+            throw new IllegalArgumentException("budgets must not be negative (were " + meteredBudgetBytes + " and " + unmeteredBudgetBytes + ")");
+        }
+        this.meteredBudgetBytes = meteredBudgetBytes;
+        this.unmeteredBudgetBytes = unmeteredBudgetBytes;
+    }
+
+    /**
+     * Get the state of the budget of a connection type on the current day
+     *
+     * @param nowMillis      current wall clock time in milliseconds
+     * @param connectionType the connection type
+     * @return the state of the budget
+     */
+    public synchronized DataBudgetStatus getStatus(long nowMillis, int connectionType) {
+        long dayIndex = LocalDays.getDayIndex(nowMillis);
+        long spent = getSpentBytes(connectionType, dayIndex);
+        long budget = getDailyBudget(connectionType);
+        return new DataBudgetStatus(connectionType, dayIndex, spent, budget, getMode(spent, budget));
+    }
+
+    /**
+     * Account the bytes spent by a measurement on the current day and persist them
+     *
+     * @param nowMillis      current wall clock time in milliseconds
+     * @param connectionType connection type the measurement ran on
+     * @param bytes          bytes spent by the measurement
+     * @return the state of the budget including the bytes
+     */
+    public synchronized DataBudgetStatus recordBytes(long nowMillis, int connectionType, long bytes) {
+        long dayIndex = LocalDays.getDayIndex(nowMillis);
+        long spent = getSpentBytes(connectionType, dayIndex) + Math.max(0, bytes);
+        spentDays.put(connectionType, dayIndex);
+        spentBytes.put(connectionType, spent);
+        if (sharedPreferences != null) {
+            sharedPreferences.edit()
+                    .putLong(KEY_DAY_PREFIX + connectionType, dayIndex)
+                    .putLong(KEY_SPENT_BYTES_PREFIX + connectionType, spent)
+                    .apply();
+        }
+        long budget = getDailyBudget(connectionType);
+        DataBudgetStatus status = new DataBudgetStatus(connectionType, dayIndex, spent, budget, getMode(spent, budget));
+        Log.i(getClass().getSimpleName(), "Accounted " + bytes + " bytes of a measurement: " + status);
+        return status;
+    }
+
+    /**
+     * Get the daily budget of a connection type
+     *
+     * @param connectionType the connection type
+     * @return budget in bytes, 0 for no limit
+     */
+    synchronized long getDailyBudget(int connectionType) {
+        return AdaptiveSchedulePolicy.isMetered(connectionType) ? meteredBudgetBytes : unmeteredBudgetBytes;
+    }
+
+    /**
+     * Get the bytes spent on a connection type on a day, restoring them from the shared preferences on first use
+     *
+     * @param connectionType the connection type
+     * @param dayIndex       index of the local day
+     * @return spent bytes, 0 if the bytes accounted last belong to an other day
+     */
+    private long getSpentBytes(int connectionType, long dayIndex) {
+        if (!spentDays.containsKey(connectionType)) {
+            if (sharedPreferences == null) {
+                return 0;
+            }
+            spentDays.put(connectionType, sharedPreferences.getLong(KEY_DAY_PREFIX + connectionType, Long.MIN_VALUE));
+            spentBytes.put(connectionType, sharedPreferences.getLong(KEY_SPENT_BYTES_PREFIX + connectionType, 0));
+        }
+        return spentDays.get(connectionType) == dayIndex ? spentBytes.get(connectionType) : 0;
+    }
+
+    /**
+     * Get the measurement mode the remaining budget allows
+     *
+     * @param spent  bytes spent on the day
+     * @param budget daily budget in bytes, 0 for no limit
+     * @return one of {@link #MODE_FULL}, {@link #MODE_REDUCED} or {@link #MODE_PASSIVE}
+     */
+    private static String getMode(long spent, long budget) {
+        if (budget <= 0) {
+            return MODE_FULL;
+        }
+        long remaining = budget - spent;
+        if (remaining < REDUCED_TEST_BYTES) {
+            return MODE_PASSIVE;
+        }
+        return remaining < budget * REDUCED_BUDGET_FRACTION ? MODE_REDUCED : MODE_FULL;
+    }
+}
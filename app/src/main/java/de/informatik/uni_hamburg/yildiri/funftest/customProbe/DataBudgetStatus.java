@@ -0,0 +1,106 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+/**
+ * The state of the daily data budget of a connection type as accounted by the {@link DataBudgetGovernor}, along with the measurement mode it allows
+ */
+public class DataBudgetStatus {
+
+    /**
+     * Connection type the budget applies to
+     */
+    private final int connectionType;
+    /**
+     * Index of the local day the bytes have been spent on, counted from the epoch
+     */
+    private final long dayIndex;
+    /**
+     * Bytes spent by measurements on the connection type on that day
+     */
+    private final long spentBytes;
+    /**
+     * Daily budget in bytes, 0 for no limit
+     */
+    private final long budgetBytes;
+    /**
+     * Measurement mode the remaining budget allows, one of the <code>MODE_*</code> constants of the {@link DataBudgetGovernor}
+     */
+    private final String mode;
+
+    /**
+     *
+     * @param connectionType connection type the budget applies to
+     * @param dayIndex       index of the local day, counted from the epoch
+     * @param spentBytes     bytes spent by measurements on that day
+     * @param budgetBytes    daily budget in bytes, 0 for no limit
+     * @param mode           measurement mode the remaining budget allows
+     */
+    DataBudgetStatus(int connectionType, long dayIndex, long spentBytes, long budgetBytes, String mode) {
+        this.connectionType = connectionType;
+        this.dayIndex = dayIndex;
+        this.spentBytes = spentBytes;
+        this.budgetBytes = budgetBytes;
+        this.mode = mode;
+    }
+
+    /**
+     * Get the connection type the budget applies to
+     *
+     * @return one of <code>ConnectivityManager.TYPE_*</code> or {@link BandwidthProbe#NO_CONNECTION}
+     */
+    public int getConnectionType() {
+        return this.connectionType;
+    }
+
+    /**
+     * Get the index of the local day the bytes have been spent on
+     *
+     * @return index of the day, counted from the epoch
+     */
+    public long getDayIndex() {
+        return this.dayIndex;
+    }
+
+    /**
+     * Get the bytes spent by measurements on the connection type on that day
+     *
+     * @return spent bytes
+     */
+    public long getSpentBytes() {
+        return this.spentBytes;
+    }
+
+    /**
+     * Get the daily budget
+     *
+     * @return budget in bytes, 0 for no limit
+     */
+    public long getBudgetBytes() {
+        return this.budgetBytes;
+    }
+
+    /**
+     * Get the bytes left of the daily budget
+     *
+     * @return remaining bytes, never negative, or Long.MAX_VALUE if there is no limit
+     */
+    public long getRemainingBytes() {
+        if (budgetBytes <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, budgetBytes - spentBytes);
+    }
+
+    /**
+     * Get the measurement mode the remaining budget allows
+     *
+     * @return one of the <code>MODE_*</code> constants of the {@link DataBudgetGovernor}
+     */
+    public String getMode() {
+        return this.mode;
+    }
+
+    @Override
+    public String toString() {
+        return mode + " (" + spentBytes + " of " + (budgetBytes > 0 ? budgetBytes + " bytes" : "unlimited") + " spent today, connection type " + connectionType + ")";
+    }
+}
@@ -0,0 +1,94 @@
+package de.informatik.uni_hamburg.yildiri.funftest.customProbe;
+
+/**
+ * A decision of the {@link AdaptiveSchedulePolicy} whether a scheduled run of the BandwidthProbe measures or is skipped, along with the effective interval and the reason for it
+ */
+public class ScheduleDecision {
+
+    /**
+     * Wall clock time of the decision in milliseconds
+     */
+    private final long timeMillis;
+    /**
+     * Connection type at the time of the decision
+     */
+    private final int connectionType;
+    /**
+     * Whether the run measures
+     */
+    private final boolean run;
+    /**
+     * Effective interval between two measurements in seconds
+     */
+    private final long intervalSec;
+    /**
+     * Reason of the decision, one of the <code>REASON_*</code> constants of the {@link AdaptiveSchedulePolicy}
+     */
+    private final String reason;
+
+    /**
+     *
+     * @param timeMillis     wall clock time of the decision in milliseconds
+     * @param connectionType connection type at the time of the decision
+     * @param run            whether the run measures
+     * @param intervalSec    effective interval between two measurements in seconds
+     * @param reason         reason of the decision
+     */
+    ScheduleDecision(long timeMillis, int connectionType, boolean run, long intervalSec, String reason) {
+        this.timeMillis = timeMillis;
+        this.connectionType = connectionType;
+        this.run = run;
+        this.intervalSec = intervalSec;
+        this.reason = reason;
+    }
+
+    /**
+     * Get the wall clock time of the decision
+     *
+     * @return time in milliseconds
+     */
+    public long getTimeMillis() {
+        return this.timeMillis;
+    }
+
+    /**
+     * Get the connection type at the time of the decision
+     *
+     * @return one of <code>ConnectivityManager.TYPE_*</code> or {@link BandwidthProbe#NO_CONNECTION}
+     */
+    public int getConnectionType() {
+        return this.connectionType;
+    }
+
+    /**
+     * Get whether the run measures
+     *
+     * @return true if the run measures, false if it is skipped
+     */
+    public boolean isRun() {
+        return this.run;
+    }
+
+    /**
+     * Get the effective interval between two measurements
+     *
+     * @return interval in seconds
+     */
+    public long getIntervalSec() {
+        return this.intervalSec;
+    }
+
+    /**
+     * Get the reason of the decision
+     *
+     * @return one of the <code>REASON_*</code> constants of the {@link AdaptiveSchedulePolicy}
+     */
+    public String getReason() {
+        return this.reason;
+    }
+
+    @Override
+    public String toString() {
+        return (run ? "run" : "skip") + " (" + reason + ", interval " + intervalSec + " s, connection type " + connectionType + ")";
+    }
+}
@@ -0,0 +1,25 @@
+package de.informatik.uni_hamburg.yildiri.funftest.pipeline;
+
+/**
+ * Listener to an archive operation of the {@link FunfTestPipeline}, see {@link FunfTestPipeline#archive(ArchiveListener)}.
+ * The callbacks are invoked on the thread of the pipeline, so implementations that update the UI have to move to the main thread themselves.
+ */
+public interface ArchiveListener {
+
+    /**
+     * Callback method when a batch of data entries has been copied to the archive
+     *
+     * @param rowsCopied  number of data entries copied so far
+     * @param totalRows   number of data entries to be archived
+     * @param bytesCopied size in bytes of the archive database written so far
+     */
+    void onArchiveProgress(long rowsCopied, long totalRows, long bytesCopied);
+
+    /**
+     * Callback method when the archive operation has finished
+     *
+     * @param success      whether the data has been archived. If not, the data is kept in the pipeline database.
+     * @param rowsArchived number of data entries archived
+     */
+    void onArchiveFinished(boolean success, long rowsArchived);
+}
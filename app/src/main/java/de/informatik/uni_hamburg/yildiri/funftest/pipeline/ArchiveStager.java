@@ -0,0 +1,200 @@
+package de.informatik.uni_hamburg.yildiri.funftest.pipeline;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.informatik.uni_hamburg.yildiri.funftest.archive.ColumnarArchiveWriter;
+import edu.mit.media.funf.storage.NameValueDatabaseHelper;
+
+/**
+ * Copies the content of the pipeline database into a staging database file in batches, reporting the progress after every batch.
+ * The staging file is then handed to the file archive of funf, instead of the live database. The staging database has the same tables as the pipeline database, including its file info, so the archived files look like the ones funf archives on its own.
+ * Optionally the entries of one kind of data, like the bandwidth results, are written to a {@link ColumnarArchiveWriter} instead of the staging database.
+ */
+class ArchiveStager {
+
+    /**
+     * Number of data entries copied within one transaction, i.e. between two progress reports
+     */
+    static final int BATCH_ROWS = 1000;
+
+    /**
+     * SQL query of a batch of data entries following the given _id
+     */
+    private static final String SELECT_BATCH_SQL = "SELECT _id, " + NameValueDatabaseHelper.COLUMN_NAME + ", " + NameValueDatabaseHelper.COLUMN_TIMESTAMP + ", " + NameValueDatabaseHelper.COLUMN_VALUE
+            + " FROM " + NameValueDatabaseHelper.DATA_TABLE.name + " WHERE _id > ? ORDER BY _id LIMIT " + BATCH_ROWS;
+    /**
+     * SQL statement inserting a data entry into the staging database
+     */
+    private static final String INSERT_SQL = "INSERT INTO " + NameValueDatabaseHelper.DATA_TABLE.name + " (_id, " + NameValueDatabaseHelper.COLUMN_NAME + ", " + NameValueDatabaseHelper.COLUMN_TIMESTAMP + ", " + NameValueDatabaseHelper.COLUMN_VALUE + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * The pipeline database to copy from
+     */
+    private final SQLiteDatabase sourceDb;
+    /**
+     * Listener to report the progress to, may be null
+     */
+    private final ArchiveListener listener;
+    /**
+     * Name of the data entries written to the {@link #columnarWriter}, null if all entries are copied to the staging database
+     */
+    private String columnarDataName;
+    /**
+     * Writer of the entries named {@link #columnarDataName}, may be null
+     */
+    private ColumnarArchiveWriter columnarWriter;
+    /**
+     * Parser of the values of the entries written to the {@link #columnarWriter}
+     */
+    private final JsonParser jsonParser = new JsonParser();
+
+    /**
+     *
+     * @param sourceDb the pipeline database to copy from
+     * @param listener listener to report the progress to, may be null
+     */
+    ArchiveStager(SQLiteDatabase sourceDb, ArchiveListener listener) {
+        this.sourceDb = sourceDb;
+        this.listener = listener;
+    }
+
+    /**
+     * Write the data entries of the given name to a columnar archive instead of the staging database
+     *
+     * @param dataName       name of the data entries, i.e. the type of the probe that has sent them
+     * @param columnarWriter writer of the columnar archive, which is not closed by this stager
+     */
+    void setColumnarWriter(String dataName, ColumnarArchiveWriter columnarWriter) {
+        this.columnarDataName = dataName;
+        this.columnarWriter = columnarWriter;
+    }
+
+    /**
+     * Copy all data entries and the file info of the pipeline database into a new database file
+     *
+     * @param stagingFile the file to create, replaced if it exists
+     * @param totalRows   number of data entries in the pipeline database, for the progress reports
+     * @return number of data entries copied, including the ones written to the columnar archive
+     * @throws IOException if writing to the columnar archive fails
+     */
+    long stage(File stagingFile, long totalRows) throws IOException {
+        if (stagingFile.exists()) {
+            stagingFile.delete();
+        }
+        SQLiteDatabase stagingDb = SQLiteDatabase.openOrCreateDatabase(stagingFile, null);
+        try {
+            stagingDb.execSQL(NameValueDatabaseHelper.DATA_TABLE.getCreateTableSQL());
+            stagingDb.execSQL(NameValueDatabaseHelper.FILE_INFO_TABLE.getCreateTableSQL());
+            copyFileInfo(stagingDb);
+
+            SQLiteStatement insert = stagingDb.compileStatement(INSERT_SQL);
+            long rowsCopied = 0;
+            long lastId = -1;
+            int batchRows;
+            do {
+                batchRows = 0;
+                Cursor cursor = sourceDb.rawQuery(SELECT_BATCH_SQL, new String[]{String.valueOf(lastId)});
+                stagingDb.beginTransaction();
+                try {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        batchRows++;
+                        if (columnarWriter != null && columnarDataName.equals(cursor.getString(1)) && writeColumnar(cursor.getString(3))) {
+                            continue;
+                        }
+                        insert.bindLong(1, lastId);
+                        bindStringOrNull(insert, 2, cursor, 1);
+                        insert.bindDouble(3, cursor.getDouble(2));
+                        bindStringOrNull(insert, 4, cursor, 3);
+                        insert.executeInsert();
+                    }
+                    stagingDb.setTransactionSuccessful();
+                } finally {
+                    stagingDb.endTransaction();
+                    cursor.close();
+                }
+                rowsCopied += batchRows;
+                if (listener != null && batchRows > 0) {
+                    listener.onArchiveProgress(rowsCopied, totalRows, stagingFile.length());
+                }
+            } while (batchRows == BATCH_ROWS);
+            insert.close();
+            return rowsCopied;
+        } finally {
+            stagingDb.close();
+        }
+    }
+
+    /**
+     * Write the value of a data entry to the columnar archive
+     *
+     * @param value the value of the data entry as JSON text
+     * @return false if the value is not a JSON object, so that it has to be copied to the staging database
+     * @throws IOException if writing fails
+     */
+    private boolean writeColumnar(String value) throws IOException {
+        if (value == null) {
+            return false;
+        }
+        JsonElement element;
+        try {
+            element = jsonParser.parse(value);
+        } catch (JsonParseException e) {
+            return false;
+        }
+        if (!element.isJsonObject()) {
+            return false;
+        }
+        columnarWriter.write(element.getAsJsonObject());
+        return true;
+    }
+
+    /**
+     * Copy the file info of the pipeline database, which identifies the database and the device it has been recorded on
+     *
+     * @param stagingDb the staging database to copy to
+     */
+    private void copyFileInfo(SQLiteDatabase stagingDb) {
+        String table = NameValueDatabaseHelper.FILE_INFO_TABLE.name;
+        String columns = NameValueDatabaseHelper.COLUMN_DATABASE_NAME + ", " + NameValueDatabaseHelper.COLUMN_INSTALLATION + ", " + NameValueDatabaseHelper.COLUMN_UUID + ", " + NameValueDatabaseHelper.COLUMN_CREATED;
+        Cursor cursor = sourceDb.rawQuery("SELECT " + columns + " FROM " + table, null);
+        SQLiteStatement insert = stagingDb.compileStatement("INSERT INTO " + table + " (" + columns + ") VALUES (?, ?, ?, ?)");
+        try {
+            while (cursor.moveToNext()) {
+                bindStringOrNull(insert, 1, cursor, 0);
+                bindStringOrNull(insert, 2, cursor, 1);
+                bindStringOrNull(insert, 3, cursor, 2);
+                insert.bindDouble(4, cursor.getDouble(3));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Bind a string column of a cursor to a statement, keeping null values
+     *
+     * @param statement      the statement to bind to
+     * @param statementIndex 1-based index of the parameter of the statement
+     * @param cursor         the cursor to read from
+     * @param cursorIndex    0-based index of the column of the cursor
+     */
+    private static void bindStringOrNull(SQLiteStatement statement, int statementIndex, Cursor cursor, int cursorIndex) {
+        if (cursor.isNull(cursorIndex)) {
+            statement.bindNull(statementIndex);
+        } else {
+            statement.bindString(statementIndex, cursor.getString(cursorIndex));
+        }
+    }
+}
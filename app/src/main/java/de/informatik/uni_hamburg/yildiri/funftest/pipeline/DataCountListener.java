@@ -0,0 +1,15 @@
+package de.informatik.uni_hamburg.yildiri.funftest.pipeline;
+
+/**
+ * Listener to the count of data entries in the database of the {@link FunfTestPipeline}.
+ * The callback is invoked on the thread of the pipeline, so implementations that update the UI have to move to the main thread themselves.
+ */
+public interface DataCountListener {
+
+    /**
+     * Callback method when the count of data entries in the pipeline database has changed
+     *
+     * @param dataCount current count of data entries
+     */
+    void onDataCountChanged(long dataCount);
+}
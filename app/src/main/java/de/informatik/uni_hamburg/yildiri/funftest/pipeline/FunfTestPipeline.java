@@ -0,0 +1,557 @@
+package de.informatik.uni_hamburg.yildiri.funftest.pipeline;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.BatteryManager;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.informatik.uni_hamburg.yildiri.funftest.archive.ArchiveQueryEngine;
+import de.informatik.uni_hamburg.yildiri.funftest.archive.BandwidthQuery;
+import de.informatik.uni_hamburg.yildiri.funftest.archive.BandwidthRowListener;
+import de.informatik.uni_hamburg.yildiri.funftest.archive.ColumnarArchiveWriter;
+import de.informatik.uni_hamburg.yildiri.funftest.customProbe.AdaptiveSchedulePolicy;
+import de.informatik.uni_hamburg.yildiri.funftest.customProbe.BandwidthProbe;
+import edu.mit.media.funf.FunfManager;
+import edu.mit.media.funf.json.IJsonObject;
+import edu.mit.media.funf.pipeline.BasicPipeline;
+import edu.mit.media.funf.probe.builtin.BatteryProbe;
+import edu.mit.media.funf.probe.builtin.ProbeKeys.BaseProbeKeys;
+import edu.mit.media.funf.probe.builtin.ProbeKeys.BatteryKeys;
+import edu.mit.media.funf.storage.DefaultArchive;
+import edu.mit.media.funf.storage.NameValueDatabaseHelper;
+
+/**
+ * The pipeline of this app, configured by the "default_pipeline" string resource. It behaves like the BasicPipeline of funf, but keeps track of the count of data entries in its database.
+ * The count is maintained incrementally: every inserted entry increments it and archiving resets it to 0, so reading it costs O(1) no matter how large the database is.
+ * Only once after the creation of the pipeline the count is reconciled with the database by a count query. Like all database accesses of the pipeline it runs on the thread of the pipeline, never on the main thread.
+ * Archiving copies the data entries in batches into a staging database, which is then handed to the file archive. The progress and the completion are reported to an {@link ArchiveListener}, and only one archive operation can be pending at a time.
+ * Data entries are written behind: they are queued and inserted together in one transaction once {@link #FLUSH_ROWS} entries are pending or {@link #FLUSH_DELAY_MS} have passed, and the database uses write-ahead logging, so that bursts of scan results don't cause one sync per entry.
+ * Entries are counted once they have been inserted. While the inserts are failing, at most {@link #MAX_PENDING_ROWS} entries are kept queued and the oldest ones are dropped.
+ * Pending entries are flushed before archiving and, on the thread of the pipeline, when the pipeline is destroyed. The readings of the BatteryProbe are also fed to the {@link AdaptiveSchedulePolicy} of the BandwidthProbe.
+ * The results of the BandwidthProbe are not copied to the staging database, but written to a compact columnar archive file next to the archive directory, see {@link ColumnarArchiveWriter}.
+ * The archived results of the BandwidthProbe can be queried across all archive files by {@link #queryArchivedBandwidth(BandwidthQuery, BandwidthRowListener)}, which skips archive files by their sidecar indexes. New archive files are indexed right after archiving.
+ */
+public class FunfTestPipeline extends BasicPipeline {
+
+    /**
+     * Value of the data count as long as it hasn't been reconciled with the database
+     */
+    public static final long UNKNOWN_DATA_COUNT = -1;
+
+    /**
+     * Name of the private directory the staging databases of the archive operations are written to
+     */
+    private static final String STAGING_DIR_NAME = "archive_staging";
+    /**
+     * Name of the directory on the SD card the columnar archives of the bandwidth results are written to, next to the archive directory of funf
+     */
+    public static final String COLUMNAR_ARCHIVE_DIR_NAME = "bandwidth_archive";
+    /**
+     * File name suffix of the columnar archives
+     */
+    public static final String COLUMNAR_ARCHIVE_SUFFIX = ColumnarArchiveWriter.FILE_SUFFIX;
+    /**
+     * Name of the directory on the SD card the sidecar indexes of the archive files are kept in, next to the archive directory of funf
+     */
+    public static final String ARCHIVE_INDEX_DIR_NAME = "archive_index";
+
+    /**
+     * Number of pending data entries that triggers a flush
+     */
+    static final int FLUSH_ROWS = 50;
+    /**
+     * Maximum number of data entries kept for the next flush while the inserts are failing, the oldest ones are dropped beyond it
+     */
+    static final int MAX_PENDING_ROWS = 10 * FLUSH_ROWS;
+    /**
+     * Time in milliseconds after which a pending data entry is flushed at the latest
+     */
+    static final long FLUSH_DELAY_MS = 5000;
+    /**
+     * Name of the data entries of the BatteryProbe, whose readings are fed to the {@link AdaptiveSchedulePolicy}
+     */
+    private static final String BATTERY_PROBE_NAME = BatteryProbe.class.getName();
+    /**
+     * SQL statement inserting a data entry, with the same columns as written by the BasicPipeline
+     */
+    private static final String INSERT_SQL = "INSERT INTO " + NameValueDatabaseHelper.DATA_TABLE.name + " (" + NameValueDatabaseHelper.COLUMN_NAME + ", " + NameValueDatabaseHelper.COLUMN_VALUE + ", " + NameValueDatabaseHelper.COLUMN_TIMESTAMP + ") VALUES (?, ?, ?)";
+
+    /**
+     * A data entry waiting to be inserted
+     */
+    private static class PendingRow {
+        final String name;
+        final String value;
+        final double timestamp;
+
+        PendingRow(String name, String value, double timestamp) {
+            this.name = name;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Data entries waiting to be inserted. Only accessed on the thread of the pipeline.
+     */
+    private final List<PendingRow> pendingRows = new ArrayList<PendingRow>(FLUSH_ROWS);
+    /**
+     * Flushes the pending data entries after {@link #FLUSH_DELAY_MS}
+     */
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingRows();
+        }
+    };
+    /**
+     * Whether the {@link #flushRunnable} has been scheduled. Only accessed on the thread of the pipeline.
+     */
+    private boolean flushScheduled = false;
+    /**
+     * Number of data entries dropped since the creation of the pipeline, because the inserts kept failing. Only written on the thread of the pipeline.
+     */
+    private volatile long droppedRows = 0;
+
+    /**
+     * Count of data entries in the pipeline database, {@link #UNKNOWN_DATA_COUNT} until reconciled. Only written on the thread of the pipeline.
+     */
+    private volatile long dataCount = UNKNOWN_DATA_COUNT;
+    /**
+     * Listener to be notified when the data count changes, may be null
+     */
+    private volatile DataCountListener dataCountListener;
+    /**
+     * Whether an archive operation is pending or running
+     */
+    private final AtomicBoolean archiveInProgress = new AtomicBoolean(false);
+    /**
+     * Listener of the pending or running archive operation, may be null
+     */
+    private volatile ArchiveListener archiveListener;
+    /**
+     * Whether the running archive operation has succeeded. Only accessed on the thread of the pipeline.
+     */
+    private boolean archiveSucceeded;
+    /**
+     * Number of data entries archived by the running archive operation. Only accessed on the thread of the pipeline.
+     */
+    private long archivedRows;
+    /**
+     * Query engine over the archive files, created on first use, null if the archive is not the default one of funf
+     */
+    private ArchiveQueryEngine archiveQueryEngine;
+
+    @Override
+    public void onCreate(FunfManager manager) {
+        super.onCreate(manager);
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                enableWriteAheadLogging();
+                reconcileDataCount();
+            }
+        });
+    }
+
+    /**
+     * Flush the pending data entries and tear down the pipeline on the thread of the pipeline, behind the entries already queued, so that the calling main thread isn't blocked by the database.
+     */
+    @Override
+    public void onDestroy() {
+        // The looper of the pipeline is quit by the BasicPipeline, so flush the queued and pending entries before
+        Runnable teardown = new Runnable() {
+            @Override
+            public void run() {
+                flushPendingRows();
+                FunfTestPipeline.super.onDestroy();
+            }
+        };
+        if (Looper.myLooper() == getHandler().getLooper() || !getHandler().post(teardown)) {
+            // Already on the thread of the pipeline, or its looper has already quit
+            teardown.run();
+        }
+    }
+
+    /**
+     * Queue a data entry instead of inserting it right away. Runs on the thread of the pipeline.
+     *
+     * @param name name of the data entry, i.e. the type of the probe that has sent it
+     * @param data the data sent by the probe
+     * @throws SQLException if not all required values are specified, like {@link BasicPipeline} does
+     */
+    @Override
+    protected void writeData(String name, IJsonObject data) {
+        JsonElement timestampElement = data == null ? null : data.get(BaseProbeKeys.TIMESTAMP);
+        double timestamp = timestampElement == null || timestampElement.isJsonNull() ? 0 : timestampElement.getAsDouble();
+        if (name == null || timestamp == 0) {
+            Log.e(getClass().getSimpleName(), "Unable to save data, not all required values specified: " + timestamp + " " + name + " - " + data);
+            throw new SQLException("Not all required fields specified.");
+        }
+        if (BATTERY_PROBE_NAME.equals(name)) {
+            onBatteryReading(data);
+        }
+        pendingRows.add(new PendingRow(name, data.toString(), timestamp));
+        if (pendingRows.size() >= FLUSH_ROWS) {
+            flushPendingRows();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            getHandler().postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Feed a reading of the BatteryProbe to the {@link AdaptiveSchedulePolicy} of the BandwidthProbe
+     *
+     * @param data the data sent by the BatteryProbe
+     */
+    private void onBatteryReading(IJsonObject data) {
+        JsonElement level = data.get(BatteryKeys.LEVEL);
+        JsonElement scale = data.get(BatteryKeys.SCALE);
+        if (level == null || scale == null || scale.getAsInt() <= 0) {
+            return;
+        }
+        JsonElement plugged = data.get(BatteryManager.EXTRA_PLUGGED);
+        boolean pluggedIn = plugged != null && plugged.getAsInt() != 0;
+        AdaptiveSchedulePolicy.getInstance(getFunfManager()).onBatteryReading(level.getAsDouble() / scale.getAsInt(), pluggedIn);
+    }
+
+    /**
+     * Insert all pending data entries in one transaction and count them. Runs on the thread of the pipeline.
+     * If the insert fails, the entries are kept for the next flush, up to {@link #MAX_PENDING_ROWS} of them, dropping the oldest ones.
+     */
+    private void flushPendingRows() {
+        if (flushScheduled) {
+            getHandler().removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        if (pendingRows.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getDatabaseHelper().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(INSERT_SQL);
+            try {
+                for (PendingRow row : pendingRows) {
+                    insert.bindString(1, row.name);
+                    insert.bindString(2, row.value);
+                    insert.bindDouble(3, row.timestamp);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(getClass().getSimpleName(), "Failed to insert " + pendingRows.size() + " data entries, keeping them for the next flush", e);
+            dropExcessPendingRows();
+            return;
+        } finally {
+            db.endTransaction();
+        }
+        if (dataCount != UNKNOWN_DATA_COUNT) {
+            setDataCount(dataCount + pendingRows.size());
+        }
+        pendingRows.clear();
+    }
+
+    /**
+     * Drop the oldest pending data entries beyond {@link #MAX_PENDING_ROWS}, so that the queue stays bounded while the inserts are failing. Runs on the thread of the pipeline.
+     */
+    private void dropExcessPendingRows() {
+        int excess = pendingRows.size() - MAX_PENDING_ROWS;
+        if (excess <= 0) {
+            return;
+        }
+        pendingRows.subList(0, excess).clear();
+        droppedRows += excess;
+        Log.w(getClass().getSimpleName(), "Dropped the " + excess + " oldest pending data entries, " + droppedRows + " dropped in total");
+    }
+
+    /**
+     * Switch the pipeline database to write-ahead logging, so that commits append to the log instead of syncing the rollback journal and the database. Runs on the thread of the pipeline.
+     */
+    private void enableWriteAheadLogging() {
+        if (!getDatabaseHelper().getWritableDatabase().enableWriteAheadLogging()) {
+            Log.w(getClass().getSimpleName(), "Write-ahead logging is not supported by the pipeline database");
+        }
+    }
+
+    /**
+     * Archive the data of the pipeline in the background. The data entries are copied to the archive on the thread of the pipeline, reporting the progress to the listener, which is notified as well when the operation has finished.
+     * Only one archive operation can be pending at a time, including the ones scheduled by funf.
+     *
+     * @param listener listener to the progress and the completion of the operation, may be null
+     * @return true if the operation has been started, false if another one is still pending
+     */
+    public boolean archive(ArchiveListener listener) {
+        if (!archiveInProgress.compareAndSet(false, true)) {
+            return false;
+        }
+        archiveListener = listener;
+        super.onRun(ACTION_ARCHIVE, null);
+        return true;
+    }
+
+    @Override
+    public void onRun(String action, JsonElement config) {
+        if (ACTION_ARCHIVE.equals(action)) {
+            // Scheduled archive operations go through the same guard as the manual ones
+            if (!archive(null)) {
+                Log.d(getClass().getSimpleName(), "Skipping the archive operation, another one is still pending");
+            }
+        } else {
+            super.onRun(action, config);
+        }
+    }
+
+    @Override
+    protected void onBeforeRun(int action, JsonElement config) {
+        super.onBeforeRun(action, config);
+        if (action == ARCHIVE) {
+            archiveSucceeded = false;
+            archivedRows = 0;
+        }
+    }
+
+    @Override
+    protected void runArchive() {
+        flushPendingRows();
+        SQLiteDatabase db = getDatabaseHelper().getWritableDatabase();
+        File dbFile = new File(db.getPath());
+        File stagingFile = new File(getFunfManager().getDir(STAGING_DIR_NAME, Context.MODE_PRIVATE), dbFile.getName());
+        File columnarFile = getColumnarArchiveFile();
+        File columnarTempFile = columnarFile == null ? null : new File(columnarFile.getPath() + ".tmp");
+        try {
+            long totalRows = DatabaseUtils.queryNumEntries(db, NameValueDatabaseHelper.DATA_TABLE.name);
+            ArchiveStager stager = new ArchiveStager(db, archiveListener);
+            ColumnarArchiveWriter columnarWriter = null;
+            if (columnarTempFile != null) {
+                columnarWriter = new ColumnarArchiveWriter(new BufferedOutputStream(new FileOutputStream(columnarTempFile)));
+                stager.setColumnarWriter(BandwidthProbe.class.getName(), columnarWriter);
+            }
+            long rowsCopied;
+            try {
+                rowsCopied = stager.stage(stagingFile, totalRows);
+            } finally {
+                if (columnarWriter != null) {
+                    columnarWriter.close();
+                }
+            }
+            // The results of the BandwidthProbe are only in the columnar archive, so it has to be in place before the pipeline database may be dropped
+            boolean columnarArchived = columnarWriter != null && columnarWriter.getRecordCount() > 0;
+            if (columnarArchived && !columnarTempFile.renameTo(columnarFile)) {
+                Log.e(getClass().getSimpleName(), "Failed to move the columnar archive to " + columnarFile + ", keeping the data in the pipeline database");
+                return;
+            }
+            if (!getArchive().add(stagingFile)) {
+                Log.e(getClass().getSimpleName(), "The file archive refused the staged database, keeping the data in the pipeline database");
+                if (columnarArchived && !columnarFile.delete()) {
+                    Log.w(getClass().getSimpleName(), "Failed to delete the columnar archive " + columnarFile + ", its results will be archived twice");
+                }
+                return;
+            }
+            // The data has been archived, start over with an empty pipeline database like the BasicPipeline does
+            db.close();
+            dbFile.delete();
+            new File(dbFile.getPath() + "-wal").delete();
+            new File(dbFile.getPath() + "-shm").delete();
+            new File(dbFile.getPath() + "-journal").delete();
+            reloadDbHelper(getFunfManager());
+            enableWriteAheadLogging();
+            archiveSucceeded = true;
+            archivedRows = rowsCopied;
+            setDataCount(0);
+        } catch (IOException e) {
+            Log.e(getClass().getSimpleName(), "Failed to write the columnar archive, keeping the data in the pipeline database", e);
+        } catch (RuntimeException e) {
+            Log.e(getClass().getSimpleName(), "Failed to archive the pipeline database, keeping the data in it", e);
+        } finally {
+            stagingFile.delete();
+            if (columnarTempFile != null) {
+                columnarTempFile.delete();
+            }
+        }
+        if (archiveSucceeded) {
+            // Index the new archive files right away, so that the next query doesn't have to
+            ArchiveQueryEngine queryEngine = getArchiveQueryEngine();
+            if (queryEngine != null) {
+                queryEngine.update(getArchivedFiles());
+            }
+        }
+    }
+
+    /**
+     * Get the query engine over the results of the BandwidthProbe in all archive files, see {@link #getArchivedFiles()}
+     *
+     * @return the query engine, or null if the archive is not the default one of funf
+     */
+    public synchronized ArchiveQueryEngine getArchiveQueryEngine() {
+        if (archiveQueryEngine == null && getArchive() instanceof DefaultArchive) {
+            File indexDir = new File(((DefaultArchive) getArchive()).getPathOnSDCard(), ARCHIVE_INDEX_DIR_NAME);
+            archiveQueryEngine = new ArchiveQueryEngine(indexDir, BandwidthProbe.class.getName());
+        }
+        return archiveQueryEngine;
+    }
+
+    /**
+     * Get all archive files: the databases archived by funf and the columnar archives of the bandwidth results
+     *
+     * @return the archive files, empty if there is no file archive
+     */
+    public File[] getArchivedFiles() {
+        List<File> files = new ArrayList<File>();
+        if (getArchive() != null) {
+            Collections.addAll(files, getArchive().getAll());
+        }
+        File columnarDir = getColumnarArchiveDir();
+        File[] columnarFiles = columnarDir == null ? null : columnarDir.listFiles();
+        if (columnarFiles != null) {
+            for (File columnarFile : columnarFiles) {
+                if (columnarFile.getName().endsWith(COLUMNAR_ARCHIVE_SUFFIX)) {
+                    files.add(columnarFile);
+                }
+            }
+        }
+        return files.toArray(new File[files.size()]);
+    }
+
+    /**
+     * Stream the archived results of the BandwidthProbe matching the query to the listener. Archive files that can't contain matching results are skipped by their index.
+     * Reads the archive files, so it must not be called on the main thread.
+     *
+     * @param query    the query
+     * @param listener listener receiving the matching results
+     * @return number of matching results, 0 if the archive is not the default one of funf
+     * @throws IOException if an archive file that may contain matching results can't be read
+     */
+    public long queryArchivedBandwidth(BandwidthQuery query, BandwidthRowListener listener) throws IOException {
+        ArchiveQueryEngine queryEngine = getArchiveQueryEngine();
+        if (queryEngine == null) {
+            Log.w(getClass().getSimpleName(), "Archived results can only be queried in the default archive of funf");
+            return 0;
+        }
+        return queryEngine.query(getArchivedFiles(), query, listener);
+    }
+
+    /**
+     * Get a new file for the columnar archive of the bandwidth results of an archive operation
+     *
+     * @return the file, or null if the archive is not the default one of funf or the directory can't be created, so that all data goes to the archived database
+     */
+    private File getColumnarArchiveFile() {
+        File dir = getColumnarArchiveDir();
+        if (dir == null) {
+            return null;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(getClass().getSimpleName(), "Can't create the directory of the columnar archives " + dir);
+            return null;
+        }
+        return new File(dir, COLUMNAR_ARCHIVE_DIR_NAME + "_" + System.currentTimeMillis() + COLUMNAR_ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * Get the directory of the columnar archives of the bandwidth results
+     *
+     * @return the directory, which may not exist yet, or null if the archive is not the default one of funf
+     */
+    private File getColumnarArchiveDir() {
+        if (!(getArchive() instanceof DefaultArchive)) {
+            return null;
+        }
+        return new File(((DefaultArchive) getArchive()).getPathOnSDCard(), COLUMNAR_ARCHIVE_DIR_NAME);
+    }
+
+    @Override
+    protected void onAfterRun(int action, JsonElement config) {
+        super.onAfterRun(action, config);
+        if (action == ARCHIVE) {
+            // Also reached if there is no file archive configured, in which case nothing has been archived
+            ArchiveListener listener = archiveListener;
+            archiveListener = null;
+            archiveInProgress.set(false);
+            if (listener != null) {
+                listener.onArchiveFinished(archiveSucceeded, archivedRows);
+            }
+        }
+    }
+
+    /**
+     * Get whether an archive operation is pending or running
+     *
+     * @return whether archiving is in progress
+     */
+    public boolean isArchiveInProgress() {
+        return archiveInProgress.get();
+    }
+
+    /**
+     * Query the count of data entries from the database. Runs on the thread of the pipeline.
+     */
+    private void reconcileDataCount() {
+        long count = DatabaseUtils.queryNumEntries(getDb(), NameValueDatabaseHelper.DATA_TABLE.name);
+        Log.d(getClass().getSimpleName(), "Reconciled the data count with the pipeline database: " + count);
+        setDataCount(count);
+    }
+
+    /**
+     * Set the data count and notify the listener
+     *
+     * @param dataCount the new count of data entries
+     */
+    private void setDataCount(long dataCount) {
+        this.dataCount = dataCount;
+        DataCountListener listener = dataCountListener;
+        if (listener != null) {
+            listener.onDataCountChanged(dataCount);
+        }
+    }
+
+    /**
+     * Get the count of data entries in the pipeline database without querying it
+     *
+     * @return count of data entries, or {@link #UNKNOWN_DATA_COUNT} if it hasn't been reconciled with the database yet
+     */
+    public long getDataCount() {
+        return this.dataCount;
+    }
+
+    /**
+     * Get the number of data entries dropped since the creation of the pipeline, because they couldn't be inserted into the database
+     *
+     * @return number of dropped data entries
+     */
+    public long getDroppedRowCount() {
+        return this.droppedRows;
+    }
+
+    /**
+     * Set the listener to be notified when the data count changes. It is notified right away if the count is already known.
+     *
+     * @param dataCountListener the listener, or null to remove it
+     */
+    public void setDataCountListener(DataCountListener dataCountListener) {
+        this.dataCountListener = dataCountListener;
+        long count = dataCount;
+        if (dataCountListener != null && count != UNKNOWN_DATA_COUNT) {
+            dataCountListener.onDataCountChanged(count);
+        }
+    }
+}
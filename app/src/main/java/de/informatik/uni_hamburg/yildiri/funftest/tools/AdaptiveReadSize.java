@@ -0,0 +1,62 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+/**
+ * Adapts the size of the reads of a download loop to the observed read sizes.
+ * It starts small for a fine block resolution on slow links and doubles the read size whenever reads keep filling it completely, i.e. more data is ready than the loop asks for.
+ * The read buffer is meant to be allocated with {@link #MAX_READ_SIZE} up front, so that the loop does not allocate anything per passage.
+ */
+class AdaptiveReadSize {
+
+    /**
+     * Size in bytes of the first reads of a measurement
+     */
+    static final int MIN_READ_SIZE = 1000;
+    /**
+     * Upper bound in bytes for the size of a single read. The read buffer is allocated with this size up front.
+     */
+    static final int MAX_READ_SIZE = 64 * 1024;
+    /**
+     * Number of consecutive completely filled reads after which the read size is doubled
+     */
+    private static final int FULL_READS_BEFORE_GROWING = 4;
+
+    /**
+     * Number of bytes requested by the next read
+     */
+    private int currentReadSize = MIN_READ_SIZE;
+    /**
+     * Number of consecutive reads that filled the requested read size completely
+     */
+    private int consecutiveFullReads = 0;
+
+    /**
+     * Get the number of bytes to request by the next read
+     * @return the current read size in bytes
+     */
+    int get() {
+        return this.currentReadSize;
+    }
+
+    /**
+     * Account a read and grow the read size if the reads keep filling it completely
+     * @param bytesRead bytes returned by the read
+     */
+    void onRead(int bytesRead) {
+        if (bytesRead == currentReadSize) {
+            if (++consecutiveFullReads >= FULL_READS_BEFORE_GROWING && currentReadSize < MAX_READ_SIZE) {
+                currentReadSize = Math.min(currentReadSize * 2, MAX_READ_SIZE);
+                consecutiveFullReads = 0;
+            }
+        } else {
+            consecutiveFullReads = 0;
+        }
+    }
+
+    /**
+     * Start over with the smallest read size, e.g. for a new measurement
+     */
+    void reset() {
+        currentReadSize = MIN_READ_SIZE;
+        consecutiveFullReads = 0;
+    }
+}
@@ -1,10 +1,10 @@
 package de.informatik.uni_hamburg.yildiri.funftest.tools;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 
 import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
 import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
@@ -12,8 +12,12 @@ import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
 /**
  * This abstract class lays the foundations for a tool to actually run the bandwidth measurement.
  * The code scopes concerning technical implementational details of the measurement have been located into abstract methods, so that an implementing class can hook into and implement these parts accordingly.
+ * The measurement is run in the background by the {@link MeasurementExecutor}, which allows only one run per connection type at a time. The result is delegated to the {@link AsyncResponse} on the main thread.
+ * A hanging connection can not block a measurement forever: implementing classes apply the connect and read timeouts to their connections, and a watchdog of the MeasurementExecutor aborts runs that exceed the maximum duration or made no progress within the stall timeout, see {@link #setTimeouts(int, int, long, long)}.
+ * Aborted runs return a partial BandwidthResultRecord with the blocks measured so far and the reason of the abort, as far as the implementing class supports it by {@link #finishPartialResult(long)}.
+ * Failed runs return a failed BandwidthResultRecord that still carries the bytes transferred before the failure as overhead, see {@link #getBytesSpentSoFar()}, so that they count against the data budget.
  */
-public abstract class BandwidthMeasureTool extends AsyncTask<String, Integer, BandwidthResultRecord> {
+public abstract class BandwidthMeasureTool {
 
     /**
      * Callback interface to be delegated to the outside
@@ -41,19 +45,67 @@ public abstract class BandwidthMeasureTool extends AsyncTask<String, Integer, Ba
      * Results of the bandwidth measurement
      */
     private BandwidthResultRecord bandwidthResultRecord;
+    /**
+     * Current progress of the measurement in percent
+     */
+    private volatile int progress = 0;
+    /**
+     * Timeout in milliseconds for establishing a connection, 0 for no timeout
+     */
+    protected int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+    /**
+     * Timeout in milliseconds for a single read from a connection, 0 for no timeout
+     */
+    protected int readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+    /**
+     * Maximum duration of the whole measurement in nanoseconds, 0 for no limit
+     */
+    private long maxDurationNanos = DEFAULT_MAX_DURATION_MS * 1000 * 1000;
+    /**
+     * Time in nanoseconds without progress after which the transfer is considered to be stalled, 0 to disable the stall detection
+     */
+    private long stallTimeoutNanos = DEFAULT_STALL_TIMEOUT_MS * 1000 * 1000;
+    /**
+     * Time in nanoseconds when the measurement has been started by {@link #runMeasurement()}
+     */
+    private volatile long runStartNanoTime;
+    /**
+     * Time in nanoseconds of the last progress of the transfer, 0 as long as the transfer has not started
+     */
+    private volatile long lastProgressNanoTime;
+    /**
+     * Reason why the measurement has been aborted, one of the BandwidthResultRecord.ABORT_REASON_* constants, or null as long as it has not been aborted
+     */
+    private volatile String abortReason;
+    /**
+     * Whether detailed debug logs should be written while the measurement is running. Since logging costs CPU time and allocations inside the timed section, this is off by default.
+     */
+    protected boolean debugLogging = false;
 
     /**
-     * Granularity control of how often the progress of the AsyncTask should roughly be updated. E.g 0.1 would mean that the progress should update roughly in steps of 10%
+     * Granularity control of how often the progress of the measurement should roughly be updated. E.g 0.1 would mean that the progress should update roughly in steps of 10%
      */
     protected static final double UPDATE_PROGRESS_EACH_X_PERCENT = 0.1;
     /**
-     * Block size in kilobytes at which micro measurements should occur
+     * Maximum number of blocks at which micro measurements should occur. The block size is derived from this and the size of the test file, see {@link BandwidthResultRecord#configureBlocks(long, int)}
+     */
+    protected int maxBlockCount = BandwidthResultRecord.DEFAULT_BLOCK_COUNT;
+    /**
+     * Default timeout in milliseconds for establishing a connection
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+    /**
+     * Default timeout in milliseconds for a single read from a connection
      */
-    protected static final int MEASURE_BLOCK_SIZE_IN_KB = 100;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 15 * 1000;
     /**
-     * Block size in bytes at which micro measurements should occur
+     * Default maximum duration of the whole measurement in milliseconds
      */
-    protected static final int MEASURE_BLOCK_SIZE_IN_BYTES = MEASURE_BLOCK_SIZE_IN_KB * 1000;
+    public static final long DEFAULT_MAX_DURATION_MS = 120 * 1000;
+    /**
+     * Default time in milliseconds without progress after which the transfer is considered to be stalled
+     */
+    public static final long DEFAULT_STALL_TIMEOUT_MS = 10 * 1000;
 
 
     /**
@@ -88,26 +140,148 @@ public abstract class BandwidthMeasureTool extends AsyncTask<String, Integer, Ba
      */
     abstract public BandwidthResultRecord measureBandwidth() throws IOException;
 
-    @Override
-    protected BandwidthResultRecord doInBackground(String... fileUrl) {
+    /**
+     * Run the measurement in the background on the {@link MeasurementExecutor}. If an identical measurement is already running or waiting, the delegate is attached to that run and gets its result instead. If a different measurement is running on the same connection type, the run waits for it to finish.
+     * @param fileUrl the url of the file to be downloaded for the measurement - has to match the url this tool has been initialized with
+     * @return true if a new run has been started or queued, false if the delegate has been attached to an existing run
+     */
+    public boolean execute(String fileUrl) {
+        if (!this.fileUrl.equals(fileUrl)) {
+            throw new IllegalArgumentException("execute fileUrl param != initialized field fileUrl");
+        }
+        return MeasurementExecutor.getInstance().submit(this);
+    }
+
+    /**
+     * Run the measurement on the calling thread and catch all errors, so that a failed measurement is represented by a failed BandwidthResultRecord
+     * @return the result of the bandwidth measurement
+     */
+    BandwidthResultRecord runMeasurement() {
+        runStartNanoTime = System.nanoTime();
+        lastProgressNanoTime = 0;
         try {
-            if (!this.fileUrl.equals("") && this.fileUrl.equals(fileUrl[0])) {
+            if (!this.fileUrl.equals("")) {
                 bandwidthResultRecord = measureBandwidth();
+                if (abortReason != null) {
+                    // The transfer loop has noticed the abort and returned the measures gathered so far
+                    bandwidthResultRecord.setAborted(abortReason);
+                }
                 return bandwidthResultRecord;
             } else
-                throw new IllegalArgumentException("doInBackground fileUrl param != initialized field fileUrl");
+                throw new IllegalArgumentException("fileUrl must not be empty");
         } catch (Exception e) {
+            String reason = abortReason;
+            if (reason == null && e instanceof SocketTimeoutException && lastProgressNanoTime != 0) {
+                // The connection went silent in the middle of the transfer
+                reason = BandwidthResultRecord.ABORT_REASON_READ_TIMEOUT;
+            }
+            if (reason != null) {
+                Log.w(getClass().getSimpleName(), "Measurement aborted (" + reason + "). " + e.toString());
+                BandwidthResultRecord partialBandwidthResultRecord = finishPartialResult(System.nanoTime());
+                if (partialBandwidthResultRecord != null) {
+                    partialBandwidthResultRecord.setAborted(reason);
+                    bandwidthResultRecord = partialBandwidthResultRecord;
+                    return partialBandwidthResultRecord;
+                }
+                BandwidthResultRecord abortedBandwidthResultRecord = new BandwidthResultRecord(new IOException("measurement aborted before any data has been transferred (" + reason + ")", e));
+                abortedBandwidthResultRecord.setAborted(reason);
+                abortedBandwidthResultRecord.setOverheadBytes(getBytesSpentSoFar());
+                return abortedBandwidthResultRecord;
+            }
             Log.e(getClass().getSimpleName(), "Error measuring the bandwidth. " + e.toString());
             e.printStackTrace();
             BandwidthResultRecord failedBandwidthResultRecord = new BandwidthResultRecord(e);
+            failedBandwidthResultRecord.setOverheadBytes(getBytesSpentSoFar());
             return failedBandwidthResultRecord;
         }
     }
 
-    @Override
-    protected void onPostExecute(BandwidthResultRecord bandwidthResultRecord) {
-        // delegate the measurement result to the callback interface
-        delegate.processFinish(bandwidthResultRecord);
+    /**
+     * Finish the results gathered up to an abort of the transfer. Called on the measuring thread after {@link #measureBandwidth()} has been left with an exception due to the abort.
+     * By default no partial results are supported.
+     * @param endNanoTime time in nanoseconds of the abort, as returned by {@link System#nanoTime()}
+     * @return the results covering the data transferred up to the abort, or null if the transfer has not started yet
+     */
+    protected BandwidthResultRecord finishPartialResult(long endNanoTime) {
+        return null;
+    }
+
+    /**
+     * Get the bytes the measurement has transferred so far, including the ones that aren't measured. Called on the measuring thread after {@link #measureBandwidth()} has failed.
+     * By default nothing is accounted.
+     * @return bytes transferred so far
+     */
+    protected long getBytesSpentSoFar() {
+        return 0;
+    }
+
+    /**
+     * Abort the measurement. Notice that a measurement shared by several triggers should be cancelled through {@link MeasurementExecutor#cancel(BandwidthMeasureTool)} instead.
+     * Only the first abort reason is kept. The transfer loops check {@link #isAborted()}, and {@link #onAbort()} lets implementing classes unblock reads that are stuck.
+     * @param reason one of the BandwidthResultRecord.ABORT_REASON_* constants
+     */
+    void abort(String reason) {
+        synchronized (this) {
+            if (abortReason != null) {
+                return;
+            }
+            abortReason = reason;
+        }
+        Log.w(getClass().getSimpleName(), "Aborting the measurement of " + fileUrl + " (" + reason + ")");
+        onAbort();
+    }
+
+    /**
+     * Called on the thread aborting the measurement. Implementing classes should disconnect their connections here, so that reads blocking the measuring thread return right away.
+     */
+    protected void onAbort() {
+    }
+
+    /**
+     * Get whether the measurement has been aborted. The transfer loops should stop as soon as this returns true.
+     * @return whether the measurement has been aborted
+     */
+    protected boolean isAborted() {
+        return this.abortReason != null;
+    }
+
+    /**
+     * Note that the transfer has made progress, which resets the stall detection. The stall detection is only armed once this has been called for the first time.
+     * @param nowNanoTime the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    protected void markProgress(long nowNanoTime) {
+        this.lastProgressNanoTime = nowNanoTime;
+    }
+
+    /**
+     * Check the limits of the running measurement and abort it if it has exceeded the maximum duration or has stalled. Called periodically by the watchdog of the MeasurementExecutor.
+     * @param nowNanoTime the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    void checkWatchdog(long nowNanoTime) {
+        if (maxDurationNanos > 0 && nowNanoTime - runStartNanoTime > maxDurationNanos) {
+            abort(BandwidthResultRecord.ABORT_REASON_TIMEOUT);
+            return;
+        }
+        long lastProgress = lastProgressNanoTime;
+        if (stallTimeoutNanos > 0 && lastProgress != 0 && nowNanoTime - lastProgress > stallTimeoutNanos) {
+            abort(BandwidthResultRecord.ABORT_REASON_STALLED);
+        }
+    }
+
+    /**
+     * Publish the current progress of the measurement. May be called from any thread.
+     * @param progressPercentage the current progress in percent
+     */
+    protected void publishProgress(int progressPercentage) {
+        this.progress = progressPercentage;
+    }
+
+    /**
+     * Get the current progress of the measurement
+     * @return the current progress in percent
+     */
+    public int getProgress() {
+        return this.progress;
     }
 
     /**
@@ -170,6 +344,74 @@ public abstract class BandwidthMeasureTool extends AsyncTask<String, Integer, Ba
         return this.endTime;
     }
 
+    /**
+     * Set whether detailed debug logs should be written while the measurement is running
+     * @param debugLogging whether detailed debug logs should be written
+     */
+    public void setDebugLogging(boolean debugLogging) {
+        this.debugLogging = debugLogging;
+    }
+
+    /**
+     * Get whether detailed debug logs are written while the measurement is running
+     * @return whether detailed debug logs are written
+     */
+    public boolean isDebugLogging() {
+        return this.debugLogging;
+    }
+
+    /**
+     * Set the maximum number of blocks at which micro measurements should occur
+     * @param maxBlockCount maximum number of blocks
+     */
+    public void setMaxBlockCount(int maxBlockCount) {
+        if (maxBlockCount < 1) {
+            throw new IllegalArgumentException("maxBlockCount has to be at least 1 (was " + maxBlockCount + ")");
+        }
+        this.maxBlockCount = maxBlockCount;
+    }
+
+    /**
+     * Get the maximum number of blocks at which micro measurements should occur
+     * @return maximum number of blocks
+     */
+    public int getMaxBlockCount() {
+        return this.maxBlockCount;
+    }
+
+    /**
+     * Set the limits of the measurement
+     * @param connectTimeoutMs timeout in milliseconds for establishing a connection, 0 for no timeout
+     * @param readTimeoutMs timeout in milliseconds for a single read from a connection, 0 for no timeout
+     * @param maxDurationMs maximum duration of the whole measurement in milliseconds, 0 for no limit
+     * @param stallTimeoutMs time in milliseconds without progress after which the transfer is aborted as stalled, 0 to disable the stall detection
+     */
+    public void setTimeouts(int connectTimeoutMs, int readTimeoutMs, long maxDurationMs, long stallTimeoutMs) {
+        if (connectTimeoutMs < 0 || readTimeoutMs < 0 || maxDurationMs < 0 || stallTimeoutMs < 0) {
+            throw new IllegalArgumentException("timeouts must not be negative");
+        }
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxDurationNanos = maxDurationMs * 1000 * 1000;
+        this.stallTimeoutNanos = stallTimeoutMs * 1000 * 1000;
+    }
+
+    /**
+     * Get the timeout for establishing a connection
+     * @return timeout in milliseconds, 0 for no timeout
+     */
+    public int getConnectTimeoutMs() {
+        return this.connectTimeoutMs;
+    }
+
+    /**
+     * Get the timeout for a single read from a connection
+     * @return timeout in milliseconds, 0 for no timeout
+     */
+    public int getReadTimeoutMs() {
+        return this.readTimeoutMs;
+    }
+
     /**
      * Get the results of this measurement
      * @return results of this measurement
@@ -0,0 +1,171 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Times the setup phases of the actual connection of a measurement, which {@link java.net.HttpURLConnection} does not expose on its own.
+ * The host name is resolved right before the connection is established, so that the HttpURLConnection gets the address from the DNS cache. The TCP connect is the duration of {@link HttpURLConnection#connect()}.
+ * For https connections a timing {@link SSLSocketFactory} is installed on the connection, which observes the TLS handshake of the sockets it creates, and the handshake is subtracted from the connect duration.
+ * No second connection is ever opened. If a pooled keep-alive connection is reused, there is no TCP connect and no TLS handshake to time, so they are left unset in the record.
+ */
+public class ConnectionPhaseTimer {
+
+    /**
+     * DNS lookups faster than this are considered to have been answered from a cache instead of a resolver on the network
+     */
+    public static final long DNS_CACHED_THRESHOLD_NANOS = 2 * 1000 * 1000;
+
+    /**
+     * Record to save the phase durations in
+     */
+    private final BandwidthResultRecord bandwidthResultRecord;
+    /**
+     * Duration in nanoseconds of the last TLS handshake observed by the timing socket factory, -1 if none has been observed. Volatile, since the handshake listener may be notified on another thread.
+     */
+    private volatile long tlsHandshakeNanos = -1;
+
+    /**
+     *
+     * @param bandwidthResultRecord record to save the phase durations in
+     */
+    public ConnectionPhaseTimer(BandwidthResultRecord bandwidthResultRecord) {
+        this.bandwidthResultRecord = bandwidthResultRecord;
+    }
+
+    /**
+     * Prepare the connection to be timed by installing the timing socket factory if it is an https connection. Has to be called before the connection is established.
+     *
+     * @param connection the not yet connected connection of the measurement
+     */
+    public void prepare(HttpURLConnection connection) {
+        if (connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            httpsConnection.setSSLSocketFactory(new TimingSSLSocketFactory(httpsConnection.getSSLSocketFactory()));
+        }
+    }
+
+    /**
+     * Resolve the host of the connection and establish the connection, and save the durations of the DNS resolution, the TCP connect and - for https - the TLS handshake in the bandwidth result record.
+     * A failed resolution is only logged, the connect reports the failure of the measurement itself.
+     *
+     * @param connection   the prepared connection of the measurement
+     * @param expectPooled whether the connection is expected to reuse a pooled keep-alive connection, in which case the connect duration is not recorded as TCP connect unless a new TLS handshake has been observed
+     * @throws IOException if the connection could not be established
+     */
+    public void connect(HttpURLConnection connection, boolean expectPooled) throws IOException {
+        String host = connection.getURL().getHost();
+        try {
+            long dnsStartNanoTime = System.nanoTime();
+            InetAddress.getAllByName(host);
+            long dnsNanos = System.nanoTime() - dnsStartNanoTime;
+            bandwidthResultRecord.setDnsResolution(dnsNanos, dnsNanos < DNS_CACHED_THRESHOLD_NANOS);
+        } catch (UnknownHostException e) {
+            Log.w(ConnectionPhaseTimer.class.getSimpleName(), "Failed to time the DNS resolution of " + host + " (" + e + ")");
+        }
+
+        tlsHandshakeNanos = -1;
+        long connectStartNanoTime = System.nanoTime();
+        connection.connect();
+        long connectNanos = System.nanoTime() - connectStartNanoTime;
+
+        long handshakeNanos = tlsHandshakeNanos;
+        if (handshakeNanos >= 0) {
+            bandwidthResultRecord.setTlsHandshakeNanos(handshakeNanos);
+            bandwidthResultRecord.setTcpConnectNanos(Math.max(0, connectNanos - handshakeNanos));
+        } else if (!expectPooled && !(connection instanceof HttpsURLConnection)) {
+            bandwidthResultRecord.setTcpConnectNanos(connectNanos);
+        }
+    }
+
+    /**
+     * SSLSocketFactory delegating to the factory of the connection, which times the TLS handshake of every socket it creates from its creation until the handshake has completed
+     */
+    private class TimingSSLSocketFactory extends SSLSocketFactory {
+
+        /**
+         * The factory actually creating the sockets
+         */
+        private final SSLSocketFactory delegate;
+
+        /**
+         *
+         * @param delegate the factory actually creating the sockets
+         */
+        TimingSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Register a listener on the socket which saves the duration of its handshake
+         *
+         * @param socket the socket just created by the delegate
+         * @return the given socket
+         */
+        private Socket observe(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                final long createdNanoTime = System.nanoTime();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        tlsHandshakeNanos = System.nanoTime() - createdNanoTime;
+                    }
+                });
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return observe(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return observe(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return observe(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return observe(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return observe(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return observe(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
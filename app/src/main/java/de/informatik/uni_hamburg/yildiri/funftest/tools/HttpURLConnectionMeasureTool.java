@@ -3,27 +3,38 @@ package de.informatik.uni_hamburg.yildiri.funftest.tools;
 import android.content.Context;
 import android.util.Log;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
 import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
 import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.ConvergenceDetector;
 
 /**
  * Implementation of BandwidthMeasureTool using {@link java.net.HttpURLConnection}.
  * It performs an active measurement by opening an URLConnection of the supplied URL and trying to download the content at hand by reading the returned input stream.
  * Whilst downloading the file, some micro measurements occur at certain intervals.
+ * Before the download, the setup phases (DNS, TCP connect, TLS) of the actual connection are timed by the {@link ConnectionPhaseTimer}, and the time to first byte is taken from the same connection. None of these are part of the transfer time.
+ * By default the downloaded data is discarded right away: it is read into a reused heap buffer and only counted in memory, so that no flash I/O distorts the measured time.
+ * Alternatively the data can be written to a test file in the internal storage, e.g. to be able to check the downloaded content.
+ * The read loop does not allocate anything per passage: the buffer is allocated once per tool and only the size of each read adapts to the observed read sizes, see {@link AdaptiveReadSize}.
+ * Logging inside the timed section only happens if debug logging has been enabled.
+ * The connect and read timeouts are applied to the connection. If the measurement is aborted, the connection is disconnected to unblock the read loop, and the blocks measured up to the abort are returned as a partial result.
+ * Optionally the connection is warmed up by a short priming transfer first, see {@link #setWarmConnection(boolean)}: the priming response is read completely and its stream closed without disconnecting, so that the keep-alive connection is reused by the measurement with its congestion window already opened.
+ * Optionally the transfer is terminated early, once the throughput estimate has converged into a confidence band after a minimum amount of data and time, see {@link #setEarlyTermination(double, long, long)}.
+ * Optionally only the first bytes of the test file are downloaded, see {@link #setMaxTransferBytes(long)}: they are requested by a range request, and if the server ignores the range the read loop stops once they have been read.
+ * The bytes of the priming transfer are recorded as overhead of the measurement, so that the data spent by a run can be accounted completely.
  */
 public class HttpURLConnectionMeasureTool extends BandwidthMeasureTool {
 
     /**
-     * The HttpURLConnection used to download the data from the internet
+     * The HttpURLConnection used to download the data from the internet. Volatile, since it is disconnected by the thread aborting the measurement.
      */
-    private HttpURLConnection httpConn;
+    private volatile HttpURLConnection httpConn;
     /**
      * URL of the test file to be downloaded for the measurement
      */
@@ -37,46 +48,189 @@ public class HttpURLConnectionMeasureTool extends BandwidthMeasureTool {
      */
     private int contentLength;
     /**
-     * Estimation for when to update the progress, to be roughly in the desired intervals
+     * Number of bytes between two progress updates, to update the progress in the desired intervals
      */
-    private int xthPercentProgress;
+    private long xthPercentProgressBytes;
     /**
-     * Buffered input stream of the input stream returned by the HttpURLConnection to read the data
+     * Input stream returned by the HttpURLConnection to read the data
      */
-    private BufferedInputStream bis;
+    private InputStream inStream;
     /**
      * Buffered output stream to write the read data to the file
      */
     private FileOutputStream fos;
+    /**
+     * Buffer the data is read into, allocated on the first measurement and reused by all the following ones
+     */
+    private byte[] readBuffer;
     /**
      * Store for the results of the measurement
      */
     private BandwidthResultRecord bandwidthResultRecord;
+    /**
+     * Bytes read overall in total
+     */
+    private long totalBytesRead;
+    /**
+     * Total bytes at which the current block is finished
+     */
+    private long nextBlockBytes;
+    /**
+     * Time in nanoseconds when the transfer has started, 0 as long as the transfer has not started
+     */
+    private long startNanoTime;
+    /**
+     * Time in nanoseconds of the last sample added to the throughput timeline
+     */
+    private long lastSampleNanoTime;
+    /**
+     * Relative half-width of the confidence band the throughput estimate has to converge into to terminate the transfer early, 0 if early termination is disabled
+     */
+    private double earlyTerminationBand = 0;
+    /**
+     * Minimum number of bytes to be transferred before the transfer may be terminated early
+     */
+    private long earlyTerminationMinBytes;
+    /**
+     * Minimum time in nanoseconds the transfer has to run before it may be terminated early
+     */
+    private long earlyTerminationMinNanos;
+    /**
+     * Watches the windowed throughput estimates for convergence, null if early termination is disabled
+     */
+    private ConvergenceDetector convergenceDetector;
+    /**
+     * Time in nanoseconds when the next throughput estimate is due to be checked for convergence
+     */
+    private long nextConvergenceCheckNanoTime;
+    /**
+     * Total bytes at which the next progress update is due
+     */
+    private long nextProgressBytes;
+    /**
+     * Number of bytes requested by each read, adapted to the observed read sizes
+     */
+    private final AdaptiveReadSize readSize = new AdaptiveReadSize();
+    /**
+     * Whether the downloaded data should be written to the test file instead of being discarded
+     */
+    private boolean writeTestFile;
+    /**
+     * Whether the connection should be warmed up by a priming transfer before the measurement
+     */
+    private boolean warmConnection = false;
+    /**
+     * Maximum number of bytes of the test file to be downloaded, 0 to download the whole file
+     */
+    private long maxTransferBytes = 0;
+    /**
+     * Bytes read by the priming transfer of the current measurement
+     */
+    private long primingBytes;
 
     /**
-     * Size in bytes for the cache between the input stream and output stream
+     * Minimum time in nanoseconds between two samples of the throughput timeline. Block boundaries are always sampled.
      */
-    private static final int BUFFER_SIZE = 1000;
+    private static final long SAMPLE_INTERVAL_NANOS = 10 * 1000 * 1000;
+    /**
+     * Number of bytes requested by the priming transfer that warms up the connection
+     */
+    private static final int PRIMING_BYTES = 256 * 1000;
+    /**
+     * Time in nanoseconds between two throughput estimates checked for convergence
+     */
+    private static final long CONVERGENCE_CHECK_INTERVAL_NANOS = 250L * 1000 * 1000;
+    /**
+     * Length in nanoseconds of the window the throughput estimates are taken over
+     */
+    private static final long CONVERGENCE_WINDOW_NANOS = 1000L * 1000 * 1000;
+    /**
+     * Number of consecutive throughput estimates that have to lie within the confidence band
+     */
+    private static final int CONVERGENCE_ESTIMATE_COUNT = 5;
 
     public HttpURLConnectionMeasureTool(AsyncResponse asyncResponse, Context context, String fileUrl, int connectionType) {
+        this(asyncResponse, context, fileUrl, connectionType, false);
+    }
+
+    /**
+     *
+     * @param asyncResponse delegated callback interface that has to be implemented to process the async finish response
+     * @param context the context of the app
+     * @param fileUrl the url of the file to be downloaded for the measurement
+     * @param connectionType the type of the current connection
+     * @param writeTestFile whether the downloaded data should be written to the test file instead of being discarded
+     */
+    public HttpURLConnectionMeasureTool(AsyncResponse asyncResponse, Context context, String fileUrl, int connectionType, boolean writeTestFile) {
         super(asyncResponse, context, fileUrl, connectionType);
+        this.writeTestFile = writeTestFile;
+    }
+
+    /**
+     * Enable the early termination of the transfer: once the windowed throughput estimates have stayed within the confidence band for a while, the rest of the test file is not downloaded anymore.
+     * @param relativeBand relative half-width of the confidence band around the estimate, e.g. 0.05 for +/- 5%, or 0 to disable early termination
+     * @param minBytes minimum number of bytes to be transferred before the transfer may be terminated early
+     * @param minNanos minimum time in nanoseconds the transfer has to run before it may be terminated early
+     */
+    public void setEarlyTermination(double relativeBand, long minBytes, long minNanos) {
+        if (relativeBand < 0) {
+            throw new IllegalArgumentException("relativeBand must not be negative (was " + relativeBand + ")");
+        }
+        this.earlyTerminationBand = relativeBand;
+        this.earlyTerminationMinBytes = minBytes;
+        this.earlyTerminationMinNanos = minNanos;
+    }
+
+    /**
+     * Set whether the connection should be warmed up by a priming transfer before the measurement, so that the measured transfer doesn't start in TCP slow start
+     * @param warmConnection whether the connection should be warmed up
+     */
+    public void setWarmConnection(boolean warmConnection) {
+        this.warmConnection = warmConnection;
+    }
+
+    /**
+     * Limit the number of bytes to be downloaded, e.g. to save data when the budget is running out
+     * @param maxTransferBytes maximum number of bytes of the test file to be downloaded, 0 to download the whole file
+     */
+    public void setMaxTransferBytes(long maxTransferBytes) {
+        if (maxTransferBytes < 0) {
+            throw new IllegalArgumentException("maxTransferBytes must not be negative (was " + maxTransferBytes + ")");
+        }
+        this.maxTransferBytes = maxTransferBytes;
     }
 
     @Override
     public BandwidthResultRecord measureBandwidth() throws IOException {
         try {
+            testDownloadFileURL = new URL(fileUrl);
+            primingBytes = 0;
+            // Prime before the measured connection is opened, so that it picks up the pooled warm connection
+            boolean primed = warmConnection && primeConnection();
             initEnvironmentComponents();
+            bandwidthResultRecord.setWarmConnection(primed);
+            bandwidthResultRecord.setOverheadBytes(primingBytes);
+            ConnectionPhaseTimer connectionPhaseTimer = new ConnectionPhaseTimer(bandwidthResultRecord);
+            connectionPhaseTimer.prepare(httpConn);
+            connectionPhaseTimer.connect(httpConn, primed);
 
+            // Time from sending the request until the response headers have arrived
+            long requestNanoTime = System.nanoTime();
             int responseCode = httpConn.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
+            bandwidthResultRecord.setTimeToFirstByteNanos(System.nanoTime() - requestNanoTime);
+            if (responseCode == HttpURLConnection.HTTP_OK || (responseCode == HttpURLConnection.HTTP_PARTIAL && maxTransferBytes > 0)) {
                 // Get some metadata of the content and set them in the bandwidth result record
                 String contentType = httpConn.getContentType();
                 contentLength = httpConn.getContentLength();
+                if (maxTransferBytes > 0 && (contentLength <= 0 || contentLength > maxTransferBytes)) {
+                    // The server has ignored the range, the read loop stops at the limit
+                    contentLength = (int) maxTransferBytes;
+                }
                 bandwidthResultRecord.setFileURL(testDownloadFileURL);
                 bandwidthResultRecord.setFileSize(contentLength);
-                // Calculate some variables to be able to update the progress roughly in the desired intervals
-                int blockNumEstimate = (int) Math.ceil(contentLength / BUFFER_SIZE);
-                xthPercentProgress = (int) Math.ceil(blockNumEstimate * UPDATE_PROGRESS_EACH_X_PERCENT);
+                bandwidthResultRecord.configureBlocks(contentLength, maxBlockCount);
+                // Calculate the number of bytes between two progress updates to update the progress in the desired intervals
+                xthPercentProgressBytes = Math.max(1, (long) Math.ceil(contentLength * UPDATE_PROGRESS_EACH_X_PERCENT));
 
                 actuallyConductMeasurement();
             } else {
@@ -89,8 +243,8 @@ public class HttpURLConnectionMeasureTool extends BandwidthMeasureTool {
                 fos.flush();
                 fos.close();
             }
-            if (bis != null) {
-                bis.close();
+            if (inStream != null) {
+                inStream.close();
             }
             if (httpConn != null) {
                 httpConn.disconnect();
@@ -105,23 +259,77 @@ public class HttpURLConnectionMeasureTool extends BandwidthMeasureTool {
      * @throws IOException if we fail to open a connection to the URL, fail to create the test file at the determined location or some other IOException occurs
      */
     private void initEnvironmentComponents() throws IOException{
-        testDownloadFileURL = new URL(fileUrl);
         httpConn = (HttpURLConnection) testDownloadFileURL.openConnection();
+        httpConn.setConnectTimeout(connectTimeoutMs);
+        httpConn.setReadTimeout(readTimeoutMs);
+        if (maxTransferBytes > 0) {
+            httpConn.setRequestProperty("Range", "bytes=0-" + (maxTransferBytes - 1));
+        }
 
-        bis = null;
+        inStream = null;
         fos = null;
-
-        testDownloadFile = new File(context.getFilesDir() + "/tmp/testfile");
-        if (testDownloadFile.exists()) {
-            testDownloadFile.delete();
+        if (readBuffer == null) {
+            readBuffer = new byte[AdaptiveReadSize.MAX_READ_SIZE];
         }
 
-        if (!testDownloadFile.exists()) {
-            testDownloadFile.getParentFile().mkdir();
-            testDownloadFile.createNewFile();
+        if (writeTestFile) {
+            testDownloadFile = new File(context.getFilesDir() + "/tmp/testfile");
+            if (testDownloadFile.exists()) {
+                testDownloadFile.delete();
+            }
+
+            if (!testDownloadFile.exists()) {
+                testDownloadFile.getParentFile().mkdir();
+                testDownloadFile.createNewFile();
+            }
         }
 
         bandwidthResultRecord = new BandwidthResultRecord();
+        startNanoTime = 0;
+    }
+
+    /**
+     * Warm up a keep-alive connection to the test host by downloading the first bytes of the test file with a range request.
+     * The response is read completely and only its stream is closed, so that the connection goes back into the connection pool of HttpURLConnection instead of being disconnected.
+     * @return whether the connection could be left warm in the pool
+     * @throws IOException if some IOException occurs while priming
+     */
+    private boolean primeConnection() throws IOException {
+        httpConn = (HttpURLConnection) testDownloadFileURL.openConnection();
+        httpConn.setConnectTimeout(connectTimeoutMs);
+        httpConn.setReadTimeout(readTimeoutMs);
+        httpConn.setRequestProperty("Range", "bytes=0-" + (PRIMING_BYTES - 1));
+        InputStream primingStream = null;
+        boolean reusable = false;
+        try {
+            int responseCode = httpConn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
+                Log.w(getClass().getSimpleName(), "Priming transfer failed (response code: " + responseCode + "), measuring on a cold connection");
+                return false;
+            }
+            primingStream = httpConn.getInputStream();
+            byte[] buf = new byte[AdaptiveReadSize.MAX_READ_SIZE];
+            long primingBytesRead = 0;
+            int bytesRead;
+            while (primingBytesRead <= PRIMING_BYTES && (bytesRead = primingStream.read(buf)) != -1) {
+                primingBytesRead += bytesRead;
+            }
+            primingBytes = primingBytesRead;
+            // Only a response read up to its end can be reused, a server ignoring the range would send the whole file
+            reusable = primingBytesRead <= PRIMING_BYTES;
+            if (!reusable) {
+                Log.w(getClass().getSimpleName(), "Server ignored the range of the priming transfer, measuring on a cold connection");
+            }
+            return reusable;
+        } finally {
+            if (primingStream != null) {
+                primingStream.close();
+            }
+            if (!reusable) {
+                httpConn.disconnect();
+            }
+            httpConn = null;
+        }
     }
 
     /**
@@ -129,57 +337,146 @@ public class HttpURLConnectionMeasureTool extends BandwidthMeasureTool {
      * @throws IOException if we fail to write the data to the file or some other IOException occurs
      */
     private void actuallyConductMeasurement() throws IOException{
-        long blockEndTime;
+        totalBytesRead = 0;
+        nextBlockBytes = bandwidthResultRecord.getBlockSizeInBytes();
+        nextProgressBytes = 0;
+        readSize.reset();
+        convergenceDetector = earlyTerminationBand > 0 ? new ConvergenceDetector(CONVERGENCE_ESTIMATE_COUNT, earlyTerminationBand) : null;
+
         // Start timing
         startTime = System.currentTimeMillis();
+        startNanoTime = System.nanoTime();
+        markProgress(startNanoTime);
+        lastSampleNanoTime = startNanoTime;
+        nextConvergenceCheckNanoTime = startNanoTime + CONVERGENCE_CHECK_INTERVAL_NANOS;
+        bandwidthResultRecord.startThroughputTimeline(startNanoTime);
+
+        if (writeTestFile) {
+            readToTestFile();
+        } else {
+            readToDiscardBuffer();
+        }
+
+        // End timing
+        long endNanoTime = System.nanoTime();
+        endTime = System.currentTimeMillis();
+
+        // Derive the overall total bandwidth from the timeline
+        bandwidthResultRecord.finishThroughputTimeline(endNanoTime, totalBytesRead);
+        double totalDownloadRate = bandwidthResultRecord.getOverallTotalBandwidthMeasure();
+
+        if (debugLogging) {
+            Log.d(getClass().getSimpleName(), String.format("Download and measure finished. startTime = %d , endTime = %d , diffTime = %f s, totalBytesRead = %d , httpConn.getContentLength() = %d , writeTestFile = %b , finalReadSize = %d , endedEarly = %b , downloadRate = %f kbit/s", startTime, endTime, ((endTime - startTime) / 1000.0), totalBytesRead, contentLength, writeTestFile, readSize.get(), bandwidthResultRecord.hasEndedEarly(), totalDownloadRate));
+        }
+    }
+
+    /**
+     * Read the data into the reused read buffer and only count the bytes, without writing anything to the storage
+     * @throws IOException if some IOException occurs while reading
+     */
+    private void readToDiscardBuffer() throws IOException {
+        inStream = httpConn.getInputStream();
+
+        int bytesRead; // bytes read into the buffer in the current passage of the while loop
+        while ((bytesRead = inStream.read(readBuffer, 0, readSize.get())) != -1) {
+            if (!onBufferRead(bytesRead)) {
+                break;
+            }
+        }
+    }
 
-        bis = new BufferedInputStream(httpConn.getInputStream());
+    /**
+     * Read the data and write it to the test file, so that the downloaded content can be checked afterwards
+     * @throws IOException if we fail to write the data to the file or some other IOException occurs
+     */
+    private void readToTestFile() throws IOException {
+        inStream = httpConn.getInputStream();
         fos = new FileOutputStream(testDownloadFile.getPath());
 
-        long totalBytesRead = 0; // bytes read overall in total
         int bytesRead; // bytes read into the buffer in the current passage of the while loop
-        long currentBlockBytesRead = 0; // bytes read for the current block - might span over multiple passes of the while loop
-        byte[] buf = new byte[BUFFER_SIZE]; // buffer to cache data between the input stream and output stream
-        int currentBufferNum = 0;
-        int currentBlockIndex = 0; // index of the current block in progress
-        while ((bytesRead = bis.read(buf)) != -1) {
-            totalBytesRead += bytesRead;
-            currentBlockBytesRead += bytesRead;
-            fos.write(buf, 0, bytesRead);
-
-            // If we gotten to the roughly estimated point to update the progress, calculate the actual progress and publish it
-            if (currentBufferNum % xthPercentProgress == 0) {
-                int progressPercentage = (int) (((double) totalBytesRead / contentLength) * 100);
+        while ((bytesRead = inStream.read(readBuffer, 0, readSize.get())) != -1) {
+            fos.write(readBuffer, 0, bytesRead);
+            if (!onBufferRead(bytesRead)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Account a single passage of the read loop: adapt the read size, publish the progress if due, sample the throughput timeline if due and check whether the transfer can be terminated early or has been aborted
+     * @param bytesRead bytes read into the buffer in the current passage of the read loop
+     * @return whether the transfer should go on
+     */
+    private boolean onBufferRead(int bytesRead) {
+        totalBytesRead += bytesRead;
+        long now = System.nanoTime();
+        if (bytesRead > 0) {
+            markProgress(now);
+        }
+
+        // Grow the read size if the reads keep filling it completely, i.e. more data is ready than we ask for
+        readSize.onRead(bytesRead);
+
+        // If we gotten to the point to update the progress, calculate the actual progress and publish it. Without a known content length there is no progress to be told.
+        if (contentLength > 0 && totalBytesRead >= nextProgressBytes) {
+            int progressPercentage = (int) (((double) totalBytesRead / contentLength) * 100);
+            if (debugLogging) {
                 Log.d(getClass().getSimpleName(), "Publishing current progress... progressPercentage: " + progressPercentage);
-                publishProgress(progressPercentage);
-            }
-
-            // Check if we still have to perform partial measurements
-            if(currentBlockIndex <= bandwidthResultRecord.TOTAL_BANDWIDTH_INDEX) {
-                // Check if we finished working on the current block
-                if (currentBlockBytesRead >= MEASURE_BLOCK_SIZE_IN_BYTES && currentBlockIndex <= bandwidthResultRecord.TOTAL_BANDWIDTH_INDEX) {
-                    // Block has finished, stop timer of the block
-                    blockEndTime = System.currentTimeMillis();
-                    // Calculate the result for this block and set it in the bandwidth results record
-                    double currentBlockBandwidth = BandwidthMeasureTool.calcDownloadrate(startTime, blockEndTime, totalBytesRead);
-                    bandwidthResultRecord.setBandwidthMeasure(currentBlockIndex, currentBlockBandwidth);
-                    Log.d(getClass().getSimpleName(), "Bandwidth measure finished on block-index " + currentBlockIndex + "  currently totalDownloadedBytes = " + totalBytesRead + "  blockEndTime = " + blockEndTime + "  diffTime = " + ((blockEndTime - startTime) / 1000.0) + "s  bytesRead = " + bytesRead + "  currentBlockTotalRead = " + currentBlockBytesRead + "  currentBlockBandwidth = " + currentBlockBandwidth);
-
-                    // (re)set all block related variables
-                    currentBlockIndex++;
-                    currentBlockBytesRead = 0;
-                }
             }
-            currentBufferNum++;
+            publishProgress(progressPercentage);
+            nextProgressBytes = totalBytesRead + xthPercentProgressBytes;
         }
 
-        // End timing
+        // Sample the timeline if the sample interval has passed, a block has finished or a convergence check is due, the record derives the block measures from these samples
+        boolean blockFinished = totalBytesRead >= nextBlockBytes;
+        boolean convergenceCheckDue = convergenceDetector != null && now >= nextConvergenceCheckNanoTime;
+        if (blockFinished || convergenceCheckDue || now - lastSampleNanoTime >= SAMPLE_INTERVAL_NANOS) {
+            bandwidthResultRecord.addThroughputSample(now, totalBytesRead);
+            lastSampleNanoTime = now;
+        }
+        if (blockFinished) {
+            if (debugLogging) {
+                Log.d(getClass().getSimpleName(), "Bandwidth measure finished on block ending at " + nextBlockBytes + " bytes  currently totalDownloadedBytes = " + totalBytesRead + "  diffTime = " + ((now - startNanoTime) / 1000000000.0) + "s  instantaneousBandwidth = " + bandwidthResultRecord.getInstantaneousThroughput());
+            }
+            int blockSize = bandwidthResultRecord.getBlockSizeInBytes();
+            nextBlockBytes = (totalBytesRead / blockSize + 1) * blockSize;
+        }
+
+        // Check whether the throughput estimate has converged, so that the rest of the file doesn't need to be downloaded
+        if (convergenceCheckDue) {
+            nextConvergenceCheckNanoTime = now + CONVERGENCE_CHECK_INTERVAL_NANOS;
+            boolean converged = convergenceDetector.addEstimate(bandwidthResultRecord.getWindowedThroughput(CONVERGENCE_WINDOW_NANOS));
+            if (converged && totalBytesRead >= earlyTerminationMinBytes && now - startNanoTime >= earlyTerminationMinNanos && (contentLength <= 0 || totalBytesRead < contentLength)) {
+                bandwidthResultRecord.setEndedEarly(convergenceDetector.getEstimate());
+                return false;
+            }
+        }
+        if (maxTransferBytes > 0 && totalBytesRead >= maxTransferBytes) {
+            return false;
+        }
+        return !isAborted();
+    }
+
+    @Override
+    protected BandwidthResultRecord finishPartialResult(long endNanoTime) {
+        if (bandwidthResultRecord == null || startNanoTime == 0) {
+            return null;
+        }
         endTime = System.currentTimeMillis();
+        bandwidthResultRecord.finishThroughputTimeline(endNanoTime, totalBytesRead);
+        return bandwidthResultRecord;
+    }
 
-        // Calculate the overall total bandwidth and set it in the bandwidth result record
-        double totalDownloadRate = calcDownloadrate(startTime, endTime, testDownloadFile.length());
-        bandwidthResultRecord.setBandwidthMeasure(bandwidthResultRecord.TOTAL_BANDWIDTH_INDEX, totalDownloadRate);
+    @Override
+    protected long getBytesSpentSoFar() {
+        return primingBytes + totalBytesRead;
+    }
 
-        Log.d(getClass().getSimpleName(), String.format("Download and measure finished. startTime = %d , endTime = %d , diffTime = %f s, file.length = %d , httpConn.getContentLength() = %d , downloadRate = %f kbit/s", startTime, endTime, ((endTime - startTime) / 1000.0), testDownloadFile.length(), contentLength, totalDownloadRate));
+    @Override
+    protected void onAbort() {
+        HttpURLConnection connection = httpConn;
+        if (connection != null) {
+            connection.disconnect();
+        }
     }
 }
@@ -0,0 +1,322 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Dedicated executor for bandwidth measurements, so that slow downloads neither block the shared AsyncTask executor of the app nor pile up behind each other.
+ * It allows only a single run per connection type at a time, since concurrent measurements on the same link would compete for its capacity and distort each other.
+ * If a measurement is triggered while an identical one - the same kind of tool and URL - is already running or waiting (e.g. a scheduled run and "Scan Now"), it does not start another transfer but attaches its callback to that run and gets the same result.
+ * A different measurement on the same connection type is queued and started once the in-flight run has finished.
+ * The callbacks are invoked on the main thread, just like {@link android.os.AsyncTask#onPostExecute(Object)} used to do.
+ * While a run is in flight, a watchdog checks its maximum duration and stall timeout periodically. A run is only cancelled once all the triggers attached to it have cancelled. A queued run cancelled by all its triggers is not started at all and delivers a cancelled result right away.
+ */
+public class MeasurementExecutor {
+
+    /**
+     * The single instance of this class
+     */
+    private static MeasurementExecutor instance;
+
+    /**
+     * Threads the measurements are run on
+     */
+    private final ExecutorService executorService;
+    /**
+     * Thread the watchdog checks of the in-flight runs are run on
+     */
+    private final ScheduledExecutorService watchdogService;
+    /**
+     * Handler to deliver the results on the main thread
+     */
+    private final Handler mainHandler;
+    /**
+     * The in-flight run of every connection type. Guarded by this executor instance.
+     */
+    private final Map<Integer, InFlightRun> inFlightRuns = new HashMap<Integer, InFlightRun>();
+    /**
+     * The runs of every connection type waiting for the in-flight run to finish, in the order they have been submitted. Guarded by this executor instance.
+     */
+    private final Map<Integer, List<InFlightRun>> queuedRuns = new HashMap<Integer, List<InFlightRun>>();
+
+    /**
+     * Interval in milliseconds in which the watchdog checks the in-flight runs
+     */
+    private static final long WATCHDOG_INTERVAL_MS = 500;
+
+    /**
+     * A measurement that is currently running or waiting to be run, together with the triggers waiting for its result
+     */
+    private static class InFlightRun {
+        /**
+         * The tool actually running the measurement
+         */
+        final BandwidthMeasureTool tool;
+        /**
+         * Key identifying identical measurements, see {@link #getMeasurementKey(BandwidthMeasureTool)}
+         */
+        final String measurementKey;
+        /**
+         * The tools that have triggered the measurement and whose delegates get the result - including the running tool itself
+         */
+        final List<BandwidthMeasureTool> triggers = new ArrayList<BandwidthMeasureTool>();
+        /**
+         * The triggers that have not cancelled the measurement yet
+         */
+        final List<BandwidthMeasureTool> activeTriggers = new ArrayList<BandwidthMeasureTool>();
+
+        InFlightRun(BandwidthMeasureTool tool) {
+            this.tool = tool;
+            this.measurementKey = getMeasurementKey(tool);
+        }
+
+        /**
+         * Attach a trigger to this run
+         * @param trigger tool whose delegate is to get the result
+         */
+        void attach(BandwidthMeasureTool trigger) {
+            triggers.add(trigger);
+            activeTriggers.add(trigger);
+        }
+    }
+
+    private MeasurementExecutor() {
+        executorService = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "BandwidthMeasurement #" + threadCount.getAndIncrement());
+            }
+        });
+        watchdogService = Executors.newSingleThreadScheduledExecutor();
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Get the single instance of the measurement executor
+     * @return the measurement executor
+     */
+    public static synchronized MeasurementExecutor getInstance() {
+        if (instance == null) {
+            instance = new MeasurementExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Run the measurement of the given tool, unless an identical measurement is already running or waiting. In that case the callback of the tool is attached to that run instead.
+     * If a different measurement is running on the same connection type, the run is queued until that one has finished.
+     * The run is watched by the watchdog until it has finished.
+     * @param tool the tool to run the measurement with
+     * @return true if a new run has been started or queued, false if the tool has been attached to an existing run
+     */
+    public boolean submit(BandwidthMeasureTool tool) {
+        Integer connectionType = tool.getConnectionType();
+        String measurementKey = getMeasurementKey(tool);
+        InFlightRun run;
+        synchronized (this) {
+            InFlightRun existingRun = findRun(connectionType, measurementKey);
+            if (existingRun != null) {
+                existingRun.attach(tool);
+                Log.d(getClass().getSimpleName(), "Measurement " + measurementKey + " is already running or waiting, attached to that run");
+                return false;
+            }
+            run = new InFlightRun(tool);
+            run.attach(tool);
+            if (inFlightRuns.containsKey(connectionType)) {
+                List<InFlightRun> queue = queuedRuns.get(connectionType);
+                if (queue == null) {
+                    queue = new LinkedList<InFlightRun>();
+                    queuedRuns.put(connectionType, queue);
+                }
+                queue.add(run);
+                Log.d(getClass().getSimpleName(), "Measurement " + measurementKey + " is queued behind " + inFlightRuns.get(connectionType).measurementKey);
+                return true;
+            }
+            inFlightRuns.put(connectionType, run);
+        }
+        start(connectionType, run);
+        return true;
+    }
+
+    /**
+     * Find the in-flight or queued run of a connection type that is identical to the given measurement
+     * @param connectionType the connection type of the measurement
+     * @param measurementKey key of the measurement
+     * @return the identical run, or null if there is none
+     */
+    private synchronized InFlightRun findRun(Integer connectionType, String measurementKey) {
+        InFlightRun run = inFlightRuns.get(connectionType);
+        if (run != null && run.measurementKey.equals(measurementKey)) {
+            return run;
+        }
+        List<InFlightRun> queue = queuedRuns.get(connectionType);
+        if (queue != null) {
+            for (InFlightRun queuedRun : queue) {
+                if (queuedRun.measurementKey.equals(measurementKey)) {
+                    return queuedRun;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the in-flight or queued run the given tool has been attached to
+     * @param tool the tool that has triggered the measurement
+     * @return the run, or null if the tool is not attached to any run
+     */
+    private synchronized InFlightRun findRunOf(BandwidthMeasureTool tool) {
+        InFlightRun run = findRun(tool.getConnectionType(), getMeasurementKey(tool));
+        return run != null && run.triggers.contains(tool) ? run : null;
+    }
+
+    /**
+     * Start the in-flight run of a connection type on the executor
+     * @param connectionType the connection type of the run
+     * @param run the run that has just become the in-flight run of the connection type
+     */
+    private void start(final Integer connectionType, InFlightRun run) {
+        final BandwidthMeasureTool tool = run.tool;
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                ScheduledFuture<?> watchdog = watchdogService.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        tool.checkWatchdog(System.nanoTime());
+                    }
+                }, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                final BandwidthResultRecord bandwidthResultRecord;
+                try {
+                    bandwidthResultRecord = tool.runMeasurement();
+                } finally {
+                    watchdog.cancel(false);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverResult(connectionType, bandwidthResultRecord);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get whether a measurement identical to the one of the given tool is currently running
+     * @param tool the tool whose measurement is to be checked
+     * @return whether an identical measurement is running
+     */
+    public synchronized boolean isRunning(BandwidthMeasureTool tool) {
+        InFlightRun run = inFlightRuns.get(tool.getConnectionType());
+        return run != null && run.measurementKey.equals(getMeasurementKey(tool));
+    }
+
+    /**
+     * Cancel the measurement triggered by the given tool. If other triggers are attached to the same run, the run goes on for them; otherwise an in-flight run is aborted and its partial result is delivered as usual, and a queued run is dropped and delivers a cancelled result.
+     * Does nothing if the measurement is not running or waiting anymore.
+     * @param tool the tool that has triggered the measurement
+     */
+    public void cancel(BandwidthMeasureTool tool) {
+        BandwidthMeasureTool toolToAbort = null;
+        final InFlightRun droppedRun;
+        synchronized (this) {
+            InFlightRun run = findRunOf(tool);
+            if (run == null || !run.activeTriggers.remove(tool) || !run.activeTriggers.isEmpty()) {
+                return;
+            }
+            if (inFlightRuns.get(tool.getConnectionType()) == run) {
+                toolToAbort = run.tool;
+                droppedRun = null;
+            } else {
+                queuedRuns.get(tool.getConnectionType()).remove(run);
+                droppedRun = run;
+            }
+        }
+        if (toolToAbort != null) {
+            toolToAbort.abort(BandwidthResultRecord.ABORT_REASON_CANCELLED);
+        } else {
+            final BandwidthResultRecord cancelledBandwidthResultRecord = new BandwidthResultRecord(new IOException("measurement cancelled before it has been started"));
+            cancelledBandwidthResultRecord.setAborted(BandwidthResultRecord.ABORT_REASON_CANCELLED);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyTriggers(droppedRun, cancelledBandwidthResultRecord);
+                }
+            });
+        }
+    }
+
+    /**
+     * Finish the in-flight run of a connection type, start the next queued run of that connection type and hand the result to the delegates of all triggers attached to the finished run
+     * @param connectionType the connection type of the run
+     * @param bandwidthResultRecord result of the run
+     */
+    private void deliverResult(Integer connectionType, BandwidthResultRecord bandwidthResultRecord) {
+        InFlightRun run;
+        InFlightRun nextRun = null;
+        synchronized (this) {
+            run = inFlightRuns.remove(connectionType);
+            List<InFlightRun> queue = queuedRuns.get(connectionType);
+            if (queue != null && !queue.isEmpty()) {
+                nextRun = queue.remove(0);
+                inFlightRuns.put(connectionType, nextRun);
+            }
+        }
+        if (nextRun != null) {
+            start(connectionType, nextRun);
+        }
+        if (run != null) {
+            notifyTriggers(run, bandwidthResultRecord);
+        }
+    }
+
+    /**
+     * Hand the result of a run to the delegates of all triggers attached to it
+     * @param run the finished run
+     * @param bandwidthResultRecord result of the run
+     */
+    private static void notifyTriggers(InFlightRun run, BandwidthResultRecord bandwidthResultRecord) {
+        for (BandwidthMeasureTool trigger : run.triggers) {
+            if (trigger.delegate != null) {
+                trigger.delegate.processFinish(bandwidthResultRecord);
+            }
+        }
+    }
+
+    /**
+     * Get the key that identifies identical measurements: the kind of tool and the URL of the measurement. Different tools measure different things even on the same URL, e.g. a packet-train estimate and a download of the test file.
+     * The connection type is not part of the key, since the runs are kept per connection type anyway.
+     * @param tool the tool to get the key for
+     * @return the key of the measurement
+     */
+    private static String getMeasurementKey(BandwidthMeasureTool tool) {
+        return tool.getClass().getName() + "|" + tool.getFileUrl();
+    }
+}
@@ -0,0 +1,364 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.ThroughputTimeline;
+
+/**
+ * Implementation of BandwidthMeasureTool that downloads the test file over multiple concurrent {@link java.net.HttpURLConnection}s.
+ * The file is split into HTTP Range segments of roughly equal size, one per stream, so that the measurement is bounded by the link rather than by the limits of a single TCP flow.
+ * The bytes read by all streams are combined into the usual block measures and the overall total, and additionally the throughput of every single stream is recorded.
+ * Each stream reads with adaptive read sizes, see {@link AdaptiveReadSize}, and accounts its bytes into the combined measures at most once per {@link #ACCOUNT_INTERVAL_NANOS}, so that the streams don't contend for the lock on every read.
+ * The headers exchanged by the HEAD request querying the size of the test file are recorded as overhead of the measurement.
+ * If the measurement is aborted, all open connections are disconnected and the blocks measured up to the abort are returned as a partial result. The throughput of the single streams is not recorded then.
+ * If one of the streams fails, the connections of the other streams are disconnected as well, so that none of them keeps downloading in the background.
+ */
+public class MultiConnectionMeasureTool extends BandwidthMeasureTool {
+
+    /**
+     * URL of the test file to be downloaded for the measurement
+     */
+    private URL testDownloadFileURL;
+    /**
+     * The size of the test file in bytes
+     */
+    private long contentLength;
+    /**
+     * Number of concurrent connections the test file is downloaded with
+     */
+    private int streamCount;
+    /**
+     * Estimation for when to update the progress, to be roughly in the desired intervals
+     */
+    private long xthPercentProgressBytes;
+    /**
+     * Bytes read overall in total by all the streams. Guarded by this tool instance.
+     */
+    private long totalBytesRead;
+    /**
+     * Bytes read towards the next progress update. Guarded by this tool instance.
+     */
+    private long bytesSinceLastProgress;
+    /**
+     * Time in nanoseconds of the last sample added to the throughput timeline. Guarded by this tool instance.
+     */
+    private long lastSampleNanoTime;
+    /**
+     * Time in nanoseconds when the transfer has started, 0 as long as the transfer has not started. Guarded by this tool instance.
+     */
+    private long startNanoTime;
+    /**
+     * The connections of all streams that are currently downloading, so that they can be disconnected on an abort. Guarded by itself.
+     */
+    private final List<HttpURLConnection> openConnections = new ArrayList<HttpURLConnection>();
+    /**
+     * Store for the results of the measurement
+     */
+    private BandwidthResultRecord bandwidthResultRecord;
+    /**
+     * Estimated bytes of the headers exchanged by the HEAD request of the current measurement
+     */
+    private long headBytes;
+
+    /**
+     * Minimum time in nanoseconds between two accountings of the bytes read by a single stream. The rest of a segment is always accounted when the stream finishes.
+     */
+    private static final long ACCOUNT_INTERVAL_NANOS = 1000 * 1000;
+    /**
+     * Minimum time in nanoseconds between two samples of the throughput timeline
+     */
+    private static final long SAMPLE_INTERVAL_NANOS = 10 * 1000 * 1000;
+    /**
+     * Upper bound for the number of concurrent streams
+     */
+    public static final int MAX_STREAM_COUNT = 16;
+
+    /**
+     *
+     * @param asyncResponse delegated callback interface that has to be implemented to process the async finish response
+     * @param context the context of the app
+     * @param fileUrl the url of the file to be downloaded for the measurement
+     * @param connectionType the type of the current connection
+     * @param streamCount the number of concurrent connections to download the file with
+     */
+    public MultiConnectionMeasureTool(AsyncResponse asyncResponse, Context context, String fileUrl, int connectionType, int streamCount) {
+        super(asyncResponse, context, fileUrl, connectionType);
+        if (streamCount < 1 || streamCount > MAX_STREAM_COUNT) {
+            throw new IllegalArgumentException("streamCount has to be in the range of 1 to " + MAX_STREAM_COUNT + " (was " + streamCount + ")");
+        }
+        this.streamCount = streamCount;
+    }
+
+    @Override
+    public BandwidthResultRecord measureBandwidth() throws IOException {
+        testDownloadFileURL = new URL(fileUrl);
+        bandwidthResultRecord = new BandwidthResultRecord();
+        synchronized (this) {
+            totalBytesRead = 0;
+            bytesSinceLastProgress = 0;
+            startNanoTime = 0;
+            headBytes = 0;
+        }
+
+        contentLength = queryContentLength();
+        bandwidthResultRecord.setOverheadBytes(headBytes);
+        if (contentLength <= 0) {
+            throw new IOException("content length of the test file is unknown, so it can not be split into range segments");
+        }
+        bandwidthResultRecord.setFileURL(testDownloadFileURL);
+        bandwidthResultRecord.setFileSize(contentLength);
+        bandwidthResultRecord.configureBlocks(contentLength, maxBlockCount);
+        xthPercentProgressBytes = Math.max(1, (long) Math.ceil(contentLength * UPDATE_PROGRESS_EACH_X_PERCENT));
+
+        actuallyConductMeasurement();
+
+        return bandwidthResultRecord;
+    }
+
+    /**
+     * Ask the server for the size of the test file by sending a HEAD request
+     * @return the size of the test file in bytes or -1 if the server did not tell
+     * @throws IOException if we fail to open the connection or the server responds with an error
+     */
+    private long queryContentLength() throws IOException {
+        HttpURLConnection httpConn = (HttpURLConnection) testDownloadFileURL.openConnection();
+        try {
+            httpConn.setConnectTimeout(connectTimeoutMs);
+            httpConn.setReadTimeout(readTimeoutMs);
+            httpConn.setRequestMethod("HEAD");
+            int responseCode = httpConn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                String badResponseMsg = "bad response from HTTP connection (response code: " + responseCode + ")";
+                Log.e(getClass().getSimpleName(), "Measurement failed, " + badResponseMsg);
+                throw new IOException(badResponseMsg);
+            }
+            synchronized (this) {
+                headBytes = estimateHeadBytes(httpConn);
+            }
+            String contentLengthHeader = httpConn.getHeaderField("Content-Length");
+            return contentLengthHeader != null ? Long.parseLong(contentLengthHeader) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        } finally {
+            httpConn.disconnect();
+        }
+    }
+
+    /**
+     * Estimate the bytes of the headers exchanged by a HEAD request, since HttpURLConnection does not count them
+     * @param httpConn the connection the HEAD request has been sent on, with the response headers received
+     * @return estimated bytes of the request and response headers
+     */
+    private long estimateHeadBytes(HttpURLConnection httpConn) {
+        // Request line, Host header and the empty line ending the request
+        long bytes = ("HEAD " + testDownloadFileURL.getFile() + " HTTP/1.1\r\nHost: " + testDownloadFileURL.getHost() + "\r\n\r\n").length();
+        for (Map.Entry<String, List<String>> header : httpConn.getHeaderFields().entrySet()) {
+            for (String value : header.getValue()) {
+                // The status line is reported without a key
+                bytes += (header.getKey() != null ? header.getKey().length() + 2 : 0) + (value != null ? value.length() : 0) + 2;
+            }
+        }
+        return bytes + 2;
+    }
+
+    /**
+     * Actually conduct the measurement by downloading all range segments concurrently and save all measurement results gotten into the bandwidth measurement record {@link de.informatik.uni_hamburg.yildiri.funftest.tools.MultiConnectionMeasureTool#bandwidthResultRecord}
+     * @throws IOException if one of the streams fails to download its segment
+     */
+    private void actuallyConductMeasurement() throws IOException {
+        ExecutorService streamExecutor = Executors.newFixedThreadPool(streamCount);
+        List<Future<Long>> streamEndNanoTimes = new ArrayList<Future<Long>>(streamCount);
+        long[] segmentLengths = new long[streamCount];
+
+        // Start timing
+        startTime = System.currentTimeMillis();
+        long startNanoTime = System.nanoTime();
+        synchronized (this) {
+            this.startNanoTime = startNanoTime;
+            lastSampleNanoTime = startNanoTime;
+            bandwidthResultRecord.startThroughputTimeline(startNanoTime);
+        }
+        markProgress(startNanoTime);
+        try {
+            long segmentLength = contentLength / streamCount;
+            for (int i = 0; i < streamCount; i++) {
+                final long firstByte = i * segmentLength;
+                final long lastByte = (i == streamCount - 1) ? contentLength - 1 : firstByte + segmentLength - 1;
+                segmentLengths[i] = lastByte - firstByte + 1;
+                streamEndNanoTimes.add(streamExecutor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return downloadSegment(firstByte, lastByte);
+                    }
+                }));
+            }
+
+            // Wait for all streams to finish and calculate the throughput of each of them
+            double[] streamBandwidths = new double[streamCount];
+            for (int i = 0; i < streamCount; i++) {
+                long streamEndNanoTime = streamEndNanoTimes.get(i).get();
+                streamBandwidths[i] = ThroughputTimeline.calcThroughput(startNanoTime, streamEndNanoTime, segmentLengths[i]);
+            }
+            bandwidthResultRecord.setStreamBandwidthMeasures(streamBandwidths);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("measurement has been interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("stream failed to download its segment (" + cause + ")");
+        } finally {
+            streamExecutor.shutdownNow();
+            // Streams still blocked in a read are not unblocked by the interrupt, e.g. once another stream has failed
+            onAbort();
+        }
+
+        // End timing
+        long endNanoTime = System.nanoTime();
+        endTime = System.currentTimeMillis();
+
+        // Derive the overall total bandwidth from the timeline
+        synchronized (this) {
+            bandwidthResultRecord.finishThroughputTimeline(endNanoTime, totalBytesRead);
+        }
+        double totalDownloadRate = bandwidthResultRecord.getOverallTotalBandwidthMeasure();
+
+        if (debugLogging) {
+            Log.d(getClass().getSimpleName(), String.format("Download and measure finished. streamCount = %d , startTime = %d , endTime = %d , diffTime = %f s, totalBytesRead = %d , contentLength = %d , downloadRate = %f kbit/s", streamCount, startTime, endTime, ((endTime - startTime) / 1000.0), totalBytesRead, contentLength, totalDownloadRate));
+        }
+    }
+
+    /**
+     * Download a single range segment of the test file
+     * @param firstByte offset of the first byte of the segment
+     * @param lastByte offset of the last byte of the segment (inclusive)
+     * @return time in nanoseconds when this stream finished its segment
+     * @throws IOException if the server does not support range requests or some other IOException occurs
+     */
+    private long downloadSegment(long firstByte, long lastByte) throws IOException {
+        HttpURLConnection httpConn = (HttpURLConnection) testDownloadFileURL.openConnection();
+        InputStream inStream = null;
+        synchronized (openConnections) {
+            openConnections.add(httpConn);
+        }
+        try {
+            if (isAborted()) {
+                throw new IOException("measurement has been aborted");
+            }
+            httpConn.setConnectTimeout(connectTimeoutMs);
+            httpConn.setReadTimeout(readTimeoutMs);
+            httpConn.setRequestProperty("Range", "bytes=" + firstByte + "-" + lastByte);
+            int responseCode = httpConn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("server does not support range requests (response code: " + responseCode + ")");
+            }
+
+            inStream = httpConn.getInputStream();
+            AdaptiveReadSize readSize = new AdaptiveReadSize();
+            byte[] buf = new byte[AdaptiveReadSize.MAX_READ_SIZE];
+            long unaccountedBytes = 0;
+            long lastAccountNanoTime = System.nanoTime();
+            int bytesRead;
+            while ((bytesRead = inStream.read(buf, 0, readSize.get())) != -1) {
+                readSize.onRead(bytesRead);
+                unaccountedBytes += bytesRead;
+                long now = System.nanoTime();
+                if (now - lastAccountNanoTime >= ACCOUNT_INTERVAL_NANOS) {
+                    onBytesRead(unaccountedBytes, now);
+                    unaccountedBytes = 0;
+                    lastAccountNanoTime = now;
+                }
+                if (isAborted()) {
+                    throw new IOException("measurement has been aborted");
+                }
+            }
+            long endNanoTime = System.nanoTime();
+            onBytesRead(unaccountedBytes, endNanoTime);
+            return endNanoTime;
+        } finally {
+            synchronized (openConnections) {
+                openConnections.remove(httpConn);
+            }
+            if (inStream != null) {
+                inStream.close();
+            }
+            httpConn.disconnect();
+        }
+    }
+
+    /**
+     * Account the bytes read by one of the streams. Combines the bytes of all streams into the block measures and publishes the progress.
+     * @param bytesRead bytes that have been read by one of the streams since its last accounting
+     * @param now time in nanoseconds of the last of these reads
+     */
+    private synchronized void onBytesRead(long bytesRead, long now) {
+        long blockSize = bandwidthResultRecord.getBlockSizeInBytes();
+        boolean blockFinished = totalBytesRead / blockSize != (totalBytesRead + bytesRead) / blockSize;
+        totalBytesRead += bytesRead;
+        bytesSinceLastProgress += bytesRead;
+
+        if (bytesSinceLastProgress >= xthPercentProgressBytes) {
+            bytesSinceLastProgress = 0;
+            publishProgress((int) (((double) totalBytesRead / contentLength) * 100));
+        }
+
+        // Sample the combined bytes of all streams, the record derives the block measures from these samples
+        markProgress(now);
+        if (blockFinished || now - lastSampleNanoTime >= SAMPLE_INTERVAL_NANOS) {
+            bandwidthResultRecord.addThroughputSample(now, totalBytesRead);
+            lastSampleNanoTime = now;
+        }
+    }
+
+    @Override
+    protected synchronized BandwidthResultRecord finishPartialResult(long endNanoTime) {
+        if (bandwidthResultRecord == null || startNanoTime == 0) {
+            return null;
+        }
+        endTime = System.currentTimeMillis();
+        bandwidthResultRecord.finishThroughputTimeline(endNanoTime, totalBytesRead);
+        return bandwidthResultRecord;
+    }
+
+    @Override
+    protected synchronized long getBytesSpentSoFar() {
+        return headBytes + totalBytesRead;
+    }
+
+    @Override
+    protected void onAbort() {
+        List<HttpURLConnection> connections;
+        synchronized (openConnections) {
+            connections = new ArrayList<HttpURLConnection>(openConnections);
+        }
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get the number of concurrent connections the test file is downloaded with
+     * @return number of concurrent connections
+     */
+    public int getStreamCount() {
+        return this.streamCount;
+    }
+}
@@ -0,0 +1,276 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.ThroughputTimeline;
+
+/**
+ * Implementation of BandwidthMeasureTool that estimates the capacity of the bottleneck link from the dispersion of packet trains, spending a few tens of KB instead of downloading the whole test file.
+ * Each train is a range request for the first {@link #DEFAULT_TRAIN_BYTES} bytes of the test file. The response is small enough to be sent by the server back-to-back within a single congestion window, so its packets queue up at the bottleneck and leave it spaced by their transmission time on that link.
+ * The start and return times of the reads are recorded. A read that returns without blocking has been served from data that was already buffered, so it is merged into the arrival of the previous read. The capacity of a train is the bytes that arrived after its first arrival divided by the time from the first to the last arrival, see {@link #measureDispersion(long[], int[], int)}.
+ * The trains are sent one after the other on a keep-alive connection. Since cross traffic can stretch or compress single trains, the overall total of the result is the median capacity of all trains, and the capacity of every single train is recorded as well.
+ * The cooperating server has to support range requests. If it ignores the range, only the first bytes of the response are read and the connection is disconnected.
+ */
+public class PacketTrainMeasureTool extends BandwidthMeasureTool {
+
+    /**
+     * Default number of trains sent for an estimate
+     */
+    public static final int DEFAULT_TRAIN_COUNT = 5;
+    /**
+     * Default number of bytes requested by each train, i.e. about seven full-sized TCP segments - less than the initial congestion window of common servers
+     */
+    public static final int DEFAULT_TRAIN_BYTES = 10 * 1000;
+    /**
+     * Reads returning within this time after they have been started are considered not to have blocked, i.e. their data had already been buffered and belongs to the arrival of the previous read.
+     * Serving a read from the buffer takes a few microseconds, whereas a read waiting for the next segment blocks for about its transmission time, e.g. 117 microseconds at 100 Mbit/s, so capacities up to several hundred Mbit/s are told apart.
+     */
+    static final long NON_BLOCKING_READ_NANOS = 10L * 1000;
+    /**
+     * Size in bytes of a single read, about one TCP segment, so that the arrivals are timed at a fine granularity
+     */
+    private static final int READ_SIZE = 1460;
+    /**
+     * Pause in milliseconds between two trains, so that the queues along the path drain before the next train
+     */
+    private static final long TRAIN_GAP_MS = 50;
+
+    /**
+     * Number of trains sent for an estimate
+     */
+    private int trainCount = DEFAULT_TRAIN_COUNT;
+    /**
+     * Number of bytes requested by each train
+     */
+    private int trainBytes = DEFAULT_TRAIN_BYTES;
+    /**
+     * The HttpURLConnection of the current train. Volatile, since it is disconnected by the thread aborting the measurement.
+     */
+    private volatile HttpURLConnection httpConn;
+    /**
+     * Bytes read by all trains so far, including the ones outside of the measured dispersions
+     */
+    private long spentBytes;
+
+    /**
+     *
+     * @param asyncResponse delegated callback interface that has to be implemented to process the async finish response
+     * @param context the context of the app
+     * @param fileUrl the url of the test file the trains are requested from
+     * @param connectionType the type of the current connection
+     */
+    public PacketTrainMeasureTool(AsyncResponse asyncResponse, Context context, String fileUrl, int connectionType) {
+        super(asyncResponse, context, fileUrl, connectionType);
+    }
+
+    /**
+     * Set the number and size of the trains
+     * @param trainCount number of trains sent for an estimate
+     * @param trainBytes number of bytes requested by each train, at least two reads
+     */
+    public void setTrains(int trainCount, int trainBytes) {
+        if (trainCount < 1) {
+            throw new IllegalArgumentException("trainCount has to be at least 1 (was " + trainCount + ")");
+        }
+        if (trainBytes < 2 * READ_SIZE) {
+            throw new IllegalArgumentException("trainBytes has to be at least " + (2 * READ_SIZE) + " (was " + trainBytes + ")");
+        }
+        this.trainCount = trainCount;
+        this.trainBytes = trainBytes;
+    }
+
+    @Override
+    public BandwidthResultRecord measureBandwidth() throws IOException {
+        URL testDownloadFileURL = new URL(fileUrl);
+        BandwidthResultRecord bandwidthResultRecord = new BandwidthResultRecord();
+        bandwidthResultRecord.setFileURL(testDownloadFileURL);
+        bandwidthResultRecord.setFileSize((long) trainCount * trainBytes);
+        bandwidthResultRecord.configureBlocks((long) trainCount * trainBytes, maxBlockCount);
+
+        // Every read returns at least one byte
+        long[] readStartNanoTimes = new long[trainBytes];
+        long[] readNanoTimes = new long[readStartNanoTimes.length];
+        int[] readBytes = new int[readNanoTimes.length];
+        double[] capacities = new double[trainCount];
+        int measuredTrains = 0;
+        spentBytes = 0;
+        long measuredBytes = 0;
+
+        // The dispersion periods of the trains are put on the timeline back to back
+        startTime = System.currentTimeMillis();
+        long timelineNanoTime = System.nanoTime();
+        bandwidthResultRecord.startThroughputTimeline(timelineNanoTime);
+        markProgress(timelineNanoTime);
+        for (int train = 0; train < trainCount && !isAborted(); train++) {
+            if (train > 0) {
+                try {
+                    Thread.sleep(TRAIN_GAP_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("measurement has been interrupted");
+                }
+            }
+            int readCount = sendTrain(testDownloadFileURL, readStartNanoTimes, readNanoTimes, readBytes);
+            long[] dispersion = measureDispersion(readStartNanoTimes, readNanoTimes, readBytes, readCount);
+            if (dispersion != null) {
+                capacities[measuredTrains++] = ThroughputTimeline.calcThroughput(0, dispersion[1], dispersion[0]);
+                timelineNanoTime += dispersion[1];
+                measuredBytes += dispersion[0];
+                bandwidthResultRecord.addThroughputSample(timelineNanoTime, measuredBytes);
+            } else if (debugLogging) {
+                Log.d(getClass().getSimpleName(), "Train " + train + " arrived at once, its dispersion can't be measured");
+            }
+            publishProgress((train + 1) * 100 / trainCount);
+        }
+        endTime = System.currentTimeMillis();
+        if (measuredTrains == 0) {
+            throw new IOException("no packet train has arrived with a measurable dispersion");
+        }
+
+        double[] trainCapacities = Arrays.copyOf(capacities, measuredTrains);
+        bandwidthResultRecord.finishThroughputTimeline(timelineNanoTime, measuredBytes);
+        bandwidthResultRecord.setOverheadBytes(spentBytes - measuredBytes);
+        bandwidthResultRecord.setTrainCapacities(trainCapacities);
+        bandwidthResultRecord.setBandwidthMeasure(bandwidthResultRecord.getTotalBandwidthIndex(), median(trainCapacities));
+        if (debugLogging) {
+            Log.d(getClass().getSimpleName(), String.format("Packet trains finished. trains = %d , measuredTrains = %d , spentBytes = %d , capacity = %f kbit/s", trainCount, measuredTrains, spentBytes, bandwidthResultRecord.getOverallTotalBandwidthMeasure()));
+        }
+        return bandwidthResultRecord;
+    }
+
+    /**
+     * Send a single train by requesting the first bytes of the test file and time the arrivals of its data
+     * @param testDownloadFileURL URL of the test file
+     * @param readStartNanoTimes array to store the time in nanoseconds every read has been started at in
+     * @param readNanoTimes array to store the time in nanoseconds every read has returned at in
+     * @param readBytes array to store the bytes of every read in
+     * @return number of reads that have returned data
+     * @throws IOException if the server responds with an error or some other IOException occurs
+     */
+    private int sendTrain(URL testDownloadFileURL, long[] readStartNanoTimes, long[] readNanoTimes, int[] readBytes) throws IOException {
+        httpConn = (HttpURLConnection) testDownloadFileURL.openConnection();
+        httpConn.setConnectTimeout(connectTimeoutMs);
+        httpConn.setReadTimeout(readTimeoutMs);
+        httpConn.setRequestProperty("Range", "bytes=0-" + (trainBytes - 1));
+        InputStream inStream = null;
+        boolean reusable = false;
+        try {
+            int responseCode = httpConn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
+                String badResponseMsg = "bad response from HTTP connection (response code: " + responseCode + ")";
+                Log.e(getClass().getSimpleName(), "Measurement failed, " + badResponseMsg);
+                throw new IOException(badResponseMsg);
+            }
+            inStream = httpConn.getInputStream();
+            byte[] buf = new byte[READ_SIZE];
+            int readCount = 0;
+            int totalBytesRead = 0;
+            while (totalBytesRead < trainBytes && readCount < readNanoTimes.length) {
+                long readStartNanoTime = System.nanoTime();
+                int bytesRead = inStream.read(buf, 0, Math.min(READ_SIZE, trainBytes - totalBytesRead));
+                if (bytesRead == -1) {
+                    break;
+                }
+                long now = System.nanoTime();
+                if (bytesRead > 0) {
+                    readStartNanoTimes[readCount] = readStartNanoTime;
+                    readNanoTimes[readCount] = now;
+                    readBytes[readCount] = bytesRead;
+                    readCount++;
+                    totalBytesRead += bytesRead;
+                    spentBytes += bytesRead;
+                    markProgress(now);
+                }
+            }
+            // Only a range response read up to its end leaves the connection to be reused by the next train
+            reusable = responseCode == HttpURLConnection.HTTP_PARTIAL && inStream.read() == -1;
+            return readCount;
+        } finally {
+            if (inStream != null) {
+                inStream.close();
+            }
+            if (!reusable) {
+                httpConn.disconnect();
+            }
+            httpConn = null;
+        }
+    }
+
+    /**
+     * Measure the dispersion of a train from the times of its reads. Reads returning within {@link #NON_BLOCKING_READ_NANOS} after they have been started are merged into the arrival of the previous read.
+     * @param readStartNanoTimes time in nanoseconds every read has been started at
+     * @param readNanoTimes time in nanoseconds every read has returned at
+     * @param readBytes bytes of every read
+     * @param readCount number of reads
+     * @return {bytes that arrived after the first arrival, time in nanoseconds from the end of the first to the last arrival}, or null if the train arrived at once
+     */
+    static long[] measureDispersion(long[] readStartNanoTimes, long[] readNanoTimes, int[] readBytes, int readCount) {
+        if (readCount < 2) {
+            return null;
+        }
+        // The first arrival ends with the last read that has been served from the buffer without blocking
+        int firstArrivalEnd = 0;
+        while (firstArrivalEnd + 1 < readCount && readNanoTimes[firstArrivalEnd + 1] - readStartNanoTimes[firstArrivalEnd + 1] <= NON_BLOCKING_READ_NANOS) {
+            firstArrivalEnd++;
+        }
+        if (firstArrivalEnd + 1 >= readCount) {
+            return null;
+        }
+        long bytes = 0;
+        for (int i = firstArrivalEnd + 1; i < readCount; i++) {
+            bytes += readBytes[i];
+        }
+        long nanos = readNanoTimes[readCount - 1] - readNanoTimes[firstArrivalEnd];
+        return nanos > 0 ? new long[]{bytes, nanos} : null;
+    }
+
+    /**
+     * Get the median of some values
+     * @param values the values, not empty
+     * @return the median
+     */
+    static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    @Override
+    protected long getBytesSpentSoFar() {
+        return spentBytes;
+    }
+
+    @Override
+    protected void onAbort() {
+        HttpURLConnection connection = httpConn;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get the number of trains sent for an estimate
+     * @return number of trains
+     */
+    public int getTrainCount() {
+        return this.trainCount;
+    }
+
+    /**
+     * Get the number of bytes requested by each train
+     * @return bytes per train
+     */
+    public int getTrainBytes() {
+        return this.trainBytes;
+    }
+}
@@ -0,0 +1,221 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.content.Context;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.SaturationDetector;
+
+/**
+ * Implementation of BandwidthMeasureTool that performs a passive measurement: instead of transferring data of its own, it observes the traffic other apps are generating anyway.
+ * For the length of the observation window the receive (download) or transmit (upload) byte counters of {@link TrafficStats} are polled every {@link #POLL_INTERVAL_MS} milliseconds. The bytes of this app itself are subtracted, so that concurrent active measurements are not observed.
+ * A {@link SaturationDetector} finds the periods in which the observed traffic has saturated the link, judged against a reference capacity known from active measurements if one has been set, see {@link #setReferenceThroughput(double)}. Only these periods are put on the throughput timeline of the result, back to back, so that the overall total and the block measures give the throughput achieved while the link was saturated.
+ * The result is marked as passive, and as a lower bound of the capacity if there has been no reference, since a steady flow limited by the applications would count as saturating the link then. If the traffic has not saturated the link within the observation window, e.g. because the device has been idle, the measurement fails, since the light traffic doesn't tell anything about the capacity of the link.
+ */
+public class PassiveTrafficMeasureTool extends BandwidthMeasureTool {
+
+    /**
+     * Prefix of the pseudo URL this tool is initialized with. There is no file to be downloaded, but the MeasurementExecutor tells measurements apart by their URL.
+     */
+    public static final String PASSIVE_URL_PREFIX = "passive:trafficstats/";
+    /**
+     * Interval in milliseconds the traffic counters are polled with
+     */
+    public static final long POLL_INTERVAL_MS = 50;
+    /**
+     * Default length of the observation window in milliseconds
+     */
+    public static final long DEFAULT_OBSERVATION_MS = 10 * 1000;
+    /**
+     * Fraction of the peak throughput the traffic has to reach to count as saturating the link
+     */
+    private static final double SATURATION_FRACTION = 0.7;
+    /**
+     * Minimum peak throughput in kbit/s of the observed traffic to be considered at all
+     */
+    private static final double MIN_PEAK_THROUGHPUT = 100;
+    /**
+     * Minimum duration in nanoseconds of a saturated period
+     */
+    private static final long MIN_SATURATED_PERIOD_NANOS = 1000L * 1000 * 1000;
+    /**
+     * Number of neighbouring polls on each side the throughput of a poll is smoothed over
+     */
+    private static final int SMOOTHING_RADIUS = 2;
+
+    /**
+     * Direction of the traffic to be observed, either {@link BandwidthResultRecord#DIRECTION_DOWNLOAD} or {@link BandwidthResultRecord#DIRECTION_UPLOAD}
+     */
+    private String direction;
+    /**
+     * Length of the observation window in milliseconds
+     */
+    private long observationMs;
+    /**
+     * Capacity of the link in kbit/s known from active measurements, 0 if there is none
+     */
+    private double referenceThroughput = 0;
+
+    /**
+     *
+     * @param asyncResponse delegated callback interface that has to be implemented to process the async finish response
+     * @param context the context of the app
+     * @param connectionType the type of the current connection
+     * @param direction direction of the traffic to be observed, either {@link BandwidthResultRecord#DIRECTION_DOWNLOAD} or {@link BandwidthResultRecord#DIRECTION_UPLOAD}
+     * @param observationMs length of the observation window in milliseconds
+     */
+    public PassiveTrafficMeasureTool(AsyncResponse asyncResponse, Context context, int connectionType, String direction, long observationMs) {
+        super(asyncResponse, context, getPassiveUrl(direction), connectionType);
+        if (!BandwidthResultRecord.DIRECTION_DOWNLOAD.equals(direction) && !BandwidthResultRecord.DIRECTION_UPLOAD.equals(direction)) {
+            throw new IllegalArgumentException("unknown direction " + direction);
+        }
+        if (observationMs <= 0) {
+            throw new IllegalArgumentException("observationMs has to be positive (was " + observationMs + ")");
+        }
+        this.direction = direction;
+        this.observationMs = observationMs;
+    }
+
+    /**
+     * Set the capacity of the link known from active measurements, which the observed traffic has to come close to for counting as saturating the link
+     * @param referenceThroughput reference capacity in kbit/s, 0 if there is none
+     */
+    public void setReferenceThroughput(double referenceThroughput) {
+        if (referenceThroughput < 0) {
+            throw new IllegalArgumentException("referenceThroughput must not be negative (was " + referenceThroughput + ")");
+        }
+        this.referenceThroughput = referenceThroughput;
+    }
+
+    @Override
+    public BandwidthResultRecord measureBandwidth() throws IOException {
+        if (readCounter() == TrafficStats.UNSUPPORTED) {
+            throw new IOException("traffic counters are not supported by this device");
+        }
+        SaturationDetector saturationDetector = new SaturationDetector(SATURATION_FRACTION, MIN_PEAK_THROUGHPUT, MIN_SATURATED_PERIOD_NANOS, SMOOTHING_RADIUS);
+        saturationDetector.setReferenceThroughput(referenceThroughput);
+
+        startTime = System.currentTimeMillis();
+        long startNanoTime = System.nanoTime();
+        long observationEndNanoTime = startNanoTime + observationMs * 1000 * 1000;
+        long lastNanoTime = startNanoTime;
+        long lastBytes = readCounter();
+        markProgress(startNanoTime);
+        while (lastNanoTime < observationEndNanoTime && !isAborted()) {
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("measurement has been interrupted");
+            }
+            long now = System.nanoTime();
+            long bytes = readCounter();
+            // The counters may be reset, e.g. when the network interface goes down
+            saturationDetector.addInterval(lastNanoTime, now, bytes >= lastBytes ? bytes - lastBytes : 0);
+            lastNanoTime = now;
+            lastBytes = bytes;
+            // The stall detection doesn't apply, since nothing is transferred by this tool
+            markProgress(now);
+            publishProgress((int) Math.min(100, (now - startNanoTime) * 100 / (observationEndNanoTime - startNanoTime)));
+        }
+        endTime = System.currentTimeMillis();
+
+        BandwidthResultRecord bandwidthResultRecord = buildResult(saturationDetector, lastNanoTime - startNanoTime, maxBlockCount);
+        if (bandwidthResultRecord == null) {
+            throw new IOException("the observed traffic has not saturated the link (peak " + Math.round(saturationDetector.getPeakThroughput()) + " kbit/s)");
+        }
+        bandwidthResultRecord.setDirection(direction);
+        if (debugLogging) {
+            Log.d(getClass().getSimpleName(), String.format("Passive measurement finished. direction = %s , observed = %d ms , polls = %d , saturated = %d ms , peak = %f kbit/s , saturatedRate = %f kbit/s", direction, observationMs, saturationDetector.getIntervalCount(), bandwidthResultRecord.getTransferDurationNanos() / (1000 * 1000), saturationDetector.getPeakThroughput(), bandwidthResultRecord.getOverallTotalBandwidthMeasure()));
+        }
+        return bandwidthResultRecord;
+    }
+
+    /**
+     * Build the result of a passive measurement from the saturated periods of the observed traffic. The saturated intervals are put on the throughput timeline back to back, starting at the first one.
+     * @param saturationDetector detector holding the intervals of the observation
+     * @param observationNanos duration in nanoseconds the traffic has been observed
+     * @param maxBlockCount maximum number of blocks to be measured
+     * @return the passive result, marked as a lower bound if the detector had no reference capacity, or null if the traffic has not saturated the link
+     */
+    static BandwidthResultRecord buildResult(SaturationDetector saturationDetector, long observationNanos, int maxBlockCount) {
+        boolean[] saturated = saturationDetector.findSaturatedIntervals();
+        long saturatedBytes = 0;
+        int firstSaturated = -1;
+        for (int i = 0; i < saturated.length; i++) {
+            if (saturated[i]) {
+                saturatedBytes += saturationDetector.getInterval(i)[2];
+                if (firstSaturated < 0) {
+                    firstSaturated = i;
+                }
+            }
+        }
+        if (firstSaturated < 0) {
+            return null;
+        }
+
+        BandwidthResultRecord bandwidthResultRecord = new BandwidthResultRecord();
+        bandwidthResultRecord.setFileSize(saturatedBytes);
+        bandwidthResultRecord.configureBlocks(saturatedBytes, maxBlockCount);
+        long timelineNanoTime = saturationDetector.getInterval(firstSaturated)[0];
+        long cumulativeBytes = 0;
+        bandwidthResultRecord.startThroughputTimeline(timelineNanoTime);
+        for (int i = firstSaturated; i < saturated.length; i++) {
+            if (!saturated[i]) {
+                continue;
+            }
+            long[] interval = saturationDetector.getInterval(i);
+            timelineNanoTime += interval[1] - interval[0];
+            cumulativeBytes += interval[2];
+            if (cumulativeBytes < saturatedBytes) {
+                bandwidthResultRecord.addThroughputSample(timelineNanoTime, cumulativeBytes);
+            }
+        }
+        bandwidthResultRecord.finishThroughputTimeline(timelineNanoTime, saturatedBytes);
+        bandwidthResultRecord.setPassive(observationNanos, !saturationDetector.isReferenced());
+        return bandwidthResultRecord;
+    }
+
+    /**
+     * Read the traffic counter of the observed direction, excluding the traffic of this app
+     * @return bytes transferred by the device since boot, or {@link TrafficStats#UNSUPPORTED} if the counters are not supported
+     */
+    private long readCounter() {
+        int uid = Process.myUid();
+        long totalBytes;
+        long ownBytes;
+        if (BandwidthResultRecord.DIRECTION_UPLOAD.equals(direction)) {
+            totalBytes = TrafficStats.getTotalTxBytes();
+            ownBytes = TrafficStats.getUidTxBytes(uid);
+        } else {
+            totalBytes = TrafficStats.getTotalRxBytes();
+            ownBytes = TrafficStats.getUidRxBytes(uid);
+        }
+        if (totalBytes == TrafficStats.UNSUPPORTED) {
+            return TrafficStats.UNSUPPORTED;
+        }
+        return ownBytes == TrafficStats.UNSUPPORTED ? totalBytes : totalBytes - ownBytes;
+    }
+
+    /**
+     * Get the pseudo URL a passive measurement of a direction is initialized with
+     * @param direction direction of the traffic to be observed
+     * @return the pseudo URL
+     */
+    public static String getPassiveUrl(String direction) {
+        return PASSIVE_URL_PREFIX + direction;
+    }
+
+    /**
+     * Get the direction of the traffic that is observed
+     * @return either {@link BandwidthResultRecord#DIRECTION_DOWNLOAD} or {@link BandwidthResultRecord#DIRECTION_UPLOAD}
+     */
+    public String getDirection() {
+        return this.direction;
+    }
+}
@@ -0,0 +1,216 @@
+package de.informatik.uni_hamburg.yildiri.funftest.tools;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+
+import de.informatik.uni_hamburg.yildiri.funftest.utils.AsyncResponse;
+import de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord;
+
+/**
+ * Implementation of BandwidthMeasureTool that measures the upload throughput using {@link java.net.HttpURLConnection}.
+ * It performs an active measurement by streaming generated payload bytes with a chunked HTTP POST to the supplied URL. The server is expected to accept and discard the body.
+ * The timing starts once the connection has been established. Whilst uploading, some micro measurements occur at certain intervals. Notice that these are taken when the data has been handed to the connection, so the first blocks may be inflated by the socket buffers. The overall total is only taken once the server has responded, i.e. has received all the data.
+ * If the measurement is aborted, the connection is disconnected and the blocks measured up to the abort are returned as a partial result.
+ */
+public class UploadMeasureTool extends BandwidthMeasureTool {
+
+    /**
+     * Number of bytes to be uploaded for the measurement
+     */
+    private long payloadSize;
+    /**
+     * Store for the results of the measurement
+     */
+    private BandwidthResultRecord bandwidthResultRecord;
+    /**
+     * The HttpURLConnection the payload is posted on. Volatile, since it is disconnected by the thread aborting the measurement.
+     */
+    private volatile HttpURLConnection httpConn;
+    /**
+     * Bytes handed to the connection in total
+     */
+    private long totalBytesWritten;
+    /**
+     * Whether the transfer has started, i.e. the throughput timeline holds measures to be returned on an abort
+     */
+    private boolean transferStarted;
+
+    /**
+     * Size in bytes of each chunk written to the connection
+     */
+    private static final int CHUNK_SIZE = 16 * 1024;
+    /**
+     * Minimum time in nanoseconds between two samples of the throughput timeline. Block boundaries are always sampled.
+     */
+    private static final long SAMPLE_INTERVAL_NANOS = 10 * 1000 * 1000;
+    /**
+     * Payload chunk that is written over and over again. Filled with random bytes once, so that compression along the path does not distort the measurement.
+     */
+    private static final byte[] PAYLOAD_CHUNK = new byte[CHUNK_SIZE];
+
+    static {
+        new Random().nextBytes(PAYLOAD_CHUNK);
+    }
+
+    /**
+     *
+     * @param asyncResponse delegated callback interface that has to be implemented to process the async finish response
+     * @param context the context of the app
+     * @param uploadUrl the url the payload is posted to for the measurement
+     * @param connectionType the type of the current connection
+     * @param payloadSize the number of bytes to be uploaded
+     */
+    public UploadMeasureTool(AsyncResponse asyncResponse, Context context, String uploadUrl, int connectionType, long payloadSize) {
+        super(asyncResponse, context, uploadUrl, connectionType);
+        if (payloadSize <= 0) {
+            throw new IllegalArgumentException("payloadSize has to be positive (was " + payloadSize + ")");
+        }
+        this.payloadSize = payloadSize;
+    }
+
+    @Override
+    public BandwidthResultRecord measureBandwidth() throws IOException {
+        URL uploadURL = new URL(fileUrl);
+        bandwidthResultRecord = new BandwidthResultRecord();
+        bandwidthResultRecord.setDirection(BandwidthResultRecord.DIRECTION_UPLOAD);
+        bandwidthResultRecord.setFileURL(uploadURL);
+        bandwidthResultRecord.setFileSize(payloadSize);
+        bandwidthResultRecord.configureBlocks(payloadSize, maxBlockCount);
+
+        transferStarted = false;
+        totalBytesWritten = 0;
+        httpConn = (HttpURLConnection) uploadURL.openConnection();
+        OutputStream os = null;
+        try {
+            httpConn.setConnectTimeout(connectTimeoutMs);
+            httpConn.setReadTimeout(readTimeoutMs);
+            httpConn.setDoOutput(true);
+            httpConn.setRequestMethod("POST");
+            httpConn.setRequestProperty("Content-Type", "application/octet-stream");
+            httpConn.setChunkedStreamingMode(CHUNK_SIZE);
+
+            // Getting the output stream establishes the connection, which must not be part of the transfer time
+            os = httpConn.getOutputStream();
+
+            // Start timing
+            startTime = System.currentTimeMillis();
+            long lastSampleNanoTime = System.nanoTime();
+            bandwidthResultRecord.startThroughputTimeline(lastSampleNanoTime);
+            transferStarted = true;
+            markProgress(lastSampleNanoTime);
+            long nextBlockBytes = bandwidthResultRecord.getBlockSizeInBytes();
+            long xthPercentProgressBytes = Math.max(1, (long) Math.ceil(payloadSize * UPDATE_PROGRESS_EACH_X_PERCENT));
+            long nextProgressBytes = 0;
+            while (totalBytesWritten < payloadSize && !isAborted()) {
+                int bytesToWrite = (int) Math.min(CHUNK_SIZE, payloadSize - totalBytesWritten);
+                os.write(PAYLOAD_CHUNK, 0, bytesToWrite);
+                totalBytesWritten += bytesToWrite;
+
+                if (totalBytesWritten >= nextProgressBytes) {
+                    publishProgress((int) (((double) totalBytesWritten / payloadSize) * 100));
+                    nextProgressBytes = totalBytesWritten + xthPercentProgressBytes;
+                }
+
+                // Sample the timeline if the sample interval has passed or a block has finished, the record derives the block measures from these samples
+                long now = System.nanoTime();
+                markProgress(now);
+                boolean blockFinished = totalBytesWritten >= nextBlockBytes;
+                if (blockFinished || now - lastSampleNanoTime >= SAMPLE_INTERVAL_NANOS) {
+                    bandwidthResultRecord.addThroughputSample(now, totalBytesWritten);
+                    lastSampleNanoTime = now;
+                }
+                if (blockFinished) {
+                    int blockSize = bandwidthResultRecord.getBlockSizeInBytes();
+                    nextBlockBytes = (totalBytesWritten / blockSize + 1) * blockSize;
+                }
+            }
+            os.close();
+            os = null;
+            if (isAborted()) {
+                // Return the measures of the data uploaded so far without waiting for the server
+                bandwidthResultRecord.finishThroughputTimeline(System.nanoTime(), totalBytesWritten);
+                return bandwidthResultRecord;
+            }
+
+            // The upload has only completed once the server has received all data and responded
+            int responseCode = httpConn.getResponseCode();
+            long endNanoTime = System.nanoTime();
+            endTime = System.currentTimeMillis();
+            if (responseCode / 100 != 2) {
+                String badResponseMsg = "bad response from HTTP connection (response code: " + responseCode + ")";
+                Log.e(getClass().getSimpleName(), "Measurement failed, " + badResponseMsg);
+                throw new IOException(badResponseMsg);
+            }
+            discardResponseBody(httpConn);
+
+            // Derive the overall total bandwidth from the timeline
+            bandwidthResultRecord.finishThroughputTimeline(endNanoTime, totalBytesWritten);
+
+            if (debugLogging) {
+                Log.d(getClass().getSimpleName(), String.format("Upload and measure finished. startTime = %d , endTime = %d , diffTime = %f s, totalBytesWritten = %d , uploadRate = %f kbit/s", startTime, endTime, ((endTime - startTime) / 1000.0), totalBytesWritten, bandwidthResultRecord.getOverallTotalBandwidthMeasure()));
+            }
+        } finally {
+            if (os != null) {
+                os.close();
+            }
+            httpConn.disconnect();
+        }
+
+        return bandwidthResultRecord;
+    }
+
+    @Override
+    protected long getBytesSpentSoFar() {
+        return totalBytesWritten;
+    }
+
+    @Override
+    protected BandwidthResultRecord finishPartialResult(long endNanoTime) {
+        if (bandwidthResultRecord == null || !transferStarted) {
+            return null;
+        }
+        endTime = System.currentTimeMillis();
+        bandwidthResultRecord.finishThroughputTimeline(endNanoTime, totalBytesWritten);
+        return bandwidthResultRecord;
+    }
+
+    @Override
+    protected void onAbort() {
+        HttpURLConnection connection = httpConn;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Read and discard the response body, so that the server does not get a reset connection
+     * @param httpConn the connection the payload has been posted on
+     * @throws IOException if some IOException occurs while reading
+     */
+    private void discardResponseBody(HttpURLConnection httpConn) throws IOException {
+        InputStream is = httpConn.getInputStream();
+        try {
+            byte[] buf = new byte[1024];
+            while (is.read(buf) != -1) {
+                // discard
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Get the number of bytes to be uploaded for the measurement
+     * @return number of bytes to be uploaded
+     */
+    public long getPayloadSize() {
+        return this.payloadSize;
+    }
+}
@@ -1,8 +1,8 @@
 package de.informatik.uni_hamburg.yildiri.funftest.utils;
 
 /**
- * This interface is part of a workaround like solution to implement class local async responses to the finish of an AsyncTask.
- * For this the BandwidthMeasureTool calls processFinish on it's onPostExecute with the resulting BandwidthResultRecord.
+ * This interface is part of a workaround like solution to implement class local async responses to the finish of a measurement running in the background.
+ * For this the MeasurementExecutor calls processFinish on the main thread with the resulting BandwidthResultRecord of the BandwidthMeasureTool. If several triggers have been attached to the same in-flight run, each of them gets the same BandwidthResultRecord.
  * The trick is that the AsyncResponse implementation is delegated via the BandwidthMeasureTool constructor to the target class of interest. That way a class can locally implement the processing of the async response.
  */
 public interface AsyncResponse {
@@ -5,12 +5,71 @@ import java.net.URL;
 /**
  * This is a basic record class to hold the data of a resulting bandwidth measure.
  * For now it is pretty much only used to organize the data neatly and be able to pass it between classes.
+ * The block measures and the overall total are derived from a timeline of (nanoTime, cumulative bytes) samples, which additionally allows to look at windowed, instantaneous, minimum and maximum throughput. Measure tools feed the timeline by calling {@link #startThroughputTimeline(long)}, {@link #addThroughputSample(long, long)} and {@link #finishThroughputTimeline(long, long)}.
+ * While the timeline is fed, the ramp-up phase of the transfer (TCP slow start) is detected online by a {@link RampUpDetector}, so that a steady-state throughput excluding the ramp-up can be reported besides the block measures, which are dominated by the ramp-up on their first blocks.
+ * The number and size of the blocks are not fixed: they are derived from the size of the downloaded file by {@link #configureBlocks(long, int)}, so that small files don't leave empty blocks and large files keep their resolution.
+ * Aborted measurements (stalled, timed out or cancelled) are represented by a partial BandwidthResultRecord, that holds the blocks measured up to the abort and the reason of the abort, see {@link #getAbortReason()}.
+ * Passive measurements don't transfer anything themselves but observe the traffic of the device, see {@link #isPassive()}. Their timeline only covers the periods in which the traffic has saturated the link.
+ * Packet-train estimates don't measure a transfer either but the dispersion of short bursts, see {@link #getTrainCapacities()}. Their overall total is the median capacity of the trains.
  * Failed measurements may also be represented by a non-null BandwidthResultRecord. For this the measurement exception should be passed accordingly by calling the non-default constructor which awaits the exception that has caused the measurement to fail.
  */
 public class BandwidthResultRecord {
 
     /**
-     * The URL of the file that has been downloaded in the measurement
+     * Direction of a measurement that downloads the test file
+     */
+    public static final String DIRECTION_DOWNLOAD = "download";
+    /**
+     * Direction of a measurement that uploads a generated payload
+     */
+    public static final String DIRECTION_UPLOAD = "upload";
+    /**
+     * Estimator of a measurement that has timed an actual transfer
+     */
+    public static final String ESTIMATOR_TRANSFER = "transfer";
+    /**
+     * Estimator of a measurement that has observed the traffic of the device
+     */
+    public static final String ESTIMATOR_PASSIVE = "passive";
+    /**
+     * Estimator of a measurement that has inferred the capacity from the dispersion of packet trains
+     */
+    public static final String ESTIMATOR_PACKET_TRAIN = "packet_train";
+    /**
+     * Abort reason of a measurement that made no progress for longer than the stall timeout
+     */
+    public static final String ABORT_REASON_STALLED = "stalled";
+    /**
+     * Abort reason of a measurement that ran longer than the maximum duration
+     */
+    public static final String ABORT_REASON_TIMEOUT = "timeout";
+    /**
+     * Abort reason of a measurement whose connection did not deliver any data within the read timeout
+     */
+    public static final String ABORT_REASON_READ_TIMEOUT = "read_timeout";
+    /**
+     * Abort reason of a measurement that has been cancelled, e.g. because the probe has been stopped
+     */
+    public static final String ABORT_REASON_CANCELLED = "cancelled";
+    /**
+     * Length in nanoseconds of the intervals whose throughput is compared to detect the end of the ramp-up
+     */
+    public static final long RAMP_UP_INTERVAL_NANOS = 100L * 1000 * 1000;
+    /**
+     * Relative growth over the best interval so far, below which an interval counts as not ramping up anymore
+     */
+    public static final double RAMP_UP_GROWTH_THRESHOLD = 0.1;
+    /**
+     * Number of consecutive intervals without growth after which the ramp-up is considered to be over
+     */
+    public static final int RAMP_UP_PLATEAU_INTERVALS = 3;
+
+    /**
+     * Direction of the measurement, either {@link #DIRECTION_DOWNLOAD} or {@link #DIRECTION_UPLOAD}
+     */
+    private String direction = DIRECTION_DOWNLOAD;
+    /**
+     * The URL of the file that has been downloaded in the measurement (or the URL the payload has been uploaded to)
      */
     private URL fileURL;
     /**
@@ -18,19 +77,145 @@ public class BandwidthResultRecord {
      */
     private long fileSize;
 
+    /**
+     * Default maximum number of blocks, for which micro measurements are gathered
+     */
+    public static final int DEFAULT_BLOCK_COUNT = 20;
+    /**
+     * Smallest block size in bytes. Block sizes are always a multiple of this size.
+     */
+    public static final int DEFAULT_BLOCK_SIZE_IN_BYTES = 100 * 1000;
+
     /**
      * The number of blocks, for which micro measurements were gathered
      */
-    private final int BANDWIDTH_BLOCK_RECORDS = 20;
+    private int blockCount;
+    /**
+     * Array that holds all the bandwidth measures. For i = 0, ..., blockCount - 1 it holds the bandwidth measures of the first (i+1) * blockSizeInBytes - e.g 0 - 100KB, 1 - 200KB, etc. for a block size of 100 KB.
+     * Lastly, i = {@link #getTotalBandwidthIndex()} holds the overall total bandwidth
+     */
+    private double[] bandwidthMeasures;
+    /**
+     * Throughput in kbit/s of each single connection, if the measurement was run over multiple concurrent connections. Empty for single connection measurements.
+     */
+    private double[] streamBandwidthMeasures = new double[0];
+    /**
+     * Capacity in kbit/s estimated from each packet train, if the measurement was a packet-train estimate. Empty for other measurements.
+     */
+    private double[] trainCapacities = new double[0];
+    /**
+     * Timeline of the throughput samples taken while measuring
+     */
+    private ThroughputTimeline throughputTimeline = new ThroughputTimeline();
+    /**
+     * Time in nanoseconds when the transfer of the measurement has started
+     */
+    private long startNanoTime;
+    /**
+     * Time in nanoseconds when the transfer of the measurement has completed
+     */
+    private long endNanoTime;
+    /**
+     * Size in bytes of the blocks for which micro measurements are derived from the timeline
+     */
+    private int blockSizeInBytes;
+    /**
+     * Index of the next block measure to be derived from the timeline
+     */
+    private int nextBlockIndex;
+    /**
+     * Detects the end of the ramp-up phase from the throughput of consecutive intervals of the timeline
+     */
+    private RampUpDetector rampUpDetector = new RampUpDetector(RAMP_UP_GROWTH_THRESHOLD, RAMP_UP_PLATEAU_INTERVALS);
+    /**
+     * Time in nanoseconds when the current ramp-up interval has started
+     */
+    private long rampUpIntervalStartNanoTime;
+    /**
+     * Bytes transferred in total when the current ramp-up interval has started
+     */
+    private long rampUpIntervalStartBytes;
+    /**
+     * Time in nanoseconds when the current run of intervals without growth has started
+     */
+    private long plateauStartNanoTime;
+    /**
+     * Bytes transferred in total when the current run of intervals without growth has started
+     */
+    private long plateauStartBytes;
+    /**
+     * Whether the end of the ramp-up phase has been detected
+     */
+    private boolean steadyStateDetected = false;
+    /**
+     * Time in nanoseconds when the steady state has been reached, only valid if {@link #steadyStateDetected}
+     */
+    private long steadyStateStartNanoTime;
+    /**
+     * Bytes transferred in total when the steady state has been reached, only valid if {@link #steadyStateDetected}
+     */
+    private long steadyStateStartBytes;
+    /**
+     * Throughput in kbit/s after the ramp-up phase, 0 if the end of the ramp-up has not been detected
+     */
+    private double steadyStateBandwidth = 0;
+    /**
+     * Whether the transfer ran over a connection that had been warmed up by a priming transfer before
+     */
+    private boolean warmConnection = false;
+    /**
+     * Bytes actually transferred in the measurement. Less than the file size if the transfer has ended early.
+     */
+    private long bytesTransferred;
+    /**
+     * Bytes transferred besides the measured ones, e.g. by a priming transfer that has warmed up the connection
+     */
+    private long overheadBytes;
+    /**
+     * Whether the measurement has observed the traffic of the device instead of transferring data of its own
+     */
+    private boolean passive = false;
+    /**
+     * Duration in nanoseconds the traffic has been observed by a passive measurement, 0 for active measurements
+     */
+    private long observationNanos;
+    /**
+     * Whether the overall total of a passive measurement is only a lower bound of the capacity, since the saturation of the link could not be checked against a known capacity
+     */
+    private boolean lowerBound = false;
+    /**
+     * Whether the transfer has been terminated early, because the throughput estimate had converged
+     */
+    private boolean endedEarly = false;
+    /**
+     * The converged throughput estimate in kbit/s the transfer has been terminated early on, 0 if the transfer has not ended early
+     */
+    private double convergedBandwidth;
+    /**
+     * Duration in nanoseconds of the DNS resolution of the host, -1 if not measured
+     */
+    private long dnsNanos = -1;
+    /**
+     * Whether the DNS resolution has been answered from a cache, so that its duration can't be compared to uncached lookups
+     */
+    private boolean dnsCached;
+    /**
+     * Duration in nanoseconds of the TCP connect to the host, -1 if not measured
+     */
+    private long tcpConnectNanos = -1;
+    /**
+     * Duration in nanoseconds of the TLS handshake with the host, -1 if not measured (e.g. for plain http)
+     */
+    private long tlsHandshakeNanos = -1;
     /**
-     * The index for the bandwidthMeasures array, where the value for the overall total bandwidth is going to be stored
+     * Time in nanoseconds from sending the request until the response headers have arrived, -1 if not measured
      */
-    public final int TOTAL_BANDWIDTH_INDEX = BANDWIDTH_BLOCK_RECORDS; // interpreted as index - so the overall total bandwidth is the very last entry in the array
+    private long timeToFirstByteNanos = -1;
+
     /**
-     * Array that holds all the bandwidth measures. For i = 0, ..., 19 it holds the bandwidth measures of the (i+1) * 100 KB - e.g 0 - 100KB, 1 - 200KB, etc.
-     * Lastly, i = {@link de.informatik.uni_hamburg.yildiri.funftest.utils.BandwidthResultRecord#TOTAL_BANDWIDTH_INDEX}  holds the overall total bandwidth
+     * Reason why the measurement has been aborted, one of the ABORT_REASON_* constants, or null if the measurement has not been aborted
      */
-    private double[] bandwidthMeasures = new double[BANDWIDTH_BLOCK_RECORDS + 1];
+    private String abortReason = null;
 
     /**
      * If the measurement failed for some reasons, an exception will be thrown and saved in this field. Whenever <code>measurementException != null</code> the measurement can be interpreted as failed.
@@ -39,6 +224,7 @@ public class BandwidthResultRecord {
 
 
     public BandwidthResultRecord() {
+        setBlockLayout(DEFAULT_BLOCK_COUNT, DEFAULT_BLOCK_SIZE_IN_BYTES);
     }
 
     /**
@@ -47,9 +233,99 @@ public class BandwidthResultRecord {
      * @param measurementException exception that has been thrown while measuring
      */
     public BandwidthResultRecord(Exception measurementException) {
+        this();
         setMeasurementException(measurementException);
     }
 
+    /**
+     * Derive the number and size of the blocks from the size of the file to be downloaded. Drops all block measures recorded before.
+     * The block size is the smallest multiple of {@link #DEFAULT_BLOCK_SIZE_IN_BYTES} for which at most maxBlockCount blocks fit into the file, and only blocks that are completely covered by the file are measured.
+     * If the file size is unknown, maxBlockCount blocks of {@link #DEFAULT_BLOCK_SIZE_IN_BYTES} are measured.
+     *
+     * @param fileSize      size of the file to be downloaded in bytes, or a value &lt;= 0 if unknown
+     * @param maxBlockCount maximum number of blocks to be measured
+     */
+    public void configureBlocks(long fileSize, int maxBlockCount) {
+        if (maxBlockCount < 1) {
+            throw new IllegalArgumentException("maxBlockCount has to be at least 1 (was " + maxBlockCount + ")");
+        }
+        if (fileSize <= 0) {
+            setBlockLayout(maxBlockCount, DEFAULT_BLOCK_SIZE_IN_BYTES);
+            return;
+        }
+        long defaultBlocksPerBlock = (long) Math.ceil((double) fileSize / ((long) maxBlockCount * DEFAULT_BLOCK_SIZE_IN_BYTES));
+        int blockSize = (int) Math.max(1, defaultBlocksPerBlock) * DEFAULT_BLOCK_SIZE_IN_BYTES;
+        setBlockLayout((int) Math.min(maxBlockCount, fileSize / blockSize), blockSize);
+    }
+
+    /**
+     * Set the number and size of the blocks. Drops all block measures recorded before.
+     *
+     * @param blockCount       number of blocks to be measured
+     * @param blockSizeInBytes size of a block in bytes
+     */
+    private void setBlockLayout(int blockCount, int blockSizeInBytes) {
+        this.blockCount = blockCount;
+        this.blockSizeInBytes = blockSizeInBytes;
+        this.bandwidthMeasures = new double[blockCount + 1];
+        this.nextBlockIndex = 0;
+    }
+
+    /**
+     * Get the number of blocks, for which micro measurements are gathered
+     *
+     * @return number of blocks
+     */
+    public int getBlockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * Get the size of the blocks, for which micro measurements are gathered
+     *
+     * @return size of a block in bytes
+     */
+    public int getBlockSizeInBytes() {
+        return this.blockSizeInBytes;
+    }
+
+    /**
+     * Get the number of bytes after which a block has finished, i.e. the amount of data the block measure covers
+     *
+     * @param index index of the block
+     * @return bytes covered by the block measure
+     */
+    public long getBlockEndBytes(int index) {
+        return (long) (index + 1) * blockSizeInBytes;
+    }
+
+    /**
+     * Get the index for the bandwidth measures, where the value for the overall total bandwidth is stored. It is the very last entry after all the blocks.
+     *
+     * @return index of the overall total bandwidth
+     */
+    public int getTotalBandwidthIndex() {
+        return this.blockCount;
+    }
+
+    /**
+     * Set the direction of the measurement
+     *
+     * @param direction either {@link #DIRECTION_DOWNLOAD} or {@link #DIRECTION_UPLOAD}
+     */
+    public void setDirection(String direction) {
+        this.direction = direction;
+    }
+
+    /**
+     * Get the direction of the measurement
+     *
+     * @return either {@link #DIRECTION_DOWNLOAD} or {@link #DIRECTION_UPLOAD}
+     */
+    public String getDirection() {
+        return this.direction;
+    }
+
     /**
      * Set the URL of the file that has been downloaded in the measurement
      *
@@ -114,7 +390,435 @@ public class BandwidthResultRecord {
      * @return total overall bandwidth of the measurement in kbit/s
      */
     public double getOverallTotalBandwidthMeasure() {
-        return getBandwidthMeasure(TOTAL_BANDWIDTH_INDEX);
+        return getBandwidthMeasure(getTotalBandwidthIndex());
+    }
+
+    /**
+     * Start the throughput timeline of the measurement. Drops all samples and block measures recorded before.
+     *
+     * @param startNanoTime time in nanoseconds when the transfer has started, as returned by {@link System#nanoTime()}
+     */
+    public void startThroughputTimeline(long startNanoTime) {
+        this.startNanoTime = startNanoTime;
+        this.endNanoTime = startNanoTime;
+        this.nextBlockIndex = 0;
+        throughputTimeline.clear();
+        throughputTimeline.addSample(startNanoTime, 0);
+        rampUpDetector.clear();
+        rampUpIntervalStartNanoTime = startNanoTime;
+        rampUpIntervalStartBytes = 0;
+        steadyStateDetected = false;
+        steadyStateBandwidth = 0;
+    }
+
+    /**
+     * Add a sample to the throughput timeline and derive the measures of all blocks that have been completed by this sample.
+     * As long as the ramp-up is going on, the sample also closes the current ramp-up interval if it has lasted long enough.
+     *
+     * @param nanoTime        time in nanoseconds of the sample, as returned by {@link System#nanoTime()}
+     * @param cumulativeBytes bytes transferred in total up to this point
+     */
+    public void addThroughputSample(long nanoTime, long cumulativeBytes) {
+        throughputTimeline.addSample(nanoTime, cumulativeBytes);
+        while (nextBlockIndex < blockCount && cumulativeBytes >= getBlockEndBytes(nextBlockIndex)) {
+            setBandwidthMeasure(nextBlockIndex, ThroughputTimeline.calcThroughput(startNanoTime, nanoTime, cumulativeBytes));
+            nextBlockIndex++;
+        }
+        if (!steadyStateDetected && nanoTime - rampUpIntervalStartNanoTime >= RAMP_UP_INTERVAL_NANOS) {
+            double intervalThroughput = ThroughputTimeline.calcThroughput(rampUpIntervalStartNanoTime, nanoTime, cumulativeBytes - rampUpIntervalStartBytes);
+            boolean rampUpEnded = rampUpDetector.addIntervalThroughput(intervalThroughput);
+            if (rampUpDetector.getFlatIntervalCount() == 1) {
+                // This interval might be the first one of the plateau
+                plateauStartNanoTime = rampUpIntervalStartNanoTime;
+                plateauStartBytes = rampUpIntervalStartBytes;
+            }
+            if (rampUpEnded) {
+                steadyStateDetected = true;
+                steadyStateStartNanoTime = plateauStartNanoTime;
+                steadyStateStartBytes = plateauStartBytes;
+            }
+            rampUpIntervalStartNanoTime = nanoTime;
+            rampUpIntervalStartBytes = cumulativeBytes;
+        }
+    }
+
+    /**
+     * Add the last sample to the throughput timeline and derive the overall total bandwidth and the steady-state throughput from it
+     *
+     * @param endNanoTime time in nanoseconds when the transfer has completed, as returned by {@link System#nanoTime()}
+     * @param totalBytes  bytes transferred in total
+     */
+    public void finishThroughputTimeline(long endNanoTime, long totalBytes) {
+        addThroughputSample(endNanoTime, totalBytes);
+        this.endNanoTime = endNanoTime;
+        this.bytesTransferred = totalBytes;
+        setBandwidthMeasure(getTotalBandwidthIndex(), ThroughputTimeline.calcThroughput(startNanoTime, endNanoTime, totalBytes));
+        if (steadyStateDetected && endNanoTime > steadyStateStartNanoTime) {
+            steadyStateBandwidth = ThroughputTimeline.calcThroughput(steadyStateStartNanoTime, endNanoTime, totalBytes - steadyStateStartBytes);
+        }
+    }
+
+    /**
+     * Get the throughput after the ramp-up phase of the transfer, i.e. excluding the TCP slow start
+     *
+     * @return steady-state throughput in kbit/s, 0 if the end of the ramp-up has not been detected (e.g. because the transfer has been too short)
+     */
+    public double getSteadyStateBandwidth() {
+        return this.steadyStateBandwidth;
+    }
+
+    /**
+     * Get the duration of the ramp-up phase of the transfer
+     *
+     * @return duration of the ramp-up in nanoseconds, -1 if the end of the ramp-up has not been detected
+     */
+    public long getRampUpNanos() {
+        return steadyStateDetected ? steadyStateStartNanoTime - startNanoTime : -1;
+    }
+
+    /**
+     * Set whether the transfer ran over a connection that had been warmed up by a priming transfer before
+     *
+     * @param warmConnection whether the connection had been warmed up
+     */
+    public void setWarmConnection(boolean warmConnection) {
+        this.warmConnection = warmConnection;
+    }
+
+    /**
+     * Get whether the transfer ran over a connection that had been warmed up by a priming transfer before
+     *
+     * @return whether the connection had been warmed up
+     */
+    public boolean isWarmConnection() {
+        return this.warmConnection;
+    }
+
+    /**
+     * Get the timeline of the throughput samples taken while measuring
+     *
+     * @return timeline of the throughput samples
+     */
+    public ThroughputTimeline getThroughputTimeline() {
+        return this.throughputTimeline;
+    }
+
+    /**
+     * Get the duration of the transfer of the measurement
+     *
+     * @return duration of the transfer in nanoseconds
+     */
+    public long getTransferDurationNanos() {
+        return this.endNanoTime - this.startNanoTime;
+    }
+
+    /**
+     * Get the throughput over the most recent window of the measurement
+     *
+     * @param windowNanos length of the window in nanoseconds
+     * @return throughput over the window in kbit/s
+     */
+    public double getWindowedThroughput(long windowNanos) {
+        return throughputTimeline.getWindowedThroughput(windowNanos);
+    }
+
+    /**
+     * Get the throughput between the last two samples of the measurement
+     *
+     * @return instantaneous throughput in kbit/s
+     */
+    public double getInstantaneousThroughput() {
+        return throughputTimeline.getInstantaneousThroughput();
+    }
+
+    /**
+     * Get the minimum throughput over all windows of at least the given length. Reveals stalls that are hidden by the cumulative block measures.
+     *
+     * @param windowNanos minimum length of the windows in nanoseconds
+     * @return minimum windowed throughput in kbit/s
+     */
+    public double getMinThroughput(long windowNanos) {
+        return throughputTimeline.getMinThroughput(windowNanos);
+    }
+
+    /**
+     * Get the maximum throughput over all windows of at least the given length. Reveals bursts that are hidden by the cumulative block measures.
+     *
+     * @param windowNanos minimum length of the windows in nanoseconds
+     * @return maximum windowed throughput in kbit/s
+     */
+    public double getMaxThroughput(long windowNanos) {
+        return throughputTimeline.getMaxThroughput(windowNanos);
+    }
+
+    /**
+     * Get the bytes actually transferred in the measurement
+     *
+     * @return bytes actually transferred - less than the file size if the transfer has ended early
+     */
+    public long getBytesTransferred() {
+        return this.bytesTransferred;
+    }
+
+    /**
+     * Set the bytes transferred besides the measured ones
+     *
+     * @param overheadBytes bytes transferred besides the measured ones, e.g. by a priming transfer
+     */
+    public void setOverheadBytes(long overheadBytes) {
+        this.overheadBytes = overheadBytes;
+    }
+
+    /**
+     * Get the bytes transferred besides the measured ones
+     *
+     * @return bytes transferred besides the measured ones, e.g. by a priming transfer
+     */
+    public long getOverheadBytes() {
+        return this.overheadBytes;
+    }
+
+    /**
+     * Get all the bytes the measurement has spent, i.e. the measured bytes plus the overhead. The bytes observed by a passive measurement haven't been spent by it.
+     *
+     * @return bytes spent by the measurement
+     */
+    public long getBytesSpent() {
+        return this.passive ? this.overheadBytes : this.bytesTransferred + this.overheadBytes;
+    }
+
+    /**
+     * Note that the measurement has observed the traffic of the device instead of transferring data of its own
+     *
+     * @param observationNanos duration in nanoseconds the traffic has been observed
+     * @param lowerBound       whether the overall total is only a lower bound of the capacity, since the saturation of the link could not be checked against a known capacity
+     */
+    public void setPassive(long observationNanos, boolean lowerBound) {
+        this.passive = true;
+        this.observationNanos = observationNanos;
+        this.lowerBound = lowerBound;
+    }
+
+    /**
+     * Get whether the overall total is only a lower bound of the capacity, e.g. of a passive measurement that may have observed traffic limited by the applications
+     *
+     * @return whether the overall total is only a lower bound
+     */
+    public boolean isLowerBound() {
+        return this.lowerBound;
+    }
+
+    /**
+     * Get whether the measurement has observed the traffic of the device instead of transferring data of its own
+     *
+     * @return whether the measurement has been passive
+     */
+    public boolean isPassive() {
+        return this.passive;
+    }
+
+    /**
+     * Set the capacity estimated from each packet train of a packet-train estimate
+     *
+     * @param trainCapacities the capacity estimated from each train in kbit/s
+     */
+    public void setTrainCapacities(double[] trainCapacities) {
+        this.trainCapacities = trainCapacities;
+    }
+
+    /**
+     * Get the capacity estimated from each packet train of a packet-train estimate
+     *
+     * @return the capacity estimated from each train in kbit/s - empty if the measurement was no packet-train estimate
+     */
+    public double[] getTrainCapacities() {
+        return this.trainCapacities;
+    }
+
+    /**
+     * Get the kind of estimator the measurement has been taken with, so that the results of different estimators can be told apart and calibrated against each other
+     *
+     * @return one of {@link #ESTIMATOR_TRANSFER}, {@link #ESTIMATOR_PASSIVE} or {@link #ESTIMATOR_PACKET_TRAIN}
+     */
+    public String getEstimator() {
+        if (this.passive) {
+            return ESTIMATOR_PASSIVE;
+        }
+        return this.trainCapacities.length > 0 ? ESTIMATOR_PACKET_TRAIN : ESTIMATOR_TRANSFER;
+    }
+
+    /**
+     * Get the duration the traffic has been observed by a passive measurement
+     *
+     * @return duration in nanoseconds, 0 for active measurements
+     */
+    public long getObservationNanos() {
+        return this.observationNanos;
+    }
+
+    /**
+     * Note that the transfer has been terminated early, because the throughput estimate had converged
+     *
+     * @param convergedBandwidth the converged throughput estimate in kbit/s
+     */
+    public void setEndedEarly(double convergedBandwidth) {
+        this.endedEarly = true;
+        this.convergedBandwidth = convergedBandwidth;
+    }
+
+    /**
+     * Get whether the transfer has been terminated early, because the throughput estimate had converged
+     *
+     * @return whether the transfer has been terminated early
+     */
+    public boolean hasEndedEarly() {
+        return this.endedEarly;
+    }
+
+    /**
+     * Get the converged throughput estimate the transfer has been terminated early on
+     *
+     * @return converged throughput estimate in kbit/s, 0 if the transfer has not ended early
+     */
+    public double getConvergedBandwidth() {
+        return this.convergedBandwidth;
+    }
+
+    /**
+     * Set the duration of the DNS resolution of the host
+     *
+     * @param dnsNanos  duration of the DNS resolution in nanoseconds
+     * @param dnsCached whether the resolution has been answered from a cache
+     */
+    public void setDnsResolution(long dnsNanos, boolean dnsCached) {
+        this.dnsNanos = dnsNanos;
+        this.dnsCached = dnsCached;
+    }
+
+    /**
+     * Get the duration of the DNS resolution of the host
+     *
+     * @return duration of the DNS resolution in nanoseconds, -1 if not measured
+     */
+    public long getDnsNanos() {
+        return this.dnsNanos;
+    }
+
+    /**
+     * Get whether the DNS resolution has been answered from a cache
+     *
+     * @return whether the DNS resolution has been answered from a cache
+     */
+    public boolean isDnsCached() {
+        return this.dnsCached;
+    }
+
+    /**
+     * Set the duration of the TCP connect to the host
+     *
+     * @param tcpConnectNanos duration of the TCP connect in nanoseconds
+     */
+    public void setTcpConnectNanos(long tcpConnectNanos) {
+        this.tcpConnectNanos = tcpConnectNanos;
+    }
+
+    /**
+     * Get the duration of the TCP connect to the host
+     *
+     * @return duration of the TCP connect in nanoseconds, -1 if not measured
+     */
+    public long getTcpConnectNanos() {
+        return this.tcpConnectNanos;
+    }
+
+    /**
+     * Set the duration of the TLS handshake with the host
+     *
+     * @param tlsHandshakeNanos duration of the TLS handshake in nanoseconds
+     */
+    public void setTlsHandshakeNanos(long tlsHandshakeNanos) {
+        this.tlsHandshakeNanos = tlsHandshakeNanos;
+    }
+
+    /**
+     * Get the duration of the TLS handshake with the host
+     *
+     * @return duration of the TLS handshake in nanoseconds, -1 if not measured (e.g. for plain http)
+     */
+    public long getTlsHandshakeNanos() {
+        return this.tlsHandshakeNanos;
+    }
+
+    /**
+     * Set the time from sending the request until the response headers have arrived
+     *
+     * @param timeToFirstByteNanos time to first byte in nanoseconds
+     */
+    public void setTimeToFirstByteNanos(long timeToFirstByteNanos) {
+        this.timeToFirstByteNanos = timeToFirstByteNanos;
+    }
+
+    /**
+     * Get the time from sending the request until the response headers have arrived
+     *
+     * @return time to first byte in nanoseconds, -1 if not measured
+     */
+    public long getTimeToFirstByteNanos() {
+        return this.timeToFirstByteNanos;
+    }
+
+    /**
+     * Set the throughput of each single connection of a measurement that was run over multiple concurrent connections
+     *
+     * @param streamBandwidthMeasures the throughput of each connection in kbit/s
+     */
+    public void setStreamBandwidthMeasures(double[] streamBandwidthMeasures) {
+        this.streamBandwidthMeasures = streamBandwidthMeasures;
+    }
+
+    /**
+     * Get the throughput of each single connection of a measurement that was run over multiple concurrent connections
+     *
+     * @return the throughput of each connection in kbit/s - empty if the measurement was run over a single connection
+     */
+    public double[] getStreamBandwidthMeasures() {
+        return this.streamBandwidthMeasures;
+    }
+
+    /**
+     * Get the number of concurrent connections the measurement was run over
+     *
+     * @return number of concurrent connections
+     */
+    public int getStreamCount() {
+        return Math.max(1, this.streamBandwidthMeasures.length);
+    }
+
+    /**
+     * Note that the measurement has been aborted. The measures recorded so far only cover the data transferred up to the abort.
+     *
+     * @param abortReason one of the ABORT_REASON_* constants
+     */
+    public void setAborted(String abortReason) {
+        this.abortReason = abortReason;
+    }
+
+    /**
+     * Get whether the measurement has been aborted before the transfer has completed
+     *
+     * @return whether the measurement has been aborted
+     */
+    public boolean isAborted() {
+        return this.abortReason != null;
+    }
+
+    /**
+     * Get the reason why the measurement has been aborted
+     *
+     * @return one of the ABORT_REASON_* constants, or null if the measurement has not been aborted
+     */
+    public String getAbortReason() {
+        return this.abortReason;
     }
 
     /**
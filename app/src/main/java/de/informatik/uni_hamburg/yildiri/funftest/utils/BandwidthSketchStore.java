@@ -0,0 +1,181 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * In-app aggregator of the bandwidth results. For every direction and connection type it keeps one {@link ThroughputSketch} of the overall total bandwidths per day, so that questions like "what is the P10/P50/P95 throughput on WiFi vs mobile this week" can be answered without scanning the archived databases.
+ * The daily sketches are persisted compactly in private shared preferences as soon as a result has been added. Queries over a period merge the daily sketches within it. Sketches older than {@link #RETENTION_DAYS} are dropped.
+ */
+public class BandwidthSketchStore {
+
+    /**
+     * Number of days the daily sketches are kept
+     */
+    public static final int RETENTION_DAYS = 8 * 7;
+
+    /**
+     * Name of the shared preferences the sketches are persisted in
+     */
+    private static final String PREFERENCES_NAME = "bandwidth_sketches";
+
+    /**
+     * The single instance of this class
+     */
+    private static BandwidthSketchStore instance;
+
+    /**
+     * Shared preferences the sketches are persisted in
+     */
+    private final SharedPreferences sharedPreferences;
+    /**
+     * The daily sketches by their key, see {@link #getSketchKey(String, int, long)}. Loaded lazily on first use, guarded by this store instance.
+     */
+    private Map<String, ThroughputSketch> dailySketches;
+
+    private BandwidthSketchStore(Context context) {
+        sharedPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Get the single instance of the sketch store
+     *
+     * @param context the context of the app
+     * @return the sketch store
+     */
+    public static synchronized BandwidthSketchStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new BandwidthSketchStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Add the overall total bandwidth of a measurement to the sketch of the current day and persist that sketch
+     *
+     * @param bandwidthResultRecord results of the measurement
+     * @param connectionType        type of the connection the measurement was run on
+     */
+    public synchronized void addResult(BandwidthResultRecord bandwidthResultRecord, int connectionType) {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+        String key = getSketchKey(bandwidthResultRecord.getDirection(), connectionType, LocalDays.getDayIndex(now));
+        ThroughputSketch sketch = dailySketches.get(key);
+        if (sketch == null) {
+            sketch = new ThroughputSketch();
+            dailySketches.put(key, sketch);
+        }
+        sketch.add(bandwidthResultRecord.getOverallTotalBandwidthMeasure());
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putString(key, Base64.encodeToString(sketch.toByteArray(), Base64.NO_WRAP));
+        removeExpiredSketches(LocalDays.getDayIndex(now) - RETENTION_DAYS, editor);
+        editor.apply();
+    }
+
+    /**
+     * Get the merged sketch of all results of a direction and connection type within the given period
+     *
+     * @param direction      either {@link BandwidthResultRecord#DIRECTION_DOWNLOAD} or {@link BandwidthResultRecord#DIRECTION_UPLOAD}
+     * @param connectionType type of the connection
+     * @param fromMillis     start of the period as wall clock time in milliseconds
+     * @param toMillis       end of the period as wall clock time in milliseconds
+     * @return the merged sketch, empty if there are no results within the period
+     */
+    public synchronized ThroughputSketch getSketch(String direction, int connectionType, long fromMillis, long toMillis) {
+        ensureLoaded();
+        ThroughputSketch merged = new ThroughputSketch();
+        for (long day = LocalDays.getDayIndex(fromMillis); day <= LocalDays.getDayIndex(toMillis); day++) {
+            ThroughputSketch sketch = dailySketches.get(getSketchKey(direction, connectionType, day));
+            if (sketch != null) {
+                merged.merge(sketch);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Get the merged sketch of all results of a direction and connection type within the last days, including today
+     *
+     * @param direction      either {@link BandwidthResultRecord#DIRECTION_DOWNLOAD} or {@link BandwidthResultRecord#DIRECTION_UPLOAD}
+     * @param connectionType type of the connection
+     * @param days           number of days, e.g. 7 for the last week
+     * @return the merged sketch, empty if there are no results within the last days
+     */
+    public ThroughputSketch getSketchOfLastDays(String direction, int connectionType, int days) {
+        long now = System.currentTimeMillis();
+        return getSketch(direction, connectionType, now - (days - 1) * LocalDays.DAY_MILLIS, now);
+    }
+
+    /**
+     * Load all persisted sketches, if not done yet. Sketches that can't be restored are dropped.
+     */
+    private void ensureLoaded() {
+        if (dailySketches != null) {
+            return;
+        }
+        dailySketches = new HashMap<String, ThroughputSketch>();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            try {
+                dailySketches.put(entry.getKey(), ThroughputSketch.fromByteArray(Base64.decode((String) entry.getValue(), Base64.NO_WRAP)));
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Dropping the corrupt sketch " + entry.getKey() + " (" + e + ")");
+            } catch (IllegalArgumentException e) {
+                Log.w(getClass().getSimpleName(), "Dropping the corrupt sketch " + entry.getKey() + " (" + e + ")");
+            }
+        }
+    }
+
+    /**
+     * Remove all sketches of the days before the given day from memory and the shared preferences
+     *
+     * @param firstDayToKeep index of the first day whose sketches are kept
+     * @param editor         editor of the shared preferences to remove the sketches with
+     */
+    private void removeExpiredSketches(long firstDayToKeep, SharedPreferences.Editor editor) {
+        Iterator<String> keys = dailySketches.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (getDayIndexOfKey(key) < firstDayToKeep) {
+                keys.remove();
+                editor.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get the key a daily sketch is stored with
+     *
+     * @param direction      direction of the measurements
+     * @param connectionType type of the connection
+     * @param dayIndex       index of the day, see {@link LocalDays#getDayIndex(long)}
+     * @return key of the sketch, e.g. "download_1_16725"
+     */
+    private static String getSketchKey(String direction, int connectionType, long dayIndex) {
+        return direction + "_" + connectionType + "_" + dayIndex;
+    }
+
+    /**
+     * Get the index of the day a sketch key belongs to
+     *
+     * @param sketchKey key of the sketch
+     * @return index of the day, or Long.MIN_VALUE if the key is malformed
+     */
+    private static long getDayIndexOfKey(String sketchKey) {
+        try {
+            return Long.parseLong(sketchKey.substring(sketchKey.lastIndexOf('_') + 1));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+/**
+ * Detects when a running throughput estimate has become stable. It keeps the most recent estimates in a preallocated ring buffer and considers the estimate converged once all of them lie within a relative band around their mean.
+ */
+public class ConvergenceDetector {
+
+    /**
+     * The most recent estimates
+     */
+    private final double[] estimates;
+    /**
+     * Relative half-width of the band around the mean all estimates have to lie within, e.g. 0.05 for +/- 5%
+     */
+    private final double relativeBand;
+    /**
+     * Index where the next estimate is going to be written to
+     */
+    private int head = 0;
+    /**
+     * Number of estimates currently held
+     */
+    private int count = 0;
+
+    /**
+     *
+     * @param estimateCount number of consecutive estimates that have to lie within the band
+     * @param relativeBand  relative half-width of the band around the mean, e.g. 0.05 for +/- 5%
+     */
+    public ConvergenceDetector(int estimateCount, double relativeBand) {
+        if (estimateCount < 2) {
+            throw new IllegalArgumentException("estimateCount has to be at least 2 (was " + estimateCount + ")");
+        }
+        if (relativeBand <= 0) {
+            throw new IllegalArgumentException("relativeBand has to be positive (was " + relativeBand + ")");
+        }
+        this.estimates = new double[estimateCount];
+        this.relativeBand = relativeBand;
+    }
+
+    /**
+     * Add the next estimate
+     *
+     * @param estimate the current throughput estimate
+     * @return whether the estimate has converged
+     */
+    public boolean addEstimate(double estimate) {
+        estimates[head] = estimate;
+        head = (head + 1) % estimates.length;
+        if (count < estimates.length) {
+            count++;
+        }
+        return hasConverged();
+    }
+
+    /**
+     * Get whether all of the most recent estimates lie within the band around their mean
+     *
+     * @return whether the estimate has converged
+     */
+    public boolean hasConverged() {
+        if (count < estimates.length) {
+            return false;
+        }
+        double mean = getEstimate();
+        if (mean <= 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(estimates[i] - mean) > relativeBand * mean) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the mean of the most recent estimates
+     *
+     * @return mean of the most recent estimates, 0 if there are none
+     */
+    public double getEstimate() {
+        if (count == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += estimates[i];
+        }
+        return sum / count;
+    }
+
+    /**
+     * Remove all estimates
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+}
@@ -0,0 +1,27 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import java.util.TimeZone;
+
+/**
+ * Calendar arithmetic on local days, shared by everything that accounts per day, e.g. the data budget and the daily bandwidth sketches, so that they agree on when a day starts.
+ */
+public final class LocalDays {
+
+    /**
+     * Length of a day in milliseconds
+     */
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private LocalDays() {
+    }
+
+    /**
+     * Get the index of the local day a point in time belongs to, counted from the epoch
+     *
+     * @param timeMillis wall clock time in milliseconds
+     * @return index of the day
+     */
+    public static long getDayIndex(long timeMillis) {
+        return (timeMillis + TimeZone.getDefault().getOffset(timeMillis)) / DAY_MILLIS;
+    }
+}
@@ -0,0 +1,93 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+/**
+ * Detects the end of the ramp-up phase of a transfer, i.e. of the TCP slow start. While the congestion window is still growing, the throughput of consecutive intervals keeps rising. The ramp-up is considered to be over once the throughput has not exceeded its best value so far by more than a relative growth threshold for a number of consecutive intervals.
+ */
+public class RampUpDetector {
+
+    /**
+     * Relative growth over the best throughput so far an interval has to exceed to count as still ramping up, e.g. 0.1 for 10%
+     */
+    private final double growthThreshold;
+    /**
+     * Number of consecutive intervals without growth after which the ramp-up is over
+     */
+    private final int plateauIntervalCount;
+    /**
+     * Best throughput of all intervals so far
+     */
+    private double bestThroughput = 0;
+    /**
+     * Number of consecutive intervals without growth up to now
+     */
+    private int flatIntervalCount = 0;
+    /**
+     * Whether the ramp-up has ended
+     */
+    private boolean rampUpEnded = false;
+
+    /**
+     *
+     * @param growthThreshold      relative growth over the best throughput so far an interval has to exceed to count as still ramping up, e.g. 0.1 for 10%
+     * @param plateauIntervalCount number of consecutive intervals without growth after which the ramp-up is over
+     */
+    public RampUpDetector(double growthThreshold, int plateauIntervalCount) {
+        if (growthThreshold <= 0) {
+            throw new IllegalArgumentException("growthThreshold has to be positive (was " + growthThreshold + ")");
+        }
+        if (plateauIntervalCount < 1) {
+            throw new IllegalArgumentException("plateauIntervalCount has to be at least 1 (was " + plateauIntervalCount + ")");
+        }
+        this.growthThreshold = growthThreshold;
+        this.plateauIntervalCount = plateauIntervalCount;
+    }
+
+    /**
+     * Add the throughput of the next interval. Intervals before the first data has arrived are not counted.
+     *
+     * @param throughput throughput of the interval
+     * @return whether the ramp-up has ended
+     */
+    public boolean addIntervalThroughput(double throughput) {
+        if (rampUpEnded) {
+            return true;
+        }
+        if (bestThroughput <= 0 || throughput > bestThroughput * (1 + growthThreshold)) {
+            bestThroughput = Math.max(bestThroughput, throughput);
+            flatIntervalCount = 0;
+            return false;
+        }
+        bestThroughput = Math.max(bestThroughput, throughput);
+        if (++flatIntervalCount >= plateauIntervalCount) {
+            rampUpEnded = true;
+        }
+        return rampUpEnded;
+    }
+
+    /**
+     * Get the number of consecutive intervals without growth up to now. 1 means that the last interval has been the first one of a possible plateau.
+     *
+     * @return number of consecutive intervals without growth
+     */
+    public int getFlatIntervalCount() {
+        return this.flatIntervalCount;
+    }
+
+    /**
+     * Get whether the ramp-up has ended
+     *
+     * @return whether the ramp-up has ended
+     */
+    public boolean hasRampUpEnded() {
+        return this.rampUpEnded;
+    }
+
+    /**
+     * Forget all intervals added so far
+     */
+    public void clear() {
+        bestThroughput = 0;
+        flatIntervalCount = 0;
+        rampUpEnded = false;
+    }
+}
@@ -0,0 +1,92 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+/**
+ * Fixed-capacity buffer of the most recent elements. Once the buffer is full, adding an element overwrites the oldest one, so the memory used stays bounded no matter how many elements are added.
+ * The elements are indexed from the oldest (0) to the most recent (size() - 1). This class is not thread-safe.
+ *
+ * @param <T> type of the elements
+ */
+public class RingBuffer<T> {
+
+    /**
+     * The elements, of which the oldest is located at {@link #head}
+     */
+    private final Object[] elements;
+    /**
+     * Index of the oldest element within {@link #elements}
+     */
+    private int head = 0;
+    /**
+     * Number of elements in the buffer
+     */
+    private int size = 0;
+
+    /**
+     *
+     * @param capacity maximum number of elements kept
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity has to be positive (was " + capacity + ")");
+        }
+        this.elements = new Object[capacity];
+    }
+
+    /**
+     * Add an element as the most recent one, overwriting the oldest element if the buffer is full
+     *
+     * @param element the element to add
+     */
+    public void add(T element) {
+        if (size < elements.length) {
+            elements[(head + size) % elements.length] = element;
+            size++;
+        } else {
+            elements[head] = element;
+            head = (head + 1) % elements.length;
+        }
+    }
+
+    /**
+     * Get an element by its index
+     *
+     * @param index index of the element, 0 being the oldest one
+     * @return the element
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " (size " + size + ")");
+        }
+        return (T) elements[(head + index) % elements.length];
+    }
+
+    /**
+     * Get the number of elements in the buffer
+     *
+     * @return number of elements, at most the capacity
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the maximum number of elements kept
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return this.elements.length;
+    }
+
+    /**
+     * Remove all elements
+     */
+    public void clear() {
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,169 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects the periods in which the traffic of the device has saturated the link, given the bytes transferred in consecutive short intervals, e.g. polled from the traffic counters of the device.
+ * The throughput of every interval is smoothed over its neighbouring intervals, since the counters advance in bursts. An interval counts as saturated if its smoothed throughput comes close to a reference capacity of the link, and only runs of saturated intervals that last long enough form a saturated period.
+ * The reference should come from outside of the observation, e.g. the throughput active measurements have recently achieved on the same type of connection, see {@link #setReferenceThroughput(double)}.
+ * Without a reference the peak of the observation itself is used. A steady flow limited by the application rather than by the link (e.g. a stream at a fixed bitrate) stays at its own peak all the time, so the throughput within the saturated periods is only a lower bound of the capacity then, see {@link #isReferenced()}.
+ */
+public class SaturationDetector {
+
+    /**
+     * Fraction of the peak throughput the smoothed throughput of an interval has to reach to count as saturated, e.g. 0.7 for 70%
+     */
+    private final double saturationFraction;
+    /**
+     * Minimum peak throughput in kbit/s, below which the traffic is considered too light to tell anything about the link
+     */
+    private final double minPeakThroughput;
+    /**
+     * Minimum duration in nanoseconds of a run of saturated intervals to form a saturated period
+     */
+    private final long minPeriodNanos;
+    /**
+     * Number of neighbouring intervals on each side the throughput of an interval is smoothed over
+     */
+    private final int smoothingRadius;
+    /**
+     * The intervals added so far, each as {start time in nanoseconds, end time in nanoseconds, bytes}
+     */
+    private final List<long[]> intervals = new ArrayList<long[]>();
+    /**
+     * Capacity of the link in kbit/s known from outside of the observation, 0 if there is none
+     */
+    private double referenceThroughput = 0;
+    /**
+     * Peak of the smoothed throughput in kbit/s found by the last detection
+     */
+    private double peakThroughput = 0;
+
+    /**
+     *
+     * @param saturationFraction fraction of the peak throughput the smoothed throughput of an interval has to reach to count as saturated, e.g. 0.7 for 70%
+     * @param minPeakThroughput  minimum peak throughput in kbit/s, below which no period counts as saturated
+     * @param minPeriodNanos     minimum duration in nanoseconds of a saturated period
+     * @param smoothingRadius    number of neighbouring intervals on each side the throughput of an interval is smoothed over, 0 for no smoothing
+     */
+    public SaturationDetector(double saturationFraction, double minPeakThroughput, long minPeriodNanos, int smoothingRadius) {
+        if (saturationFraction <= 0 || saturationFraction > 1) {
+            throw new IllegalArgumentException("saturationFraction has to be in the range of (0, 1] (was " + saturationFraction + ")");
+        }
+        if (smoothingRadius < 0) {
+            throw new IllegalArgumentException("smoothingRadius must not be negative (was " + smoothingRadius + ")");
+        }
+        this.saturationFraction = saturationFraction;
+        this.minPeakThroughput = minPeakThroughput;
+        this.minPeriodNanos = minPeriodNanos;
+        this.smoothingRadius = smoothingRadius;
+    }
+
+    /**
+     * Add the next interval of the observation
+     *
+     * @param startNanoTime time in nanoseconds when the interval has started
+     * @param endNanoTime   time in nanoseconds when the interval has ended
+     * @param bytes         bytes transferred within the interval
+     */
+    public void addInterval(long startNanoTime, long endNanoTime, long bytes) {
+        if (endNanoTime <= startNanoTime) {
+            return;
+        }
+        intervals.add(new long[]{startNanoTime, endNanoTime, Math.max(0, bytes)});
+    }
+
+    /**
+     * Set the capacity of the link known from outside of the observation, which the smoothed throughput of an interval has to come close to for the interval to count as saturated
+     *
+     * @param referenceThroughput reference capacity in kbit/s, 0 to fall back to the peak of the observation
+     */
+    public void setReferenceThroughput(double referenceThroughput) {
+        if (referenceThroughput < 0) {
+            throw new IllegalArgumentException("referenceThroughput must not be negative (was " + referenceThroughput + ")");
+        }
+        this.referenceThroughput = referenceThroughput;
+    }
+
+    /**
+     * Get whether the saturation is detected relative to a reference capacity rather than relative to the peak of the observation itself
+     *
+     * @return whether a reference capacity has been set
+     */
+    public boolean isReferenced() {
+        return this.referenceThroughput > 0;
+    }
+
+    /**
+     * Get the number of intervals added so far
+     *
+     * @return number of intervals
+     */
+    public int getIntervalCount() {
+        return intervals.size();
+    }
+
+    /**
+     * Get an interval added before
+     *
+     * @param index index of the interval
+     * @return the interval as {start time in nanoseconds, end time in nanoseconds, bytes}
+     */
+    public long[] getInterval(int index) {
+        return intervals.get(index);
+    }
+
+    /**
+     * Find the intervals that belong to a saturated period
+     *
+     * @return for every interval whether it belongs to a saturated period
+     */
+    public boolean[] findSaturatedIntervals() {
+        int count = intervals.size();
+        double[] smoothedThroughputs = new double[count];
+        peakThroughput = 0;
+        for (int i = 0; i < count; i++) {
+            int first = Math.max(0, i - smoothingRadius);
+            int last = Math.min(count - 1, i + smoothingRadius);
+            long bytes = 0;
+            long nanos = 0;
+            for (int j = first; j <= last; j++) {
+                long[] interval = intervals.get(j);
+                nanos += interval[1] - interval[0];
+                bytes += interval[2];
+            }
+            smoothedThroughputs[i] = ThroughputTimeline.calcThroughput(0, nanos, bytes);
+            peakThroughput = Math.max(peakThroughput, smoothedThroughputs[i]);
+        }
+
+        boolean[] saturated = new boolean[count];
+        if (peakThroughput < minPeakThroughput || peakThroughput <= 0) {
+            return saturated;
+        }
+        double threshold = (isReferenced() ? referenceThroughput : peakThroughput) * saturationFraction;
+        int runStart = 0;
+        for (int i = 0; i <= count; i++) {
+            if (i < count && smoothedThroughputs[i] >= threshold) {
+                continue;
+            }
+            // The run of intervals above the threshold has ended, keep it if it has lasted long enough
+            if (i > runStart && intervals.get(i - 1)[1] - intervals.get(runStart)[0] >= minPeriodNanos) {
+                for (int j = runStart; j < i; j++) {
+                    saturated[j] = true;
+                }
+            }
+            runStart = i + 1;
+        }
+        return saturated;
+    }
+
+    /**
+     * Get the peak of the smoothed throughput found by the last call of {@link #findSaturatedIntervals()}
+     *
+     * @return peak throughput in kbit/s
+     */
+    public double getPeakThroughput() {
+        return this.peakThroughput;
+    }
+}
@@ -0,0 +1,243 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming quantile sketch of throughput values in kbit/s. The values are counted in a fixed number of logarithmic buckets, so that every quantile is answered with a relative error of at most {@link #RELATIVE_ACCURACY}, independent of the number of values added.
+ * Since the bucket layout is the same for all sketches, sketches are merged by simply adding up their bucket counts - e.g. the sketches of several days to answer a query about a whole week.
+ * Quantile queries walk the fixed number of buckets once and thus take constant time. A sketch is serialized compactly by only writing the non-empty buckets with variable-length integers, see {@link #toByteArray()}.
+ */
+public class ThroughputSketch {
+
+    /**
+     * Maximum relative error of the quantiles answered by the sketch
+     */
+    public static final double RELATIVE_ACCURACY = 0.01;
+    /**
+     * Smallest throughput in kbit/s that is resolved. All smaller values (including 0) are counted in the first bucket.
+     */
+    public static final double MIN_TRACKED_VALUE = 1;
+    /**
+     * Largest throughput in kbit/s that is resolved. All larger values are counted in the last bucket.
+     */
+    public static final double MAX_TRACKED_VALUE = 100 * 1000 * 1000;
+
+    /**
+     * Ratio between the upper bounds of two neighbouring buckets
+     */
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    /**
+     * Logarithm of {@link #GAMMA}, to compute the bucket of a value
+     */
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    /**
+     * Number of buckets of every sketch
+     */
+    private static final int BUCKET_COUNT = (int) Math.ceil(Math.log(MAX_TRACKED_VALUE / MIN_TRACKED_VALUE) / LOG_GAMMA) + 1;
+    /**
+     * Version of the serialized format written by {@link #toByteArray()}
+     */
+    private static final int SERIALIZATION_VERSION = 1;
+
+    /**
+     * Number of values counted in each bucket. Bucket i &gt; 0 holds the values in (MIN_TRACKED_VALUE * GAMMA^(i-1), MIN_TRACKED_VALUE * GAMMA^i].
+     */
+    private final long[] counts = new long[BUCKET_COUNT];
+    /**
+     * Number of values added in total
+     */
+    private long totalCount = 0;
+    /**
+     * Smallest value added, only valid if {@link #totalCount} &gt; 0
+     */
+    private double minValue = Double.MAX_VALUE;
+    /**
+     * Largest value added, only valid if {@link #totalCount} &gt; 0
+     */
+    private double maxValue = -Double.MAX_VALUE;
+
+    /**
+     * Add a throughput value
+     *
+     * @param value throughput in kbit/s
+     */
+    public void add(double value) {
+        if (value < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("value has to be a finite non-negative number (was " + value + ")");
+        }
+        counts[getBucketIndex(value)]++;
+        totalCount++;
+        minValue = Math.min(minValue, value);
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Add all the values of another sketch to this sketch
+     *
+     * @param other sketch to be merged into this sketch
+     */
+    public void merge(ThroughputSketch other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Get the value at the given quantile, e.g. 0.5 for the median or 0.95 for P95
+     *
+     * @param quantile quantile in the range of 0 to 1
+     * @return throughput in kbit/s at the quantile, within the relative accuracy of the sketch - 0 if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile has to be in the range of 0 to 1 (was " + quantile + ")");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        double rank = quantile * (totalCount - 1);
+        long cumulativeCount = 0;
+        int index = 0;
+        for (; index < BUCKET_COUNT; index++) {
+            cumulativeCount += counts[index];
+            if (cumulativeCount > rank) {
+                break;
+            }
+        }
+        // The exact extremes are known, so don't report a bucket value beyond them
+        return Math.max(minValue, Math.min(maxValue, getBucketValue(index)));
+    }
+
+    /**
+     * Get the number of values added
+     *
+     * @return number of values added
+     */
+    public long getCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * Get the smallest value added
+     *
+     * @return smallest throughput in kbit/s, 0 if the sketch is empty
+     */
+    public double getMin() {
+        return totalCount > 0 ? minValue : 0;
+    }
+
+    /**
+     * Get the largest value added
+     *
+     * @return largest throughput in kbit/s, 0 if the sketch is empty
+     */
+    public double getMax() {
+        return totalCount > 0 ? maxValue : 0;
+    }
+
+    /**
+     * Serialize the sketch compactly: only the non-empty buckets are written, each as the distance to the previous non-empty bucket and its count, both as variable-length integers
+     *
+     * @return the serialized sketch
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(SERIALIZATION_VERSION);
+            VarLongs.write(out, totalCount);
+            if (totalCount > 0) {
+                out.writeDouble(minValue);
+                out.writeDouble(maxValue);
+                int previousIndex = -1;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    if (counts[i] > 0) {
+                        VarLongs.write(out, i - previousIndex);
+                        VarLongs.write(out, counts[i]);
+                        previousIndex = i;
+                    }
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restore a sketch serialized by {@link #toByteArray()}
+     *
+     * @param serialized the serialized sketch
+     * @return the restored sketch
+     * @throws IOException if the data is not a valid serialized sketch
+     */
+    public static ThroughputSketch fromByteArray(byte[] serialized) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized));
+        int version = in.readUnsignedByte();
+        if (version != SERIALIZATION_VERSION) {
+            throw new IOException("unsupported sketch version " + version);
+        }
+        ThroughputSketch sketch = new ThroughputSketch();
+        long totalCount = VarLongs.read(in);
+        if (totalCount == 0) {
+            return sketch;
+        }
+        sketch.minValue = in.readDouble();
+        sketch.maxValue = in.readDouble();
+        long restoredCount = 0;
+        int index = -1;
+        while (restoredCount < totalCount) {
+            index += (int) VarLongs.read(in);
+            if (index < 0 || index >= BUCKET_COUNT) {
+                throw new IOException("bucket index " + index + " out of range");
+            }
+            long count = VarLongs.read(in);
+            sketch.counts[index] = count;
+            restoredCount += count;
+        }
+        if (restoredCount != totalCount) {
+            throw new IOException("bucket counts don't add up to the total count");
+        }
+        sketch.totalCount = totalCount;
+        return sketch;
+    }
+
+    /**
+     * Get the index of the bucket a value is counted in
+     *
+     * @param value throughput in kbit/s
+     * @return index of the bucket
+     */
+    private static int getBucketIndex(double value) {
+        if (value <= MIN_TRACKED_VALUE) {
+            return 0;
+        }
+        int index = (int) Math.ceil(Math.log(value / MIN_TRACKED_VALUE) / LOG_GAMMA);
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Get the value representing all values of a bucket, which is within the relative accuracy of all of them
+     *
+     * @param index index of the bucket
+     * @return representative throughput in kbit/s
+     */
+    private static double getBucketValue(int index) {
+        if (index == 0) {
+            return MIN_TRACKED_VALUE;
+        }
+        return MIN_TRACKED_VALUE * 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+}
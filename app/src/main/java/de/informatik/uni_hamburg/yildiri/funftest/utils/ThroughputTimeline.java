@@ -0,0 +1,311 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+/**
+ * Compact timeline of throughput samples of a single measurement. Each sample is a pair of a {@link System#nanoTime()} timestamp and the cumulative number of bytes transferred up to that point.
+ * The samples are kept in a ring buffer of primitive arrays, which is allocated once up front, so adding a sample never allocates. If more samples are added than fit in, the oldest ones are overwritten.
+ * So that the minimum and maximum throughput cover the whole transfer nonetheless, they are tracked incrementally for one window length as the samples are added, see {@link #DEFAULT_TRACKED_WINDOW_NANOS}. Other window lengths are only evaluated over the samples still held.
+ * Since the timestamps are monotonic, the throughput figures are not affected by changes of the wall clock.
+ * All throughput figures are returned in kbit/s, just like the other bandwidth measures.
+ */
+public class ThroughputTimeline {
+
+    /**
+     * Default number of samples the timeline can hold
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Default window length in nanoseconds the minimum and maximum throughput are tracked for while samples are added
+     */
+    public static final long DEFAULT_TRACKED_WINDOW_NANOS = 500L * 1000 * 1000;
+
+    /**
+     * Timestamps of the samples in nanoseconds
+     */
+    private final long[] nanoTimes;
+    /**
+     * Cumulative bytes transferred at the time of the samples
+     */
+    private final long[] cumulativeBytes;
+    /**
+     * Index in the arrays where the next sample is going to be written to
+     */
+    private int head = 0;
+    /**
+     * Number of samples currently held
+     */
+    private int count = 0;
+    /**
+     * Number of samples added since the timeline has been cleared, including the overwritten ones
+     */
+    private long addedCount = 0;
+    /**
+     * Window length in nanoseconds the minimum and maximum throughput are tracked for, 0 if they aren't tracked
+     */
+    private final long trackedWindowNanos;
+    /**
+     * Sequence number of the first sample of the tracked window ending at the latest sample, counted like {@link #addedCount}
+     */
+    private long trackedWindowStart = 0;
+    /**
+     * Minimum throughput in kbit/s over all tracked windows so far, positive infinity if there hasn't been a complete window yet
+     */
+    private double trackedMinThroughput = Double.POSITIVE_INFINITY;
+    /**
+     * Maximum throughput in kbit/s over all tracked windows so far, negative infinity if there hasn't been a complete window yet
+     */
+    private double trackedMaxThroughput = Double.NEGATIVE_INFINITY;
+
+    public ThroughputTimeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     *
+     * @param capacity number of samples the timeline can hold
+     */
+    public ThroughputTimeline(int capacity) {
+        this(capacity, DEFAULT_TRACKED_WINDOW_NANOS);
+    }
+
+    /**
+     *
+     * @param capacity           number of samples the timeline can hold
+     * @param trackedWindowNanos window length in nanoseconds the minimum and maximum throughput are tracked for over all samples added, 0 to not track them
+     */
+    public ThroughputTimeline(int capacity, long trackedWindowNanos) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity has to be at least 2 (was " + capacity + ")");
+        }
+        if (trackedWindowNanos < 0) {
+            throw new IllegalArgumentException("trackedWindowNanos must not be negative (was " + trackedWindowNanos + ")");
+        }
+        nanoTimes = new long[capacity];
+        cumulativeBytes = new long[capacity];
+        this.trackedWindowNanos = trackedWindowNanos;
+    }
+
+    /**
+     * Add a sample to the timeline
+     *
+     * @param nanoTime        timestamp of the sample, as returned by {@link System#nanoTime()}
+     * @param cumulativeBytes bytes transferred in total up to this point
+     */
+    public void addSample(long nanoTime, long cumulativeBytes) {
+        nanoTimes[head] = nanoTime;
+        this.cumulativeBytes[head] = cumulativeBytes;
+        head = (head + 1) % nanoTimes.length;
+        if (count < nanoTimes.length) {
+            count++;
+        }
+        addedCount++;
+        if (trackedWindowNanos > 0) {
+            trackWindow(nanoTime);
+        }
+    }
+
+    /**
+     * Update the tracked minimum and maximum with the window ending at the sample just added. The window start is moved along like in {@link #findExtremeThroughput(long, boolean)}, so both give the same figures as long as no sample has been overwritten.
+     *
+     * @param nanoTime timestamp of the sample just added
+     */
+    private void trackWindow(long nanoTime) {
+        long oldest = addedCount - count;
+        long last = addedCount - 1;
+        if (trackedWindowStart < oldest) {
+            // The start has been overwritten, which only lengthens the window
+            trackedWindowStart = oldest;
+        }
+        while (trackedWindowStart + 1 < last && nanoTime - getNanoTime((int) (trackedWindowStart + 1 - oldest)) >= trackedWindowNanos) {
+            trackedWindowStart++;
+        }
+        int first = (int) (trackedWindowStart - oldest);
+        if (trackedWindowStart >= last || nanoTime - getNanoTime(first) < trackedWindowNanos) {
+            return;
+        }
+        double throughput = calcThroughput(first, count - 1);
+        trackedMinThroughput = Math.min(trackedMinThroughput, throughput);
+        trackedMaxThroughput = Math.max(trackedMaxThroughput, throughput);
+    }
+
+    /**
+     * Get the number of samples currently held
+     *
+     * @return number of samples currently held
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the number of samples the timeline can hold
+     *
+     * @return number of samples the timeline can hold
+     */
+    public int capacity() {
+        return nanoTimes.length;
+    }
+
+    /**
+     * Get the timestamp of a sample
+     *
+     * @param index index of the sample, 0 being the oldest sample held
+     * @return timestamp of the sample in nanoseconds
+     */
+    public long getNanoTime(int index) {
+        return nanoTimes[toArrayIndex(index)];
+    }
+
+    /**
+     * Get the cumulative bytes of a sample
+     *
+     * @param index index of the sample, 0 being the oldest sample held
+     * @return bytes transferred in total up to this sample
+     */
+    public long getCumulativeBytes(int index) {
+        return cumulativeBytes[toArrayIndex(index)];
+    }
+
+    /**
+     * Get the throughput between the last two samples
+     *
+     * @return instantaneous throughput in kbit/s, 0 if there are less than two samples
+     */
+    public double getInstantaneousThroughput() {
+        if (count < 2) {
+            return 0;
+        }
+        return calcThroughput(count - 2, count - 1);
+    }
+
+    /**
+     * Get the throughput over the most recent window of the timeline
+     *
+     * @param windowNanos length of the window in nanoseconds
+     * @return throughput over the window in kbit/s, or over all samples if the timeline is shorter than the window. 0 if there are less than two samples
+     */
+    public double getWindowedThroughput(long windowNanos) {
+        if (count < 2) {
+            return 0;
+        }
+        int last = count - 1;
+        long windowStart = getNanoTime(last) - windowNanos;
+        int first = last - 1;
+        while (first > 0 && getNanoTime(first) > windowStart) {
+            first--;
+        }
+        return calcThroughput(first, last);
+    }
+
+    /**
+     * Get the minimum throughput over all windows of at least the given length. For the tracked window length it covers all samples added, otherwise only the samples still held.
+     *
+     * @param windowNanos minimum length of the windows in nanoseconds
+     * @return minimum windowed throughput in kbit/s, 0 if the timeline is shorter than the window
+     */
+    public double getMinThroughput(long windowNanos) {
+        if (windowNanos == trackedWindowNanos && trackedWindowNanos > 0) {
+            return Double.isInfinite(trackedMinThroughput) ? 0 : trackedMinThroughput;
+        }
+        return findExtremeThroughput(windowNanos, false);
+    }
+
+    /**
+     * Get the maximum throughput over all windows of at least the given length. For the tracked window length it covers all samples added, otherwise only the samples still held.
+     *
+     * @param windowNanos minimum length of the windows in nanoseconds
+     * @return maximum windowed throughput in kbit/s, 0 if the timeline is shorter than the window
+     */
+    public double getMaxThroughput(long windowNanos) {
+        if (windowNanos == trackedWindowNanos && trackedWindowNanos > 0) {
+            return Double.isInfinite(trackedMaxThroughput) ? 0 : trackedMaxThroughput;
+        }
+        return findExtremeThroughput(windowNanos, true);
+    }
+
+    /**
+     * Get the window length the minimum and maximum throughput are tracked for over all samples added
+     *
+     * @return window length in nanoseconds, 0 if they aren't tracked
+     */
+    public long getTrackedWindowNanos() {
+        return this.trackedWindowNanos;
+    }
+
+    /**
+     * Remove all samples and reset the tracked minimum and maximum
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+        addedCount = 0;
+        trackedWindowStart = 0;
+        trackedMinThroughput = Double.POSITIVE_INFINITY;
+        trackedMaxThroughput = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Slide a window over the samples and find the minimum or maximum throughput
+     *
+     * @param windowNanos minimum length of the windows in nanoseconds
+     * @param max         whether to find the maximum instead of the minimum
+     * @return the extreme windowed throughput in kbit/s, 0 if the timeline is shorter than the window
+     */
+    private double findExtremeThroughput(long windowNanos, boolean max) {
+        double extreme = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int first = 0;
+        for (int last = 1; last < count; last++) {
+            // Move the window start as far ahead as possible while the window still spans at least windowNanos
+            while (first + 1 < last && getNanoTime(last) - getNanoTime(first + 1) >= windowNanos) {
+                first++;
+            }
+            if (getNanoTime(last) - getNanoTime(first) < windowNanos) {
+                continue;
+            }
+            double throughput = calcThroughput(first, last);
+            extreme = max ? Math.max(extreme, throughput) : Math.min(extreme, throughput);
+        }
+        return Double.isInfinite(extreme) ? 0 : extreme;
+    }
+
+    /**
+     * Calculate the throughput between two samples
+     *
+     * @param from index of the earlier sample
+     * @param to   index of the later sample
+     * @return throughput in kbit/s
+     */
+    private double calcThroughput(int from, int to) {
+        return calcThroughput(getNanoTime(from), getNanoTime(to), getCumulativeBytes(to) - getCumulativeBytes(from));
+    }
+
+    /**
+     * Utility method to calculate the throughput from nanosecond timestamps
+     *
+     * @param startNanoTime time in nanoseconds when the transfer was started
+     * @param endNanoTime   time in nanoseconds when the transfer completed
+     * @param bytes         bytes transferred in between
+     * @return the throughput in kbit/s, 0 if no time has passed
+     */
+    public static double calcThroughput(long startNanoTime, long endNanoTime, long bytes) {
+        long diffNanos = endNanoTime - startNanoTime;
+        if (diffNanos <= 0) {
+            return 0;
+        }
+        // bytes * 8 bit / 1000 per kbit, divided by diffNanos / 10^9 seconds
+        return (bytes * 8.0 * 1000000.0) / diffNanos;
+    }
+
+    /**
+     * Map the logical index of a sample to its position in the ring buffer
+     *
+     * @param index index of the sample, 0 being the oldest sample held
+     * @return position of the sample in the arrays
+     */
+    private int toArrayIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + " is out of range (size " + count + ")");
+        }
+        int oldest = (head - count + nanoTimes.length) % nanoTimes.length;
+        return (oldest + index) % nanoTimes.length;
+    }
+}
@@ -0,0 +1,49 @@
+package de.informatik.uni_hamburg.yildiri.funftest.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encoding of longs as variable-length integers of 7 bits per byte, the high bit of every byte telling whether another byte follows. Small values take a single byte.
+ * Shared by the serialization of the {@link ThroughputSketch} and the columnar archive format.
+ */
+public final class VarLongs {
+
+    private VarLongs() {
+    }
+
+    /**
+     * Write a long as variable-length integer
+     *
+     * @param out   stream to write to
+     * @param value the value, treated as unsigned
+     * @throws IOException if writing fails
+     */
+    public static void write(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a variable-length integer written by {@link #write(DataOutputStream, long)}
+     *
+     * @param in stream to read from
+     * @return the value
+     * @throws IOException if reading fails or the integer is malformed
+     */
+    public static long read(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable-length integer");
+    }
+}